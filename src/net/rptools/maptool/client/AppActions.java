@@ -1757,6 +1757,7 @@ public class AppActions {
 					policy.setUseIndividualFOW(useIF);
 
 					ServerConfig config = new ServerConfig(serverProps.getUsername(), serverProps.getGMPassword(), serverProps.getPlayerPassword(), serverProps.getPort(), serverProps.getRPToolsName());
+					config.setBandwidthLimit(serverProps.getBandwidthLimit());
 
 					// Use the existing campaign
 					Campaign campaign = MapTool.getCampaign();
@@ -2250,7 +2251,7 @@ public class AppActions {
 
 						if (map != null) {
 							AppPreferences.setLoadDir(mapFile.getParentFile());
-							if ((map.zone.getExposedArea() != null && !map.zone.getExposedArea().isEmpty()) ||
+							if (map.zone.hasExposedArea() ||
 									(map.zone.getExposedAreaMetaData() != null && !map.zone.getExposedAreaMetaData().isEmpty())) {
 								boolean ok = MapTool.confirm("<html>Map contains exposed areas of fog.<br>Do you want to reset all of the fog?");
 								if (ok == true) {
@@ -88,6 +88,10 @@ public class AppPreferences {
 	private static final String KEY_NEW_MAPS_HAVE_FOW = "newMapsHaveFow";
 	private static final boolean DEFAULT_NEW_MAPS_HAVE_FOW = false;
 
+	// Cell size of the raster fog of new maps in map pixels, 0 for the usual Areas
+	private static final String KEY_NEW_MAPS_FOG_CELL_SIZE = "newMapsFogCellSize";
+	private static final int DEFAULT_NEW_MAPS_FOG_CELL_SIZE = 0;
+
 	private static final String KEY_NEW_TOKENS_VISIBLE = "newTokensVisible";
 	private static final boolean DEFAULT_NEW_TOKENS_VISIBLE = true;
 
@@ -601,6 +605,14 @@ public class AppPreferences {
 		return prefs.getBoolean(KEY_NEW_MAPS_HAVE_FOW, DEFAULT_NEW_MAPS_HAVE_FOW);
 	}
 
+	public static void setNewMapsFogCellSize(int size) {
+		prefs.putInt(KEY_NEW_MAPS_FOG_CELL_SIZE, size);
+	}
+
+	public static int getNewMapsFogCellSize() {
+		return prefs.getInt(KEY_NEW_MAPS_FOG_CELL_SIZE, DEFAULT_NEW_MAPS_FOG_CELL_SIZE);
+	}
+
 	public static void setNewTokensVisible(boolean flag) {
 		prefs.putBoolean(KEY_NEW_TOKENS_VISIBLE, flag);
 	}
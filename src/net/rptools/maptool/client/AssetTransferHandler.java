@@ -13,13 +13,9 @@
  */
 package net.rptools.maptool.client;
 
-import java.io.File;
-import java.io.IOException;
 import java.io.Serializable;
 
-import org.apache.commons.io.FileUtils;
-
-import net.rptools.lib.FileUtil;
+import net.rptools.lib.MD5Key;
 import net.rptools.maptool.model.Asset;
 import net.rptools.maptool.model.AssetManager;
 import net.rptools.maptool.transfer.ConsumerListener;
@@ -30,17 +26,14 @@ import net.rptools.maptool.transfer.ConsumerListener;
  */
 public class AssetTransferHandler implements ConsumerListener {
 
-	public void assetComplete(Serializable id, String name, File data) {
+	public void assetComplete(Serializable id, String name, byte[] data, String checksum) {
 
-		byte[] assetData = null;
-		try {
-			assetData = FileUtils.readFileToByteArray(data);
-		} catch (IOException ioe) {
-			MapTool.showError("Error loading composed asset file: " + id);
+		// The checksum was worked out as the data came in
+		if (checksum != null && !checksum.equals(id.toString())) {
+			MapTool.showError("Received an invalid image: " + id);
 			return;
 		}
-		
-		Asset asset = new Asset(name, assetData);
+		Asset asset = checksum != null ? new Asset((MD5Key) id, name, data) : new Asset(name, data);
 		if (!asset.getId().equals(id)) {
 			MapTool.showError("Received an invalid image: " + id);
 			return;
@@ -49,9 +42,6 @@ public class AssetTransferHandler implements ConsumerListener {
 		// Install it into our system
 		AssetManager.putAsset(asset);
 
-		// Remove the temp file
-		data.delete();
-		
 		MapTool.getFrame().refresh();
 	}
 
@@ -19,6 +19,7 @@ import javax.swing.Timer;
 
 import net.rptools.maptool.language.I18N;
 import net.rptools.maptool.model.Campaign;
+import net.rptools.maptool.model.CampaignSnapshot;
 import net.rptools.maptool.util.PersistenceUtil;
 
 import org.apache.log4j.Logger;
@@ -31,6 +32,7 @@ import org.apache.log4j.Logger;
 public class AutoSaveManager implements ActionListener {
 	private static final Logger log = Logger.getLogger(AutoSaveManager.class);
 	private Timer autoSaveTimer;
+	private final CampaignSnapshot campaignSnapshot = new CampaignSnapshot();
 	public static final File AUTOSAVE_FILE = new File(AppUtil.getAppHome("autosave"), "AutoSave" + AppConstants.CAMPAIGN_FILE_EXTENSION); //$NON-NLS-1$
 
 	public void start() {
@@ -95,7 +97,8 @@ public class AutoSaveManager implements ActionListener {
 		//
 		// NOTE: This is a cheesy way to clone the campaign, but it makes it so that I
 		// don't have to keep all the various models' clone methods updated on each change.
-		final Campaign campaign = new Campaign(MapTool.getCampaign());
+		// The snapshot keeps the copies from last time, so only what has changed since is copied.
+		final Campaign campaign = campaignSnapshot.copy(MapTool.getCampaign());
 		if (log.isInfoEnabled())
 			log.info("Time to copy Campaign object (ms): " + (System.currentTimeMillis() - startCopy)); //$NON-NLS-1$
 
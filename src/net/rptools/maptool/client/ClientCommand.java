@@ -26,6 +26,7 @@ public class ClientCommand {
         getAsset,
         removeAsset, 
         putToken, 
+        updateToken,
         removeToken, 
         draw,
         clearAllDrawings,
@@ -31,6 +31,7 @@ import net.rptools.maptool.model.Campaign;
 import net.rptools.maptool.model.CampaignProperties;
 import net.rptools.maptool.model.CellPoint;
 import net.rptools.maptool.model.ExposedAreaMetaData;
+import net.rptools.maptool.model.FogBitmap;
 import net.rptools.maptool.model.GUID;
 import net.rptools.maptool.model.Grid;
 import net.rptools.maptool.model.InitiativeList;
@@ -41,6 +42,7 @@ import net.rptools.maptool.model.Player;
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.VisionType;
 import net.rptools.maptool.model.ZonePoint;
@@ -81,7 +83,7 @@ public class ClientMethodHandler extends AbstractMethodHandler {
 
 		case startAssetTransfer:
 			AssetHeader header = (AssetHeader) parameters[0];
-			MapTool.getAssetTransferManager().addConsumer(new AssetConsumer(AppUtil.getTmpDir(), header));
+			MapTool.getAssetTransferManager().addConsumer(new AssetConsumer(header));
 			return;
 
 		case updateAssetTransfer:
@@ -146,7 +148,7 @@ public class ClientMethodHandler extends AbstractMethodHandler {
 
 				case exposeFoW:
 					zoneGUID = (GUID) parameters[0];
-					Area area = (Area) parameters[1];
+					Area area = FogBitmap.fromTransfer(parameters[1]);
 
 					if (parameters.length > 2) {
 						if (parameters[2] != null) {
@@ -174,7 +176,7 @@ public class ClientMethodHandler extends AbstractMethodHandler {
 
 				case hideFoW:
 					zoneGUID = (GUID) parameters[0];
-					area = (Area) parameters[1];
+					area = FogBitmap.fromTransfer(parameters[1]);
 
 					if (parameters.length > 2) {
 						if (parameters[2] != null) {
@@ -218,9 +220,24 @@ public class ClientMethodHandler extends AbstractMethodHandler {
 					zone = MapTool.getCampaign().getZone(zoneGUID);
 					Token token = (Token) parameters[1];
 					zone.putToken(token);
+					// Changes to it from here on can be sent as deltas
+					TokenDelta.snapshot(zoneGUID, token);
 					MapTool.getFrame().refresh();
 					return;
 
+				case updateToken:
+					zoneGUID = (GUID) parameters[0];
+					zone = MapTool.getCampaign().getZone(zoneGUID);
+					TokenDelta delta = (TokenDelta) parameters[1];
+					token = zone.getToken(delta.getTokenId());
+					// When the versions don't match the server sends the whole token once it has sorted them out
+					if (token != null && token.getVersion() == delta.getBaseVersion()) {
+						delta.applyTo(token);
+						zone.putToken(token);
+						MapTool.getFrame().refresh();
+					}
+					return;
+
 				case putLabel:
 					zoneGUID = (GUID) parameters[0];
 					zone = MapTool.getCampaign().getZone(zoneGUID);
@@ -354,6 +371,10 @@ public class ClientMethodHandler extends AbstractMethodHandler {
 					Set<GUID> selectedSet = (Set<GUID>) parameters[3];
 
 					renderer = MapTool.getFrame().getZoneRenderer(zoneGUID);
+					if (renderer == null) {
+						// Moves can get ahead of the zone they are on
+						return;
+					}
 					renderer.addMoveSelectionSet(playerId, keyToken, selectedSet, true);
 					return;
 
@@ -362,6 +383,9 @@ public class ClientMethodHandler extends AbstractMethodHandler {
 					keyToken = (GUID) parameters[1];
 
 					renderer = MapTool.getFrame().getZoneRenderer(zoneGUID);
+					if (renderer == null) {
+						return;
+					}
 					renderer.removeMoveSelectionSet(keyToken);
 					return;
 
@@ -373,6 +397,9 @@ public class ClientMethodHandler extends AbstractMethodHandler {
 					y = ((Integer) parameters[3]).intValue();
 
 					renderer = MapTool.getFrame().getZoneRenderer(zoneGUID);
+					if (renderer == null) {
+						return;
+					}
 					renderer.updateMoveSelectionSet(keyToken, new ZonePoint(x, y));
 					return;
 
@@ -413,6 +440,9 @@ public class ClientMethodHandler extends AbstractMethodHandler {
 					ZonePoint zp = (ZonePoint) parameters[2];
 
 					renderer = MapTool.getFrame().getZoneRenderer(zoneGUID);
+					if (renderer == null) {
+						return;
+					}
 					renderer.toggleMoveSelectionSetWaypoint(keyToken, zp);
 					return;
 
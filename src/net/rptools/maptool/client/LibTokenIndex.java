@@ -0,0 +1,196 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.rptools.maptool.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.MacroButtonProperties;
+import net.rptools.maptool.model.ModelChangeEvent;
+import net.rptools.maptool.model.ModelChangeListener;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+
+/**
+ * Keeps track of the <code>lib:</code> tokens on all of the maps, by lower case name, along with their macros by
+ * label. Macros call into library tokens all the time, so this saves going through every token of every map for each
+ * call.
+ * <p>
+ * The index follows the tokens of each zone it has been given through the zone's model change events. Everything that
+ * changes a token goes through {@link Zone#putToken(Token)} at some point, which is also what lets the other clients
+ * know about the change.
+ */
+public class LibTokenIndex implements ModelChangeListener {
+	private static final String LIB_PREFIX = "lib:";
+
+	/** The library tokens of each zone by token id; tokens can keep their id when copied to another map */
+	private final Map<Zone, Map<GUID, LibToken>> zoneMap = new IdentityHashMap<Zone, Map<GUID, LibToken>>();
+	private final Map<String, List<LibToken>> libTokenMap = new HashMap<String, List<LibToken>>();
+
+	/**
+	 * A library token and the zone it is on.
+	 */
+	public static class LibToken {
+		private final Token token;
+		private final Zone zone;
+		private final String name;
+		private Map<String, MacroButtonProperties> macroMap;
+
+		private LibToken(Token token, Zone zone) {
+			this.token = token;
+			this.zone = zone;
+			this.name = token.getName().toLowerCase();
+		}
+
+		public Token getToken() {
+			return token;
+		}
+
+		public Zone getZone() {
+			return zone;
+		}
+	}
+
+	/**
+	 * Starts indexing the tokens of <code>zone</code>. Adding a zone that is already indexed indexes it again.
+	 */
+	public synchronized void addZone(Zone zone) {
+		if (!zoneMap.containsKey(zone)) {
+			zoneMap.put(zone, new HashMap<GUID, LibToken>());
+			zone.addModelChangeListener(this);
+		}
+		for (Token token : zone.getAllTokens()) {
+			put(token, zone);
+		}
+	}
+
+	public synchronized void removeZone(Zone zone) {
+		Map<GUID, LibToken> tokenIdMap = zoneMap.get(zone);
+		if (tokenIdMap == null) {
+			return;
+		}
+		zone.removeModelChangeListener(this);
+		for (LibToken libToken : new ArrayList<LibToken>(tokenIdMap.values())) {
+			remove(libToken.token.getId(), zone);
+		}
+		zoneMap.remove(zone);
+	}
+
+	public synchronized void clear() {
+		for (Zone zone : zoneMap.keySet()) {
+			zone.removeModelChangeListener(this);
+		}
+		zoneMap.clear();
+		libTokenMap.clear();
+	}
+
+	/**
+	 * @param name
+	 *            the name of the token, in any case
+	 * @return the library tokens by that name on all maps
+	 */
+	public synchronized List<LibToken> getLibTokens(String name) {
+		List<LibToken> list = libTokenMap.get(name.toLowerCase());
+		if (list == null) {
+			return Collections.emptyList();
+		}
+		return new ArrayList<LibToken>(list);
+	}
+
+	/**
+	 * Same as {@link Token#getMacro(String, boolean)} for a library token, without going through all of its macros.
+	 *
+	 * @return the first macro with the label, or <code>null</code> if there is none
+	 */
+	public synchronized MacroButtonProperties getMacro(LibToken libToken, String label, boolean secure) {
+		if (libToken.macroMap == null) {
+			libToken.macroMap = new HashMap<String, MacroButtonProperties>();
+			for (Object value : libToken.token.getMacroPropertiesMap(false).values()) {
+				MacroButtonProperties prop = (MacroButtonProperties) value;
+				if (!libToken.macroMap.containsKey(prop.getLabel())) {
+					libToken.macroMap.put(prop.getLabel(), prop);
+				}
+			}
+		}
+		if (secure && !AppUtil.playerOwns(libToken.token)) {
+			return null;
+		}
+		return libToken.macroMap.get(label);
+	}
+
+	public synchronized void modelChanged(ModelChangeEvent event) {
+		Object evt = event.getEvent();
+		if (!(event.getModel() instanceof Zone)) {
+			return;
+		}
+		Zone zone = (Zone) event.getModel();
+		if (!zoneMap.containsKey(zone)) {
+			return;
+		}
+		if (evt == Zone.Event.TOKEN_ADDED || evt == Zone.Event.TOKEN_CHANGED) {
+			for (Token token : getTokens(event.getArg())) {
+				put(token, zone);
+			}
+		} else if (evt == Zone.Event.TOKEN_REMOVED) {
+			for (Token token : getTokens(event.getArg())) {
+				remove(token.getId(), zone);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Token> getTokens(Object arg) {
+		if (arg instanceof Token) {
+			return Collections.singletonList((Token) arg);
+		} else if (arg instanceof List<?>) {
+			return (List<Token>) arg;
+		}
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Indexes the token again, since its name or macros may have changed.
+	 */
+	private void put(Token token, Zone zone) {
+		remove(token.getId(), zone);
+
+		String name = token.getName();
+		if (name == null || !name.toLowerCase().startsWith(LIB_PREFIX)) {
+			return;
+		}
+		LibToken libToken = new LibToken(token, zone);
+		List<LibToken> list = libTokenMap.get(libToken.name);
+		if (list == null) {
+			list = new ArrayList<LibToken>(1);
+			libTokenMap.put(libToken.name, list);
+		}
+		list.add(libToken);
+		zoneMap.get(zone).put(token.getId(), libToken);
+	}
+
+	private void remove(GUID tokenId, Zone zone) {
+		Map<GUID, LibToken> tokenIdMap = zoneMap.get(zone);
+		LibToken libToken = tokenIdMap == null ? null : tokenIdMap.remove(tokenId);
+		if (libToken == null) {
+			return;
+		}
+		List<LibToken> list = libTokenMap.get(libToken.name);
+		list.remove(libToken);
+		if (list.isEmpty()) {
+			libTokenMap.remove(libToken.name);
+		}
+	}
+}
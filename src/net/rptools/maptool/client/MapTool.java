@@ -55,6 +55,7 @@ import net.rptools.clientserver.hessian.client.ClientConnection;
 import net.rptools.lib.BackupManager;
 import net.rptools.lib.EventDispatcher;
 import net.rptools.lib.FileUtil;
+import net.rptools.lib.MD5Key;
 import net.rptools.lib.TaskBarFlasher;
 import net.rptools.lib.image.ImageUtil;
 import net.rptools.lib.image.ThumbnailManager;
@@ -86,6 +87,7 @@ import net.rptools.maptool.server.MapToolServer;
 import net.rptools.maptool.server.ServerCommand;
 import net.rptools.maptool.server.ServerConfig;
 import net.rptools.maptool.server.ServerPolicy;
+import net.rptools.maptool.transfer.AssetConsumer;
 import net.rptools.maptool.transfer.AssetTransferManager;
 import net.rptools.maptool.util.UPnPUtil;
 import net.tsc.servicediscovery.ServiceAnnouncer;
@@ -966,6 +968,11 @@ public class MapTool {
 		// LATER: I really, really, really don't like this startup pattern
 		if (clientConn.isAlive()) {
 			conn = clientConn;
+
+			// Anything that was still coming in when the last connection dropped picks up where it was
+			for (AssetConsumer consumer : assetTransferManager.getAssetConsumers()) {
+				serverCommand().getAsset((MD5Key) consumer.getId());
+			}
 		}
 		clientFrame.getLookupTablePanel().updateView();
 		clientFrame.getInitiativePanel().updateView();
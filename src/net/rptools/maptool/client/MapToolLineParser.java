@@ -13,8 +13,11 @@ package net.rptools.maptool.client;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 import java.util.regex.Matcher;
@@ -78,12 +81,12 @@ import net.rptools.maptool.client.functions.getInfoFunction;
 import net.rptools.maptool.client.functions.isVisibleFunction;
 import net.rptools.maptool.client.ui.htmlframe.HTMLFrameFactory;
 import net.rptools.maptool.client.ui.macrobuttons.buttons.MacroButtonPrefs;
-import net.rptools.maptool.client.ui.zone.ZoneRenderer;
 import net.rptools.maptool.language.I18N;
 import net.rptools.maptool.model.MacroButtonProperties;
 import net.rptools.maptool.model.Player;
 import net.rptools.maptool.model.Token;
 import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.util.LRUMap;
 import net.rptools.parser.ParserException;
 import net.rptools.parser.VariableResolver;
 import net.rptools.parser.function.Function;
@@ -134,6 +137,14 @@ public class MapToolLineParser {
 
 	private static final int MAX_LOOPS = 1000; // Max number of loop iterations
 
+	private static final int MAX_COMPILED_LINES = 500;
+
+	/**
+	 * The inline rolls of recently run lines, keyed by the text of the line. Library macros tend to run over and over,
+	 * so their text is scanned and their roll options parsed only the first time.
+	 */
+	private final Map<String, List<InlineRollMatch>> compiledLineMap = Collections.synchronizedMap(new LRUMap<String, List<InlineRollMatch>>(MAX_COMPILED_LINES));
+
 	private enum Output { // Mutually exclusive output formats
 		NONE, RESULT, TOOLTIP, EXPANDED, UNFORMATTED,
 	}
@@ -159,12 +170,20 @@ public class MapToolLineParser {
 	}
 
 	// Class to hold the inline rolls and where they start and end.
+	// Lines are cached along with their rolls, so anything worked out from the text of a roll is kept here too.
 	private static class InlineRollMatch {
 		final int start;
 		final int end;
 		final String match;
 		final int optEnd;
 
+		/** The parsed roll options, once the roll has been run. */
+		volatile List<OptionInfo> optionList;
+
+		/** The branches of the roll body, see {@link MapToolLineParser#getBranchList}. */
+		volatile List<String[]> branchList;
+		volatile boolean branchListParsed;
+
 		InlineRollMatch(int start, int end, String match) {
 			this.start = start;
 			this.end = end;
@@ -256,11 +275,13 @@ public class MapToolLineParser {
 		TOKEN("token", 1, 1);
 
 		protected final String nameRegex;
+		protected final Pattern namePattern;
 		protected final int minParams, maxParams;
 		protected final Object[] defaultParams;
 
 		OptionType(String nameRegex, int minParams, int maxParams, Object... defaultParams) {
 			this.nameRegex = nameRegex;
+			this.namePattern = Pattern.compile("^\\s*" + nameRegex + "\\s*$", Pattern.CASE_INSENSITIVE);
 			this.minParams = minParams;
 			this.maxParams = maxParams;
 			if (defaultParams == null) {
@@ -281,7 +302,7 @@ public class MapToolLineParser {
 		/** Obtain one of the enum values, or null if <code>strName</code> doesn't match any of them. */
 		protected static OptionType optionTypeFromName(String strName) {
 			for (OptionType rot : OptionType.values()) {
-				if (Pattern.compile("^\\s*" + rot.getNameRegex() + "\\s*$", Pattern.CASE_INSENSITIVE).matcher(strName).matches()) {
+				if (rot.namePattern.matcher(strName).matches()) {
 					return rot;
 				}
 			}
@@ -335,6 +356,46 @@ public class MapToolLineParser {
 		}
 	}
 
+	// Patterns used to parse the roll options; see OptionInfo and getRollOptionList()
+	private static final Pattern OPTION_NAME_PATTERN = Pattern.compile("^\\s*(?:(\\w+)\\s*\\(|(\\w+))"); // matches "abcd(" or "abcd"
+	private static final Pattern OPTION_PARAM_PATTERN = Pattern.compile("^(?:((?:[^()\"',]|\"[^\"]*\"|'[^']*'|\\((?:[^()\"']|\"[^\"]*\"|'[^']*')*\\))+)(,|\\))){1}?");
+	private static final Pattern OPTION_COMMA_PATTERN = Pattern.compile("^\\s*,\\s*(?!$)");
+
+	/*****************************************************************************
+	 * BranchPatterns - the regexes for scanning through the branches of a roll body.
+	 *****************************************************************************/
+	private static class BranchPatterns {
+		final Pattern noBranch;
+		final Pattern ifBranch;
+		final Pattern switchTest;
+		final Pattern switchScan;
+
+		/**
+		 * @param branchRegex
+		 *            defines one matcher group for the parseable content of a branch
+		 */
+		BranchPatterns(String branchRegex) {
+			String branchSepRegex = ";";
+			String branchLastSepRegex = ";?"; // The last clause doesn't have to end with a separator
+
+			// There's only one branch, so our regex is very simple
+			noBranch = Pattern.compile(String.format("^\\s*%s\\s*$", branchRegex));
+			ifBranch = Pattern.compile(String.format("^\\s*%s\\s*(?:%s\\s*%s\\s*%s)?\\s*$", branchRegex, branchSepRegex, branchRegex, branchLastSepRegex));
+
+			// We augment the branch regex to detect the "case xxx:" or "default:" prefixes.
+			// Regex matches 'default', 'case 123:', 'case "123":', 'case "abc":', but not 'case abc:'
+			branchRegex = "(?:case\\s*\"?((?<!\")(?:\\+|-)?[\\d]+(?!\")|(?<=\")[^\"]*(?=\"))\"?|(default))\\s*:\\s*" + branchRegex;
+			switchTest = Pattern.compile(String.format("^(?:\\s*%s\\s*%s\\s*)*\\s*%s\\s*%s\\s*$", branchRegex, branchSepRegex, branchRegex, branchLastSepRegex));
+			switchScan = Pattern.compile(String.format("\\s*%s\\s*(?:%s)?", branchRegex, branchSepRegex));
+		}
+	}
+
+	// matches any text not containing a ";" (skipping over strings) 
+	private static final BranchPatterns noCodeBranchPatterns = new BranchPatterns("((?:[^\";]|\"[^\"]*\"|'[^']*')*)");
+
+	// matches text inside braces "{...}", skipping over strings (one level of {} nesting allowed)
+	private static final BranchPatterns codeBranchPatterns = new BranchPatterns("\\{((?:[^{}\"]|\"[^\"]*\"|'[^']*'|\\{(?:[^}\"]|\"[^\"]*\"|'[^']*')*})*)}");
+
 	/**********************************************************************************
 	 * OptionInfo class - holds extracted name and parameters for a roll option.
 	 **********************************************************************************/
@@ -372,8 +433,7 @@ public class MapToolLineParser {
 			int endOfString = optionString.length();
 
 			// Find the name
-			Pattern pattern = Pattern.compile("^\\s*(?:(\\w+)\\s*\\(|(\\w+))"); // matches "abcd(" or "abcd"
-			Matcher matcher = pattern.matcher(optionString);
+			Matcher matcher = OPTION_NAME_PATTERN.matcher(optionString);
 			matcher.region(start, endOfString);
 			if (!matcher.find()) {
 				throw new RollOptionException(I18N.getText("lineParser.badRollOpt", optionString));
@@ -402,8 +462,7 @@ public class MapToolLineParser {
 			}
 
 			// Otherwise, match the individual parameters one at a time
-			pattern = Pattern.compile("^(?:((?:[^()\"',]|\"[^\"]*\"|'[^']*'|\\((?:[^()\"']|\"[^\"]*\"|'[^']*')*\\))+)(,|\\))){1}?");
-			matcher = pattern.matcher(optionString);
+			matcher = OPTION_PARAM_PATTERN.matcher(optionString);
 			matcher.region(start, endOfString);
 			List<String> paramList = new ArrayList<String>();
 			boolean lastItem = false; // true if last match ended in ")"
@@ -569,8 +628,6 @@ public class MapToolLineParser {
 		int start = 0;
 		int endOfString = optionString.length();
 		boolean atEnd = false;
-		Pattern commaPattern = Pattern.compile("^\\s*,\\s*(?!$)");
-
 		while (start < endOfString) {
 			OptionInfo roi;
 			if (atEnd) {
@@ -582,7 +639,7 @@ public class MapToolLineParser {
 			list.add(roi);
 			start = roi.getEnd();
 			// Eat any "," sitting between options
-			Matcher matcher = commaPattern.matcher(optionString);
+			Matcher matcher = OPTION_COMMA_PATTERN.matcher(optionString);
 			matcher.region(start, endOfString);
 			if (matcher.find()) {
 				start = matcher.end();
@@ -636,7 +693,11 @@ public class MapToolLineParser {
 
 			int start = 0;
 
-			List<InlineRollMatch> matches = this.locateInlineRolls(line);
+			List<InlineRollMatch> matches = compiledLineMap.get(line);
+			if (matches == null) {
+				matches = this.locateInlineRolls(line);
+				compiledLineMap.put(line, matches);
+			}
 
 			for (InlineRollMatch match : matches) {
 				builder.append(line.substring(start, match.getStart())); // add everything before the roll
@@ -677,12 +738,15 @@ public class MapToolLineParser {
 					String opts = match.getOpt();
 					String roll = match.getRoll();
 					if (opts != null) {
-						// Turn the opts string into a list of OptionInfo objects.
-						List<OptionInfo> optionList = null;
-						try {
-							optionList = getRollOptionList(opts);
-						} catch (RollOptionException roe) {
-							doError(roe.msg, opts, roll);
+						// Turn the opts string into a list of OptionInfo objects, once for each roll of the line.
+						List<OptionInfo> optionList = match.optionList;
+						if (optionList == null) {
+							try {
+								optionList = getRollOptionList(opts);
+							} catch (RollOptionException roe) {
+								doError(roe.msg, opts, roll);
+							}
+							match.optionList = optionList;
 						}
 
 						// Scan the roll options and prepare variables for later use
@@ -1028,38 +1092,19 @@ public class MapToolLineParser {
 							}
 						}
 
-						// Set up regexes for scanning through the branches.
-						// branchRegex then defines one matcher group for the parseable content of the branch.
-						String rollBranch = roll;
-						String branchRegex, branchSepRegex, branchLastSepRegex;
-						if (codeType != CodeType.CODEBLOCK) {
-							// matches any text not containing a ";" (skipping over strings) 
-							String noCodeRegex = "((?:[^\";]|\"[^\"]*\"|'[^']*')*)";
-							branchRegex = noCodeRegex;
-							branchSepRegex = ";";
-							branchLastSepRegex = ";?"; // The last clause doesn't have to end with a separator
-						} else {
-							// matches text inside braces "{...}", skipping over strings (one level of {} nesting allowed)
-							String codeRegex = "\\{((?:[^{}\"]|\"[^\"]*\"|'[^']*'|\\{(?:[^}\"]|\"[^\"]*\"|'[^']*')*})*)}";
-							branchRegex = codeRegex;
-							branchSepRegex = ";";
-							branchLastSepRegex = ";?"; // The last clause doesn't have to end with a separator
-						}
-
 						// Extract the branch to use
+						String rollBranch = roll;
+						List<String[]> branchList = getBranchList(match, branchType, codeType == CodeType.CODEBLOCK);
 						switch (branchType) {
 						/*
 						 * TODO: If you're adding a new branching option, add a new case to extract the branch text
 						 */
 						case NO_BRANCH: {
-							// There's only one branch, so our regex is very simple
-							String testRegex = String.format("^\\s*%s\\s*$", branchRegex);
-							Matcher testMatcher = Pattern.compile(testRegex).matcher(roll);
-							if (testMatcher.find()) {
-								rollBranch = testMatcher.group(1);
-							} else {
+							// There's only one branch
+							if (branchList == null) {
 								doError("lineParser.errorBodyRoll", opts, roll);
 							}
+							rollBranch = branchList.get(0)[2];
 							break;
 						}
 						case IF: {
@@ -1069,52 +1114,38 @@ public class MapToolLineParser {
 								doError(I18N.getText("lineParser.invalidIfCond", branchCondition, branchConditionParsed.toString()), opts, roll);
 							}
 							int whichBranch = (branchConditionValue != 0) ? 0 : 1;
-							String testRegex = String.format("^\\s*%s\\s*(?:%s\\s*%s\\s*%s)?\\s*$", branchRegex, branchSepRegex, branchRegex, branchLastSepRegex);
-							Matcher testMatcher = Pattern.compile(testRegex).matcher(roll);
-							if (testMatcher.find()) { // verifies that roll body is well-formed
-								rollBranch = testMatcher.group(1 + whichBranch);
-								if (rollBranch == null)
-									rollBranch = "''"; // quick-and-dirty way to get no output
-								rollBranch = rollBranch.trim();
-							} else {
+							if (branchList == null) { // roll body is not well-formed
 								doError("lineParser.ifError", opts, roll);
 							}
+							rollBranch = branchList.get(whichBranch)[2];
+							if (rollBranch == null)
+								rollBranch = "''"; // quick-and-dirty way to get no output
+							rollBranch = rollBranch.trim();
 							break;
 						}
 						case SWITCH: {
-							// We augment the branch regex to detect the "case xxx:" or "default:" prefixes,
-							// and search for a match.  An error is thrown if no case match is found.
-
-							// Regex matches 'default', 'case 123:', 'case "123":', 'case "abc":', but not 'case abc:'
-							branchRegex = "(?:case\\s*\"?((?<!\")(?:\\+|-)?[\\d]+(?!\")|(?<=\")[^\"]*(?=\"))\"?|(default))\\s*:\\s*" + branchRegex;
+							// An error is thrown if no case match is found.
 							String caseTarget = branchConditionParsed.toString();
-							String testRegex = String.format("^(?:\\s*%s\\s*%s\\s*)*\\s*%s\\s*%s\\s*$", branchRegex, branchSepRegex, branchRegex, branchLastSepRegex);
-							Matcher testMatcher = Pattern.compile(testRegex).matcher(roll);
-							if (testMatcher.find()) { // verifies that roll body is well-formed
-								String scanRegex = String.format("\\s*%s\\s*(?:%s)?", branchRegex, branchSepRegex);
-								Matcher scanMatcher = Pattern.compile(scanRegex).matcher(roll);
-								boolean foundMatch = false;
-								while (!foundMatch && scanMatcher.find()) {
-									String caseLabel = scanMatcher.group(1); // "case (xxx):"
-									String def = scanMatcher.group(2); // "(default):"
-									String branch = scanMatcher.group(3);
-									if (def != null) {
-										rollBranch = branch.trim();
-										foundMatch = true;
-										;
-									}
-									if (caseLabel != null && caseLabel.matches(caseTarget)) {
-										rollBranch = branch.trim();
-										foundMatch = true;
-									}
+							if (branchList == null) { // roll body is not well-formed
+								doError("lineParser.switchError", opts, roll);
+							}
+							boolean foundMatch = false;
+							for (Iterator<String[]> iter = branchList.iterator(); !foundMatch && iter.hasNext();) {
+								String[] branch = iter.next();
+								String caseLabel = branch[0]; // "case (xxx):"
+								String def = branch[1]; // "(default):"
+								if (def != null) {
+									rollBranch = branch[2].trim();
+									foundMatch = true;
 								}
-								if (!foundMatch) {
-									doError(I18N.getText("lineParser.switchNoMatch", caseTarget), opts, roll);
+								if (caseLabel != null && caseLabel.matches(caseTarget)) {
+									rollBranch = branch[2].trim();
+									foundMatch = true;
 								}
-							} else {
-								doError("lineParser.switchError", opts, roll);
 							}
-
+							if (!foundMatch) {
+								doError(I18N.getText("lineParser.switchNoMatch", caseTarget), opts, roll);
+							}
 							break;
 						}
 						} // end of switch(branchType) statement
@@ -1538,14 +1569,15 @@ public class MapToolLineParser {
 	 *             to the token.
 	 */
 	public String getTokenLibMacro(String macro, String location) throws ParserException {
-		Token token = getTokenMacroLib(location);
-		if (token == null) {
+		LibTokenIndex.LibToken libToken = getLibToken(location);
+		if (libToken == null) {
 			throw new ParserException(I18N.getText("lineParser.unknownLibToken", location));
 		}
-		MacroButtonProperties buttonProps = token.getMacro(macro, false);
+		LibTokenIndex index = MapTool.getFrame().getLibTokenIndex();
+		MacroButtonProperties buttonProps = index.getMacro(libToken, macro, false);
 		if (buttonProps == null) {
 			// Try the "unknown macro"
-			buttonProps = token.getMacro(UNKNOWN_LIB_MACRO, false);
+			buttonProps = index.getMacro(libToken, UNKNOWN_LIB_MACRO, false);
 			if (buttonProps == null) {
 				throw new ParserException(I18N.getText("lineParser.unknownMacro", macro + "@" + location));
 			}
@@ -1565,36 +1597,8 @@ public class MapToolLineParser {
 	 *             to the token.
 	 */
 	public Token getTokenMacroLib(String location) throws ParserException {
-		if (!location.matches("(?i)^lib:.*")) {
-			throw new ParserException(I18N.getText("lineParser.notALibToken"));
-		}
-		final String libTokenName = location;
-		Token libToken = null;
-		if (libTokenName != null && libTokenName.length() > 0) {
-			List<ZoneRenderer> zrenderers = MapTool.getFrame().getZoneRenderers();
-			for (ZoneRenderer zr : zrenderers) {
-				List<Token> tokenList = zr.getZone().getTokensFiltered(new Zone.Filter() {
-					public boolean matchToken(Token t) {
-						return t.getName().equalsIgnoreCase(libTokenName);
-					}
-				});
-
-				for (Token token : tokenList) {
-					// If we are not the GM and the token is not visible to players then we don't
-					// let them get functions from it.	
-					if (!MapTool.getPlayer().isGM() && !token.isVisible()) {
-						throw new ParserException(I18N.getText("lineParser.libUnableToExec", libTokenName));
-					}
-					if (libToken != null) {
-						throw new ParserException(I18N.getText("lineParser.duplicateLibTokens", libTokenName));
-					}
-
-					libToken = token;
-				}
-			}
-			return libToken;
-		}
-		return null;
+		LibTokenIndex.LibToken libToken = getLibToken(location);
+		return libToken != null ? libToken.getToken() : null;
 	}
 
 	/**
@@ -1608,37 +1612,37 @@ public class MapToolLineParser {
 	 *             to the token.
 	 */
 	public Zone getTokenMacroLibZone(String location) throws ParserException {
+		LibTokenIndex.LibToken libToken = getLibToken(location);
+		return libToken != null ? libToken.getZone() : null;
+	}
+
+	/**
+	 * Looks up a lib: token on all maps.
+	 * 
+	 * @return The token and its zone, or <code>null</code> if there is no such token.
+	 * @throws ParserException
+	 *             if the token name is illegal, the token appears multiple times, or if the caller doesn't have access
+	 *             to the token.
+	 */
+	private LibTokenIndex.LibToken getLibToken(String location) throws ParserException {
 		if (!location.matches("(?i)^lib:.*")) {
 			throw new ParserException(I18N.getText("lineParser.notALibToken"));
 		}
 		final String libTokenName = location;
-		Zone libTokenZone = null;
-		if (libTokenName != null && libTokenName.length() > 0) {
-			List<ZoneRenderer> zrenderers = MapTool.getFrame().getZoneRenderers();
-			for (ZoneRenderer zr : zrenderers) {
-				List<Token> tokenList = zr.getZone().getTokensFiltered(new Zone.Filter() {
-					public boolean matchToken(Token t) {
-						return t.getName().equalsIgnoreCase(libTokenName);
-					}
-				});
-
-				for (Token token : tokenList) {
-					// If we are not the GM and the token is not visible to players then we don't
-					// let them get functions from it.	
-					if (!MapTool.getPlayer().isGM() && !token.isVisible()) {
-						throw new ParserException(I18N.getText("lineParser.libUnableToExec", libTokenName));
-					}
-
-					if (libTokenZone != null) {
-						throw new ParserException(I18N.getText("lineParser.duplicateLibTokens", libTokenName));
-					}
-
-					libTokenZone = zr.getZone();
-				}
+		LibTokenIndex.LibToken libToken = null;
+		for (LibTokenIndex.LibToken lib : MapTool.getFrame().getLibTokenIndex().getLibTokens(libTokenName)) {
+			// If we are not the GM and the token is not visible to players then we don't
+			// let them get functions from it.	
+			if (!MapTool.getPlayer().isGM() && !lib.getToken().isVisible()) {
+				throw new ParserException(I18N.getText("lineParser.libUnableToExec", libTokenName));
 			}
-			return libTokenZone;
+			if (libToken != null) {
+				throw new ParserException(I18N.getText("lineParser.duplicateLibTokens", libTokenName));
+			}
+
+			libToken = lib;
 		}
-		return null;
+		return libToken;
 	}
 
 	/**
@@ -1668,11 +1672,70 @@ public class MapToolLineParser {
 	}
 
 	private ExpressionParser createParser(VariableResolver resolver, boolean hasTokenInContext) {
+		// Setting up a parser compiles all of the dice patterns, so it is only done once per variable context,
+		// unless functions have been defined since; the parser only knows the ones there were when it was set up
+		MapToolVariableResolver res = resolver instanceof MapToolVariableResolver ? (MapToolVariableResolver) resolver : null;
+		int generation = UserDefinedMacroFunctions.getInstance().getGeneration();
+		if (res != null && res.getExpressionParser() != null && res.getExpressionParserGeneration() == generation) {
+			return res.getExpressionParser();
+		}
 		ExpressionParser parser = new ExpressionParser(resolver);
 		parser.getParser().addFunctions(mapToolParserFunctions);
+		if (res != null) {
+			res.setExpressionParser(parser, generation);
+		}
 		return parser;
 	}
 
+	/**
+	 * Splits the body of a roll into its branches, each one as { case label, "default", branch text }. Only
+	 * <code>switch</code> branches have labels; an <code>if</code> roll always has two branches, the second of which
+	 * may be <code>null</code>. Since the branch type and code type come from the options of the roll, the result is
+	 * kept with the roll and the body is only scanned once.
+	 * 
+	 * @return the branches, or <code>null</code> if the roll body isn't well-formed
+	 */
+	private static List<String[]> getBranchList(InlineRollMatch match, BranchType branchType, boolean codeBlock) {
+		if (match.branchListParsed) {
+			return match.branchList;
+		}
+		BranchPatterns patterns = codeBlock ? codeBranchPatterns : noCodeBranchPatterns;
+		String roll = match.getRoll();
+		List<String[]> branchList = null;
+		switch (branchType) {
+		case NO_BRANCH: {
+			Matcher matcher = patterns.noBranch.matcher(roll);
+			if (matcher.find()) {
+				branchList = new ArrayList<String[]>(1);
+				branchList.add(new String[] { null, null, matcher.group(1) });
+			}
+			break;
+		}
+		case IF: {
+			Matcher matcher = patterns.ifBranch.matcher(roll);
+			if (matcher.find()) {
+				branchList = new ArrayList<String[]>(2);
+				branchList.add(new String[] { null, null, matcher.group(1) });
+				branchList.add(new String[] { null, null, matcher.group(2) });
+			}
+			break;
+		}
+		case SWITCH: {
+			if (patterns.switchTest.matcher(roll).find()) {
+				branchList = new ArrayList<String[]>();
+				Matcher matcher = patterns.switchScan.matcher(roll);
+				while (matcher.find()) {
+					branchList.add(new String[] { matcher.group(1), matcher.group(2), matcher.group(3) });
+				}
+			}
+			break;
+		}
+		}
+		match.branchList = branchList;
+		match.branchListParsed = true;
+		return branchList;
+	}
+
 	private String rollString(Collection options, String text) {
 		return rollString(options, null, text);
 	}
@@ -16,6 +16,7 @@ import java.util.List;
 
 import javax.swing.JOptionPane;
 
+import net.rptools.common.expression.ExpressionParser;
 import net.rptools.maptool.client.functions.CurrentInitiativeFunction;
 import net.rptools.maptool.client.functions.InitiativeRoundFunction;
 import net.rptools.maptool.client.functions.JSONMacroFunctions;
@@ -82,6 +83,11 @@ public class MapToolVariableResolver extends MapVariableResolver {
 
 	private Token tokenInContext;
 
+	/** The parser that evaluates expressions against this resolver; it is kept as it is costly to set up. */
+	private ExpressionParser expressionParser;
+	/** The generation of the user defined functions the parser was set up with */
+	private int expressionParserGeneration;
+
 	public MapToolVariableResolver(Token tokenInContext) {
 		this.tokenInContext = tokenInContext;
 		// Set the default macro.args to ""  so that it is always present.
@@ -142,6 +148,19 @@ public class MapToolVariableResolver extends MapVariableResolver {
 		return tokenInContext;
 	}
 
+	ExpressionParser getExpressionParser() {
+		return expressionParser;
+	}
+
+	int getExpressionParserGeneration() {
+		return expressionParserGeneration;
+	}
+
+	void setExpressionParser(ExpressionParser expressionParser, int generation) {
+		this.expressionParser = expressionParser;
+		this.expressionParserGeneration = generation;
+	}
+
 	@Override
 	public Object getVariable(String name, VariableModifiers mods) throws ParserException {
 
@@ -21,6 +21,7 @@ import net.rptools.maptool.model.AssetManager;
 import net.rptools.maptool.model.Campaign;
 import net.rptools.maptool.model.CampaignProperties;
 import net.rptools.maptool.model.ExposedAreaMetaData;
+import net.rptools.maptool.model.FogBitmap;
 import net.rptools.maptool.model.GUID;
 import net.rptools.maptool.model.InitiativeList;
 import net.rptools.maptool.model.Label;
@@ -28,6 +29,7 @@ import net.rptools.maptool.model.MacroButtonProperties;
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.VisionType;
 import net.rptools.maptool.model.ZonePoint;
@@ -35,6 +37,7 @@ import net.rptools.maptool.model.drawing.Drawable;
 import net.rptools.maptool.model.drawing.Pen;
 import net.rptools.maptool.server.ServerCommand;
 import net.rptools.maptool.server.ServerPolicy;
+import net.rptools.maptool.transfer.AssetConsumer;
 
 public class ServerCommandClientImpl implements ServerCommand {
 
@@ -96,7 +99,10 @@ public class ServerCommandClientImpl implements ServerCommand {
 	}
 
 	public void getAsset(MD5Key assetID) {
-		makeServerCall(COMMAND.getAsset, assetID);
+		// Pick up where a transfer that was cut off left off
+		AssetConsumer consumer = MapTool.getAssetTransferManager().getAssetConsumer(assetID);
+		long position = consumer != null ? consumer.getResumePosition() : 0;
+		makeServerCall(COMMAND.getAsset, assetID, position);
 	}
 
 	public void removeAsset(MD5Key assetID) {
@@ -112,7 +118,20 @@ public class ServerCommandClientImpl implements ServerCommand {
 		// after changing the token. But they don't tell the zone about it so classes
 		// waiting for the zone change event don't get it.
 		MapTool.getCampaign().getZone(zoneGUID).putToken(token);
-		makeServerCall(COMMAND.putToken, zoneGUID, token);
+
+		// Only send what changed, if we know what the others have
+		TokenDelta delta = TokenDelta.create(zoneGUID, token);
+		if (delta == null) {
+			token.setVersion(token.getVersion() + 1);
+			makeServerCall(COMMAND.putToken, zoneGUID, token);
+			TokenDelta.snapshot(zoneGUID, token);
+		} else if (!delta.isEmpty()) {
+			makeServerCall(COMMAND.updateToken, zoneGUID, delta);
+		}
+	}
+
+	public void updateToken(GUID zoneGUID, TokenDelta delta) {
+		makeServerCall(COMMAND.updateToken, zoneGUID, delta);
 	}
 
 	public void removeToken(GUID zoneGUID, GUID tokenGUID) {
@@ -199,7 +218,7 @@ public class ServerCommandClientImpl implements ServerCommand {
 	}
 
 	public void exposeFoW(GUID zoneGUID, Area area, Set<GUID> selectedToks) {
-		makeServerCall(COMMAND.exposeFoW, zoneGUID, area, selectedToks);
+		makeServerCall(COMMAND.exposeFoW, zoneGUID, FogBitmap.forTransfer(area, getFogCellSize(zoneGUID)), selectedToks);
 	}
 
 	public void setFoW(GUID zoneGUID, Area area, Set<GUID> selectedToks) {
@@ -207,7 +226,12 @@ public class ServerCommandClientImpl implements ServerCommand {
 	}
 
 	public void hideFoW(GUID zoneGUID, Area area, Set<GUID> selectedToks) {
-		makeServerCall(COMMAND.hideFoW, zoneGUID, area, selectedToks);
+		makeServerCall(COMMAND.hideFoW, zoneGUID, FogBitmap.forTransfer(area, getFogCellSize(zoneGUID)), selectedToks);
+	}
+
+	private static int getFogCellSize(GUID zoneGUID) {
+		Zone zone = MapTool.getCampaign().getZone(zoneGUID);
+		return zone != null ? zone.getFogCellSize() : 0;
 	}
 
 	public void setZoneHasFoW(GUID zoneGUID, boolean hasFog) {
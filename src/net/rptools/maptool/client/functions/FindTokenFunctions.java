@@ -10,8 +10,12 @@
  */
 package net.rptools.maptool.client.functions;
 
+import java.awt.Rectangle;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -23,8 +27,11 @@ import net.rptools.maptool.client.ui.zone.ZoneRenderer;
 import net.rptools.maptool.language.I18N;
 import net.rptools.maptool.model.CellPoint;
 import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.Grid;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenFootprint;
 import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.model.ZonePoint;
 import net.rptools.parser.Parser;
 import net.rptools.parser.ParserException;
 import net.rptools.parser.function.AbstractFunction;
@@ -39,6 +46,8 @@ public class FindTokenFunctions extends AbstractFunction {
 
 	private static final FindTokenFunctions instance = new FindTokenFunctions();
 
+	private static final String NO_GRID = "NO_GRID";
+
 	/**
 	 * Filter for all tokens.
 	 */
@@ -254,6 +263,12 @@ public class FindTokenFunctions extends AbstractFunction {
 	/**
 	 * Called when the MTscript function is <code>getToken</code>, <code>getTokens</code>, <code>getTokenName</code>, or
 	 * <code>getTokenNames</code>.
+	 * <p>
+	 * The JSON conditions are turned into a list of {@link Condition}s. The smallest set of tokens that any of them
+	 * can narrow the search down to (the selected tokens, or the tokens near the <code>range</code> or
+	 * <code>area</code> token) is used as the starting point, and every condition is checked for each of those tokens
+	 * in one pass, cheapest and most selective first. Only when none of them can narrow it down are all of the tokens
+	 * on the layers looked at.
 	 * 
 	 * @param parser
 	 *            parser context object
@@ -268,9 +283,9 @@ public class FindTokenFunctions extends AbstractFunction {
 	 */
 	private Object getTokenList(Parser parser, boolean nameOnly, String delim, String jsonString) throws ParserException {
 		JSONObject jobj = JSONObject.fromObject(jsonString);
+		Zone zone = MapTool.getFrame().getCurrentZoneRenderer().getZone();
 
-		// First get a list of all our tokens.  By default this is limited to the TOKEN and GM layers.
-		List<Token> allTokens = null;
+		// By default the search is limited to the TOKEN and GM layers.
 		JSONArray layers = null;
 		if (!jobj.containsKey("layer")) {
 			layers = new JSONArray();
@@ -285,17 +300,15 @@ public class FindTokenFunctions extends AbstractFunction {
 				layers.add(o.toString());
 			}
 		}
-		allTokens = MapTool.getFrame().getCurrentZoneRenderer().getZone().getTokensFiltered(new LayerFilter(layers));
-		List<Token> tokenList = new ArrayList<Token>();
-		tokenList.addAll(allTokens);
+		LayerFilter layerFilter = new LayerFilter(layers);
+		List<Condition> conditions = new ArrayList<Condition>();
+		conditions.add(new FilterCondition(layerFilter, true, 1));
+
 		JSONObject range = null;
 		JSONObject area = null;
-
-		// Now loop through conditions that are true and only retain tokens returned.
 		for (Object key : jobj.keySet()) {
 			String searchType = key.toString();
-			if ("setStates".equalsIgnoreCase(searchType)) {
-				// setStates and layers work the same until you get to the filtering part...
+			if ("setStates".equalsIgnoreCase(searchType) || "unsetStates".equalsIgnoreCase(searchType)) {
 				JSONArray ary;
 				Object o = jobj.get(searchType);
 				if (o instanceof JSONArray) {
@@ -304,168 +317,283 @@ public class FindTokenFunctions extends AbstractFunction {
 					ary = new JSONArray();
 					ary.add(o.toString());
 				}
-				// Looking for tokens with all of these states set
+				// Looking for tokens with all of these states set (or all of them unset)
+				boolean set = "setStates".equalsIgnoreCase(searchType);
 				for (Object item : ary) {
-					List<Token> lst = getTokenList(parser, FindType.STATE, item.toString());
-					tokenList.retainAll(lst);
+					conditions.add(new FilterCondition(new StateFilter(item.toString()), set, 2));
 				}
 			} else if ("range".equalsIgnoreCase(searchType)) {
-				// We will do this as one of the last steps as it's one of the most expensive so we want to do it on as few tokens as possible
 				range = jobj.getJSONObject(searchType);
 			} else if ("area".equalsIgnoreCase(searchType)) {
-				// We will do this as one of the last steps as it's one of the most expensive so we want to do it on as few tokens as possible
 				area = jobj.getJSONObject(searchType);
-//			} else if ("unsetStates".equalsIgnoreCase(searchType)) {
-//				// ignore
 			} else {
-				if (booleanCheck(jobj, searchType)) {
-					List<Token> lst = null;
-					if ("npc".equalsIgnoreCase(searchType)) {
-						lst = getTokenList(parser, FindType.NPC, "");
-					} else if ("pc".equalsIgnoreCase(searchType)) {
-						lst = getTokenList(parser, FindType.PC, "");
-					} else if ("selected".equalsIgnoreCase(searchType)) {
-						lst = getTokenList(parser, FindType.SELECTED, "");
-					} else if ("visible".equalsIgnoreCase(searchType)) {
-						lst = getTokenList(parser, FindType.VISIBLE, "");
-					} else if ("owned".equalsIgnoreCase(searchType)) {
-						lst = getTokenList(parser, FindType.OWNED, MapTool.getPlayer().getName());
-					} else if ("current".equalsIgnoreCase(searchType)) {
-						lst = getTokenList(parser, FindType.CURRENT, "");
-					} else if ("impersonated".equalsIgnoreCase(searchType)) {
-						lst = getTokenList(parser, FindType.IMPERSONATED, "");
-					}
-					if (lst != null)
-						tokenList.retainAll(lst);
+				// Tokens have to match the conditions that are true and not match the ones that are false
+				boolean match = booleanCheck(jobj, searchType);
+				if ("npc".equalsIgnoreCase(searchType)) {
+					conditions.add(new FilterCondition(new NPCFilter(), match, 1));
+				} else if ("pc".equalsIgnoreCase(searchType)) {
+					conditions.add(new FilterCondition(new PCFilter(), match, 1));
+				} else if ("owned".equalsIgnoreCase(searchType)) {
+					conditions.add(new FilterCondition(new OwnedFilter(MapTool.getPlayer().getName()), match, 2));
+				} else if ("selected".equalsIgnoreCase(searchType)) {
+					conditions.add(new TokenSetCondition(zone, getTokenList(parser, FindType.SELECTED, ""), match));
+				} else if ("visible".equalsIgnoreCase(searchType)) {
+					conditions.add(new TokenSetCondition(zone, getTokenList(parser, FindType.VISIBLE, ""), match));
+				} else if ("current".equalsIgnoreCase(searchType)) {
+					conditions.add(new TokenSetCondition(zone, getTokenList(parser, FindType.CURRENT, ""), match));
+				} else if ("impersonated".equalsIgnoreCase(searchType)) {
+					conditions.add(new TokenSetCondition(zone, getTokenList(parser, FindType.IMPERSONATED, ""), match));
 				}
 			}
 		}
+		// The distance checks are by far the most expensive, so they are always done last
+		if (range != null) {
+			conditions.add(new RangeCondition(zone, getSourceToken(range), range));
+		}
+		if (area != null) {
+			conditions.add(new AreaCondition(zone, getSourceToken(area), area));
+		}
+		Collections.sort(conditions, CONDITION_COST_COMPARATOR);
 
-		// After looping through all the true conditions it's time to loop through
-		// the false conditions and remove any tokens that match from our list.
-		// This is a little more painful as first we get the tokens that match
-		// the criteria, remove those from a list of all tokens, and use that
-		// resultant list to tell the tokenList which to retain.
-		// FJE Huh?  Why not just remove ones that match from 'tokenList'???
-		List<Token> inverseList = new ArrayList<Token>();
-		for (Object key : jobj.keySet()) {
-			String searchType = key.toString();
-			if ("unsetStates".equalsIgnoreCase(searchType)) {
-				JSONArray states = (JSONArray) jobj.get(searchType);
-				for (Object st : states) {
-					inverseList.clear();
-					inverseList.addAll(allTokens);
-					inverseList.removeAll(getTokenList(parser, FindType.STATE, st.toString()));
-					tokenList.retainAll(inverseList);
-				}
-//			} else if ("setStates".equalsIgnoreCase(searchType)) {
-//				// ignore
-//			} else if ("range".equalsIgnoreCase(searchType)) {
-//				// ignore
-//			} else if ("area".equalsIgnoreCase(searchType)) {
-//				// ignore
-			} else {
-				if (!booleanCheck(jobj, searchType)) {
-					inverseList.clear();
-					inverseList.addAll(allTokens);
-					if ("npc".equalsIgnoreCase(searchType)) {
-						inverseList.removeAll(getTokenList(parser, FindType.NPC, ""));
-					} else if ("pc".equalsIgnoreCase(searchType)) {
-						inverseList.removeAll(getTokenList(parser, FindType.PC, ""));
-					} else if ("selected".equalsIgnoreCase(searchType)) {
-						inverseList.removeAll(getTokenList(parser, FindType.SELECTED, ""));
-					} else if ("visible".equalsIgnoreCase(searchType)) {
-						inverseList.removeAll(getTokenList(parser, FindType.VISIBLE, ""));
-					} else if ("owned".equalsIgnoreCase(searchType)) {
-						inverseList.removeAll(getTokenList(parser, FindType.OWNED, MapTool.getPlayer().getName()));
-					} else if ("current".equalsIgnoreCase(searchType)) {
-						inverseList.removeAll(getTokenList(parser, FindType.CURRENT, ""));
-					} else if ("impersonated".equalsIgnoreCase(searchType)) {
-						inverseList.removeAll(getTokenList(parser, FindType.IMPERSONATED, ""));
-					}
-					if (inverseList != null)
-						tokenList.retainAll(inverseList);
-				}
+		Collection<Token> candidates = null;
+		for (Condition condition : conditions) {
+			Collection<Token> tokens = condition.getCandidates();
+			if (tokens != null && (candidates == null || tokens.size() < candidates.size())) {
+				candidates = tokens;
 			}
 		}
+		if (candidates == null) {
+			candidates = zone.getTokensFiltered(layerFilter);
+		}
 
-		// Loop through and compare ranges if we have them
-		if (range != null) {
-			TokenLocationFunctions instance = TokenLocationFunctions.getInstance();
-			Token token;
-			if (range.containsKey("token")) {
-				token = findToken(range.getString("token"), null);
-				if (token == null) {
-					throw new ParserException(I18N.getText("macro.function.general.unknownToken", "getTokens", range.getString("token")));
-				}
+		List<Token> tokenList = new ArrayList<Token>();
+		for (Token token : candidates) {
+			if (matchesAll(conditions, token)) {
+				tokenList.add(token);
+			}
+		}
+		// Same order as going through all of the tokens on the map
+		Collections.sort(tokenList, Zone.TOKEN_Z_ORDER_COMPARATOR);
+
+		ArrayList<String> values = new ArrayList<String>(tokenList.size());
+		for (Token token : tokenList) {
+			if (nameOnly) {
+				values.add(token.getName());
 			} else {
-				GUID guid = MapTool.getFrame().getCommandPanel().getIdentityGUID();
-				if (guid != null)
-					token = MapTool.getFrame().getCurrentZoneRenderer().getZone().getToken(guid);
-				else
-					token = findToken(MapTool.getFrame().getCommandPanel().getIdentity(), null);
-				if (token == null) {
-					throw new ParserException(I18N.getText("macro.function.general.noImpersonated", "getTokens"));
-				}
+				values.add(token.getId().toString());
 			}
-			int from = Integer.MIN_VALUE;
-			int upto = Integer.MAX_VALUE;
+		}
+		if ("json".equals(delim)) {
+			return JSONArray.fromObject(values);
+		} else {
+			return StringFunctions.getInstance().join(values, delim);
+		}
+	}
 
-			if (range.containsKey("from")) {
-				from = range.getInt("from");
+	private static boolean matchesAll(List<Condition> conditions, Token token) throws ParserException {
+		for (Condition condition : conditions) {
+			if (!condition.matchToken(token)) {
+				return false;
 			}
-			if (range.containsKey("upto")) {
-				upto = range.getInt("upto");
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the token that the distances of a <code>range</code> or <code>area</code> condition are measured from:
+	 * either the one named by its <code>token</code> field or the impersonated one.
+	 */
+	private Token getSourceToken(JSONObject jobj) throws ParserException {
+		Token token;
+		if (jobj.containsKey("token")) {
+			token = findToken(jobj.getString("token"), null);
+			if (token == null) {
+				throw new ParserException(I18N.getText("macro.function.general.unknownToken", "getTokens", jobj.getString("token")));
 			}
-			boolean useDistancePerCell = true;
-			if (range.containsKey("distancePerCell")) {
-				useDistancePerCell = booleanCheck(range, "distancePerCell");
+		} else {
+			GUID guid = MapTool.getFrame().getCommandPanel().getIdentityGUID();
+			if (guid != null)
+				token = MapTool.getFrame().getCurrentZoneRenderer().getZone().getToken(guid);
+			else
+				token = findToken(MapTool.getFrame().getCommandPanel().getIdentity(), null);
+			if (token == null) {
+				throw new ParserException(I18N.getText("macro.function.general.noImpersonated", "getTokens"));
 			}
+		}
+		return token;
+	}
 
-			String metric = null;
-			if (range.containsKey("metric")) {
-				metric = range.getString("metric");
-			}
-			List<Token> inrange = new LinkedList<Token>();
-			for (Token targetToken : tokenList) {
-				Double distance = instance.getDistance(token, targetToken, useDistancePerCell, metric);
-				if (distance <= upto && distance >= from && token != targetToken) {
-					inrange.add(targetToken);
+	/**
+	 * Rectangle in which the location of every token within <code>cells</code> cells of <code>bounds</code> lies, whichever
+	 * way the distance is measured. The location of a token is the corner of its image, so this has to allow for the
+	 * largest footprint on the grid as well.
+	 */
+	private static Rectangle getReach(Zone zone, Rectangle bounds, long cells) {
+		Grid grid = zone.getGrid();
+		double cellSize = Math.max(grid.getSize(), Math.max(grid.getCellWidth(), grid.getCellHeight()));
+		double footprintSize = cellSize;
+		for (TokenFootprint footprint : grid.getFootprints()) {
+			Rectangle r = footprint.getBounds(grid);
+			footprintSize = Math.max(footprintSize, Math.max(Math.max(r.width, r.height), footprint.getScale() * grid.getSize()));
+		}
+		// Leaves a couple of cells to spare for the grid offset and rounding
+		double margin = Math.min((cells + 2) * cellSize + footprintSize, Integer.MAX_VALUE / 4);
+		double x = Math.max(bounds.getMinX() - margin, Integer.MIN_VALUE / 2);
+		double y = Math.max(bounds.getMinY() - margin, Integer.MIN_VALUE / 2);
+		double width = Math.min(bounds.getMaxX() + margin, Integer.MAX_VALUE / 2) - x;
+		double height = Math.min(bounds.getMaxY() + margin, Integer.MAX_VALUE / 2) - y;
+		return new Rectangle((int) x, (int) y, (int) Math.ceil(width), (int) Math.ceil(height));
+	}
+
+	private static final Comparator<Condition> CONDITION_COST_COMPARATOR = new Comparator<Condition>() {
+		public int compare(Condition o1, Condition o2) {
+			return o1.cost - o2.cost;
+		}
+	};
+
+	/**
+	 * A single condition of a <code>getTokens</code> query.
+	 */
+	private abstract static class Condition {
+		/** Rough cost of {@link #matchToken(Token)}; cheap conditions are checked first */
+		private final int cost;
+
+		protected Condition(int cost) {
+			this.cost = cost;
+		}
+
+		/**
+		 * @return every token on the map that could match this condition, or <code>null</code> if that can't be told
+		 *         without going through all of them
+		 */
+		public Collection<Token> getCandidates() {
+			return null;
+		}
+
+		public abstract boolean matchToken(Token t) throws ParserException;
+	}
+
+	/**
+	 * Condition that a token does (or doesn't) match one of the filters.
+	 */
+	private static class FilterCondition extends Condition {
+		private final Zone.Filter filter;
+		private final boolean match;
+
+		public FilterCondition(Zone.Filter filter, boolean match, int cost) {
+			super(cost);
+			this.filter = filter;
+			this.match = match;
+		}
+
+		@Override
+		public boolean matchToken(Token t) {
+			return filter.matchToken(t) == match;
+		}
+	}
+
+	/**
+	 * Condition that a token is (or isn't) one of a given few, like the selected tokens.
+	 */
+	private static class TokenSetCondition extends Condition {
+		private final Set<Token> tokenSet = new HashSet<Token>();
+		private final boolean match;
+
+		public TokenSetCondition(Zone zone, Collection<Token> tokens, boolean match) {
+			super(0);
+			this.match = match;
+			for (Token token : tokens) {
+				// Use the tokens of the map, not copies of them
+				Token t = token != null ? zone.getToken(token.getId()) : null;
+				if (t != null) {
+					tokenSet.add(t);
 				}
 			}
-			tokenList.retainAll(inrange);
 		}
 
-		// Loop through and compare the area if we have it
-		if (area != null) {
-			TokenLocationFunctions instance = TokenLocationFunctions.getInstance();
-			Token token;
-			if (area.containsKey("token")) {
-				token = findToken(area.getString("token"), null);
-				if (token == null) {
-					throw new ParserException(I18N.getText("macro.function.general.unknownToken", "getTokens", area.getString("token")));
-				}
-			} else {
-				GUID guid = MapTool.getFrame().getCommandPanel().getIdentityGUID();
-				if (guid != null)
-					token = MapTool.getFrame().getCurrentZoneRenderer().getZone().getToken(guid);
-				else
-					token = findToken(MapTool.getFrame().getCommandPanel().getIdentity(), null);
-				if (token == null) {
-					throw new ParserException(I18N.getText("macro.function.general.noImpersonated", "getTokens"));
-				}
+		@Override
+		public Collection<Token> getCandidates() {
+			return match ? tokenSet : null;
+		}
+
+		@Override
+		public boolean matchToken(Token t) {
+			return tokenSet.contains(t) == match;
+		}
+	}
+
+	/**
+	 * The <code>range</code> condition: tokens other than the source token within <code>from</code> to
+	 * <code>upto</code> of it.
+	 */
+	static class RangeCondition extends Condition {
+		private final Zone zone;
+		private final Token source;
+		private final int from;
+		private final int upto;
+		private final boolean useDistancePerCell;
+		private final String metric;
+
+		public RangeCondition(Zone zone, Token source, JSONObject range) {
+			super(10);
+			this.zone = zone;
+			this.source = source;
+			from = range.containsKey("from") ? range.getInt("from") : Integer.MIN_VALUE;
+			upto = range.containsKey("upto") ? range.getInt("upto") : Integer.MAX_VALUE;
+			useDistancePerCell = range.containsKey("distancePerCell") ? getInstance().booleanCheck(range, "distancePerCell") : true;
+			metric = range.containsKey("metric") ? range.getString("metric") : null;
+		}
+
+		/**
+		 * Every way of measuring the distance counts at least a cell (<code>unitsPerCell</code> when measuring in units)
+		 * for each cell between the two tokens, so nothing further than <code>upto</code> cells away needs to be
+		 * looked at.
+		 */
+		@Override
+		public Collection<Token> getCandidates() {
+			int perCell = useDistancePerCell ? zone.getUnitsPerCell() : 1;
+			if (upto == Integer.MAX_VALUE || perCell <= 0) {
+				return null;
+			}
+			long cells = upto < 0 ? 0 : (long) Math.ceil((double) upto / perCell);
+
+			Grid grid = zone.getGrid();
+			Rectangle bounds = source.getFootprint(grid).getBounds(grid, grid.convert(new ZonePoint(source.getX(), source.getY())));
+			bounds.add(source.getX(), source.getY());
+			return zone.getTokensByLocation(getReach(zone, bounds, cells));
+		}
+
+		@Override
+		public boolean matchToken(Token t) throws ParserException {
+			if (t == source) {
+				return false;
+			}
+			double distance = TokenLocationFunctions.getInstance().getDistance(zone, source, t, useDistancePerCell, metric);
+			if (distance == TokenLocationFunctions.UNREACHABLE) {
+				return false;
 			}
+			return distance <= upto && distance >= from;
+		}
+	}
+
+	/**
+	 * The <code>area</code> condition: tokens on any of the cells at the given offsets from the source token.
+	 */
+	private static class AreaCondition extends Condition {
+		private final Zone zone;
+		private final String metric;
+		private final List<CellPoint> cellList = new ArrayList<CellPoint>();
+
+		public AreaCondition(Zone zone, Token source, JSONObject area) throws ParserException {
+			super(10);
+			this.zone = zone;
 			JSONArray offsets = area.getJSONArray("offsets");
 			if (offsets == null) {
 				throw new ParserException(I18N.getText("macro.function.findTokenFunctions.offsetArray", "getTokens"));
 			}
-			String metric = null;
-			if (area.containsKey("metric")) {
-				metric = area.getString("metric");
-			}
-			CellPoint cp = instance.getTokenCell(token);
+			metric = area.containsKey("metric") ? area.getString("metric") : null;
 
-			Set<Token> matching = new HashSet<Token>();
+			CellPoint cp = TokenLocationFunctions.getInstance().getTokenCell(source);
 			for (Object o : offsets) {
 				if (!(o instanceof JSONObject)) {
 					throw new ParserException(I18N.getText("macro.function.findTokenFunctions.offsetArray", "getTokens"));
@@ -474,32 +602,39 @@ public class FindTokenFunctions extends AbstractFunction {
 				if (!joff.containsKey("x") || !joff.containsKey("y")) {
 					throw new ParserException(I18N.getText("macro.function.findTokenFunctions.offsetArray", "getTokens"));
 				}
-				int x = joff.getInt("x");
-				int y = joff.getInt("y");
-				for (Token targetToken : tokenList) {
-					if (!matching.contains(targetToken)) {
-						Double distance = instance.getDistance(targetToken, cp.x + x, cp.y + y, false, metric);
-						if (distance >= 0 && distance < 1) {
-							matching.add(targetToken);
-						}
-					}
-				}
+				cellList.add(new CellPoint(cp.x + joff.getInt("x"), cp.y + joff.getInt("y")));
 			}
-			tokenList.retainAll(matching);
 		}
 
-		ArrayList<String> values = new ArrayList<String>();
-		for (Token token : tokenList) {
-			if (nameOnly) {
-				values.add(token.getName());
-			} else {
-				values.add(token.getId().toString());
+		@Override
+		public Collection<Token> getCandidates() {
+			if (cellList.isEmpty()) {
+				return Collections.emptyList();
+			}
+			Grid grid = zone.getGrid();
+			boolean pathing = grid.getCapabilities().isPathingSupported() && !NO_GRID.equals(metric);
+			Rectangle bounds = null;
+			for (CellPoint cell : cellList) {
+				// Without a grid to follow the cell is taken as a point on the map
+				Rectangle cellBounds = pathing ? grid.getBounds(cell) : new Rectangle(cell.x, cell.y, 0, 0);
+				if (bounds == null) {
+					bounds = new Rectangle(cellBounds);
+				} else {
+					bounds.add(cellBounds);
+				}
 			}
+			return zone.getTokensByLocation(getReach(zone, bounds, 0));
 		}
-		if ("json".equals(delim)) {
-			return JSONArray.fromObject(values);
-		} else {
-			return StringFunctions.getInstance().join(values, delim);
+
+		@Override
+		public boolean matchToken(Token t) throws ParserException {
+			for (CellPoint cell : cellList) {
+				double distance = TokenLocationFunctions.getInstance().getDistance(zone, t, cell.x, cell.y, false, metric);
+				if (distance != TokenLocationFunctions.UNREACHABLE && distance >= 0 && distance < 1) {
+					return true;
+				}
+			}
+			return false;
 		}
 	}
 
@@ -14,6 +14,7 @@ import java.util.List;
 
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.MapToolVariableResolver;
+import net.rptools.maptool.client.ui.zone.ZoneRenderer;
 import net.rptools.maptool.language.I18N;
 import net.rptools.maptool.model.Token;
 import net.rptools.maptool.model.Zone;
@@ -70,6 +71,11 @@ public class TokenGMNameFunction extends AbstractFunction {
 			throw new ParserException(I18N.getText("macro.function.general.noPerm", "setGMName"));
 		}
 		token.setGMName(name);
+		// So the token can be found by its new GM name before it is put back on the map
+		ZoneRenderer renderer = MapTool.getFrame().getCurrentZoneRenderer();
+		if (renderer != null) {
+			renderer.getZone().tokenRenamed(token);
+		}
 	}
 
 	@Override
@@ -44,6 +44,9 @@ public class TokenLocationFunctions extends AbstractFunction {
 	/** Ignore grid for movement metric in distance methods. */
 	private static final String NO_GRID = "NO_GRID";
 
+	/** Distance returned when the topology walls the target off from the source. */
+	public static final int UNREACHABLE = -1;
+
 	/** Singleton for class/ */
 	private static final TokenLocationFunctions instance = new TokenLocationFunctions();
 
@@ -261,12 +264,20 @@ public class TokenLocationFunctions extends AbstractFunction {
 	 * @param source
 	 * @param target
 	 * @param gridUnits
-	 * @return
+	 * @return the distance, or {@link #UNREACHABLE}
 	 * @throws ParserException
 	 */
 	public double getDistance(Token source, Token target, boolean units, String metric) throws ParserException {
-		ZoneRenderer renderer = MapTool.getFrame().getCurrentZoneRenderer();
-		Grid grid = renderer.getZone().getGrid();
+		return getDistance(MapTool.getFrame().getCurrentZoneRenderer().getZone(), source, target, units, metric);
+	}
+
+	/**
+	 * Gets the distance between two tokens on the given map.
+	 * 
+	 * @see #getDistance(Token, Token, boolean, String)
+	 */
+	public double getDistance(Zone zone, Token source, Token target, boolean units, String metric) throws ParserException {
+		Grid grid = zone.getGrid();
 
 		if (grid.getCapabilities().isPathingSupported() && !NO_GRID.equals(metric)) {
 
@@ -278,7 +289,7 @@ public class TokenLocationFunctions extends AbstractFunction {
 			if (metric != null && grid instanceof SquareGrid) {
 				try {
 					WalkerMetric wmetric = WalkerMetric.valueOf(metric);
-					walker = new AStarSquareEuclideanWalker(renderer.getZone(), wmetric);
+					walker = new AStarSquareEuclideanWalker(zone, wmetric);
 
 				} catch (IllegalArgumentException e) {
 					throw new ParserException(I18N.getText("macro.function.getDistance.invalidMetric", metric));
@@ -291,15 +302,17 @@ public class TokenLocationFunctions extends AbstractFunction {
 			int distance = Integer.MAX_VALUE;
 			for (CellPoint scell : sourceCells) {
 				for (CellPoint tcell : targetCells) {
-					walker.setWaypoints(scell, tcell);
-					distance = Math.min(distance, walker.getDistance());
+					distance = Math.min(distance, getWalkerDistance(walker, scell, tcell));
 				}
 			}
+			if (distance == Integer.MAX_VALUE) {
+				return UNREACHABLE;
+			}
 
 			if (units) {
 				return distance;
 			} else {
-				return distance / getDistancePerCell();
+				return distance / zone.getUnitsPerCell();
 			}
 		} else {
 
@@ -312,14 +325,24 @@ public class TokenLocationFunctions extends AbstractFunction {
 			double a = sourceCenterX - targetCenterX;
 			double b = sourceCenterY - targetCenterY;
 			double h = Math.sqrt(a * a + b * b);
-			h /= renderer.getZone().getGrid().getSize();
+			h /= grid.getSize();
 			if (units) {
-				h *= renderer.getZone().getUnitsPerCell();
+				h *= zone.getUnitsPerCell();
 			}
 			return h;
 		}
 	}
 
+	/**
+	 * The distance the walker takes to get from one cell to another, or {@link Integer#MAX_VALUE} if the topology
+	 * walls it off.
+	 */
+	private int getWalkerDistance(ZoneWalker walker, CellPoint start, CellPoint end) {
+		walker.setWaypoints(start, end);
+		walker.completePath();
+		return walker.isReachable() ? walker.getDistance() : Integer.MAX_VALUE;
+	}
+
 	/**
 	 * Gets the distance to a target x,y co-ordinate following map movement rules.
 	 * 
@@ -333,13 +356,21 @@ public class TokenLocationFunctions extends AbstractFunction {
 	 *            get the distance in the units specified for the map.
 	 * @param metric
 	 *            The metric used.
-	 * @return
+	 * @return the distance, or {@link #UNREACHABLE}
 	 * @throws ParserException
 	 *             when an error occurs
 	 */
 	public double getDistance(Token source, int x, int y, boolean units, String metric) throws ParserException {
-		ZoneRenderer renderer = MapTool.getFrame().getCurrentZoneRenderer();
-		Grid grid = renderer.getZone().getGrid();
+		return getDistance(MapTool.getFrame().getCurrentZoneRenderer().getZone(), source, x, y, units, metric);
+	}
+
+	/**
+	 * Gets the distance to a target x,y co-ordinate on the given map.
+	 * 
+	 * @see #getDistance(Token, int, int, boolean, String)
+	 */
+	public double getDistance(Zone zone, Token source, int x, int y, boolean units, String metric) throws ParserException {
+		Grid grid = zone.getGrid();
 
 		if (grid.getCapabilities().isPathingSupported() && !NO_GRID.equals(metric)) {
 
@@ -350,7 +381,7 @@ public class TokenLocationFunctions extends AbstractFunction {
 			if (metric != null && grid instanceof SquareGrid) {
 				try {
 					WalkerMetric wmetric = WalkerMetric.valueOf(metric);
-					walker = new AStarSquareEuclideanWalker(renderer.getZone(), wmetric);
+					walker = new AStarSquareEuclideanWalker(zone, wmetric);
 
 				} catch (IllegalArgumentException e) {
 					throw new ParserException(I18N.getText("macro.function.getDistance.invalidMetric", metric));
@@ -363,14 +394,16 @@ public class TokenLocationFunctions extends AbstractFunction {
 			int distance = Integer.MAX_VALUE;
 			CellPoint targetCell = new CellPoint(x, y);
 			for (CellPoint scell : sourceCells) {
-				walker.setWaypoints(scell, targetCell);
-				distance = Math.min(distance, walker.getDistance());
+				distance = Math.min(distance, getWalkerDistance(walker, scell, targetCell));
+			}
+			if (distance == Integer.MAX_VALUE) {
+				return UNREACHABLE;
 			}
 
 			if (units) {
 				return distance;
 			} else {
-				return distance / getDistancePerCell();
+				return distance / zone.getUnitsPerCell();
 			}
 		} else {
 
@@ -380,9 +413,9 @@ public class TokenLocationFunctions extends AbstractFunction {
 			double a = sourceCenterX - x;
 			double b = sourceCenterY - y;
 			double h = Math.sqrt(a * a + b * b);
-			h /= renderer.getZone().getGrid().getSize();
+			h /= grid.getSize();
 			if (units) {
-				h *= renderer.getZone().getUnitsPerCell();
+				h *= zone.getUnitsPerCell();
 			}
 			return h;
 		}
@@ -599,15 +632,6 @@ public class TokenLocationFunctions extends AbstractFunction {
 		return "";
 	}
 
-	/**
-	 * Gets the distance for each cell.
-	 * 
-	 * @return the distance for each cell.
-	 */
-	private int getDistancePerCell() {
-		return MapTool.getFrame().getCurrentZoneRenderer().getZone().getUnitsPerCell();
-	}
-
 	/**
 	 * Gets the cell point that the token is at.
 	 * 
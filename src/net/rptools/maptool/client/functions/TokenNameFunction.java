@@ -69,6 +69,11 @@ public class TokenNameFunction extends AbstractFunction {
 	 */
 	public void setName(Token token, String name) {
 		token.setName(name);
+		// So the token can be found by its new name before it is put back on the map
+		ZoneRenderer renderer = MapTool.getFrame().getCurrentZoneRenderer();
+		if (renderer != null) {
+			renderer.getZone().tokenRenamed(token);
+		}
 	}
 
 	/**
@@ -144,7 +149,7 @@ public class TokenNameFunction extends AbstractFunction {
 		} else {
 			throw new ParserException(I18N.getText("macro.function.general.tooManyParam", "setName", 2, args.size()));
 		}
-		token.setName(args.get(0).toString());
+		setName(token, args.get(0).toString());
 		ZoneRenderer renderer = MapTool.getFrame().getCurrentZoneRenderer();
 		MapTool.serverCommand().putToken(renderer.getZone().getId(), token);
 		return args.get(0);
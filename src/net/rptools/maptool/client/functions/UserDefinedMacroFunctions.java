@@ -40,6 +40,8 @@ public class UserDefinedMacroFunctions implements Function {
 	private Map<String, FunctionDefinition> userDefinedFunctions = new HashMap<String, FunctionDefinition>();
 	private Map<String, FunctionRedefinition> redefinedFunctions = new HashMap<String, FunctionRedefinition>();
 	private Stack<String> currentFunction = new Stack<String>();
+	// Moved on whenever the functions change, as parsers only pick up the functions when they are set up
+	private volatile int generation;
 	
 	
 
@@ -184,6 +186,15 @@ public class UserDefinedMacroFunctions implements Function {
 		}
 		
 		userDefinedFunctions.put(name, new FunctionDefinition(macro, ignoreOutput, newVariableContext));
+		generation++;
+	}
+
+	/**
+	 * @return a number that changes whenever functions are defined or cleared, so a parser set up with an older one
+	 *         is missing some
+	 */
+	public int getGeneration() {
+		return generation;
 	}
 
 	
@@ -206,6 +217,7 @@ public class UserDefinedMacroFunctions implements Function {
 
 	public void loadCampaignLibFunctions() {
 		userDefinedFunctions.clear();
+		generation++;
 		
 		List<ZoneRenderer> zrenderers = MapTool.getFrame().getZoneRenderers();
 		for (ZoneRenderer zr : zrenderers) {
@@ -70,7 +70,10 @@ public class MeasureTool extends DefaultTool implements ZoneOverlay {
 
 			int y = (int) sp.y - 10;
 			int x = (int) sp.x + (int) (renderer.getScaledGridSize() / 2);
-			GraphicsUtil.drawBoxedString(g, Integer.toString(walker.getDistance()), x, y);
+			// No distance to show if the topology walls it off
+			if (walker.isReachable()) {
+				GraphicsUtil.drawBoxedString(g, Integer.toString(walker.getDistance()), x, y);
+			}
 		} else {
 			Object oldAA = SwingUtil.useAntiAliasing(g);
 			g.setColor(Color.black);
@@ -36,6 +36,7 @@ import java.awt.image.BufferedImage;
 import java.awt.image.ImageObserver;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -75,6 +76,7 @@ import net.rptools.maptool.client.ui.zone.ZoneOverlay;
 import net.rptools.maptool.client.ui.zone.ZoneRenderer;
 import net.rptools.maptool.model.CellPoint;
 import net.rptools.maptool.model.ExposedAreaMetaData;
+import net.rptools.maptool.model.FogBitmap;
 import net.rptools.maptool.model.GUID;
 import net.rptools.maptool.model.Grid;
 import net.rptools.maptool.model.MovementKey;
@@ -807,7 +809,7 @@ public class PointerTool extends DefaultTool implements ZoneOverlay {
 		Zone zone = renderer.getZone();
 		if (zone.hasFog()) {
 			// Check that the new position for each token is within the exposed area
-			Area zoneFog = zone.getExposedArea();
+			Area zoneFog = zone.getExposedBitmap() != null ? null : zone.getExposedArea();
 			if (zoneFog == null)
 				zoneFog = new Area();
 			boolean useTokenExposedArea = MapTool.getServerPolicy().isUseIndividualFOW() && zone.getVisionType() != VisionType.OFF;
@@ -822,12 +824,18 @@ public class PointerTool extends DefaultTool implements ZoneOverlay {
 				if (token == null) {
 					continue;
 				}
-				if (useTokenExposedArea) {
+				Rectangle tokenSize = token.getBounds(zone);
+				Rectangle destination = new Rectangle(tokenSize.x + deltaX, tokenSize.y + deltaY, tokenSize.width, tokenSize.height);
+				if (zone.getExposedBitmap() != null) {
+					// Raster fog: only the cells around the destination need to be an Area, the grid checks a cell beyond it at most
+					FogBitmap bitmap = zone.getExposedBitmap(useTokenExposedArea ? Collections.singletonList(token) : null);
+					Rectangle around = new Rectangle(destination);
+					around.grow(grid.getSize(), grid.getSize());
+					tokenFog = bitmap.toArea(around);
+				} else if (useTokenExposedArea) {
 					ExposedAreaMetaData meta = zone.getExposedAreaMetaData(token.getExposedAreaGUID());
 					tokenFog.add(meta.getExposedAreaHistory());
 				}
-				Rectangle tokenSize = token.getBounds(zone);
-				Rectangle destination = new Rectangle(tokenSize.x + deltaX, tokenSize.y + deltaY, tokenSize.width, tokenSize.height);
 				isBlocked = !grid.validateMove(token, destination, dirx, diry, tokenFog);
 			}
 		}
@@ -842,7 +850,7 @@ public class PointerTool extends DefaultTool implements ZoneOverlay {
 		boolean isVisible = true;
 		if (zone.hasFog()) {
 			// Check that the new position for each token is within the exposed area
-			Area fow = zone.getExposedArea();
+			Area fow = zone.getExposedBitmap() != null ? new Area() : zone.getExposedArea();
 			if (fow == null) {
 				return true;
 			}
@@ -878,12 +886,12 @@ public class PointerTool extends DefaultTool implements ZoneOverlay {
 						bounds.height = intervalX * (dx + 1) / 3 - intervalX * dx / 3;
 
 						if (!MapTool.getServerPolicy().isUseIndividualFOW() || zone.getVisionType() == VisionType.OFF) {
-							if (fow.contains(bounds)) {
+							if (zone.getExposedBitmap() != null ? zone.getExposedBitmap().contains(bounds) : fow.contains(bounds)) {
 								counter++;
 							}
 						} else {
 							ExposedAreaMetaData meta = zone.getExposedAreaMetaData(token.getExposedAreaGUID());
-							if (meta.getExposedAreaHistory().contains(bounds)) {
+							if (meta.getExposedBitmap() != null ? meta.getExposedBitmap().contains(bounds) : meta.getExposedAreaHistory().contains(bounds)) {
 								counter++;
 							}
 						}
@@ -84,6 +84,7 @@ import net.rptools.maptool.client.AppPreferences;
 import net.rptools.maptool.client.AppState;
 import net.rptools.maptool.client.AppStyle;
 import net.rptools.maptool.client.AppUtil;
+import net.rptools.maptool.client.LibTokenIndex;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.ServerDisconnectHandler;
 import net.rptools.maptool.client.swing.CoordinateStatusBar;
@@ -172,6 +173,7 @@ public class MapToolFrame extends DefaultDockableHolder implements WindowListene
 	private FullScreenFrame fullScreenFrame;
 	private final JPanel rendererBorderPanel;
 	private final List<ZoneRenderer> zoneRendererList;
+	private final LibTokenIndex libTokenIndex = new LibTokenIndex();
 	private final JMenuBar menuBar;
 	private final StatusPanel statusPanel;
 	private String statusMessage = "";
@@ -1073,6 +1075,13 @@ public class MapToolFrame extends DefaultDockableHolder implements WindowListene
 		return pen;
 	}
 
+	/**
+	 * @return the <code>lib:</code> tokens on the maps of all of the zone renderers
+	 */
+	public LibTokenIndex getLibTokenIndex() {
+		return libTokenIndex;
+	}
+
 	public List<ZoneRenderer> getZoneRenderers() {
 		// TODO: This should prob be immutable
 		return zoneRendererList;
@@ -1084,11 +1093,13 @@ public class MapToolFrame extends DefaultDockableHolder implements WindowListene
 
 	public void addZoneRenderer(ZoneRenderer renderer) {
 		zoneRendererList.add(renderer);
+		libTokenIndex.addZone(renderer.getZone());
 	}
 
 	public void removeZoneRenderer(ZoneRenderer renderer) {
 		boolean isCurrent = renderer == getCurrentZoneRenderer();
 		zoneRendererList.remove(renderer);
+		libTokenIndex.removeZone(renderer.getZone());
 		if (isCurrent) {
 			boolean rendererSet = false;
 			for (ZoneRenderer currRenderer : zoneRendererList) {
@@ -1108,6 +1119,7 @@ public class MapToolFrame extends DefaultDockableHolder implements WindowListene
 
 	public void clearZoneRendererList() {
 		zoneRendererList.clear();
+		libTokenIndex.clear();
 		zoneMiniMapPanel.flush();
 		zoneMiniMapPanel.repaint();
 	}
@@ -1115,15 +1127,19 @@ public class MapToolFrame extends DefaultDockableHolder implements WindowListene
 	public void setCurrentZoneRenderer(ZoneRenderer renderer) {
 		// Flush first so that the new zone renderer can inject the newly needed images
 		if (renderer != null) {
-			ImageManager.flush(renderer.getZone().getAllAssetIds());
+			Set<MD5Key> assetIds = renderer.getZone().getAllAssetIds();
+			ImageManager.flush(assetIds);
+			ImageManager.setActiveZone(renderer, assetIds);
 		} else {
 			ImageManager.flush();
+			ImageManager.setActiveZone(null, null);
 //			zoneRendererList.remove(currentRenderer);
 		}
 		// Handle new renderers
 		// TODO: should this be here ?
 		if (renderer != null && !zoneRendererList.contains(renderer)) {
 			zoneRendererList.add(renderer);
+			libTokenIndex.addZone(renderer.getZone());
 		}
 		if (currentRenderer != null) {
 			currentRenderer.flush();
@@ -41,6 +41,7 @@ public class StartServerDialogPreferences {
 	private static final String KEY_WALKER_METRIC = "movementMetric";
 	private static final String KEY_USE_INDIVIDUAL_FOW = "useIndividualFOW";
 	private static final String KEY_AUTO_REVEAL_ON_MOVE = "autoRevealOnMovement";
+	private static final String KEY_BANDWIDTH_LIMIT = "bandwidthLimit";
 
 	private static Boolean useToolTipsForUnformattedRolls = null;
 
@@ -193,4 +194,15 @@ public class StartServerDialogPreferences {
 	public void setAutoRevealOnMovement(boolean flag) {
 		prefs.putBoolean(KEY_AUTO_REVEAL_ON_MOVE, flag);
 	}
+
+	/**
+	 * @return bytes per second the server sends to each client at most, 0 for no limit
+	 */
+	public int getBandwidthLimit() {
+		return prefs.getInt(KEY_BANDWIDTH_LIMIT, 0);
+	}
+
+	public void setBandwidthLimit(int bytesPerSecond) {
+		prefs.putInt(KEY_BANDWIDTH_LIMIT, bytesPerSecond);
+	}
 }
@@ -53,6 +53,7 @@ import net.rptools.maptool.client.ui.zone.ZoneRenderer;
 import net.rptools.maptool.language.I18N;
 import net.rptools.maptool.model.CellPoint;
 import net.rptools.maptool.model.ExposedAreaMetaData;
+import net.rptools.maptool.model.FogBitmap;
 import net.rptools.maptool.model.GUID;
 import net.rptools.maptool.model.InitiativeList;
 import net.rptools.maptool.model.MacroButtonProperties;
@@ -300,11 +301,16 @@ public class TokenPopupMenu extends AbstractTokenPopupMenu {
 
 		public void actionPerformed(ActionEvent e) {
 			Zone zone = getRenderer().getZone();
-			Area area = zone.getExposedArea();
+			FogBitmap bitmap = zone.getExposedBitmap();
+			Area area = bitmap == null ? zone.getExposedArea() : null;
 			for (GUID tok : selectedTokenSet) {
 				Token token = zone.getToken(tok);
 				ExposedAreaMetaData meta = zone.getExposedAreaMetaData(token.getExposedAreaGUID());
-				meta.addToExposedAreaHistory(area);
+				if (bitmap != null) {
+					meta.addToExposedAreaHistory(bitmap);
+				} else {
+					meta.addToExposedAreaHistory(area);
+				}
 				getRenderer().flush(token);
 				zone.setExposedAreaMetaData(token.getExposedAreaGUID(), meta);
 				MapTool.serverCommand().updateExposedAreaMeta(zone.getId(), token.getExposedAreaGUID(), meta);
@@ -10,9 +10,12 @@
  */
 package net.rptools.maptool.client.ui.campaignproperties;
 
+import java.awt.BorderLayout;
 import java.awt.Color;
+import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.EventQueue;
+import java.awt.FlowLayout;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -34,15 +37,20 @@ import java.util.TreeMap;
 import javax.swing.AbstractAction;
 import javax.swing.DefaultListModel;
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JComponent;
 import javax.swing.JDialog;
 import javax.swing.JEditorPane;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JTabbedPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 
 import net.rptools.lib.swing.SwingUtil;
 import net.rptools.maptool.client.MapTool;
@@ -51,6 +59,7 @@ import net.rptools.maptool.language.I18N;
 import net.rptools.maptool.model.AssetManager;
 import net.rptools.maptool.model.Campaign;
 import net.rptools.maptool.model.CampaignProperties;
+import net.rptools.maptool.model.CampaignProperties.VisibilityAlgorithm;
 import net.rptools.maptool.model.GUID;
 import net.rptools.maptool.model.Light;
 import net.rptools.maptool.model.LightSource;
@@ -73,6 +82,9 @@ public class CampaignPropertiesDialog extends JDialog {
 
 	private Status status;
 	private FormPanel formPanel;
+	// JComboBox is only generic from Java 7 on
+	@SuppressWarnings("rawtypes")
+	private JComboBox visibilityAlgorithmCombo;
 	private Campaign campaign;
 
 	public CampaignPropertiesDialog(JFrame owner) {
@@ -117,6 +129,7 @@ public class CampaignPropertiesDialog extends JDialog {
 
 		initImportButton();
 		initExportButton();
+		initVisibilityAlgorithmCombo();
 
 		add(formPanel);
 
@@ -137,6 +150,30 @@ public class CampaignPropertiesDialog extends JDialog {
 		panel.reset();
 	}
 
+	/**
+	 * The form doesn't have a place for it, so it goes along the bottom of the Sight tab
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private void initVisibilityAlgorithmCombo() {
+		visibilityAlgorithmCombo = new JComboBox(VisibilityAlgorithm.values());
+
+		JPanel algorithmPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+		algorithmPanel.add(new JLabel(I18N.getText("campaignPropertiesDialog.visibilityAlgorithm")));
+		algorithmPanel.add(visibilityAlgorithmCombo);
+
+		JTabbedPane tabs = (JTabbedPane) SwingUtilities.getAncestorOfClass(JTabbedPane.class, getSightPanel());
+		int index = 0;
+		while (!SwingUtilities.isDescendingFrom(getSightPanel(), tabs.getComponentAt(index))) {
+			index++;
+		}
+		Component sightTab = tabs.getComponentAt(index);
+		JPanel panel = new JPanel(new BorderLayout());
+		// Replaced first, adding it elsewhere would remove the tab
+		tabs.setComponentAt(index, panel);
+		panel.add(sightTab, BorderLayout.CENTER);
+		panel.add(algorithmPanel, BorderLayout.SOUTH);
+	}
+
 	public JTextField getNewServerTextField() {
 		return formPanel.getTextField("newServer");
 	}
@@ -209,6 +246,7 @@ public class CampaignPropertiesDialog extends JDialog {
 		text = updateSightPanel(campaignProperties.getSightTypeMap());
 		getSightPanel().setText(text);
 		getSightPanel().setCaretPosition(0);
+		visibilityAlgorithmCombo.setSelectedItem(campaignProperties.getVisibilityAlgorithm());
 
 		text = updateLightPanel(campaignProperties.getLightSourcesMap());
 		getLightPanel().setText(text);
@@ -368,6 +406,7 @@ public class CampaignPropertiesDialog extends JDialog {
 		campaign.getLightSourcesMap().putAll(lightMap);
 
 		commitSightMap(getSightPanel().getText());
+		campaign.setVisibilityAlgorithm((VisibilityAlgorithm) visibilityAlgorithmCombo.getSelectedItem());
 		tokenStatesController.copyUIToCampaign(campaign);
 		tokenBarController.copyUIToCampaign(campaign);
 
@@ -15,7 +15,6 @@ import java.awt.Color;
 import java.awt.EventQueue;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.File;
 import java.io.Serializable;
 import java.text.NumberFormat;
 import java.util.List;
@@ -156,7 +155,7 @@ public class TransferProgressDialog extends AbeillePanel<Token> implements Consu
 
 	////
 	// CONSUMER LISTENER
-	public void assetComplete(Serializable id, String name, File data) {
+	public void assetComplete(Serializable id, String name, byte[] data, String checksum) {
 		updateTransferTable();
 	}
 
@@ -42,7 +42,9 @@ import net.rptools.maptool.client.AppUtil;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.ui.zone.vbl.AreaOcean;
 import net.rptools.maptool.client.ui.zone.vbl.AreaTree;
+import net.rptools.maptool.client.ui.zone.vbl.VisibilitySweep;
 import net.rptools.maptool.client.ui.zone.vbl.VisibleAreaSegment;
+import net.rptools.maptool.model.CampaignProperties.VisibilityAlgorithm;
 import net.rptools.maptool.model.CellPoint;
 import net.rptools.maptool.model.ExposedAreaMetaData;
 import net.rptools.maptool.model.GUID;
@@ -59,6 +61,25 @@ import org.apache.log4j.Logger;
 public class FogUtil {
 	private static final Logger log = Logger.getLogger(FogUtil.class);
 
+	/**
+	 * Same as {@link #calculateVisibility(int, int, Area, AreaTree)}, but with a choice of how the topology is applied.
+	 * Both algorithms give the same result, see {@link VisibilityAlgorithm}.
+	 */
+	public static Area calculateVisibility(int x, int y, Area vision, AreaTree topology, VisibilityAlgorithm algorithm) {
+		if (algorithm != VisibilityAlgorithm.ANGULAR_SWEEP) {
+			return calculateVisibility(x, y, vision, topology);
+		}
+		vision = new Area(vision);
+		vision.transform(AffineTransform.getTranslateInstance(x, y));
+
+		Point origin = new Point(x, y);
+		AreaOcean ocean = topology.getOceanAt(origin);
+		if (ocean == null) {
+			return null;
+		}
+		return VisibilitySweep.calculateVisibility(origin, vision, ocean);
+	}
+
 	public static Area calculateVisibility(int x, int y, Area vision, AreaTree topology) {
 		CodeTimer timer = new CodeTimer("calculateVisibility");
 
@@ -244,7 +265,7 @@ public class FogUtil {
 			ExposedAreaMetaData meta = fullMeta.get(exposedGUID);
 
 			if (meta == null) {
-				meta = new ExposedAreaMetaData();
+				meta = new ExposedAreaMetaData(zone.getFogCellSize());
 				fullMeta.put(exposedGUID, meta);
 			}
 			for (CellPoint cell : lastPath.getCellPath()) {
@@ -323,12 +344,22 @@ public class FogUtil {
 		// Make sure all classes are loaded
 		calculateVisibility(topSize / 2, topSize / 2, vision, tree);
 
-		Area area1 = new Area();
-		for (int i = 0; i < 1; i++) {
-			// Return value isn't used except for debugging
-			area1 = calculateVisibility(topSize / 2, topSize / 2, vision, tree);
+		calculateVisibility(topSize / 2, topSize / 2, vision, tree, VisibilityAlgorithm.ANGULAR_SWEEP);
+
+		// Compare the algorithms from the same spots on the same tree
+		for (VisibilityAlgorithm algorithm : VisibilityAlgorithm.values()) {
+			Random spots = new Random(54321);
+			int count = 0;
+			long start = System.nanoTime();
+			for (int i = 0; i < 50; i++) {
+				int x = topSize / 2 + spots.nextInt(2000) - 1000;
+				int y = topSize / 2 + spots.nextInt(2000) - 1000;
+				if (calculateVisibility(x, y, vision, tree, algorithm) != null) {
+					count++;
+				}
+			}
+			System.out.println(algorithm + ": " + count + " spots in " + (System.nanoTime() - start) / 1000000 + "ms");
 		}
-		area1.equals(null); // Eliminates the warning about "area1 never read locally" from Eclipse
 
 		JFrame f = new JFrame();
 		f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
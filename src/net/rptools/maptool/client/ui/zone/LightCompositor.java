@@ -0,0 +1,236 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import java.awt.Paint;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Combines the coloured lights of a map into the areas that are drawn for them. Lights of the same colour that overlap
+ * are merged so the overlap isn't drawn twice, and bright light is cut out of them.
+ * <p>
+ * The merged areas are kept between updates. Lights are told apart by identity, as {@link ZoneView} keeps the same
+ * {@link DrawableLight}s until their token changes, so only the groups a changed light was or ends up in are merged
+ * again. Groups are found through a uniform grid of their bounds in map coordinates.
+ * <p>
+ * Like the rest of the renderer state this is only meant to be touched from the event dispatch thread.
+ */
+public class LightCompositor {
+	private static final int BUCKET_SIZE = 512;
+
+	private final Map<DrawableLight, LightGroup> groupMap = new HashMap<DrawableLight, LightGroup>();
+	private final Set<LightGroup> groupSet = new LinkedHashSet<LightGroup>();
+	private final Map<Point, Set<LightGroup>> bucketMap = new HashMap<Point, Set<LightGroup>>();
+	private final Map<Area, Rectangle> brightLightMap = new HashMap<Area, Rectangle>();
+
+	private static class LightGroup {
+		private final Paint paint;
+		private final List<DrawableLight> lightList = new ArrayList<DrawableLight>();
+		private Rectangle bounds;
+		// Lights merged, bright light cut out; null until it's needed
+		private Area area;
+
+		public LightGroup(Paint paint) {
+			this.paint = paint;
+		}
+
+		public void add(DrawableLight light, Rectangle lightBounds) {
+			lightList.add(light);
+			if (bounds == null) {
+				bounds = new Rectangle(lightBounds);
+			} else {
+				bounds.add(lightBounds);
+			}
+			area = null;
+		}
+	}
+
+	/**
+	 * Bring the merged areas up to date.
+	 *
+	 * @param lightList
+	 *            the lights to draw, each with a paint
+	 * @param brightLightList
+	 *            the bright light to cut out of them
+	 */
+	public void update(Collection<DrawableLight> lightList, Collection<Area> brightLightList) {
+		Set<DrawableLight> lightSet = new HashSet<DrawableLight>(lightList);
+
+		// Gone, so their groups have to be merged again without them
+		for (DrawableLight light : new ArrayList<DrawableLight>(groupMap.keySet())) {
+			if (!lightSet.contains(light)) {
+				LightGroup group = groupMap.get(light);
+				if (group != null) {
+					removeGroup(group);
+				}
+			}
+		}
+		// Bright light that came or went changes the groups it touches
+		Set<Area> brightLightSet = new HashSet<Area>(brightLightList);
+		for (Area brightArea : new ArrayList<Area>(brightLightMap.keySet())) {
+			if (!brightLightSet.contains(brightArea)) {
+				flushGroups(brightLightMap.remove(brightArea));
+			}
+		}
+		for (Area brightArea : brightLightSet) {
+			if (!brightLightMap.containsKey(brightArea)) {
+				Rectangle bounds = brightArea.getBounds();
+				brightLightMap.put(brightArea, bounds);
+				flushGroups(bounds);
+			}
+		}
+		for (DrawableLight light : lightList) {
+			if (!groupMap.containsKey(light)) {
+				addLight(light);
+			}
+		}
+	}
+
+	/**
+	 * @return the areas to fill, by paint
+	 */
+	public Map<Paint, List<Area>> getLightMap() {
+		Map<Paint, List<Area>> lightMap = new LinkedHashMap<Paint, List<Area>>();
+		for (LightGroup group : groupSet) {
+			if (group.area == null) {
+				group.area = new Area();
+				for (DrawableLight light : group.lightList) {
+					group.area.add(light.getArea());
+				}
+				// Cut out the bright light
+				for (Map.Entry<Area, Rectangle> entry : brightLightMap.entrySet()) {
+					if (entry.getValue().intersects(group.bounds)) {
+						group.area.subtract(entry.getKey());
+					}
+				}
+			}
+			List<Area> areaList = lightMap.get(group.paint);
+			if (areaList == null) {
+				areaList = new ArrayList<Area>();
+				lightMap.put(group.paint, areaList);
+			}
+			areaList.add(group.area);
+		}
+		return lightMap;
+	}
+
+	public void clear() {
+		groupMap.clear();
+		groupSet.clear();
+		bucketMap.clear();
+		brightLightMap.clear();
+	}
+
+	private void addLight(DrawableLight light) {
+		LightGroup group = new LightGroup(light.getPaint().getPaint());
+		group.add(light, light.getArea().getBounds());
+
+		// Keep going until nothing else overlaps, the group grows with each merge
+		boolean merged = true;
+		while (merged) {
+			merged = false;
+			for (LightGroup other : getGroups(group.bounds)) {
+				if (other.paint.equals(group.paint) && other.bounds.intersects(group.bounds)) {
+					removeFromIndex(other);
+					for (DrawableLight otherLight : other.lightList) {
+						group.lightList.add(otherLight);
+					}
+					group.bounds.add(other.bounds);
+					merged = true;
+				}
+			}
+		}
+		group.area = null;
+		for (DrawableLight groupLight : group.lightList) {
+			groupMap.put(groupLight, group);
+		}
+		groupSet.add(group);
+		for (Point bucket : getBuckets(group.bounds)) {
+			Set<LightGroup> bucketGroupSet = bucketMap.get(bucket);
+			if (bucketGroupSet == null) {
+				bucketGroupSet = new HashSet<LightGroup>();
+				bucketMap.put(bucket, bucketGroupSet);
+			}
+			bucketGroupSet.add(group);
+		}
+	}
+
+	/**
+	 * Take the group apart; the lights in it that are still around are added again as the caller finds them missing
+	 */
+	private void removeGroup(LightGroup group) {
+		removeFromIndex(group);
+		for (DrawableLight light : group.lightList) {
+			groupMap.remove(light);
+		}
+	}
+
+	private void removeFromIndex(LightGroup group) {
+		groupSet.remove(group);
+		for (Point bucket : getBuckets(group.bounds)) {
+			Set<LightGroup> bucketGroupSet = bucketMap.get(bucket);
+			if (bucketGroupSet != null) {
+				bucketGroupSet.remove(group);
+				if (bucketGroupSet.isEmpty()) {
+					bucketMap.remove(bucket);
+				}
+			}
+		}
+	}
+
+	private void flushGroups(Rectangle bounds) {
+		for (LightGroup group : getGroups(bounds)) {
+			if (group.bounds.intersects(bounds)) {
+				group.area = null;
+			}
+		}
+	}
+
+	private Set<LightGroup> getGroups(Rectangle bounds) {
+		Set<LightGroup> foundSet = new HashSet<LightGroup>();
+		for (Point bucket : getBuckets(bounds)) {
+			Set<LightGroup> bucketGroupSet = bucketMap.get(bucket);
+			if (bucketGroupSet != null) {
+				foundSet.addAll(bucketGroupSet);
+			}
+		}
+		return foundSet;
+	}
+
+	private static Collection<Point> getBuckets(Rectangle bounds) {
+		Collection<Point> bucketList = new ArrayList<Point>();
+		int minCol = floorDiv(bounds.x, BUCKET_SIZE);
+		int maxCol = floorDiv(bounds.x + Math.max(bounds.width, 1) - 1, BUCKET_SIZE);
+		int minRow = floorDiv(bounds.y, BUCKET_SIZE);
+		int maxRow = floorDiv(bounds.y + Math.max(bounds.height, 1) - 1, BUCKET_SIZE);
+		for (int row = minRow; row <= maxRow; row++) {
+			for (int col = minCol; col <= maxCol; col++) {
+				bucketList.add(new Point(col, row));
+			}
+		}
+		return bucketList;
+	}
+
+	private static int floorDiv(int a, int b) {
+		return (int) Math.floor((double) a / b);
+	}
+}
@@ -1,9 +1,9 @@
 /*
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
  * the License. You may obtain a copy of the License at
- * 
+ *
  * http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
  * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
  * specific language governing permissions and limitations under the License.
@@ -11,8 +11,9 @@
 package net.rptools.maptool.client.ui.zone;
 
 import java.awt.AlphaComposite;
-import java.awt.Color;
+import java.awt.Component;
 import java.awt.Composite;
+import java.awt.EventQueue;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
@@ -21,186 +22,295 @@ import java.awt.Transparency;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.ListIterator;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import net.rptools.lib.CodeTimer;
-import net.rptools.lib.image.ImageUtil;
 import net.rptools.maptool.model.drawing.Drawable;
 import net.rptools.maptool.model.drawing.DrawnElement;
 import net.rptools.maptool.model.drawing.Pen;
+import net.rptools.maptool.util.LongObjectMap;
+
+import org.apache.log4j.Logger;
 
 /**
+ * Renders a layer of drawables as a grid of {@value #CHUNK_SIZE} pixel square chunks at the current scale, which are
+ * cached so panning only needs to draw images.
+ * <p>
+ * Missing chunks are rendered on a shared pool of worker threads and show up as soon as they are ready; the owning
+ * component is repainted then. Until then, the chunks of the previous scale are shown scaled in their place, so
+ * zooming doesn't blank the layer. Chunks are kept in least recently used order and evicted once they exceed a memory
+ * budget. Adding or removing a drawable (see {@link #invalidate(DrawnElement)}) only re-renders the chunks it
+ * touches, showing their old content meanwhile.
+ * <p>
+ * Apart from the rendering itself, everything happens on the event dispatch thread.
  */
 public class PartitionedDrawableRenderer implements DrawableRenderer {
+	private static final Logger log = Logger.getLogger(PartitionedDrawableRenderer.class);
+
 	private static final int CHUNK_SIZE = 256;
-	private static List<BufferedImage> unusedChunkList = new LinkedList<BufferedImage>();
+	private static final long CHUNK_BYTES = CHUNK_SIZE * CHUNK_SIZE * 4;
+	// Per layer
+	private static final long MEMORY_BUDGET = Math.min(Runtime.getRuntime().maxMemory() / 32, 48L * 1024 * 1024);
+
+	private static final ExecutorService renderThreadPool = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "DrawableRenderer-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY - 1);
+			return thread;
+		}
+	});
 
-	private final Set<String> noImageSet = new HashSet<String>();
-	private final List<Tuple> chunkList = new LinkedList<Tuple>();
-	private int maxChunks;
+	private final Component owner;
 
-	private double lastDrawableCount;
+	// Keyed by LongObjectMap.pack(cellX, cellY), least recently used first
+	private final Map<Long, Chunk> chunkMap = new LinkedHashMap<Long, Chunk>(64, 0.75f, true);
+	private long memoryUsed;
 	private double lastScale;
-	private Rectangle lastViewport;
+	private int lastDrawableCount;
+	private boolean invalidated;
+
+	// What was rendered at the previous scale, shown until the chunks of the current scale are ready
+	private Map<Long, Chunk> previousChunkMap = new LinkedHashMap<Long, Chunk>();
+	private double previousScale;
+
+	/**
+	 * @param owner
+	 *            repainted whenever chunks finish rendering in the background
+	 */
+	public PartitionedDrawableRenderer(Component owner) {
+		this.owner = owner;
+	}
 
-	private int horizontalChunkCount;
-	private int verticalChunkCount;
+	public void flush() {
+		for (Chunk chunk : chunkMap.values()) {
+			chunk.cancel();
+		}
+		chunkMap.clear();
+		previousChunkMap.clear();
+		memoryUsed = 0;
+	}
 
-	private CodeTimer timer;
+	/**
+	 * Re-renders the chunks covered by a drawable that was just added to or removed from the layer. The rest of the
+	 * cache stays valid.
+	 */
+	public void invalidate(DrawnElement element) {
+		invalidated = true;
+		if (chunkMap.isEmpty() && previousChunkMap.isEmpty()) {
+			return;
+		}
+		Rectangle2D bounds = getDrawnBounds(element);
 
-	public void flush() {
-		for (Tuple tuple : chunkList) {
-			// Reuse the images
-			if (unusedChunkList.size() < maxChunks) {
-				unusedChunkList.add(tuple.image);
+		for (Chunk chunk : chunkMap.values()) {
+			if (chunk.intersects(bounds, lastScale)) {
+				chunk.cancel();
+				chunk.stale = true;
+			}
+		}
+		// They'd only be shown for a moment, but removed drawables shouldn't come back at all
+		for (Iterator<Chunk> iter = previousChunkMap.values().iterator(); iter.hasNext();) {
+			if (iter.next().intersects(bounds, previousScale)) {
+				iter.remove();
 			}
 		}
-		chunkList.clear();
-		noImageSet.clear();
 	}
 
 	public void renderDrawables(Graphics g, List<DrawnElement> drawableList, Rectangle viewport, double scale) {
-		timer = new CodeTimer("Renderer");
-		timer.setThreshold(10);
-		timer.setEnabled(false);
-
 		// NOTHING TO DO
 		if (drawableList == null || drawableList.size() == 0) {
 			flush();
+			lastDrawableCount = 0;
 			return;
 		}
-		// View changed ?
-		if (drawableList.size() != lastDrawableCount || lastScale != scale) {
+		// Changed without telling us which drawable it was ?
+		if (drawableList.size() != lastDrawableCount && !invalidated) {
 			flush();
 		}
-		if (lastViewport == null || viewport.width != lastViewport.width || viewport.height != lastViewport.height) {
-			horizontalChunkCount = (int) Math.ceil(viewport.width / (double) CHUNK_SIZE) + 1;
-			verticalChunkCount = (int) Math.ceil(viewport.height / (double) CHUNK_SIZE) + 1;
-
-			maxChunks = (horizontalChunkCount * verticalChunkCount * 2);
+		if (lastScale != scale) {
+			changeScale(scale);
 		}
-		// Compute grid
-		int gridx = (int) Math.floor(-viewport.x / (double) CHUNK_SIZE);
-		int gridy = (int) Math.floor(-viewport.y / (double) CHUNK_SIZE);
-
-		// OK, weirdest hack ever.  Basically, when the viewport.x is exactly divisible by the chunk size, the gridx decrements
-		// too early, creating a visual jump in the drawables.  I don't know the exact cause, but this seems to account for it
-		// note that it only happens in the negative space.  Weird.
-		gridx += (viewport.x > CHUNK_SIZE && (viewport.x % CHUNK_SIZE == 0) ? -1 : 0);
-		gridy += (viewport.y > CHUNK_SIZE && (viewport.y % CHUNK_SIZE == 0) ? -1 : 0);
-
-		for (int row = 0; row < verticalChunkCount; row++) {
-			for (int col = 0; col < horizontalChunkCount; col++) {
-				int cellX = gridx + col;
-				int cellY = gridy + row;
-
-				String key = getKey(cellX, cellY);
-				if (noImageSet.contains(key)) {
-					continue;
-				}
-				Tuple chunk = findChunk(chunkList, key);
+		// Chunk (0, 0) starts at the zone origin, which is at the viewport offset on screen
+		int minCellX = (int) Math.floor(-viewport.x / (double) CHUNK_SIZE);
+		int minCellY = (int) Math.floor(-viewport.y / (double) CHUNK_SIZE);
+		int maxCellX = (int) Math.floor((viewport.width - 1 - viewport.x) / (double) CHUNK_SIZE);
+		int maxCellY = (int) Math.floor((viewport.height - 1 - viewport.y) / (double) CHUNK_SIZE);
+
+		boolean complete = true;
+		for (int cellY = minCellY; cellY <= maxCellY; cellY++) {
+			for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+				Long key = LongObjectMap.pack(cellX, cellY);
+				Chunk chunk = chunkMap.get(key);
 				if (chunk == null) {
-					chunk = new Tuple(key, createChunk(drawableList, cellX, cellY, scale));
-
-					if (chunk.image == null) {
-						noImageSet.add(key);
-						continue;
-					}
+					chunk = new Chunk(cellX, cellY);
+					chunkMap.put(key, chunk);
 				}
-				// Most recently used is at the front
-				chunkList.add(0, chunk);
-
-				// Trim to the right size
-				while (chunkList.size() > maxChunks) {
-					Tuple removedTuple = chunkList.remove(chunkList.size() - 1);
+				if (chunk.task == null && (!chunk.ready || chunk.stale)) {
+					chunk.task = new RenderTask(chunk, drawableList, scale);
+					renderThreadPool.execute(chunk.task);
 				}
-				int x = col * CHUNK_SIZE - ((CHUNK_SIZE - viewport.x)) % CHUNK_SIZE - (gridx < -1 ? CHUNK_SIZE : 0);
-				int y = row * CHUNK_SIZE - ((CHUNK_SIZE - viewport.y)) % CHUNK_SIZE - (gridy < -1 ? CHUNK_SIZE : 0);
-
-				timer.start("render:DrawImage");
-				g.drawImage(chunk.image, x, y, null);
-				timer.stop("render:DrawImage");
-
-				// DEBUG: Partition boundaries
-				if (false) { // Show partition boundaries
-					if (col % 2 == 0) {
-						if (row % 2 == 0) {
-							g.setColor(Color.white);
-						} else {
-							g.setColor(Color.green);
-						}
-					} else {
-						if (row % 2 == 0) {
-							g.setColor(Color.green);
-						} else {
-							g.setColor(Color.white);
-						}
+				int x = cellX * CHUNK_SIZE + viewport.x;
+				int y = cellY * CHUNK_SIZE + viewport.y;
+				if (chunk.ready) {
+					if (chunk.image != null) {
+						g.drawImage(chunk.image, x, y, null);
 					}
-					g.drawRect(x, y, CHUNK_SIZE - 1, CHUNK_SIZE - 1);
-					g.drawString(key, x + CHUNK_SIZE / 2, y + CHUNK_SIZE / 2);
+				} else {
+					complete = false;
+					renderPrevious(g, x, y, viewport);
 				}
 			}
 		}
+		if (complete) {
+			previousChunkMap.clear();
+		}
+		trim((maxCellX - minCellX + 1) * (maxCellY - minCellY + 1));
+
 		// REMEMBER
-		lastViewport = viewport;
 		lastDrawableCount = drawableList.size();
+		invalidated = false;
+	}
+
+	/**
+	 * Renders the visible part of the layer right away without touching the cache, for when the result can't wait,
+	 * such as screenshots and exports.
+	 */
+	public void renderDrawablesDirectly(Graphics g, List<DrawnElement> drawableList, Rectangle viewport, double scale) {
+		Rectangle bounds = new Rectangle(0, 0, viewport.width, viewport.height);
+		if (g.getClipBounds() != null) {
+			bounds = bounds.intersection(g.getClipBounds());
+		}
+		if (bounds.isEmpty()) {
+			return;
+		}
+		Rectangle2D zoneBounds = new Rectangle2D.Double((bounds.x - viewport.x) / scale, (bounds.y - viewport.y) / scale, bounds.width / scale, bounds.height / scale);
+
+		// Erasers clear what's below them, so the layer needs an image of its own just like the chunks
+		BufferedImage image = new BufferedImage(bounds.width, bounds.height, Transparency.BITMASK);
+		Graphics2D g2d = image.createGraphics();
+		g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g2d.translate(viewport.x - bounds.x, viewport.y - bounds.y);
+		g2d.scale(scale, scale);
+		for (DrawnElement element : drawableList) {
+			if (getDrawnBounds(element).intersects(zoneBounds)) {
+				draw(g2d, element);
+			}
+		}
+		g2d.dispose();
+
+		g.drawImage(image, bounds.x, bounds.y, null);
+	}
+
+	private void changeScale(double scale) {
+		boolean anyReady = false;
+		for (Chunk chunk : chunkMap.values()) {
+			chunk.cancel();
+			anyReady |= chunk.ready && chunk.image != null;
+		}
+		// When zooming quickly, the current scale may not have gotten anywhere yet, keep what we had before then
+		if (anyReady || previousChunkMap.isEmpty()) {
+			previousChunkMap = new LinkedHashMap<Long, Chunk>(chunkMap);
+			previousScale = lastScale;
+		}
+		chunkMap.clear();
+		memoryUsed = 0;
 		lastScale = scale;
+	}
 
-		if (timer.isEnabled()) {
-			System.out.println(timer);
+	/**
+	 * Fills in the screen rectangle of a chunk that isn't ready yet with the chunks of the previous scale
+	 */
+	private void renderPrevious(Graphics g, int x, int y, Rectangle viewport) {
+		if (previousChunkMap.isEmpty()) {
+			return;
+		}
+		double factor = lastScale / previousScale;
+		double previousSize = CHUNK_SIZE * factor;
+
+		int minCellX = (int) Math.floor((x - viewport.x) / previousSize);
+		int minCellY = (int) Math.floor((y - viewport.y) / previousSize);
+		int maxCellX = (int) Math.floor((x + CHUNK_SIZE - 1 - viewport.x) / previousSize);
+		int maxCellY = (int) Math.floor((y + CHUNK_SIZE - 1 - viewport.y) / previousSize);
+
+		Graphics2D g2d = (Graphics2D) g.create();
+		try {
+			g2d.clipRect(x, y, CHUNK_SIZE, CHUNK_SIZE);
+			g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			for (int cellY = minCellY; cellY <= maxCellY; cellY++) {
+				for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+					Chunk chunk = previousChunkMap.get(LongObjectMap.pack(cellX, cellY));
+					if (chunk == null || !chunk.ready || chunk.image == null) {
+						continue;
+					}
+					AffineTransform transform = AffineTransform.getTranslateInstance(viewport.x + cellX * previousSize, viewport.y + cellY * previousSize);
+					transform.scale(factor, factor);
+					g2d.drawImage(chunk.image, transform, null);
+				}
+			}
+		} finally {
+			g2d.dispose();
 		}
 	}
 
-	private Tuple findChunk(List<Tuple> list, String key) {
-		ListIterator<Tuple> iter = list.listIterator();
-		while (iter.hasNext()) {
-			Tuple tuple = iter.next();
-			if (tuple.equals(key)) {
-				iter.remove();
-				return tuple;
+	/**
+	 * Evicts least recently used chunks until the cache fits the memory budget, but never below twice what the
+	 * viewport shows.
+	 */
+	private void trim(int visibleChunkCount) {
+		int minChunks = visibleChunkCount * 2;
+		long budget = Math.max(MEMORY_BUDGET, minChunks * CHUNK_BYTES);
+		// Empty chunks are nearly free, but don't let them pile up forever either
+		int maxChunks = Math.max(minChunks, (int) (budget / CHUNK_BYTES) * 4);
+
+		Iterator<Chunk> iter = chunkMap.values().iterator();
+		while (iter.hasNext() && (memoryUsed > budget || chunkMap.size() > maxChunks)) {
+			Chunk chunk = iter.next();
+			chunk.cancel();
+			if (chunk.image != null) {
+				memoryUsed -= CHUNK_BYTES;
 			}
+			iter.remove();
 		}
-		return null;
 	}
 
-	private BufferedImage createChunk(List<DrawnElement> drawableList, int gridx, int gridy, double scale) {
+	private static Rectangle2D getDrawnBounds(DrawnElement element) {
+		Rectangle2D drawnBounds = new Rectangle(element.getDrawable().getBounds());
+
+		// Handle pen size
+		Pen pen = element.getPen();
+		int penSize = (int) (pen.getThickness() / 2 + 1);
+		drawnBounds.setRect(drawnBounds.getX() - penSize, drawnBounds.getY() - penSize, drawnBounds.getWidth() + pen.getThickness(), drawnBounds.getHeight() + pen.getThickness());
+		return drawnBounds;
+	}
+
+	/**
+	 * Runs on the render threads
+	 */
+	private static BufferedImage renderChunk(List<DrawnElement> drawableList, int gridx, int gridy, double scale) {
 		int x = gridx * CHUNK_SIZE;
 		int y = gridy * CHUNK_SIZE;
+		Rectangle2D chunkBounds = new Rectangle2D.Double(x / scale, y / scale, CHUNK_SIZE / scale, CHUNK_SIZE / scale);
 
 		BufferedImage image = null;
-		Composite oldComposite = null;
 		Graphics2D g = null;
 
 		for (DrawnElement element : drawableList) {
-			timer.start("createChunk:calculate");
-			Drawable drawable = element.getDrawable();
-
-			Rectangle2D drawnBounds = new Rectangle(drawable.getBounds());
-			Rectangle2D chunkBounds = new Rectangle((int) (gridx * (CHUNK_SIZE / scale)), (int) (gridy * (CHUNK_SIZE / scale)), (int) (CHUNK_SIZE / scale), (int) (CHUNK_SIZE / scale));
-
-			// Handle pen size
-			Pen pen = element.getPen();
-			int penSize = (int) (pen.getThickness() / 2 + 1);
-			drawnBounds.setRect(drawnBounds.getX() - penSize, drawnBounds.getY() - penSize, drawnBounds.getWidth() + pen.getThickness(), drawnBounds.getHeight() + pen.getThickness());
-			timer.stop("createChunk:calculate");
-
-			timer.start("createChunk:BoundsCheck");
-			if (!drawnBounds.intersects(chunkBounds)) {
-				timer.stop("createChunk:BoundsCheck");
+			if (!getDrawnBounds(element).intersects(chunkBounds)) {
 				continue;
 			}
-			timer.stop("createChunk:BoundsCheck");
-
-			timer.start("createChunk:CreateChunk");
 			if (image == null) {
-				image = getNewChunk();
+				image = new BufferedImage(CHUNK_SIZE, CHUNK_SIZE, Transparency.BITMASK);
+				image.setAccelerationPriority(1);
 				g = image.createGraphics();
 				g.setClip(0, 0, CHUNK_SIZE, CHUNK_SIZE);
-				oldComposite = g.getComposite();
 
 				g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
@@ -209,22 +319,7 @@ public class PartitionedDrawableRenderer implements DrawableRenderer {
 				af.scale(scale, scale);
 				g.setTransform(af);
 			}
-			timer.stop("createChunk:CreateChunk");
-
-			if (pen.getOpacity() != 1 && pen.getOpacity() != 0 /*
-																 * handle legacy pens, besides, it doesn't make sense to
-																 * have a non visible pen
-																 */) {
-				g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, pen.getOpacity()));
-			}
-
-//			g.setColor(Color.red);
-//			g.draw(drawnBounds);
-
-			timer.start("createChunk:Draw");
-			drawable.draw(g, pen);
-			g.setComposite(oldComposite);
-			timer.stop("createChunk:Draw");
+			draw(g, element);
 		}
 		if (g != null) {
 			g.dispose();
@@ -232,34 +327,108 @@ public class PartitionedDrawableRenderer implements DrawableRenderer {
 		return image;
 	}
 
-	private BufferedImage getNewChunk() {
-		BufferedImage image = null;
-		if (unusedChunkList.size() > 0) {
-			image = unusedChunkList.remove(0);
-			ImageUtil.clearImage(image);
-		} else {
-			image = new BufferedImage(CHUNK_SIZE, CHUNK_SIZE, Transparency.BITMASK);
+	private static void draw(Graphics2D g, DrawnElement element) {
+		Drawable drawable = element.getDrawable();
+		Pen pen = element.getPen();
+
+		Composite oldComposite = g.getComposite();
+		if (pen.getOpacity() != 1 && pen.getOpacity() != 0 /*
+															 * handle legacy pens, besides, it doesn't make sense to
+															 * have a non visible pen
+															 */) {
+			g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, pen.getOpacity()));
 		}
-		image.setAccelerationPriority(1);
-		return image;
+		drawable.draw(g, pen);
+		g.setComposite(oldComposite);
 	}
 
-	private String getKey(int col, int row) {
-		return col + "." + row;
+	private static class Chunk {
+		final int cellX;
+		final int cellY;
+		BufferedImage image; // null when nothing is drawn in it
+		boolean ready;
+		// Needs to be rendered again, the old image is shown until then
+		boolean stale;
+		RenderTask task;
+
+		Chunk(int cellX, int cellY) {
+			this.cellX = cellX;
+			this.cellY = cellY;
+		}
+
+		boolean intersects(Rectangle2D zoneBounds, double scale) {
+			double size = CHUNK_SIZE / scale;
+			return zoneBounds.intersects(cellX * size, cellY * size, size, size);
+		}
+
+		void cancel() {
+			if (task != null) {
+				task.cancelled = true;
+				task = null;
+			}
+		}
 	}
 
-	private static class Tuple {
-		String key;
-		BufferedImage image;
+	private class RenderTask implements Runnable {
+		private final Chunk chunk;
+		private final List<DrawnElement> drawableList;
+		private final double scale;
+		volatile boolean cancelled;
+
+		RenderTask(Chunk chunk, List<DrawnElement> drawableList, double scale) {
+			this.chunk = chunk;
+			this.drawableList = drawableList;
+			this.scale = scale;
+		}
+
+		public void run() {
+			if (cancelled) {
+				return;
+			}
+			final BufferedImage image;
+			try {
+				image = renderChunk(drawableList, chunk.cellX, chunk.cellY, scale);
+			} catch (RuntimeException e) {
+				log.error("Could not render drawables", e);
+				EventQueue.invokeLater(new Runnable() {
+					public void run() {
+						failed();
+					}
+				});
+				return;
+			}
+			EventQueue.invokeLater(new Runnable() {
+				public void run() {
+					install(image);
+				}
+			});
+		}
 
-		public Tuple(String key, BufferedImage image) {
-			this.key = key;
-			this.image = image;
+		private void install(BufferedImage image) {
+			if (cancelled || chunk.task != this) {
+				return;
+			}
+			if (chunk.image != null) {
+				memoryUsed -= CHUNK_BYTES;
+			}
+			if (image != null) {
+				memoryUsed += CHUNK_BYTES;
+			}
+			chunk.image = image;
+			chunk.ready = true;
+			chunk.stale = false;
+			chunk.task = null;
+			owner.repaint();
 		}
 
-		@Override
-		public boolean equals(Object obj) {
-			return key.equals(obj.toString());
+		/**
+		 * Let go of the chunk without an image, so it is tried again the next time it is painted
+		 */
+		private void failed() {
+			if (cancelled || chunk.task != this) {
+				return;
+			}
+			chunk.task = null;
 		}
 	}
 }
@@ -0,0 +1,225 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Uniform grid over a screen-space region that answers "what is under this point" and "what touches this rectangle"
+ * without scanning every item that was laid out during the last paint.
+ * <p>
+ * Items are expected to be added in paint order, bottom-most first, so the insertion order doubles as the z-order:
+ * point queries return the top-most hit and rectangle queries return hits in paint order. The indexed region is
+ * normally the visible part of the component. Items that stick out of it are additionally kept in an overflow list so
+ * queries outside of the region still see them.
+ * <p>
+ * Like the rest of the renderer state this is only meant to be touched from the event dispatch thread.
+ * 
+ * @param <T>
+ *            type of the indexed items
+ */
+public class SpatialIndex<T> {
+	private static final int BUCKET_SIZE = 64;
+
+	private static final Comparator<Entry<?>> PAINT_ORDER = new Comparator<Entry<?>>() {
+		public int compare(Entry<?> o1, Entry<?> o2) {
+			return o1.sequence < o2.sequence ? -1 : (o1.sequence == o2.sequence ? 0 : 1);
+		}
+	};
+
+	private final Rectangle region;
+	private final int columns;
+	private final int rows;
+	private final List<Entry<T>>[] buckets;
+	private final List<Entry<T>> overflow = new ArrayList<Entry<T>>();
+	private final List<Entry<T>> entries = new ArrayList<Entry<T>>();
+	private int queryStamp;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public SpatialIndex(Rectangle region) {
+		this.region = new Rectangle(region.x, region.y, Math.max(region.width, 1), Math.max(region.height, 1));
+		columns = (this.region.width + BUCKET_SIZE - 1) / BUCKET_SIZE;
+		rows = (this.region.height + BUCKET_SIZE - 1) / BUCKET_SIZE;
+		buckets = new List[columns * rows];
+	}
+
+	public Rectangle getRegion() {
+		return new Rectangle(region);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public boolean isEmpty() {
+		return entries.isEmpty();
+	}
+
+	/**
+	 * Adds an item on top of everything already in the index.
+	 * 
+	 * @param item
+	 *            the item
+	 * @param shape
+	 *            exact outline used for point queries; its bounds are used for everything else
+	 */
+	public void add(T item, Shape shape) {
+		Entry<T> entry = new Entry<T>(item, shape, entries.size());
+		entries.add(entry);
+
+		Rectangle bounds = entry.bounds;
+		if (!region.contains(bounds)) {
+			overflow.add(entry);
+		}
+		Rectangle clipped = bounds.intersection(region);
+		if (clipped.isEmpty()) {
+			return;
+		}
+		int minCol = column(clipped.x);
+		int maxCol = column(clipped.x + clipped.width - 1);
+		int minRow = row(clipped.y);
+		int maxRow = row(clipped.y + clipped.height - 1);
+		for (int row = minRow; row <= maxRow; row++) {
+			for (int col = minCol; col <= maxCol; col++) {
+				int index = row * columns + col;
+				List<Entry<T>> bucket = buckets[index];
+				if (bucket == null) {
+					bucket = new ArrayList<Entry<T>>(4);
+					buckets[index] = bucket;
+				}
+				bucket.add(entry);
+			}
+		}
+	}
+
+	/**
+	 * @return a new list of every item, in paint order
+	 */
+	public List<T> getAll() {
+		List<T> list = new ArrayList<T>(entries.size());
+		for (Entry<T> entry : entries) {
+			list.add(entry.item);
+		}
+		return list;
+	}
+
+	/**
+	 * @return the top-most item whose shape contains the point, or <code>null</code>
+	 */
+	public T getAt(int x, int y) {
+		List<Entry<T>> candidates = region.contains(x, y) ? buckets[row(y) * columns + column(x)] : overflow;
+		if (candidates == null) {
+			return null;
+		}
+		// Both the buckets and the overflow list are filled in paint order
+		for (int i = candidates.size() - 1; i >= 0; i--) {
+			Entry<T> entry = candidates.get(i);
+			if (entry.bounds.contains(x, y) && entry.shape.contains(x, y)) {
+				return entry.item;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the items whose bounds intersect <code>rect</code>, in paint order
+	 */
+	public List<T> getIntersecting(Rectangle rect) {
+		List<Entry<T>> hits = new ArrayList<Entry<T>>();
+		collect(rect, hits);
+
+		List<T> result = new ArrayList<T>(hits.size());
+		for (Entry<T> entry : hits) {
+			result.add(entry.item);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the items whose bounds lie entirely inside <code>bounds</code>, in paint order. This is what stacking
+	 *         detection asks before adding a token: which of the tokens laid out so far does it cover?
+	 */
+	public List<T> getContainedIn(Rectangle bounds) {
+		List<Entry<T>> hits = new ArrayList<Entry<T>>();
+		collect(bounds, hits);
+
+		List<T> result = new ArrayList<T>();
+		for (Entry<T> entry : hits) {
+			if (bounds.contains(entry.bounds)) {
+				result.add(entry.item);
+			}
+		}
+		return result;
+	}
+
+	private void collect(Rectangle rect, List<Entry<T>> hits) {
+		int stamp = ++queryStamp;
+
+		Rectangle clipped = rect.intersection(region);
+		if (!clipped.isEmpty()) {
+			int minCol = column(clipped.x);
+			int maxCol = column(clipped.x + clipped.width - 1);
+			int minRow = row(clipped.y);
+			int maxRow = row(clipped.y + clipped.height - 1);
+			for (int row = minRow; row <= maxRow; row++) {
+				for (int col = minCol; col <= maxCol; col++) {
+					List<Entry<T>> bucket = buckets[row * columns + col];
+					if (bucket != null) {
+						addHits(bucket, rect, stamp, hits);
+					}
+				}
+			}
+		}
+		if (!region.contains(rect)) {
+			addHits(overflow, rect, stamp, hits);
+		}
+		Collections.sort(hits, PAINT_ORDER);
+	}
+
+	private void addHits(List<Entry<T>> candidates, Rectangle rect, int stamp, List<Entry<T>> hits) {
+		for (int i = 0; i < candidates.size(); i++) {
+			Entry<T> entry = candidates.get(i);
+			if (entry.stamp != stamp && entry.bounds.intersects(rect)) {
+				entry.stamp = stamp;
+				hits.add(entry);
+			}
+		}
+	}
+
+	private int column(int x) {
+		return Math.min(columns - 1, Math.max(0, (x - region.x) / BUCKET_SIZE));
+	}
+
+	private int row(int y) {
+		return Math.min(rows - 1, Math.max(0, (y - region.y) / BUCKET_SIZE));
+	}
+
+	private static class Entry<T> {
+		final T item;
+		final Shape shape;
+		final Rectangle bounds;
+		final int sequence;
+		// Last query that reported this entry, so an item spanning several buckets is only reported once
+		int stamp;
+
+		Entry(T item, Shape shape, int sequence) {
+			this.item = item;
+			this.shape = shape;
+			this.bounds = shape.getBounds();
+			this.sequence = sequence;
+		}
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+
+/**
+ * Keeps track of which tokens on the token layer cover which: a token covers another when it is above it and the
+ * other's footprint fits inside its own. Tokens that cover each other, directly or through other tokens, make up a
+ * stack, which is shown with a marker on the top-most token.
+ * <p>
+ * The footprints are kept in a uniform grid in map coordinates, so a token is only compared with the tokens near it,
+ * and only tokens that have changed since the last time are compared again.
+ * <p>
+ * Like the rest of the renderer state this is only meant to be touched from the event dispatch thread.
+ */
+public class TokenStackIndex {
+	private static final int BUCKET_SIZE = 256;
+
+	private final Zone zone;
+
+	private final Map<Point, Set<GUID>> bucketMap = new HashMap<Point, Set<GUID>>();
+	private final Map<GUID, Rectangle> footprintMap = new HashMap<GUID, Rectangle>();
+	/** The tokens each token covers */
+	private final Map<GUID, Set<GUID>> coveredMap = new HashMap<GUID, Set<GUID>>();
+	/** The tokens each token is covered by */
+	private final Map<GUID, Set<GUID>> coveringMap = new HashMap<GUID, Set<GUID>>();
+
+	private final Set<GUID> dirtySet = new HashSet<GUID>();
+	private boolean initialized;
+
+	public TokenStackIndex(Zone zone) {
+		this.zone = zone;
+	}
+
+	/**
+	 * The token has moved, changed, or been added or removed
+	 */
+	public void invalidate(Token token) {
+		dirtySet.add(token.getId());
+	}
+
+	/**
+	 * Everything has changed, such as the grid that the footprints depend on
+	 */
+	public void invalidateAll() {
+		bucketMap.clear();
+		footprintMap.clear();
+		coveredMap.clear();
+		coveringMap.clear();
+		dirtySet.clear();
+		initialized = false;
+	}
+
+	/**
+	 * @param tokenList
+	 *            the tokens to consider, normally the ones that are on screen; the others are left out of the stacks
+	 * @return each stack by the top-most token in it; the sets include the top-most token
+	 */
+	public Map<Token, Set<Token>> getStacks(Collection<Token> tokenList) {
+		update();
+
+		Map<GUID, Token> tokenMap = new HashMap<GUID, Token>();
+		for (Token token : tokenList) {
+			tokenMap.put(token.getId(), token);
+		}
+		// Tokens in the same stack end up with the same root
+		Map<GUID, GUID> parentMap = new HashMap<GUID, GUID>();
+		for (GUID id : tokenMap.keySet()) {
+			Set<GUID> coveredSet = coveredMap.get(id);
+			if (coveredSet == null) {
+				continue;
+			}
+			for (GUID coveredId : coveredSet) {
+				if (tokenMap.containsKey(coveredId)) {
+					GUID root = findRoot(parentMap, id);
+					GUID coveredRoot = findRoot(parentMap, coveredId);
+					if (!root.equals(coveredRoot)) {
+						parentMap.put(coveredRoot, root);
+					}
+				}
+			}
+		}
+		Map<GUID, Set<Token>> stackMap = new HashMap<GUID, Set<Token>>();
+		for (GUID id : parentMap.keySet()) {
+			GUID root = findRoot(parentMap, id);
+			Set<Token> stack = stackMap.get(root);
+			if (stack == null) {
+				stack = new LinkedHashSet<Token>();
+				stack.add(tokenMap.get(root));
+				stackMap.put(root, stack);
+			}
+			stack.add(tokenMap.get(id));
+		}
+		Map<Token, Set<Token>> tokenStackMap = new HashMap<Token, Set<Token>>();
+		for (Set<Token> stack : stackMap.values()) {
+			Token top = null;
+			for (Token token : stack) {
+				if (top == null || Zone.TOKEN_Z_ORDER_COMPARATOR.compare(token, top) > 0) {
+					top = token;
+				}
+			}
+			tokenStackMap.put(top, new HashSet<Token>(stack));
+		}
+		return tokenStackMap;
+	}
+
+	private static GUID findRoot(Map<GUID, GUID> parentMap, GUID id) {
+		GUID root = id;
+		GUID parent;
+		while ((parent = parentMap.get(root)) != null) {
+			root = parent;
+		}
+		// Shorten the path for next time
+		while (!id.equals(root)) {
+			GUID next = parentMap.get(id);
+			parentMap.put(id, root);
+			id = next;
+		}
+		return root;
+	}
+
+	private void update() {
+		if (!initialized) {
+			for (Token token : zone.getTokens()) {
+				if (isStackable(token)) {
+					add(token);
+				}
+			}
+			initialized = true;
+			dirtySet.clear();
+			return;
+		}
+		for (GUID id : dirtySet) {
+			remove(id);
+			Token token = zone.getToken(id);
+			if (token != null && isStackable(token)) {
+				add(token);
+			}
+		}
+		dirtySet.clear();
+	}
+
+	private static boolean isStackable(Token token) {
+		return token.getLayer() == Zone.Layer.TOKEN && !token.isStamp();
+	}
+
+	private void add(Token token) {
+		GUID id = token.getId();
+		Rectangle footprint = token.getBounds(zone);
+		footprintMap.put(id, footprint);
+
+		Set<GUID> candidateSet = new HashSet<GUID>();
+		for (Point bucket : getBuckets(footprint)) {
+			Set<GUID> idSet = bucketMap.get(bucket);
+			if (idSet == null) {
+				idSet = new HashSet<GUID>();
+				bucketMap.put(bucket, idSet);
+			}
+			candidateSet.addAll(idSet);
+			idSet.add(id);
+		}
+		for (GUID otherId : candidateSet) {
+			Token other = zone.getToken(otherId);
+			if (other == null) {
+				continue;
+			}
+			Rectangle otherFootprint = footprintMap.get(otherId);
+			boolean above = Zone.TOKEN_Z_ORDER_COMPARATOR.compare(token, other) > 0;
+			if (above && footprint.contains(otherFootprint)) {
+				link(id, otherId);
+			} else if (!above && otherFootprint.contains(footprint)) {
+				link(otherId, id);
+			}
+		}
+	}
+
+	private void remove(GUID id) {
+		Rectangle footprint = footprintMap.remove(id);
+		if (footprint == null) {
+			return;
+		}
+		for (Point bucket : getBuckets(footprint)) {
+			Set<GUID> idSet = bucketMap.get(bucket);
+			if (idSet != null) {
+				idSet.remove(id);
+				if (idSet.isEmpty()) {
+					bucketMap.remove(bucket);
+				}
+			}
+		}
+		Set<GUID> coveredSet = coveredMap.remove(id);
+		if (coveredSet != null) {
+			for (GUID coveredId : coveredSet) {
+				unlink(coveringMap, coveredId, id);
+			}
+		}
+		Set<GUID> coveringSet = coveringMap.remove(id);
+		if (coveringSet != null) {
+			for (GUID coveringId : coveringSet) {
+				unlink(coveredMap, coveringId, id);
+			}
+		}
+	}
+
+	private void link(GUID coveringId, GUID coveredId) {
+		getSet(coveredMap, coveringId).add(coveredId);
+		getSet(coveringMap, coveredId).add(coveringId);
+	}
+
+	private static void unlink(Map<GUID, Set<GUID>> map, GUID key, GUID id) {
+		Set<GUID> set = map.get(key);
+		if (set != null) {
+			set.remove(id);
+			if (set.isEmpty()) {
+				map.remove(key);
+			}
+		}
+	}
+
+	private static Set<GUID> getSet(Map<GUID, Set<GUID>> map, GUID key) {
+		Set<GUID> set = map.get(key);
+		if (set == null) {
+			set = new HashSet<GUID>();
+			map.put(key, set);
+		}
+		return set;
+	}
+
+	private static Collection<Point> getBuckets(Rectangle footprint) {
+		Collection<Point> bucketList = new HashSet<Point>();
+		int minCol = floorDiv(footprint.x, BUCKET_SIZE);
+		int maxCol = floorDiv(footprint.x + Math.max(footprint.width, 1) - 1, BUCKET_SIZE);
+		int minRow = floorDiv(footprint.y, BUCKET_SIZE);
+		int maxRow = floorDiv(footprint.y + Math.max(footprint.height, 1) - 1, BUCKET_SIZE);
+		for (int row = minRow; row <= maxRow; row++) {
+			for (int col = minCol; col <= maxCol; col++) {
+				bucketList.add(new Point(col, row));
+			}
+		}
+		return bucketList;
+	}
+
+	private static int floorDiv(int a, int b) {
+		return (int) Math.floor((double) a / b);
+	}
+}
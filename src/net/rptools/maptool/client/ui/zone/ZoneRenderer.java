@@ -54,6 +54,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -140,19 +141,25 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 	protected Zone zone;
 	private final ZoneView zoneView;
 	private Scale zoneScale;
-	private final DrawableRenderer backgroundDrawableRenderer = new PartitionedDrawableRenderer();
-	private final DrawableRenderer objectDrawableRenderer = new PartitionedDrawableRenderer();
-	private final DrawableRenderer tokenDrawableRenderer = new PartitionedDrawableRenderer();
-	private final DrawableRenderer gmDrawableRenderer = new PartitionedDrawableRenderer();
+	private final PartitionedDrawableRenderer backgroundDrawableRenderer = new PartitionedDrawableRenderer(this);
+	private final PartitionedDrawableRenderer objectDrawableRenderer = new PartitionedDrawableRenderer(this);
+	private final PartitionedDrawableRenderer tokenDrawableRenderer = new PartitionedDrawableRenderer(this);
+	private final PartitionedDrawableRenderer gmDrawableRenderer = new PartitionedDrawableRenderer(this);
+	// Whether renderZone() is drawing to the screen, as opposed to a screenshot or export
+	private boolean paintingComponent;
 	private final List<ZoneOverlay> overlayList = new ArrayList<ZoneOverlay>();
-	private final Map<Zone.Layer, List<TokenLocation>> tokenLocationMap = new HashMap<Zone.Layer, List<TokenLocation>>();
+	private final Map<Zone.Layer, SpatialIndex<TokenLocation>> tokenLocationMap = new HashMap<Zone.Layer, SpatialIndex<TokenLocation>>();
 	private Set<GUID> selectedTokenSet = new LinkedHashSet<GUID>();
 	private final List<Set<GUID>> selectedTokenSetHistory = new ArrayList<Set<GUID>>();
-	private final List<LabelLocation> labelLocationList = new LinkedList<LabelLocation>();
+	private final List<LabelLocation> labelLocationList = new ArrayList<LabelLocation>();
+	private SpatialIndex<LabelLocation> labelLocationIndex;
 	private Map<Token, Set<Token>> tokenStackMap;
+	private Set<Token> tokenStackTokenSet;
+	private TokenStackIndex tokenStackIndex;
 	private final Map<GUID, SelectionSet> selectionSetMap = new HashMap<GUID, SelectionSet>();
 	private final Map<Token, TokenLocation> tokenLocationCache = new HashMap<Token, TokenLocation>();
-	private final List<TokenLocation> markerLocationList = new ArrayList<TokenLocation>();
+	private final Map<Token, TokenLocation> markerLocationMap = new HashMap<Token, TokenLocation>();
+	private SpatialIndex<TokenLocation> markerLocationIndex;
 	private GeneralPath facingArrow;
 	private final List<Token> showPathList = new ArrayList<Token>();
 	// Optimizations
@@ -165,7 +172,6 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 	private Zone.Layer activeLayer;
 	private String loadingProgress;
 	private boolean isLoaded;
-	private BufferedImage fogBuffer;
 	// I don't like this, at all, but it'll work for now, basically keep track of when the fog cache
 	// needs to be flushed in the case of switching views
 	private boolean flushFog = true;
@@ -193,10 +199,18 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 		}
 		this.zone = zone;
 		zone.addModelChangeListener(new ZoneModelChangeListener());
+		tokenStackIndex = new TokenStackIndex(zone);
 
 		setFocusable(true);
 		setZoneScale(new Scale());
 		zoneView = new ZoneView(zone);
+		zoneView.addVisibilityListener(new ZoneView.VisibilityListener() {
+			public void visibilityChanged(PlayerView view) {
+				// Vision that was calculated in the background is ready
+				renderedLightMap = null;
+				flushFog();
+			}
+		});
 
 		// DnD
 		setTransferHandler(new TransferableHelper());
@@ -346,6 +360,10 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 			return;
 		}
 		Token token = zone.getToken(keyToken);
+		if (token == null) {
+			// The token itself hasn't arrived yet
+			return;
+		}
 		set.setOffset(offset.x - token.getX(), offset.y - token.getY());
 		repaint();
 	}
@@ -390,6 +408,10 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 		moveTimer.start("setup");
 		Token keyToken = zone.getToken(keyTokenId);
 		CellPoint originPoint = zone.getGrid().convert(new ZonePoint(keyToken.getX(), keyToken.getY()));
+		if (set.getWalker() != null) {
+			// The drag may have left the path short of where the token was dropped
+			set.getWalker().completePath();
+		}
 		Path<? extends AbstractPoint> path = set.getWalker() != null ? set.getWalker().getPath() : set.gridlessPath;
 
 		Set<GUID> selectionSet = set.getTokens();
@@ -533,7 +555,7 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 		// This should be smarter, but whatever
 		visibleScreenArea = null;
 
-		// This could also be smarter
+		tokenStackIndex.invalidate(token);
 		tokenStackMap = null;
 
 		flushFog = true;
@@ -563,7 +585,7 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 		flushDrawableRenderer();
 		replacementImageMap.clear();
 		flipImageMap.clear();
-		fogBuffer = null;
+		fogTileMap.clear();
 		renderedLightMap = null;
 		renderedAuraMap = null;
 
@@ -677,7 +699,12 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 		PlayerView pl = getPlayerView();
 		timer.stop("paintComponent:createView");
 
-		renderZone(g2d, pl);
+		paintingComponent = true;
+		try {
+			renderZone(g2d, pl);
+		} finally {
+			paintingComponent = false;
+		}
 		int noteVPos = 20;
 		if (!zone.isVisible()) {
 			GraphicsUtil.drawBoxedString(g2d, "Map not visible to players", getSize().width / 2, noteVPos);
@@ -729,6 +756,9 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 	}
 
 	public Rectangle fogExtents() {
+		if (zone.getExposedBitmap() != null) {
+			return zone.getExposedBitmap().getBounds();
+		}
 		return zone.getExposedArea().getBounds();
 	}
 
@@ -921,7 +951,8 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 
 		// Clear internal state
 		tokenLocationMap.clear();
-		markerLocationList.clear();
+		markerLocationMap.clear();
+		markerLocationIndex = new SpatialIndex<TokenLocation>(getScreenBounds());
 		itemRenderList.clear();
 
 		timer.stop("setup");
@@ -962,7 +993,14 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 		timer.start("calcs-2");
 		{
 			// renderMoveSelectionSet() requires exposedFogArea to be properly set
-			exposedFogArea = new Area(zone.getExposedArea());
+			Rectangle fogBounds = null;
+			try {
+				// With raster fog only the part on screen is needed
+				fogBounds = af.createInverse().createTransformedShape(viewArea).getBounds();
+			} catch (NoninvertibleTransformException nte) {
+				// Use all of it then
+			}
+			exposedFogArea = zone.getExposedArea(fogBounds);
 			if (exposedFogArea != null && zone.hasFog()) {
 				if (visibleScreenArea != null && !visibleScreenArea.isEmpty())
 					exposedFogArea.intersect(visibleScreenArea);
@@ -1175,6 +1213,7 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 	}
 
 	private Map<Paint, List<Area>> renderedLightMap;
+	private final LightCompositor lightCompositor = new LightCompositor();
 
 	private void renderLights(Graphics2D g, PlayerView view) {
 		// Setup
@@ -1200,61 +1239,21 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 		if (renderedLightMap == null) {
 			timer.start("lights-3");
 			// Organize
-			Map<Paint, List<Area>> colorMap = new HashMap<Paint, List<Area>>();
-			List<DrawableLight> otherLightList = new LinkedList<DrawableLight>();
-			for (DrawableLight light : zoneView.getDrawableLights()) {
-				if (light.getType() == LightSource.Type.NORMAL) {
-					if (zone.getVisionType() == Zone.VisionType.NIGHT && light.getPaint() != null) {
-						List<Area> areaList = colorMap.get(light.getPaint().getPaint());
-						if (areaList == null) {
-							areaList = new ArrayList<Area>();
-							colorMap.put(light.getPaint().getPaint(), areaList);
-						}
-						areaList.add(new Area(light.getArea()));
-					}
-				} else {
+			List<DrawableLight> lightList = new ArrayList<DrawableLight>();
+			if (zone.getVisionType() == Zone.VisionType.NIGHT) {
+				for (DrawableLight light : zoneView.getDrawableLights()) {
 					// I'm not a huge fan of this hard wiring, but I haven't thought of a better way yet, so this'll work fine for now
-					otherLightList.add(light);
+					if (light.getType() == LightSource.Type.NORMAL && light.getPaint() != null) {
+						lightList.add(light);
+					}
 				}
 			}
 			timer.stop("lights-3");
 
 			timer.start("lights-4");
-			// Combine same colors to avoid ugly overlap
-			// Avoid combining _all_ of the lights as the area adds are very expensive, just combine those that overlap
-			for (List<Area> areaList : colorMap.values()) {
-				List<Area> sourceList = new LinkedList<Area>(areaList);
-				areaList.clear();
-
-				outter: while (sourceList.size() > 0) {
-					Area area = sourceList.remove(0);
-
-					for (ListIterator<Area> iter = sourceList.listIterator(); iter.hasNext();) {
-						Area currArea = iter.next();
-
-						if (currArea.getBounds().intersects(area.getBounds())) {
-							iter.remove();
-							area.add(currArea);
-							sourceList.add(area);
-							continue outter;
-						}
-					}
-					// If we are here, we didn't find any other area to merge with
-					areaList.add(area);
-				}
-				// Cut out the bright light
-				if (areaList.size() > 0) {
-					for (Area area : areaList) {
-						for (Area brightArea : zoneView.getBrightLights()) {
-							area.subtract(brightArea);
-						}
-					}
-				}
-			}
-			renderedLightMap = new LinkedHashMap<Paint, List<Area>>();
-			for (Entry<Paint, List<Area>> entry : colorMap.entrySet()) {
-				renderedLightMap.put(entry.getKey(), entry.getValue());
-			}
+			// Combine same colors to avoid ugly overlap, only merging again what changed since last time
+			lightCompositor.update(lightList, zoneView.getBrightLights());
+			renderedLightMap = lightCompositor.getLightMap();
 			timer.stop("lights-4");
 		}
 		// Draw
@@ -1374,8 +1373,10 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 		Area combined = new Area(currentTokenVisionArea);
 		ExposedAreaMetaData meta = zone.getExposedAreaMetaData(tokenUnderMouse.getExposedAreaGUID());
 
-		Area tmpArea = new Area(meta.getExposedAreaHistory());
-		tmpArea.add(zone.getExposedArea());
+		// With raster fog only the exposed cells under the vision are needed
+		Rectangle visionBounds = currentTokenVisionArea.getBounds();
+		Area tmpArea = new Area(meta.getExposedAreaHistory(visionBounds));
+		tmpArea.add(zone.getExposedArea(visionBounds));
 		if (zone.hasFog()) {
 			if (tmpArea.isEmpty())
 				return;
@@ -1424,6 +1425,7 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 	private void renderLabels(Graphics2D g, PlayerView view) {
 		timer.start("labels-1");
 		labelLocationList.clear();
+		labelLocationIndex = new SpatialIndex<LabelLocation>(getScreenBounds());
 		for (Label label : zone.getLabels()) {
 			ZonePoint zp = new ZonePoint(label.getX(), label.getY());
 			if (!zone.isPointVisible(zp, view)) {
@@ -1446,171 +1448,195 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 
 				bounds = new Rectangle(x, y, strWidth, fm.getHeight());
 			}
-			labelLocationList.add(new LabelLocation(bounds, label));
+			LabelLocation location = new LabelLocation(bounds, label);
+			labelLocationList.add(location);
+			labelLocationIndex.add(location, bounds);
 			timer.stop("labels-1.1");
 		}
 		timer.stop("labels-1");
 	}
 
 	// Private cache variables just for renderFog() and no one else. :)
-	Integer fogX = null;
-	Integer fogY = null;
+	private static final int FOG_TILE_SIZE = 256;
+	/**
+	 * The fog is drawn in tiles that are anchored to the map rather than the screen, so that panning only draws the
+	 * tiles that come into view and a change to the fog only redraws the tiles it touches. The key is the column and
+	 * row of the tile, counting from the map's origin at {@link #fogTileScale}.
+	 */
+	private final Map<Point, BufferedImage> fogTileMap = new HashMap<Point, BufferedImage>();
+	private double fogTileScale;
+	private boolean fogTileGMView;
+	// What is cut out of the fog, and the part of the map it is good for, or null if it is all of it
+	private Area fogExposedArea;
+	private Rectangle fogExposedBounds;
 
 	private Area renderFog(Graphics2D g, PlayerView view) {
 		Dimension size = getSize();
-		Area fogClip = new Area(new Rectangle(0, 0, size.width, size.height));
-		Area combined = null;
-
-		// Optimization for panning
-		if (!flushFog && fogX != null && fogY != null && (fogX != getViewOffsetX() || fogY != getViewOffsetY())) {
-			// This optimization does not seem to keep the alpha channel correctly, and sometimes leaves
-			// lines on some graphics boards, we'll leave it out for now
-//        	if (Math.abs(fogX - getViewOffsetX()) < size.width && Math.abs(fogY - getViewOffsetY()) < size.height) {
-//        		int deltaX = getViewOffsetX() - fogX;
-//        		int deltaY = getViewOffsetY() - fogY;
-//
-//            	Graphics2D buffG = fogBuffer.createGraphics();
-//
-//            	buffG.setComposite(AlphaComposite.Src);
-//            	buffG.copyArea(0, 0, size.width, size.height, deltaX, deltaY);
-//            	buffG.dispose();
-//
-//            	fogClip = new Area();
-//            	if (deltaX < 0) {
-//            		fogClip.add(new Area(new Rectangle(size.width+deltaX, 0, -deltaX, size.height)));
-//            	} else if (deltaX > 0){
-//            		fogClip.add(new Area(new Rectangle(0, 0, deltaX, size.height)));
-//            	}
-//
-//            	if (deltaY < 0) {
-//            		fogClip.add(new Area(new Rectangle(0, size.height + deltaY, size.width, -deltaY)));
-//            	} else if (deltaY > 0) {
-//            		fogClip.add(new Area(new Rectangle(0, 0, size.width, deltaY)));
-//            	}
-//        	}
-			flushFog = true;
-		}
-		boolean cacheNotValid = (fogBuffer == null || fogBuffer.getWidth() != size.width || fogBuffer.getHeight() != size.height);
-		timer.start("renderFog");
-		if (flushFog || cacheNotValid) {
-			fogX = getViewOffsetX();
-			fogY = getViewOffsetY();
-
-			boolean newImage = false;
-			if (cacheNotValid) {
-				newImage = true;
-				timer.start("renderFog-allocateBufferedImage");
-				fogBuffer = new BufferedImage(size.width, size.height, view.isGMView() ? Transparency.TRANSLUCENT : Transparency.BITMASK);
-				timer.stop("renderFog-allocateBufferedImage");
-			}
-			Graphics2D buffG = fogBuffer.createGraphics();
-			buffG.setClip(fogClip);
-			SwingUtil.useAntiAliasing(buffG);
-
-			// XXX Is this even needed?  Immediately below is another call to fillRect() with the same dimensions!
-			if (!newImage) {
-				timer.start("renderFog-clearOldImage");
-//				Composite oldComposite = buffG.getComposite();
-				buffG.setComposite(AlphaComposite.Clear);
-				buffG.fillRect(0, 0, size.width, size.height);
-//				buffG.setComposite(oldComposite);
-				timer.stop("renderFog-clearOldImage");
-			}
-			timer.start("renderFog-fill");
-			// Fill
-			double scale = getScale();
-			buffG.setPaint(zone.getFogPaint().getPaint(fogX, fogY, scale));
-			buffG.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC, view.isGMView() ? .6f : 1f)); // JFJ this fixes the GM exposed area view.
-			buffG.fillRect(0, 0, size.width, size.height);
-			timer.stop("renderFog-fill");
-
-			// Cut out the exposed area
-			AffineTransform af = new AffineTransform();
-			af.translate(fogX, fogY);
-			af.scale(scale, scale);
+		double scale = getScale();
+		int offsetX = getViewOffsetX();
+		int offsetY = getViewOffsetY();
 
-			buffG.setTransform(af);
-//			buffG.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC, view.isGMView() ? .6f : 1f));
-			buffG.setComposite(AlphaComposite.getInstance(AlphaComposite.CLEAR));
+		timer.start("renderFog");
+		// The tiles are kept by their type of image as well, as the GM's fog is translucent and the players' isn't
+		if (flushFog || fogTileScale != scale || fogTileGMView != view.isGMView()) {
+			fogTileMap.clear();
+			fogExposedArea = null;
+			fogTileScale = scale;
+			fogTileGMView = view.isGMView();
+			flushFog = false;
+		}
+		int col1 = floorDiv(-offsetX, FOG_TILE_SIZE);
+		int row1 = floorDiv(-offsetY, FOG_TILE_SIZE);
+		int col2 = floorDiv(size.width - 1 - offsetX, FOG_TILE_SIZE);
+		int row2 = floorDiv(size.height - 1 - offsetY, FOG_TILE_SIZE);
 
+		// Keep a tile's worth around the screen for panning back and forth, drop the rest
+		for (Iterator<Point> iter = fogTileMap.keySet().iterator(); iter.hasNext();) {
+			Point tile = iter.next();
+			if (tile.x < col1 - 1 || tile.x > col2 + 1 || tile.y < row1 - 1 || tile.y > row2 + 1) {
+				iter.remove();
+			}
+		}
+		List<Point> missingList = new ArrayList<Point>();
+		Rectangle missingBounds = null;
+		for (int row = row1; row <= row2; row++) {
+			for (int col = col1; col <= col2; col++) {
+				Point tile = new Point(col, row);
+				if (!fogTileMap.containsKey(tile)) {
+					missingList.add(tile);
+					Rectangle tileBounds = new Rectangle(col * FOG_TILE_SIZE, row * FOG_TILE_SIZE, FOG_TILE_SIZE, FOG_TILE_SIZE);
+					missingBounds = missingBounds == null ? tileBounds : missingBounds.union(tileBounds);
+				}
+			}
+		}
+		if (!missingList.isEmpty()) {
+			// The missing tiles, in map coordinates
+			Rectangle zoneBounds = new Rectangle((int) Math.floor(missingBounds.x / scale) - 1, (int) Math.floor(missingBounds.y / scale) - 1, (int) Math.ceil(missingBounds.width / scale) + 2,
+					(int) Math.ceil(missingBounds.height / scale) + 2);
+			if (fogExposedArea == null || (fogExposedBounds != null && !fogExposedBounds.contains(zoneBounds))) {
+				String msg = null;
+				if (timer.isEnabled()) {
+					List<Token> list = view.getTokens();
+					msg = "renderFog-combined(" + (list == null ? 0 : list.size()) + ")";
+				}
+				timer.start(msg);
+				fogExposedArea = getFogExposedArea(view, zoneBounds);
+				// With raster fog, only the part of the map that is needed is turned into an Area
+				fogExposedBounds = zone.getFogCellSize() > 0 ? zoneBounds : null;
+				timer.stop(msg);
+			}
 			timer.start("renderFog-visibleArea");
 			Area visibleArea = zoneView.getVisibleArea(view);
 			timer.stop("renderFog-visibleArea");
 
-			String msg = null;
-			if (timer.isEnabled()) {
-				List<Token> list = view.getTokens();
-				msg = "renderFog-combined(" + (list == null ? 0 : list.size()) + ")";
+			timer.start("renderFogArea");
+			for (Point tile : missingList) {
+				fogTileMap.put(tile, renderFogTile(view, tile, visibleArea));
+			}
+			timer.stop("renderFogArea");
+		}
+		for (int row = row1; row <= row2; row++) {
+			for (int col = col1; col <= col2; col++) {
+				g.drawImage(fogTileMap.get(new Point(col, row)), col * FOG_TILE_SIZE + offsetX, row * FOG_TILE_SIZE + offsetY, this);
 			}
-			timer.start(msg);
-			combined = zone.getExposedArea(view);
-			timer.stop(msg);
+		}
+		timer.stop("renderFog");
+		return fogExposedArea;
+	}
 
-			timer.start("renderFogArea");
-			Area exposedArea = null;
+	/**
+	 * @return the area to cut out of the fog, in map coordinates; with raster fog it may only cover
+	 *         <code>zoneBounds</code>
+	 */
+	private Area getFogExposedArea(PlayerView view, Rectangle zoneBounds) {
+		Area combined = zone.getExposedArea(view, zoneBounds);
+		boolean combinedView = !zoneView.isUsingVision() || MapTool.isPersonalServer() || !MapTool.getServerPolicy().isUseIndividualFOW() || view.isGMView();
+
+		if (view.getTokens() != null) {
+			// if there are tokens selected combine the areas, then, if individual FOW is enabled
+			// we pass the combined exposed area to build the soft FOW and visible area.
+			if (combinedView) {
+				return combined;
+			}
+			// 'combined' already includes the areas of the tokens, but just in case
 			Area tempArea = new Area();
-			boolean combinedView = !zoneView.isUsingVision() || MapTool.isPersonalServer() || !MapTool.getServerPolicy().isUseIndividualFOW() || view.isGMView();
-
-			if (view.getTokens() != null) {
-				// if there are tokens selected combine the areas, then, if individual FOW is enabled
-				// we pass the combined exposed area to build the soft FOW and visible area.
-				for (Token tok : view.getTokens()) {
-					ExposedAreaMetaData meta = zone.getExposedAreaMetaData(tok.getExposedAreaGUID());
-					exposedArea = meta.getExposedAreaHistory();
-					tempArea.add(new Area(exposedArea));
-				}
-				if (combinedView) {
-//					combined = zone.getExposedArea(view);
-					buffG.fill(combined);
-					renderFogArea(buffG, view, combined, visibleArea);
-					renderFogOutline(buffG, view, combined);
-				} else {
-					// 'combined' already includes the area encompassed by 'tempArea', so just
-					// use 'combined' instead in this block of code?
-					tempArea.add(combined);
-					buffG.fill(tempArea);
-					renderFogArea(buffG, view, tempArea, visibleArea);
-					renderFogOutline(buffG, view, tempArea);
-				}
-			} else {
-				// No tokens selected, so if we are using Individual FOW, we build up all the owned tokens
-				// exposed area's to build the soft FOW.
-				if (combinedView) {
-					if (combined.isEmpty()) {
-						combined = zone.getExposedArea();
-					}
-					buffG.fill(combined);
-					renderFogArea(buffG, view, combined, visibleArea);
-					renderFogOutline(buffG, view, combined);
-				} else {
-					Area myCombined = new Area();
-					List<Token> myToks = zone.getTokens();
-					for (Token tok : myToks) {
-						if (!AppUtil.playerOwns(tok)) { // Only here if !isGMview() so should the tokens already be in PlayerView.getTokens()?
-							continue;
-						}
-						ExposedAreaMetaData meta = zone.getExposedAreaMetaData(tok.getExposedAreaGUID());
-						exposedArea = meta.getExposedAreaHistory();
-						myCombined.add(new Area(exposedArea));
-					}
-					buffG.fill(myCombined);
-					renderFogArea(buffG, view, myCombined, visibleArea);
-					renderFogOutline(buffG, view, myCombined);
-				}
+			for (Token tok : view.getTokens()) {
+				ExposedAreaMetaData meta = zone.getExposedAreaMetaData(tok.getExposedAreaGUID());
+				tempArea.add(new Area(meta.getExposedAreaHistory(zoneBounds)));
 			}
-//			renderFogArea(buffG, view, combined, visibleArea);
-			timer.stop("renderFogArea");
+			tempArea.add(combined);
+			return tempArea;
+		}
+		// No tokens selected, so if we are using Individual FOW, we build up all the owned tokens
+		// exposed area's to build the soft FOW.
+		if (combinedView) {
+			if (combined.isEmpty()) {
+				combined = zone.getExposedArea();
+			}
+			return combined;
+		}
+		Area myCombined = new Area();
+		List<Token> myToks = zone.getTokens();
+		for (Token tok : myToks) {
+			if (!AppUtil.playerOwns(tok)) { // Only here if !isGMview() so should the tokens already be in PlayerView.getTokens()?
+				continue;
+			}
+			ExposedAreaMetaData meta = zone.getExposedAreaMetaData(tok.getExposedAreaGUID());
+			myCombined.add(new Area(meta.getExposedAreaHistory(zoneBounds)));
+		}
+		return myCombined;
+	}
+
+	private BufferedImage renderFogTile(PlayerView view, Point tile, Area visibleArea) {
+		double scale = getScale();
+		// Where the map's origin is, relative to the tile
+		int originX = -tile.x * FOG_TILE_SIZE;
+		int originY = -tile.y * FOG_TILE_SIZE;
 
-//			timer.start("renderFogOutline");
-//			renderFogOutline(buffG, view, combined);
-//			timer.stop("renderFogOutline");
+		BufferedImage image = new BufferedImage(FOG_TILE_SIZE, FOG_TILE_SIZE, view.isGMView() ? Transparency.TRANSLUCENT : Transparency.BITMASK);
+		Graphics2D buffG = image.createGraphics();
+		SwingUtil.useAntiAliasing(buffG);
 
-			buffG.dispose();
-			flushFog = false;
+		// Fill
+		buffG.setPaint(zone.getFogPaint().getPaint(originX, originY, scale));
+		buffG.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC, view.isGMView() ? .6f : 1f)); // JFJ this fixes the GM exposed area view.
+		buffG.fillRect(0, 0, FOG_TILE_SIZE, FOG_TILE_SIZE);
+
+		// Cut out the exposed area
+		AffineTransform af = new AffineTransform();
+		af.translate(originX, originY);
+		af.scale(scale, scale);
+
+		buffG.setTransform(af);
+		buffG.setComposite(AlphaComposite.getInstance(AlphaComposite.CLEAR));
+		buffG.fill(fogExposedArea);
+		renderFogArea(buffG, view, fogExposedArea, visibleArea);
+		renderFogOutline(buffG, view, fogExposedArea, originX - getViewOffsetX(), originY - getViewOffsetY());
+
+		buffG.dispose();
+		return image;
+	}
+
+	/**
+	 * Drop the fog tiles that touch the part of the map, so that they are drawn again
+	 */
+	private void flushFog(Rectangle zoneBounds) {
+		// A pixel more on each side for the anti-aliasing
+		int col1 = floorDiv((int) Math.floor(zoneBounds.x * fogTileScale) - 1, FOG_TILE_SIZE);
+		int row1 = floorDiv((int) Math.floor(zoneBounds.y * fogTileScale) - 1, FOG_TILE_SIZE);
+		int col2 = floorDiv((int) Math.ceil((zoneBounds.x + zoneBounds.width) * fogTileScale) + 1, FOG_TILE_SIZE);
+		int row2 = floorDiv((int) Math.ceil((zoneBounds.y + zoneBounds.height) * fogTileScale) + 1, FOG_TILE_SIZE);
+		for (Iterator<Point> iter = fogTileMap.keySet().iterator(); iter.hasNext();) {
+			Point tile = iter.next();
+			if (tile.x >= col1 && tile.x <= col2 && tile.y >= row1 && tile.y <= row2) {
+				iter.remove();
+			}
 		}
-		timer.stop("renderFog");
-		g.drawImage(fogBuffer, 0, 0, this);
-		return combined;
+		fogExposedArea = null;
+	}
+
+	private static int floorDiv(int a, int b) {
+		return (int) Math.floor((double) a / b);
 	}
 
 	private void renderFogArea(final Graphics2D buffG, final PlayerView view, Area softFog, Area visibleArea) {
@@ -1638,7 +1664,7 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 		}
 	}
 
-	private void renderFogOutline(final Graphics2D buffG, PlayerView view, Area softFog) {
+	private void renderFogOutline(final Graphics2D buffG, PlayerView view, Area softFog, int translateX, int translateY) {
 //		if (false && AppPreferences.getUseSoftFogEdges()) {
 //			float alpha = view.isGMView() ? AppPreferences.getFogOverlayOpacity() / 255.0f : 1f;
 //			GraphicsUtil.renderSoftClipping(buffG, softFog, (int) (zone.getGrid().getSize() * getScale() * .25), alpha);
@@ -1646,7 +1672,8 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 		{
 			if (visibleScreenArea != null) {
 //				buffG.setClip(softFog);
-				buffG.setTransform(new AffineTransform());
+				// The outline is on the screen, the buffer may not be where the screen is
+				buffG.setTransform(AffineTransform.getTranslateInstance(translateX, translateY));
 				buffG.setComposite(AlphaComposite.Src);
 				buffG.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 				buffG.setStroke(new BasicStroke(1));
@@ -1701,12 +1728,31 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 		return !isLoaded;
 	}
 
-	protected void renderDrawableOverlay(Graphics g, DrawableRenderer renderer, PlayerView view, List<DrawnElement> drawnElements) {
+	protected void renderDrawableOverlay(Graphics g, PartitionedDrawableRenderer renderer, PlayerView view, List<DrawnElement> drawnElements) {
 		Rectangle viewport = new Rectangle(zoneScale.getOffsetX(), zoneScale.getOffsetY(), getSize().width, getSize().height);
+		// The chunks are rendered in the background from this copy
 		List<DrawnElement> list = new ArrayList<DrawnElement>();
 		list.addAll(drawnElements);
 
-		renderer.renderDrawables(g, list, viewport, getScale());
+		if (paintingComponent) {
+			renderer.renderDrawables(g, list, viewport, getScale());
+		} else {
+			// Screenshots can't wait for the chunks
+			renderer.renderDrawablesDirectly(g, list, viewport, getScale());
+		}
+	}
+
+	private PartitionedDrawableRenderer getDrawableRenderer(Zone.Layer layer) {
+		switch (layer) {
+		case OBJECT:
+			return objectDrawableRenderer;
+		case GM:
+			return gmDrawableRenderer;
+		case BACKGROUND:
+			return backgroundDrawableRenderer;
+		default:
+			return tokenDrawableRenderer;
+		}
 	}
 
 	protected void renderBoard(Graphics2D g, PlayerView view) {
@@ -1856,23 +1902,20 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 						renderPath(g, walker != null ? walker.getPath() : set.gridlessPath, token.getFootprint(zone.getGrid()));
 					}
 				}
+				Dimension imgSize = new Dimension(image.getWidth(), image.getHeight());
+				SwingUtil.constrainTo(imgSize, footprintBounds.width, footprintBounds.height);
+
+				BufferedImage workImage;
+				if (token.isSnapToScale()) {
+					workImage = ImageManager.getScaledImage(token.getImageAssetId(), imgSize.width * scale, imgSize.height * scale, this);
+				} else {
+					workImage = ImageManager.getScaledImage(token.getImageAssetId(), scaledWidth, scaledHeight, this);
+				}
 				// handle flipping
-				BufferedImage workImage = image;
 				if (token.isFlippedX() || token.isFlippedY()) {
-					workImage = new BufferedImage(image.getWidth(), image.getHeight(), image.getTransparency());
-
-					int workW = image.getWidth() * (token.isFlippedX() ? -1 : 1);
-					int workH = image.getHeight() * (token.isFlippedY() ? -1 : 1);
-					int workX = token.isFlippedX() ? image.getWidth() : 0;
-					int workY = token.isFlippedY() ? image.getHeight() : 0;
-
-					Graphics2D wig = workImage.createGraphics();
-					wig.drawImage(image, workX, workY, workW, workH, null);
-					wig.dispose();
+					workImage = flipImage(workImage, token.isFlippedX(), token.isFlippedY());
 				}
 				// Draw token
-				Dimension imgSize = new Dimension(workImage.getWidth(), workImage.getHeight());
-				SwingUtil.constrainTo(imgSize, footprintBounds.width, footprintBounds.height);
 
 				int offsetx = 0;
 				int offsety = 0;
@@ -1890,11 +1933,12 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 					at.rotate(Math.toRadians(-token.getFacing() - 90), scaledWidth / 2 - token.getAnchor().x * scale - offsetx, scaledHeight / 2 - token.getAnchor().y * scale - offsety); // facing defaults to down, or -90 degrees
 				}
 				if (token.isSnapToScale()) {
-					at.scale((double) imgSize.width / workImage.getWidth(), (double) imgSize.height / workImage.getHeight());
+					at.scale((double) imgSize.width / image.getWidth(), (double) imgSize.height / image.getHeight());
 					at.scale(getScale(), getScale());
 				} else {
-					at.scale((double) scaledWidth / workImage.getWidth(), (double) scaledHeight / workImage.getHeight());
+					at.scale((double) scaledWidth / image.getWidth(), (double) scaledHeight / image.getHeight());
 				}
+				at.scale((double) image.getWidth() / workImage.getWidth(), (double) image.getHeight() / workImage.getHeight());
 				g.drawImage(workImage, at, this);
 
 				// Other details
@@ -1947,7 +1991,8 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 									String distance = "";
 									if (walker != null) { // This wouldn't be true unless token.isSnapToGrid() && grid.isPathingSupported()
 										int distanceTraveled = walker.getDistance();
-										if (distanceTraveled >= 1) {
+										// Nothing to show if the topology walls it off
+										if (distanceTraveled >= 1 && walker.isReachable()) {
 											distance = Integer.toString(distanceTraveled);
 										}
 									} else {
@@ -2158,9 +2203,7 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 		List<Token> list = new ArrayList<Token>();
 
 		// Always assume tokens, for now
-		List<TokenLocation> tokenLocationListCopy = new ArrayList<TokenLocation>();
-		tokenLocationListCopy.addAll(getTokenLocations(Zone.Layer.TOKEN));
-		for (TokenLocation location : tokenLocationListCopy) {
+		for (TokenLocation location : getTokenLocations(Zone.Layer.TOKEN).getAll()) {
 			list.add(location.token);
 		}
 
@@ -2196,15 +2239,20 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 	}
 
 	/**
-	 * Get the token locations for the given layer, creates an empty list if there are not locations for the given layer
+	 * Get the token locations for the given layer, creates an empty index if there are not locations for the given
+	 * layer
 	 */
-	private List<TokenLocation> getTokenLocations(Zone.Layer layer) {
-		List<TokenLocation> list = tokenLocationMap.get(layer);
-		if (list == null) {
-			list = new LinkedList<TokenLocation>();
-			tokenLocationMap.put(layer, list);
+	private SpatialIndex<TokenLocation> getTokenLocations(Zone.Layer layer) {
+		SpatialIndex<TokenLocation> index = tokenLocationMap.get(layer);
+		if (index == null) {
+			index = new SpatialIndex<TokenLocation>(getScreenBounds());
+			tokenLocationMap.put(layer, index);
 		}
-		return list;
+		return index;
+	}
+
+	private Rectangle getScreenBounds() {
+		return new Rectangle(0, 0, getSize().width, getSize().height);
 	}
 
 	// TODO: I don't like this hardwiring
@@ -2237,6 +2285,27 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 		return gp.createTransformedShape(AffineTransform.getScaleInstance(getScale(), getScale()));
 	}
 
+	private static BufferedImage flipImage(BufferedImage image, boolean flipX, boolean flipY) {
+		BufferedImage workImage = new BufferedImage(image.getWidth(), image.getHeight(), image.getTransparency());
+
+		int workW = image.getWidth() * (flipX ? -1 : 1);
+		int workH = image.getHeight() * (flipY ? -1 : 1);
+		int workX = flipX ? image.getWidth() : 0;
+		int workY = flipY ? image.getHeight() : 0;
+
+		Graphics2D wig = workImage.createGraphics();
+		wig.drawImage(image, workX, workY, workW, workH, null);
+		wig.dispose();
+		return workImage;
+	}
+
+	/**
+	 * Whether an image derived from a token image still matches the size it's being drawn at
+	 */
+	private static boolean isSameSize(BufferedImage image, BufferedImage other) {
+		return image.getWidth() == other.getWidth() && image.getHeight() == other.getHeight();
+	}
+
 	protected void renderTokens(Graphics2D g, List<Token> tokenList, PlayerView view) {
 		Graphics2D clippedG = g;
 		boolean isGMView = view.isGMView(); // speed things up
@@ -2259,10 +2328,8 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 		Set<GUID> tempVisTokens = new HashSet<GUID>();
 
 		// calculations
-		boolean calculateStacks = !tokenList.isEmpty() && !tokenList.get(0).isStamp() && tokenStackMap == null;
-		if (calculateStacks) {
-			tokenStackMap = new HashMap<Token, Set<Token>>();
-		}
+		boolean calculateStacks = !tokenList.isEmpty() && !tokenList.get(0).isStamp();
+		Set<Token> stackTokenSet = new HashSet<Token>();
 		List<Token> tokenPostProcessing = new ArrayList<Token>(tokenList.size());
 		for (Token token : tokenList) {
 			timer.start("tokenlist-1");
@@ -2347,44 +2414,21 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 			// Markers
 			timer.start("renderTokens:Markers");
 			if (token.isMarker() && canSeeMarker(token)) {
-				markerLocationList.add(location);
+				markerLocationMap.put(token, location);
+				markerLocationIndex.add(location, location.bounds);
 			}
 			timer.stop("renderTokens:Markers");
 
-			// Stacking check
+			// Stacks are worked out once the tokens on screen are known
 			if (calculateStacks) {
-				timer.start("tokenStack");
-//            	System.out.println(token.getName() + " - " + location.boundsCache);
-
-				Set<Token> tokenStackSet = null;
-				for (TokenLocation currLocation : getTokenLocations(Zone.Layer.TOKEN)) {
-					// Are we covering anyone ?
-//                	System.out.println("\t" + currLocation.token.getName() + " - " + location.boundsCache.contains(currLocation.boundsCache));
-					if (location.boundsCache.contains(currLocation.boundsCache)) {
-						if (tokenStackSet == null) {
-							tokenStackSet = new HashSet<Token>();
-							tokenStackMap.put(token, tokenStackSet);
-							tokenStackSet.add(token);
-						}
-						tokenStackSet.add(currLocation.token);
-
-						if (tokenStackMap.get(currLocation.token) != null) {
-							tokenStackSet.addAll(tokenStackMap.get(currLocation.token));
-							tokenStackMap.remove(currLocation.token);
-						}
-					}
-				}
-				timer.stop("tokenStack");
+				stackTokenSet.add(token);
 			}
 
 			// Keep track of the location on the screen
-			// Note the order -- the top most token is at the end of the list
+			// Note the order -- the top most token is added last
 			timer.start("renderTokens:Locations");
 			Zone.Layer layer = token.getLayer();
-			List<TokenLocation> locationList = getTokenLocations(layer);
-			if (locationList != null) {
-				locationList.add(location);
-			}
+			getTokenLocations(layer).add(location, location.bounds);
 			timer.stop("renderTokens:Locations");
 
 			// Add the token to our visible set.
@@ -2401,15 +2445,25 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 			}
 			timer.stop("renderTokens:OnscreenCheck");
 
+			// Zoomed out, a smaller copy of the image looks the same and is a lot cheaper to draw
+			Dimension imgSize = new Dimension(image.getWidth(), image.getHeight());
+			SwingUtil.constrainTo(imgSize, footprintBounds.width, footprintBounds.height);
+			BufferedImage drawnImage;
+			if (token.isSnapToScale()) {
+				drawnImage = ImageManager.getScaledImage(token.getImageAssetId(), imgSize.width * scale, imgSize.height * scale, this);
+			} else {
+				drawnImage = ImageManager.getScaledImage(token.getImageAssetId(), scaledWidth, scaledHeight, this);
+			}
+
 			// Moving ?
 			timer.start("renderTokens:ShowMovement");
 			if (isTokenMoving(token)) {
 				BufferedImage replacementImage = replacementImageMap.get(token);
-				if (replacementImage == null) {
-					replacementImage = ImageUtil.rgbToGrayscale(image);
+				if (replacementImage == null || !isSameSize(replacementImage, drawnImage)) {
+					replacementImage = ImageUtil.rgbToGrayscale(drawnImage);
 					replacementImageMap.put(token, replacementImage);
 				}
-				image = replacementImage;
+				drawnImage = replacementImage;
 			}
 			timer.stop("renderTokens:ShowMovement");
 
@@ -2433,21 +2487,11 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 
 			timer.start("tokenlist-5");
 			// handle flipping
-			BufferedImage workImage = image;
+			BufferedImage workImage = drawnImage;
 			if (token.isFlippedX() || token.isFlippedY()) {
 				workImage = flipImageMap.get(token);
-				if (workImage == null) {
-					workImage = new BufferedImage(image.getWidth(), image.getHeight(), image.getTransparency());
-
-					int workW = image.getWidth() * (token.isFlippedX() ? -1 : 1);
-					int workH = image.getHeight() * (token.isFlippedY() ? -1 : 1);
-					int workX = token.isFlippedX() ? image.getWidth() : 0;
-					int workY = token.isFlippedY() ? image.getHeight() : 0;
-
-					Graphics2D wig = workImage.createGraphics();
-					wig.drawImage(image, workX, workY, workW, workH, null);
-					wig.dispose();
-
+				if (workImage == null || !isSameSize(workImage, drawnImage)) {
+					workImage = flipImage(drawnImage, token.isFlippedX(), token.isFlippedY());
 					flipImageMap.put(token, workImage);
 				}
 			}
@@ -2455,9 +2499,6 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 
 			timer.start("tokenlist-6");
 			// Position
-			Dimension imgSize = new Dimension(workImage.getWidth(), workImage.getHeight());
-			SwingUtil.constrainTo(imgSize, footprintBounds.width, footprintBounds.height);
-
 			int offsetx = 0;
 			int offsety = 0;
 
@@ -2479,11 +2520,13 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 			}
 			// Draw the token
 			if (token.isSnapToScale()) {
-				at.scale(((double) imgSize.width) / workImage.getWidth(), ((double) imgSize.height) / workImage.getHeight());
+				at.scale(((double) imgSize.width) / image.getWidth(), ((double) imgSize.height) / image.getHeight());
 				at.scale(getScale(), getScale());
 			} else {
-				at.scale((scaledWidth) / workImage.getWidth(), (scaledHeight) / workImage.getHeight());
+				at.scale((scaledWidth) / image.getWidth(), (scaledHeight) / image.getHeight());
 			}
+			// From the full size image to the one actually drawn
+			at.scale((double) image.getWidth() / workImage.getWidth(), (double) image.getHeight() / workImage.getHeight());
 			timer.stop("tokenlist-6");
 
 			timer.start("tokenlist-7");
@@ -2724,6 +2767,14 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 		}
 		timer.stop("tokenlist-12");
 
+		timer.start("tokenStack");
+		// Only the tokens that moved are looked at again, unless what is on screen has changed
+		if (calculateStacks && (tokenStackMap == null || !stackTokenSet.equals(tokenStackTokenSet))) {
+			tokenStackMap = tokenStackIndex.getStacks(stackTokenSet);
+			tokenStackTokenSet = stackTokenSet;
+		}
+		timer.stop("tokenStack");
+
 		timer.start("tokenlist-13");
 		// Stacks
 		if (!tokenList.isEmpty() && !tokenList.get(0).isStamp()) { // TODO: find a cleaner way to indicate token layer
@@ -2859,10 +2910,8 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 	 */
 	public void selectTokens(Rectangle rect) {
 		List<GUID> selectedList = new LinkedList<GUID>();
-		for (TokenLocation location : getTokenLocations(getActiveLayer())) {
-			if (rect.intersects(location.bounds.getBounds())) {
-				selectedList.add(location.token.getId());
-			}
+		for (TokenLocation location : getTokenLocations(getActiveLayer()).getIntersecting(rect)) {
+			selectedList.add(location.token.getId());
 		}
 		selectTokens(selectedList);
 	}
@@ -2985,12 +3034,8 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 	}
 
 	public Area getMarkerBounds(Token token) {
-		for (TokenLocation location : markerLocationList) {
-			if (location.token == token) {
-				return location.bounds;
-			}
-		}
-		return null;
+		TokenLocation location = markerLocationMap.get(token);
+		return location != null ? location.bounds : null;
 	}
 
 	public Rectangle getLabelBounds(Label label) {
@@ -3012,27 +3057,16 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 	 * @return
 	 */
 	public Token getTokenAt(int x, int y) {
-		List<TokenLocation> locationList = new ArrayList<TokenLocation>();
-		locationList.addAll(getTokenLocations(getActiveLayer()));
-		Collections.reverse(locationList);
-		for (TokenLocation location : locationList) {
-			if (location.bounds.contains(x, y)) {
-				return location.token;
-			}
-		}
-		return null;
+		TokenLocation location = getTokenLocations(getActiveLayer()).getAt(x, y);
+		return location != null ? location.token : null;
 	}
 
 	public Token getMarkerAt(int x, int y) {
-		List<TokenLocation> locationList = new ArrayList<TokenLocation>();
-		locationList.addAll(markerLocationList);
-		Collections.reverse(locationList);
-		for (TokenLocation location : locationList) {
-			if (location.bounds.contains(x, y)) {
-				return location.token;
-			}
+		if (markerLocationIndex == null) {
+			return null;
 		}
-		return null;
+		TokenLocation location = markerLocationIndex.getAt(x, y);
+		return location != null ? location.token : null;
 	}
 
 	public List<Token> getTokenStackAt(int x, int y) {
@@ -3054,15 +3088,11 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 	 * @return
 	 */
 	public Label getLabelAt(int x, int y) {
-		List<LabelLocation> labelList = new ArrayList<LabelLocation>();
-		labelList.addAll(labelLocationList);
-		Collections.reverse(labelList);
-		for (LabelLocation location : labelList) {
-			if (location.bounds.contains(x, y)) {
-				return location.label;
-			}
+		if (labelLocationIndex == null) {
+			return null;
 		}
-		return null;
+		LabelLocation location = labelLocationIndex.getAt(x, y);
+		return location != null ? location.label : null;
 	}
 
 	public int getViewOffsetX() {
@@ -3604,9 +3634,10 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 			Object evt = event.getEvent();
 
 			if (evt == Zone.Event.TOPOLOGY_CHANGED) {
+				// The zone view drops whatever the change touched by itself
+				renderedLightMap = null;
+				renderedAuraMap = null;
 				flushFog();
-				flushLight();
-
 			}
 			if (evt == Zone.Event.TOKEN_CHANGED || evt == Zone.Event.TOKEN_REMOVED || evt == Zone.Event.TOKEN_ADDED) {
 				if (event.getArg() instanceof List<?>) {
@@ -3619,8 +3650,24 @@ public class ZoneRenderer extends JComponent implements DropTargetListener, Comp
 					flush((Token) event.getArg());
 				}
 			}
+			if (evt == Zone.Event.GRID_CHANGED) {
+				// Token footprints depend on the grid
+				tokenStackIndex.invalidateAll();
+				tokenStackMap = null;
+			}
 			if (evt == Zone.Event.FOG_CHANGED) {
-				flushFog = true;
+				if (event.getArg() instanceof Area) {
+					// Raster fog cells can stick out of the area by up to a cell
+					Rectangle bounds = ((Area) event.getArg()).getBounds();
+					bounds.grow(zone.getFogCellSize(), zone.getFogCellSize());
+					flushFog(bounds);
+				} else {
+					flushFog = true;
+				}
+			}
+			if (evt == Zone.Event.DRAWABLE_ADDED || evt == Zone.Event.DRAWABLE_REMOVED) {
+				DrawnElement element = (DrawnElement) event.getArg();
+				getDrawableRenderer(element.getDrawable().getLayer()).invalidate(element);
 			}
 			MapTool.getFrame().updateTokenTree();
 			repaint();
@@ -10,17 +10,32 @@
  */
 package net.rptools.maptool.client.ui.zone;
 
+import java.awt.EventQueue;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.rptools.maptool.client.AppState;
 import net.rptools.maptool.client.AppUtil;
@@ -28,6 +43,7 @@ import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.ui.zone.vbl.AreaTree;
 import net.rptools.maptool.model.AttachedLightSource;
 import net.rptools.maptool.model.Campaign;
+import net.rptools.maptool.model.CampaignProperties.VisibilityAlgorithm;
 import net.rptools.maptool.model.Direction;
 import net.rptools.maptool.model.GUID;
 import net.rptools.maptool.model.Light;
@@ -39,19 +55,57 @@ import net.rptools.maptool.model.Token;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.Filter;
 
+import org.apache.log4j.Logger;
+
+/**
+ * Calculates and caches what the tokens on a zone can see and which lights they see by.
+ * <p>
+ * Per-token vision and per-light areas are calculated on a shared pool of worker threads (see
+ * {@link #calculateVisibleArea(PlayerView)}), so the caches they end up in are concurrent. Which tokens, sight types and
+ * light sources take part is settled on the calling thread, which also hands the workers copies of those tokens made by
+ * {@link Token#copyForVision()}, so they never read a token the event dispatch thread is changing. A copy can still
+ * go out of date while it is being worked on; the change reaches the view as an event whose flush bumps
+ * {@link #generation}, and what was calculated under an older generation is neither cached nor published. The basic
+ * (unlit) vision of a token is cached against the position, facing and sight type it was calculated for and the
+ * topology version it was clipped by, so it survives token changes that don't affect it. The combined areas are dropped
+ * by the various <code>flush()</code> methods; every flush bumps {@link #generation} so that results still being
+ * calculated from the old state are not cached.
+ * <p>
+ * The per-view union is owned by the event dispatch thread. When it is out of date but an older union exists, the
+ * older one keeps being returned while the new one is calculated in the background, and the {@link VisibilityListener}s
+ * are told once it is ready.
+ */
 public class ZoneView implements ModelChangeListener {
+	private static final Logger log = Logger.getLogger(ZoneView.class);
+
+	private static final ExecutorService visionThreadPool = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()), new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "ZoneView-vision-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
 	private final Zone zone;
 
 	// VISION
-	private final Map<GUID, Area> tokenVisibleAreaCache = new HashMap<GUID, Area>();
-	private final Map<GUID, Area> tokenVisionCache = new HashMap<GUID, Area>();
-	private final Map<GUID, Map<String, Area>> lightSourceCache = new HashMap<GUID, Map<String, Area>>();
+	private final ConcurrentMap<GUID, CachedVision> tokenVisibleAreaCache = new ConcurrentHashMap<GUID, CachedVision>();
+	private final ConcurrentMap<GUID, Area> tokenVisionCache = new ConcurrentHashMap<GUID, Area>();
+	private final ConcurrentMap<GUID, ConcurrentMap<String, FutureTask<Area>>> lightSourceCache = new ConcurrentHashMap<GUID, ConcurrentMap<String, FutureTask<Area>>>();
 	private final Map<LightSource.Type, Set<GUID>> lightSourceMap = new HashMap<LightSource.Type, Set<GUID>>();
+	// Both guarded by lightCacheLock
 	private final Map<GUID, Map<String, Set<DrawableLight>>> drawableLightCache = new HashMap<GUID, Map<String, Set<DrawableLight>>>();
 	private final Map<GUID, Map<String, Set<Area>>> brightLightCache = new HashMap<GUID, Map<String, Set<Area>>>();
+	private final Object lightCacheLock = new Object();
 	private final Map<PlayerView, VisibleAreaMeta> visibleAreaMap = new HashMap<PlayerView, VisibleAreaMeta>();
+	private final List<VisibilityListener> visibilityListeners = new CopyOnWriteArrayList<VisibilityListener>();
+	private final AtomicInteger generation = new AtomicInteger();
 	private AreaData topologyAreaData;
-	private AreaTree topology;
+	// Both guarded by this
+	private TopologySnapshot topology;
+	private Rectangle2D topologyDirtyRegion;
 
 	public ZoneView(Zone zone) {
 		this.zone = zone;
@@ -59,6 +113,22 @@ public class ZoneView implements ModelChangeListener {
 		zone.addModelChangeListener(this);
 	}
 
+	/**
+	 * Listeners are notified on the event dispatch thread whenever a visible area that was calculated in the
+	 * background replaces the one previously returned by {@link ZoneView#getVisibleArea(PlayerView)}.
+	 */
+	public interface VisibilityListener {
+		public void visibilityChanged(PlayerView view);
+	}
+
+	public void addVisibilityListener(VisibilityListener listener) {
+		visibilityListeners.add(listener);
+	}
+
+	public void removeVisibilityListener(VisibilityListener listener) {
+		visibilityListeners.remove(listener);
+	}
+
 	public Area getVisibleArea(PlayerView view) {
 		calculateVisibleArea(view);
 		ZoneView.VisibleAreaMeta visible = visibleAreaMap.get(view);
@@ -72,9 +142,25 @@ public class ZoneView implements ModelChangeListener {
 	}
 
 	public AreaTree getTopology() {
-		if (topology == null) {
-			topology = new AreaTree(zone.getTopology());
+		return getTopologySnapshot().tree;
+	}
+
+	private synchronized TopologySnapshot getTopologySnapshot() {
+		VisibilityAlgorithm algorithm = MapTool.getCampaign().getVisibilityAlgorithm();
+		if (topology != null && topology.algorithm != algorithm) {
+			// The lights were clipped the other way; the basic vision is keyed by algorithm so it can stay
+			flushLights();
 		}
+		if (topology == null || (topology.version != zone.getTopologyVersion() && topologyDirtyRegion == null)) {
+			// The latter when asked in between the topology changing and the event about it
+			topology = new TopologySnapshot(new AreaTree(zone.getTopology()), zone.getTopologyVersion(), algorithm);
+		} else if (topology.version != zone.getTopologyVersion()) {
+			// Only the outlines around what was drawn or erased since the last snapshot need to be redone
+			topology = new TopologySnapshot(topology.tree.update(zone.getTopology(), topologyDirtyRegion), zone.getTopologyVersion(), algorithm);
+		} else if (topology.algorithm != algorithm) {
+			topology = new TopologySnapshot(topology.tree, topology.version, algorithm);
+		}
+		topologyDirtyRegion = null;
 		return topology;
 	}
 
@@ -87,26 +173,61 @@ public class ZoneView implements ModelChangeListener {
 	}
 
 	public Area getLightSourceArea(Token token, Token lightSourceToken) {
+		SightType sight = MapTool.getCampaign().getSightType(token.getSightType());
+		if (sight == null) {
+			return new Area();
+		}
+		return getLightSourceArea(sight, lightSourceToken, getTopologySnapshot());
+	}
+
+	private Area getLightSourceArea(final SightType sight, final Token lightSourceToken, final TopologySnapshot topology) {
 		// Cached ?
-		Map<String, Area> areaBySightMap = lightSourceCache.get(lightSourceToken.getId());
-		if (areaBySightMap != null) {
-			Area lightSourceArea = areaBySightMap.get(token.getSightType());
-			if (lightSourceArea != null) {
-				return lightSourceArea;
+		ConcurrentMap<String, FutureTask<Area>> areaBySightMap = lightSourceCache.get(lightSourceToken.getId());
+		if (areaBySightMap == null) {
+			ConcurrentMap<String, FutureTask<Area>> newMap = new ConcurrentHashMap<String, FutureTask<Area>>();
+			areaBySightMap = lightSourceCache.putIfAbsent(lightSourceToken.getId(), newMap);
+			if (areaBySightMap == null) {
+				areaBySightMap = newMap;
+			}
+		}
+		FutureTask<Area> task = areaBySightMap.get(sight.getName());
+		if (task == null) {
+			final int gen = generation.get();
+			FutureTask<Area> newTask = new FutureTask<Area>(new Callable<Area>() {
+				public Area call() {
+					return calculateLightSourceArea(sight, lightSourceToken, topology, gen);
+				}
+			});
+			task = areaBySightMap.putIfAbsent(sight.getName(), newTask);
+			if (task == null) {
+				task = newTask;
+				if (gen != generation.get()) {
+					// Flushed while we were getting here, don't leave a stale entry behind
+					areaBySightMap.remove(sight.getName(), newTask);
+				}
 			}
-		} else {
-			areaBySightMap = new HashMap<String, Area>();
-			lightSourceCache.put(lightSourceToken.getId(), areaBySightMap);
 		}
-		// Calculate
+		// Calculates on this thread, unless another thread already got to it first; then we wait for its result
+		task.run();
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			areaBySightMap.remove(sight.getName(), task);
+			log.error("Could not calculate light source area for " + lightSourceToken.getName(), e.getCause());
+		}
+		return new Area();
+	}
+
+	private Area calculateLightSourceArea(SightType sight, Token lightSourceToken, TopologySnapshot topology, int gen) {
 		Area area = new Area();
 		for (AttachedLightSource attachedLightSource : lightSourceToken.getLightSources()) {
 			LightSource lightSource = MapTool.getCampaign().getLightSource(attachedLightSource.getLightSourceId());
 			if (lightSource == null) {
 				continue;
 			}
-			SightType sight = MapTool.getCampaign().getSightType(token.getSightType());
-			Area visibleArea = calculateLightSourceArea(lightSource, lightSourceToken, sight, attachedLightSource.getDirection());
+			Area visibleArea = calculateLightSourceArea(lightSource, lightSourceToken, sight, attachedLightSource.getDirection(), false, topology, gen);
 
 			// I don't like the NORMAL check here, it doesn't feel right, the API needs to change to support
 			// getting arbitrary light source types, but that's not a simple change
@@ -114,20 +235,10 @@ public class ZoneView implements ModelChangeListener {
 				area.add(visibleArea);
 			}
 		}
-		// Cache
-		areaBySightMap.put(token.getSightType(), area);
 		return area;
 	}
 
-	private Area calculatePersonalLightSourceArea(LightSource lightSource, Token lightSourceToken, SightType sight, Direction direction) {
-		return calculateLightSourceArea(lightSource, lightSourceToken, sight, direction, true);
-	}
-
-	private Area calculateLightSourceArea(LightSource lightSource, Token lightSourceToken, SightType sight, Direction direction) {
-		return calculateLightSourceArea(lightSource, lightSourceToken, sight, direction, false);
-	}
-
-	private Area calculateLightSourceArea(LightSource lightSource, Token lightSourceToken, SightType sight, Direction direction, boolean isPersonalLight) {
+	private Area calculateLightSourceArea(LightSource lightSource, Token lightSourceToken, SightType sight, Direction direction, boolean isPersonalLight, TopologySnapshot topology, int gen) {
 		if (sight == null) {
 			return null;
 		}
@@ -139,7 +250,7 @@ public class ZoneView implements ModelChangeListener {
 		if (sight.getMultiplier() != 1) {
 			lightSourceArea.transform(AffineTransform.getScaleInstance(sight.getMultiplier(), sight.getMultiplier()));
 		}
-		Area visibleArea = FogUtil.calculateVisibility(p.x, p.y, lightSourceArea, getTopology());
+		Area visibleArea = FogUtil.calculateVisibility(p.x, p.y, lightSourceArea, topology.tree, topology.algorithm);
 
 		if (visibleArea == null) {
 			return null;
@@ -164,30 +275,32 @@ public class ZoneView implements ModelChangeListener {
 				brightLightSet.add(lightArea);
 			}
 		}
-		// FIXME There was a bug report of a ConcurrentModificationException regarding drawableLightCache.
-		// I don't see how, but perhaps this code -- and the ones in flush() and flush(Token) -- should be
-		// wrapped in a synchronization block?  This method is probably called only on the same thread as
-		// getDrawableLights() but the two flush() methods may be called from different threads.  How to
-		// verify this with Eclipse?  Maybe the flush() methods should defer modifications to the EventDispatchingThread?
-		Map<String, Set<DrawableLight>> lightMap = drawableLightCache.get(lightSourceToken.getId());
-		if (lightMap == null) {
-			lightMap = new HashMap<String, Set<DrawableLight>>();
-			drawableLightCache.put(lightSourceToken.getId(), lightMap);
-		}
-		if (lightMap.get(sight.getName()) != null) {
-			lightMap.get(sight.getName()).addAll(lightSet);
-		} else {
-			lightMap.put(sight.getName(), lightSet);
-		}
-		Map<String, Set<Area>> brightLightMap = brightLightCache.get(lightSourceToken.getId());
-		if (brightLightMap == null) {
-			brightLightMap = new HashMap<String, Set<Area>>();
-			brightLightCache.put(lightSourceToken.getId(), brightLightMap);
-		}
-		if (brightLightMap.get(sight.getName()) != null) {
-			brightLightMap.get(sight.getName()).addAll(brightLightSet);
-		} else {
-			brightLightMap.put(sight.getName(), brightLightSet);
+		// This runs on the vision worker threads, while the flush() methods run on whatever thread changed the model
+		synchronized (lightCacheLock) {
+			if (gen != generation.get()) {
+				// Calculated from state that has been flushed in the meantime
+				return visibleArea;
+			}
+			Map<String, Set<DrawableLight>> lightMap = drawableLightCache.get(lightSourceToken.getId());
+			if (lightMap == null) {
+				lightMap = new HashMap<String, Set<DrawableLight>>();
+				drawableLightCache.put(lightSourceToken.getId(), lightMap);
+			}
+			if (lightMap.get(sight.getName()) != null) {
+				lightMap.get(sight.getName()).addAll(lightSet);
+			} else {
+				lightMap.put(sight.getName(), lightSet);
+			}
+			Map<String, Set<Area>> brightLightMap = brightLightCache.get(lightSourceToken.getId());
+			if (brightLightMap == null) {
+				brightLightMap = new HashMap<String, Set<Area>>();
+				brightLightCache.put(lightSourceToken.getId(), brightLightMap);
+			}
+			if (brightLightMap.get(sight.getName()) != null) {
+				brightLightMap.get(sight.getName()).addAll(brightLightSet);
+			} else {
+				brightLightMap.put(sight.getName(), brightLightSet);
+			}
 		}
 		return visibleArea;
 	}
@@ -208,14 +321,27 @@ public class ZoneView implements ModelChangeListener {
 			// TODO Should we turn off the token's HasSight flag?  Would speed things up for later...
 			return null;
 		}
+		return calculateVisibleArea(token, sight, getTopologySnapshot(), getNormalLightSourceTokens());
+	}
+
+	/**
+	 * Safe to call from the vision worker threads, as long as the light source tokens have been looked up beforehand.
+	 */
+	private Area calculateVisibleArea(Token token, SightType sight, TopologySnapshot topology, List<Token> lightSourceTokens) {
+		int gen = generation.get();
+
 		// Combine the player visible area with the available light sources
-		tokenVisibleArea = tokenVisibleAreaCache.get(token.getId());
-		if (tokenVisibleArea == null) {
-			Point p = FogUtil.calculateVisionCenter(token, zone);
-			Area visibleArea = sight.getVisionShape(token, zone);
-			tokenVisibleArea = FogUtil.calculateVisibility(p.x, p.y, visibleArea, getTopology());
+		Point p = FogUtil.calculateVisionCenter(token, zone);
+		Area visionShape = sight.getVisionShape(token, zone);
+		VisionKey key = new VisionKey(p, token.getFacing(), sight.getName(), topology, visionShape.getBounds());
 
-			tokenVisibleAreaCache.put(token.getId(), tokenVisibleArea);
+		Area tokenVisibleArea;
+		CachedVision cached = tokenVisibleAreaCache.get(token.getId());
+		if (cached != null && cached.key.equals(key)) {
+			tokenVisibleArea = cached.visibleArea;
+		} else {
+			tokenVisibleArea = FogUtil.calculateVisibility(p.x, p.y, visionShape, topology.tree, topology.algorithm);
+			tokenVisibleAreaCache.put(token.getId(), new CachedVision(key, tokenVisibleArea));
 		}
 		// Combine in the visible light areas
 		if (tokenVisibleArea != null && zone.getVisionType() == Zone.VisionType.NIGHT) {
@@ -223,22 +349,14 @@ public class ZoneView implements ModelChangeListener {
 
 			// Combine all light sources that might intersect our vision
 			List<Area> intersects = new LinkedList<Area>();
-			List<Token> lightSourceTokens = new ArrayList<Token>();
 
-			if (lightSourceMap.get(LightSource.Type.NORMAL) != null) {
-				for (GUID lightSourceTokenId : lightSourceMap.get(LightSource.Type.NORMAL)) {
-					Token lightSourceToken = zone.getToken(lightSourceTokenId);
-					if (lightSourceToken != null) {
-						lightSourceTokens.add(lightSourceToken);
-					}
-				}
-			}
 			if (token.hasLightSources() && !lightSourceTokens.contains(token)) {
 				// This accounts for temporary tokens (such as during an Expose Last Path)
+				lightSourceTokens = new ArrayList<Token>(lightSourceTokens);
 				lightSourceTokens.add(token);
 			}
 			for (Token lightSourceToken : lightSourceTokens) {
-				Area lightArea = getLightSourceArea(token, lightSourceToken);
+				Area lightArea = getLightSourceArea(sight, lightSourceToken, topology);
 
 				if (origBounds.intersects(lightArea.getBounds2D())) {
 					Area intersection = new Area(tokenVisibleArea);
@@ -248,26 +366,52 @@ public class ZoneView implements ModelChangeListener {
 			}
 			// Check for personal vision
 			if (sight.hasPersonalLightSource()) {
-				Area lightArea = calculatePersonalLightSourceArea(sight.getPersonalLightSource(), token, sight, Direction.CENTER);
+				Area lightArea = calculateLightSourceArea(sight.getPersonalLightSource(), token, sight, Direction.CENTER, true, topology, gen);
 				if (lightArea != null) {
 					Area intersection = new Area(tokenVisibleArea);
 					intersection.intersect(lightArea);
 					intersects.add(intersection);
 				}
 			}
-			while (intersects.size() > 1) {
-				Area a1 = intersects.remove(0);
-				Area a2 = intersects.remove(0);
-
-				a1.add(a2);
-				intersects.add(a1);
+			tokenVisibleArea = !intersects.isEmpty() ? union(intersects) : new Area();
+		}
+		if (tokenVisibleArea != null) {
+			tokenVisionCache.put(token.getId(), tokenVisibleArea);
+			if (gen != generation.get()) {
+				// Flushed while we were calculating
+				tokenVisionCache.remove(token.getId(), tokenVisibleArea);
 			}
-			tokenVisibleArea = !intersects.isEmpty() ? intersects.get(0) : new Area();
 		}
-		tokenVisionCache.put(token.getId(), tokenVisibleArea);
 		return tokenVisibleArea;
 	}
 
+	private List<Token> getNormalLightSourceTokens() {
+		List<Token> lightSourceTokens = new ArrayList<Token>();
+		if (lightSourceMap.get(LightSource.Type.NORMAL) != null) {
+			for (GUID lightSourceTokenId : lightSourceMap.get(LightSource.Type.NORMAL)) {
+				Token lightSourceToken = zone.getToken(lightSourceTokenId);
+				if (lightSourceToken != null) {
+					lightSourceTokens.add(lightSourceToken);
+				}
+			}
+		}
+		return lightSourceTokens;
+	}
+
+	/**
+	 * Adds the areas together pairwise, which keeps the intermediate areas small. The list is consumed.
+	 */
+	private static Area union(List<Area> areas) {
+		while (areas.size() > 1) {
+			Area a1 = areas.remove(0);
+			Area a2 = areas.remove(0);
+
+			a1.add(a2);
+			areas.add(a1);
+		}
+		return areas.get(0);
+	}
+
 	public List<DrawableLight> getLights(LightSource.Type type) {
 		List<DrawableLight> lightList = new LinkedList<DrawableLight>();
 		if (lightSourceMap.get(type) != null) {
@@ -277,6 +421,7 @@ public class ZoneView implements ModelChangeListener {
 					continue;
 				}
 				Point p = FogUtil.calculateVisionCenter(token, zone);
+				TopologySnapshot topology = getTopologySnapshot();
 
 				for (AttachedLightSource als : token.getLightSources()) {
 					LightSource lightSource = MapTool.getCampaign().getLightSource(als.getLightSourceId());
@@ -286,7 +431,7 @@ public class ZoneView implements ModelChangeListener {
 					if (lightSource.getType() == type) {
 						// This needs to be cached somehow
 						Area lightSourceArea = lightSource.getArea(token, zone, Direction.CENTER);
-						Area visibleArea = FogUtil.calculateVisibility(p.x, p.y, lightSourceArea, getTopology());
+						Area visibleArea = FogUtil.calculateVisibility(p.x, p.y, lightSourceArea, topology.tree, topology.algorithm);
 						if (visibleArea == null) {
 							continue;
 						}
@@ -340,9 +485,11 @@ public class ZoneView implements ModelChangeListener {
 	public Set<DrawableLight> getDrawableLights() {
 		Set<DrawableLight> lightSet = new HashSet<DrawableLight>();
 
-		for (Map<String, Set<DrawableLight>> map : drawableLightCache.values()) {
-			for (Set<DrawableLight> set : map.values()) {
-				lightSet.addAll(set);
+		synchronized (lightCacheLock) {
+			for (Map<String, Set<DrawableLight>> map : drawableLightCache.values()) {
+				for (Set<DrawableLight> set : map.values()) {
+					lightSet.addAll(set);
+				}
 			}
 		}
 		return lightSet;
@@ -351,54 +498,153 @@ public class ZoneView implements ModelChangeListener {
 	public Set<Area> getBrightLights() {
 		Set<Area> lightSet = new HashSet<Area>();
 
-		for (Map<String, Set<Area>> map : brightLightCache.values()) {
-			for (Set<Area> set : map.values()) {
-				lightSet.addAll(set);
+		synchronized (lightCacheLock) {
+			for (Map<String, Set<Area>> map : brightLightCache.values()) {
+				for (Set<Area> set : map.values()) {
+					lightSet.addAll(set);
+				}
 			}
 		}
 		return lightSet;
 	}
 
 	public void flush() {
+		synchronized (lightCacheLock) {
+			generation.incrementAndGet();
+			drawableLightCache.clear();
+			brightLightCache.clear();
+		}
 		tokenVisibleAreaCache.clear();
 		tokenVisionCache.clear();
 		lightSourceCache.clear();
-		visibleAreaMap.clear();
-		drawableLightCache.clear();
-		brightLightCache.clear();
+	}
+
+	/**
+	 * Drops the lights and the vision they light, but not the basic vision
+	 */
+	private void flushLights() {
+		synchronized (lightCacheLock) {
+			generation.incrementAndGet();
+			drawableLightCache.clear();
+			brightLightCache.clear();
+		}
+		tokenVisionCache.clear();
+		lightSourceCache.clear();
 	}
 
 	public void flush(Token token) {
 		boolean hadLightSource = lightSourceCache.get(token.getId()) != null;
 
+		synchronized (lightCacheLock) {
+			generation.incrementAndGet();
+			drawableLightCache.remove(token.getId());
+			brightLightCache.remove(token.getId());
+		}
+		// The basic vision stays cached, it is only reused if the token's position, facing and sight are unchanged
 		tokenVisionCache.remove(token.getId());
-		tokenVisibleAreaCache.remove(token.getId());
 		lightSourceCache.remove(token.getId());
-		drawableLightCache.remove(token.getId());
-		brightLightCache.remove(token.getId());
-		visibleAreaMap.clear();
 
 		if (hadLightSource || token.hasLightSources()) {
 			// Have to recalculate all token vision
 			tokenVisionCache.clear();
 		}
-		if (token.getHasSight()) {
-			visibleAreaMap.clear();
-		}
 		// TODO: This fixes a bug with changing vision type, I don't like it though, it needs to be optimized back out
 //		lightSourceCache.clear();
 	}
 
-	private void calculateVisibleArea(PlayerView view) {
-		if (visibleAreaMap.get(view) != null && visibleAreaMap.get(view).visibleArea.getBounds().getCenterX() != 0.0d) {
-			return;
+	/**
+	 * Drops what a change to the topology inside <code>dirty</code> may have affected. Vision and lights that don't
+	 * reach the dirty region could not have been blocked by what was drawn there, nor by what was erased there, so
+	 * they are kept; the basic vision is carried over to the new topology version.
+	 */
+	private void flushTopology(Rectangle2D dirty) {
+		Rectangle2D region = new Rectangle2D.Double(dirty.getX() - 1, dirty.getY() - 1, dirty.getWidth() + 2, dirty.getHeight() + 2);
+		int version = zone.getTopologyVersion();
+
+		synchronized (this) {
+			if (topology != null) {
+				if (topologyDirtyRegion == null) {
+					topologyDirtyRegion = region;
+				} else {
+					topologyDirtyRegion.add(region);
+				}
+			}
+		}
+		Set<GUID> lightIds = new HashSet<GUID>();
+		for (Map.Entry<GUID, ConcurrentMap<String, FutureTask<Area>>> entry : lightSourceCache.entrySet()) {
+			for (FutureTask<Area> task : entry.getValue().values()) {
+				if (!isClearOf(task, region)) {
+					lightIds.add(entry.getKey());
+					break;
+				}
+			}
+		}
+		synchronized (lightCacheLock) {
+			generation.incrementAndGet();
+			for (GUID id : lightIds) {
+				drawableLightCache.remove(id);
+				brightLightCache.remove(id);
+			}
+		}
+		for (GUID id : lightIds) {
+			lightSourceCache.remove(id);
+		}
+		for (Map.Entry<GUID, CachedVision> entry : tokenVisibleAreaCache.entrySet()) {
+			CachedVision cached = entry.getValue();
+			// Only the previous version can be carried over, anything older missed a change in between
+			if (cached.key.topologyVersion == version - 1 && cached.visibleArea != null && !cached.visibleArea.intersects(region)) {
+				tokenVisibleAreaCache.replace(entry.getKey(), cached, new CachedVision(cached.key.withTopologyVersion(version), cached.visibleArea));
+			} else {
+				tokenVisibleAreaCache.remove(entry.getKey(), cached);
+				tokenVisionCache.remove(entry.getKey());
+			}
 		}
-		// Cache it
-		VisibleAreaMeta meta = new VisibleAreaMeta();
-		meta.visibleArea = new Area();
+		if (!lightIds.isEmpty()) {
+			// The lights are part of every token's vision
+			tokenVisionCache.clear();
+		}
+	}
 
-		visibleAreaMap.put(view, meta);
+	/**
+	 * @return whether the light area has been calculated and stays clear of <code>region</code>
+	 */
+	private static boolean isClearOf(FutureTask<Area> task, Rectangle2D region) {
+		if (!task.isDone()) {
+			return false;
+		}
+		try {
+			Area area = task.get();
+			// An empty area might be a light inside of topology that was just erased
+			return !area.isEmpty() && !area.intersects(region);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// Already logged by whoever waited for it
+		}
+		return false;
+	}
 
+	/**
+	 * Makes sure the visible area of the view is current, or is being brought up to date.
+	 * <p>
+	 * The vision of each token (and, at night, each light it might be seen by) is calculated on the vision worker
+	 * threads. If there is no earlier visible area for the view this waits for the workers, which still beats doing it
+	 * all on this thread. Otherwise the earlier area stays in place until the new one has been published by
+	 * {@link #publish(PlayerView, VisionBatch)}. Must be called on the event dispatch thread, or by whatever single
+	 * thread owns the view.
+	 */
+	private void calculateVisibleArea(PlayerView view) {
+		VisibleAreaMeta meta = visibleAreaMap.get(view);
+		// Before the generation is read, as a change of visibility algorithm flushes the lights
+		getTopologySnapshot();
+		int gen = generation.get();
+		if (meta != null && meta.generation == gen && meta.visibleArea.getBounds().getCenterX() != 0.0d) {
+			return;
+		}
+		if (meta != null && meta.pending != null && meta.pending.generation == gen) {
+			// Already on its way
+			return;
+		}
 		// Calculate it
 		final boolean isGMview = view.isGMView();
 		final boolean checkOwnership = MapTool.getServerPolicy().isUseIndividualViews() || MapTool.isPersonalServer();
@@ -407,6 +653,8 @@ public class ZoneView implements ModelChangeListener {
 				return t.isToken() && t.getHasSight() && (isGMview || t.isVisible());
 			}
 		});
+		Campaign campaign = MapTool.getCampaign();
+		Map<Token, SightType> sightMap = new LinkedHashMap<Token, SightType>();
 		for (Token token : tokenList) {
 			boolean weOwnIt = AppUtil.playerOwns(token);
 			// Permission
@@ -426,10 +674,56 @@ public class ZoneView implements ModelChangeListener {
 			if (token.isVisibleOnlyToOwner() && !weOwnIt) {
 				continue;
 			}
-			Area tokenVision = getVisibleArea(token);
-			if (tokenVision != null) {
-				meta.visibleArea.add(tokenVision);
+			SightType sight = token.getHasSight() ? campaign.getSightType(token.getSightType()) : null;
+			if (sight != null) {
+				sightMap.put(token, sight);
+			}
+		}
+		VisionBatch batch = new VisionBatch(gen, sightMap);
+		if (meta == null || meta.visibleArea.isEmpty()) {
+			// Nothing to show in the meantime
+			if (meta != null && meta.pending != null) {
+				meta.pending.cancel();
+			}
+			meta = new VisibleAreaMeta();
+			meta.visibleArea = batch.await();
+			meta.generation = gen;
+			visibleAreaMap.put(view, meta);
+		} else {
+			if (meta.pending != null) {
+				meta.pending.cancel();
 			}
+			meta.pending = batch;
+			batch.publishTo(view);
+		}
+	}
+
+	/**
+	 * Calculates the combined vision of the tokens on the vision worker threads, waiting for the result. The tokens are
+	 * taken as they are, without the ownership and visibility checks of {@link #calculateVisibleArea(PlayerView)}.
+	 */
+	Area calculateVisibleArea(Map<Token, SightType> sightMap) {
+		return new VisionBatch(generation.get(), sightMap).await();
+	}
+
+	/**
+	 * Called on the event dispatch thread once a background batch is done.
+	 */
+	private void publish(PlayerView view, VisionBatch batch) {
+		VisibleAreaMeta meta = visibleAreaMap.get(view);
+		if (meta == null || meta.pending != batch) {
+			// Superseded
+			return;
+		}
+		meta.pending = null;
+		if (batch.generation != generation.get()) {
+			// Flushed in the meantime; whoever did that also asked for a repaint, which starts over
+			return;
+		}
+		meta.visibleArea = batch.result;
+		meta.generation = batch.generation;
+		for (VisibilityListener listener : visibilityListeners) {
+			listener.visibilityChanged(view);
 		}
 	}
 
@@ -439,12 +733,17 @@ public class ZoneView implements ModelChangeListener {
 		Object evt = event.getEvent();
 		if (event.getModel() instanceof Zone) {
 			if (evt == Zone.Event.TOPOLOGY_CHANGED) {
-				tokenVisionCache.clear();
-				lightSourceCache.clear();
-				visibleAreaMap.clear();
 				topologyAreaData = null;
-				topology = null;
-				tokenVisibleAreaCache.clear();
+				if (event.getArg() instanceof Area) {
+					flushTopology(((Area) event.getArg()).getBounds2D());
+				} else {
+					// The basic vision is keyed by topology version, so it doesn't need to be cleared
+					flushLights();
+					synchronized (this) {
+						topology = null;
+						topologyDirtyRegion = null;
+					}
+				}
 			}
 			if (evt == Zone.Event.TOKEN_CHANGED || evt == Zone.Event.TOKEN_REMOVED) {
 				if (event.getArg() instanceof List<?>) {
@@ -510,10 +809,229 @@ public class ZoneView implements ModelChangeListener {
 			hasSight |= token.getHasSight();
 		}
 		if (hasSight)
-			visibleAreaMap.clear();
+			generation.incrementAndGet();
 	}
 
 	private static class VisibleAreaMeta {
 		Area visibleArea;
+		int generation;
+		VisionBatch pending;
+	}
+
+	/**
+	 * The topology tree along with the topology version it was built from, and the campaign's choice of algorithm to
+	 * apply it with.
+	 */
+	private static class TopologySnapshot {
+		final AreaTree tree;
+		final int version;
+		final VisibilityAlgorithm algorithm;
+
+		TopologySnapshot(AreaTree tree, int version, VisibilityAlgorithm algorithm) {
+			this.tree = tree;
+			this.version = version;
+			this.algorithm = algorithm;
+		}
+	}
+
+	/**
+	 * Everything the basic vision of a token depends on, besides the token itself.
+	 */
+	private static class VisionKey {
+		private final int x;
+		private final int y;
+		private final Integer facing;
+		private final String sightType;
+		private final int topologyVersion;
+		private final VisibilityAlgorithm algorithm;
+		private final Rectangle shapeBounds;
+
+		VisionKey(Point center, Integer facing, String sightType, TopologySnapshot topology, Rectangle shapeBounds) {
+			this(center.x, center.y, facing, sightType, topology.version, topology.algorithm, shapeBounds);
+		}
+
+		private VisionKey(int x, int y, Integer facing, String sightType, int topologyVersion, VisibilityAlgorithm algorithm, Rectangle shapeBounds) {
+			this.x = x;
+			this.y = y;
+			this.facing = facing;
+			this.sightType = sightType;
+			this.topologyVersion = topologyVersion;
+			this.algorithm = algorithm;
+			this.shapeBounds = shapeBounds;
+		}
+
+		VisionKey withTopologyVersion(int version) {
+			return new VisionKey(x, y, facing, sightType, version, algorithm, shapeBounds);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof VisionKey)) {
+				return false;
+			}
+			VisionKey other = (VisionKey) obj;
+			// @formatter:off
+			return x == other.x
+					&& y == other.y
+					&& topologyVersion == other.topologyVersion
+					&& algorithm == other.algorithm
+					&& (facing == null ? other.facing == null : facing.equals(other.facing))
+					&& (sightType == null ? other.sightType == null : sightType.equals(other.sightType))
+					&& shapeBounds.equals(other.shapeBounds);
+			// @formatter:on
+		}
+
+		@Override
+		public int hashCode() {
+			return ((x * 31 + y) * 31 + topologyVersion) * 31 + (facing != null ? facing.hashCode() : 0);
+		}
+	}
+
+	private static class CachedVision {
+		final VisionKey key;
+		final Area visibleArea; // null when the token is inside topology
+
+		CachedVision(VisionKey key, Area visibleArea) {
+			this.key = key;
+			this.visibleArea = visibleArea;
+		}
+	}
+
+	/**
+	 * One round of calculating the vision of a set of tokens on the vision worker threads, unioned into a single area.
+	 * Lights are calculated first, one task per light source token and sight type, so the token tasks that follow
+	 * mostly find them cached instead of all waiting on the same light.
+	 */
+	private class VisionBatch {
+		final int generation;
+		private final List<Token> tokenList;
+		private final List<SightType> sightList;
+		private final Set<SightType> sightSet;
+		private final List<Token> lightSourceTokens;
+		private final TopologySnapshot topology;
+		private final Area[] areas;
+		private final AtomicInteger remaining;
+		private final List<Future<?>> futureList = new ArrayList<Future<?>>();
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile boolean cancelled;
+		private PlayerView view;
+		Area result;
+
+		VisionBatch(int generation, Map<Token, SightType> sightMap) {
+			this.generation = generation;
+			tokenList = new ArrayList<Token>(sightMap.size());
+			for (Token token : sightMap.keySet()) {
+				tokenList.add(token.copyForVision());
+			}
+			sightList = new ArrayList<SightType>(sightMap.values());
+			sightSet = new HashSet<SightType>(sightList);
+			lightSourceTokens = new ArrayList<Token>();
+			if (zone.getVisionType() == Zone.VisionType.NIGHT) {
+				for (Token token : getNormalLightSourceTokens()) {
+					lightSourceTokens.add(token.copyForVision());
+				}
+			}
+			topology = getTopologySnapshot();
+			areas = new Area[tokenList.size()];
+			remaining = new AtomicInteger(tokenList.size());
+		}
+
+		/**
+		 * Calculates the union, blocking the calling thread until it is done.
+		 */
+		Area await() {
+			start();
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return new Area();
+			}
+			return result;
+		}
+
+		/**
+		 * Calculates the union in the background, then hands it to {@link ZoneView#publish(PlayerView, VisionBatch)}.
+		 */
+		void publishTo(PlayerView view) {
+			this.view = view;
+			start();
+		}
+
+		void cancel() {
+			cancelled = true;
+			for (Future<?> future : futureList) {
+				future.cancel(false);
+			}
+		}
+
+		private void start() {
+			for (final Token lightSourceToken : lightSourceTokens) {
+				for (final SightType sight : sightSet) {
+					futureList.add(visionThreadPool.submit(new Runnable() {
+						public void run() {
+							if (cancelled) {
+								return;
+							}
+							try {
+								getLightSourceArea(sight, lightSourceToken, topology);
+							} catch (RuntimeException e) {
+								log.error("Could not calculate light source area for " + lightSourceToken.getName(), e);
+							}
+						}
+					}));
+				}
+			}
+			if (tokenList.isEmpty()) {
+				complete();
+				return;
+			}
+			for (int i = 0; i < tokenList.size(); i++) {
+				final int index = i;
+				futureList.add(visionThreadPool.submit(new Runnable() {
+					public void run() {
+						try {
+							if (!cancelled) {
+								Token token = tokenList.get(index);
+								Area area = tokenVisionCache.get(token.getId());
+								if (area == null) {
+									area = calculateVisibleArea(token, sightList.get(index), topology, lightSourceTokens);
+								}
+								areas[index] = area;
+							}
+						} catch (RuntimeException e) {
+							log.error("Could not calculate vision for " + tokenList.get(index).getName(), e);
+						} finally {
+							if (remaining.decrementAndGet() == 0) {
+								complete();
+							}
+						}
+					}
+				}));
+			}
+		}
+
+		private void complete() {
+			if (cancelled) {
+				return;
+			}
+			List<Area> areaList = new LinkedList<Area>();
+			for (Area area : areas) {
+				if (area != null) {
+					// The token areas are cached, don't add to them
+					areaList.add(new Area(area));
+				}
+			}
+			result = !areaList.isEmpty() ? union(areaList) : new Area();
+			done.countDown();
+
+			if (view != null) {
+				EventQueue.invokeLater(new Runnable() {
+					public void run() {
+						publish(view, VisionBatch.this);
+					}
+				});
+			}
+		}
 	}
 }
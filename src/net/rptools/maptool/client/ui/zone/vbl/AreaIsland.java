@@ -16,6 +16,7 @@ package net.rptools.maptool.client.ui.zone.vbl;
 import java.awt.geom.Area;
 import java.awt.geom.Point2D;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 public class AreaIsland implements AreaContainer {
@@ -58,6 +59,10 @@ public class AreaIsland implements AreaContainer {
 	public void addOcean(AreaOcean ocean) {
 		oceanSet.add(ocean);
 	}
+
+	List<AreaFace> getFaces() {
+		return meta.faceList;
+	}
 	
 	////
 	// AREA CONTAINER
@@ -13,6 +13,7 @@ package net.rptools.maptool.client.ui.zone.vbl;
 import java.awt.geom.Area;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -23,6 +24,7 @@ import net.rptools.lib.GeometryUtil.PointNode;
 
 public class AreaMeta {
 	Area area;
+	Rectangle2D bounds;
 	Point2D centerPoint;
 	List<AreaFace> faceList = new ArrayList<AreaFace>();
 
@@ -115,6 +117,7 @@ public class AreaMeta {
 
 	public void close() {
 		area = new Area(path);
+		bounds = area.getBounds2D();
 
 		// Close the circle
 		lastPointNode.next = pointNodeList;
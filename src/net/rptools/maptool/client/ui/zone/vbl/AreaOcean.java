@@ -15,7 +15,9 @@ package net.rptools.maptool.client.ui.zone.vbl;
 
 import java.awt.geom.Area;
 import java.awt.geom.Point2D;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 public class AreaOcean implements AreaContainer {
@@ -75,6 +77,21 @@ public class AreaOcean implements AreaContainer {
 	public void addIsland(AreaIsland island) {
 		islandSet.add(island);
 	}
+
+	/**
+	 * @return every face that can block vision inside this ocean: its own boundary plus the outlines of the islands in
+	 *         it. Oceans nested inside those islands are out of sight.
+	 */
+	public List<AreaFace> getFaces() {
+		List<AreaFace> faceList = new ArrayList<AreaFace>();
+		if (meta != null) {
+			faceList.addAll(meta.faceList);
+		}
+		for (AreaIsland island : islandSet) {
+			faceList.addAll(island.getFaces());
+		}
+		return faceList;
+	}
 	
 	////
 	// AREA CONTAINER
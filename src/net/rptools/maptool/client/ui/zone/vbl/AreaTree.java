@@ -16,20 +16,45 @@ package net.rptools.maptool.client.ui.zone.vbl;
 import java.awt.geom.Area;
 import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import net.rptools.maptool.util.GraphicsUtil;
 
+/**
+ * The outlines of an {@link Area}, arranged by containment: oceans (holes) hold islands (solids), which hold oceans of
+ * their own, and so on. The tree is not modified once built, so it can be shared between threads; use
+ * {@link #update(Area, Rectangle2D)} to get the tree of a slightly different area.
+ */
 public class AreaTree {
+	private static final Comparator<AreaMeta> SIZE_ORDER = new Comparator<AreaMeta>() {
+		public int compare(AreaMeta o1, AreaMeta o2) {
+			double size1 = getSize(o1);
+			double size2 = getSize(o2);
+			return size1 < size2 ? -1 : (size1 == size2 ? 0 : 1);
+		}
+	};
 
 	private AreaOcean theOcean;
+
+	// Every outline, smallest first, and the outline each of them sits directly inside of (absent for top level islands)
+	private final List<AreaMeta> metaList = new ArrayList<AreaMeta>();
+	private final Map<AreaMeta, AreaMeta> parentMap = new IdentityHashMap<AreaMeta, AreaMeta>();
 	
 	public AreaTree(Area area) {
 		
 		digest(area);
 	}
 
+	private AreaTree() {
+	}
+
 	public AreaOcean getOceanAt(Point2D point) {
 		
 		return theOcean.getDeepestOceanAt(point);
@@ -40,111 +65,195 @@ public class AreaTree {
 		return theOcean;
 	}
 
+	/**
+	 * Builds the tree for <code>area</code>, which must only differ from the area this tree was built from inside of
+	 * <code>dirty</code>. Outlines that don't come near the dirty region are carried over as they are, and so is
+	 * their place in the hierarchy unless a new outline now sits between them and their old parent. Only the outlines
+	 * around the dirty region are traced and placed from scratch. This tree is left alone.
+	 */
+	public AreaTree update(Area area, Rectangle2D dirty) {
+		Rectangle2D region = new Rectangle2D.Double(dirty.getX() - 1, dirty.getY() - 1, dirty.getWidth() + 2, dirty.getHeight() + 2);
+
+		List<AreaMeta> keptList = new ArrayList<AreaMeta>();
+		Set<AreaMeta> droppedSet = Collections.newSetFromMap(new IdentityHashMap<AreaMeta, Boolean>());
+		for (AreaMeta meta : metaList) {
+			if (meta.bounds.intersects(region)) {
+				droppedSet.add(meta);
+			} else {
+				keptList.add(meta);
+			}
+		}
+		List<AreaMeta> addedList = new ArrayList<AreaMeta>();
+		for (AreaMeta meta : trace(area, region)) {
+			addedList.add(meta);
+		}
+		Collections.sort(addedList, SIZE_ORDER);
+
+		AreaTree tree = new AreaTree();
+		tree.metaList.addAll(keptList);
+		tree.metaList.addAll(addedList);
+		Collections.sort(tree.metaList, SIZE_ORDER);
+
+		for (AreaMeta meta : keptList) {
+			AreaMeta parent = parentMap.get(meta);
+			if (parent != null && droppedSet.contains(parent)) {
+				parent = findSmallestContainer(meta, tree.metaList);
+			} else {
+				// The old parent still contains it, but a new outline might be in between
+				AreaMeta container = findSmallestContainer(meta, addedList);
+				if (container != null && (parent == null || getSize(container) < getSize(parent))) {
+					parent = container;
+				}
+			}
+			if (parent != null) {
+				tree.parentMap.put(meta, parent);
+			}
+		}
+		for (AreaMeta meta : addedList) {
+			AreaMeta parent = findSmallestContainer(meta, tree.metaList);
+			if (parent != null) {
+				tree.parentMap.put(meta, parent);
+			}
+		}
+		tree.buildHierarchy();
+		return tree;
+	}
+
 	private void digest(Area area) {
 
 		if (area == null) {
 			return;
 		}
 
-		List<AreaOcean> oceanList = new ArrayList<AreaOcean>();
-		List<AreaIsland> islandList = new ArrayList<AreaIsland>();
-		
-		// Break the big area into independent areas
+		metaList.addAll(trace(area, null));
+		Collections.sort(metaList, SIZE_ORDER);
+
+		for (AreaMeta meta : metaList) {
+			AreaMeta parent = findSmallestContainer(meta, metaList);
+			if (parent != null) {
+				parentMap.put(meta, parent);
+			}
+		}
+		buildHierarchy();
+	}
+
+	/**
+	 * Breaks the area into its outlines, skipping any that don't intersect <code>region</code> (if there is one)
+	 */
+	private static List<AreaMeta> trace(Area area, Rectangle2D region) {
+		List<AreaMeta> traceList = new ArrayList<AreaMeta>();
+
 		float[] coords = new float[6];
-		AreaMeta areaMeta = new AreaMeta();
+		float[] points = new float[64];
+		int count = 0;
 		for (PathIterator iter = area.getPathIterator(null); !iter.isDone(); iter.next()) {
 			
 			int type = iter.currentSegment(coords);
 			switch (type) {
 			case PathIterator.SEG_CLOSE: {
-				areaMeta.close();
-
-				// Holes are oceans, solids are islands
-				if (areaMeta.isHole()) {
-					oceanList.add(new AreaOcean(areaMeta));
-				} else {
-					islandList.add(new AreaIsland(areaMeta));
+				if (count > 0 && (region == null || getBounds(points, count).intersects(region))) {
+					AreaMeta areaMeta = new AreaMeta();
+					for (int i = 0; i < count; i += 2) {
+						areaMeta.addPoint(points[i], points[i + 1]);
+					}
+					areaMeta.close();
+					traceList.add(areaMeta);
 				}
-
+				count = 0;
 				break;
 			}
+			case PathIterator.SEG_MOVETO:
 			case PathIterator.SEG_LINETO: {
-				areaMeta.addPoint(coords[0], coords[1]);
-				break;
-			}
-			case PathIterator.SEG_MOVETO: {
-				areaMeta = new AreaMeta();
-				areaMeta.addPoint(coords[0], coords[1]);
+				if (type == PathIterator.SEG_MOVETO) {
+					count = 0;
+				}
+				if (count + 2 > points.length) {
+					float[] newPoints = new float[points.length * 2];
+					System.arraycopy(points, 0, newPoints, 0, count);
+					points = newPoints;
+				}
+				points[count++] = coords[0];
+				points[count++] = coords[1];
 				break;
 			}
 			}
 			
 		}
-		
-		// Create the hierarchy
-		// Start by putting each ocean into the containing island
-		// Every ocean should have a containing island.  There is only one ocean that doesn't
-		// have an explicit island and that's the global scope ocean container
-		for (AreaOcean ocean : oceanList) {
-			
-			AreaIsland island = findSmallestContainer(ocean, islandList);
-			if (island == null) {
-				System.err.println("Weird, I couldn't find an island for an ocean");
-				continue;
-			}
-			
-			island.addOcean(ocean);
+		return traceList;
+	}
+
+	private static Rectangle2D getBounds(float[] points, int count) {
+		float minX = points[0], maxX = points[0];
+		float minY = points[1], maxY = points[1];
+		for (int i = 2; i < count; i += 2) {
+			minX = Math.min(minX, points[i]);
+			maxX = Math.max(maxX, points[i]);
+			minY = Math.min(minY, points[i + 1]);
+			maxY = Math.max(maxY, points[i + 1]);
 		}
-		
-		// Now put each island into the containing ocean
-		List<AreaIsland> globalIslandList = new ArrayList<AreaIsland>();
-		for (AreaIsland island : islandList) {
+		return new Rectangle2D.Float(minX, minY, maxX - minX, maxY - minY);
+	}
 
-			AreaOcean ocean = findSmallestContainer(island, oceanList);
-			if (ocean == null) {
-				globalIslandList.add(island);
-				continue;
+	/**
+	 * Creates the oceans and islands from {@link #parentMap}. They are cheap wrappers around the outlines, so they are
+	 * always built from scratch rather than shared with the tree this one was updated from.
+	 */
+	private void buildHierarchy() {
+		Map<AreaMeta, AreaOcean> oceanMap = new IdentityHashMap<AreaMeta, AreaOcean>();
+		Map<AreaMeta, AreaIsland> islandMap = new IdentityHashMap<AreaMeta, AreaIsland>();
+		for (AreaMeta meta : metaList) {
+			// Holes are oceans, solids are islands
+			if (meta.isHole()) {
+				oceanMap.put(meta, new AreaOcean(meta));
+			} else {
+				islandMap.put(meta, new AreaIsland(meta));
 			}
-			
-			ocean.addIsland(island);
 		}
 		
-		// Now we have our hierarchy, just hook up the global space
+		// Every ocean should have a containing island.  There is only one ocean that doesn't
+		// have an explicit island and that's the global scope ocean container
 		theOcean = new AreaOcean(null);
-		for (AreaIsland island : globalIslandList) {
-			theOcean.addIsland(island);
+		for (AreaMeta meta : metaList) {
+			AreaMeta parent = parentMap.get(meta);
+			if (meta.isHole()) {
+				if (parent == null) {
+					System.err.println("Weird, I couldn't find an island for an ocean");
+					continue;
+				}
+				islandMap.get(parent).addOcean(oceanMap.get(meta));
+			} else {
+				AreaOcean ocean = parent != null ? oceanMap.get(parent) : theOcean;
+				ocean.addIsland(islandMap.get(meta));
+			}
 		}
 	}
 	
-	private <T extends AreaContainer> T findSmallestContainer(AreaContainer item, List<T> list) {
+	/**
+	 * Oceans sit inside islands and islands inside oceans, so this only looks at outlines of the other kind.
+	 * 
+	 * @param candidateList
+	 *            the outlines to pick from, smallest first
+	 */
+	private static AreaMeta findSmallestContainer(AreaMeta item, List<AreaMeta> candidateList) {
 		
-		T smallest = null;
-		for (T container : list) {
-
-			if (!GraphicsUtil.contains(container.getBounds(), item.getBounds())) {
+		for (AreaMeta container : candidateList) {
+			if (container == item || container.isHole() == item.isHole()) {
 				continue;
 			}
-			
-			smallest = getSmallest(smallest, container);
+			// Outlines don't cross, so comparing the bounds weeds out almost everything before the expensive test
+			if (!container.bounds.contains(item.bounds)) {
+				continue;
+			}
+			if (GraphicsUtil.contains(container.area, item.area)) {
+				return container;
+			}
 		}
-		
-		return smallest;
+		return null;
 	}
 	
-	private <T extends AreaContainer> T getSmallest(T left, T right) {
-		
-		// Something is smaller than nothing, for our purposes
-		if (left == null) {
-			return right;
-		}
-		if (right == null) {
-			return left;
-		}
+	private static double getSize(AreaMeta meta) {
 		
 		// Presumably the container with the smaller area will be the contained area
-		double leftSize = left.getBounds().getBounds().getWidth() * left.getBounds().getBounds().getHeight();
-		double rightSize = right.getBounds().getBounds().getWidth() * right.getBounds().getBounds().getHeight();
-
-		return leftSize < rightSize ? left : right;
+		return meta.bounds.getWidth() * meta.bounds.getHeight();
 	}
 }
@@ -0,0 +1,288 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.rptools.maptool.client.ui.zone.vbl;
+
+import java.awt.geom.Area;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Calculates what can be seen from a point by sweeping a ray once around it over the faces of the surrounding
+ * {@link AreaOcean}, keeping the faces the ray currently crosses ordered by distance. Every time the nearest face
+ * changes, the stretch of the old nearest face that was swept over is added to the visibility polygon.
+ * <p>
+ * The result is a single star shaped polygon around the origin which is intersected with the vision shape once, as
+ * opposed to {@link VisibleAreaSegment} which builds and unions a shadow {@link Area} per run of faces. Faces that
+ * cannot touch the vision bounds are skipped, and directions in which no face is hit end on those bounds.
+ * <p>
+ * Faces are the outlines of an {@link Area}, so they never cross each other; the ordering below relies on that.
+ */
+public class VisibilitySweep {
+	private static final Comparator<EndPoint> ANGLE_ORDER = new Comparator<EndPoint>() {
+		public int compare(EndPoint o1, EndPoint o2) {
+			if (o1.angle != o2.angle) {
+				return o1.angle < o2.angle ? -1 : 1;
+			}
+			// Open a face before closing another at the same angle, otherwise the nearest face flickers
+			if (o1.begin != o2.begin) {
+				return o1.begin ? -1 : 1;
+			}
+			return 0;
+		}
+	};
+
+	private final Point2D origin;
+	private final Rectangle2D bounds;
+	private final List<Segment> segmentList = new ArrayList<Segment>();
+	private final List<EndPoint> endPointList = new ArrayList<EndPoint>();
+	private Path2D.Double polygon;
+
+	private VisibilitySweep(Point2D origin, Rectangle2D bounds) {
+		this.origin = origin;
+		this.bounds = bounds;
+	}
+
+	/**
+	 * @param origin
+	 *            where the viewer stands; must be inside <code>ocean</code>
+	 * @param vision
+	 *            what the viewer could see without any topology, in the same coordinates as <code>origin</code>. It
+	 *            is modified and returned.
+	 * @param ocean
+	 *            the ocean containing <code>origin</code>, see {@link AreaTree#getOceanAt(Point2D)}
+	 * @return <code>vision</code> minus everything hidden by the faces of the ocean
+	 */
+	public static Area calculateVisibility(Point2D origin, Area vision, AreaOcean ocean) {
+		Rectangle2D bounds = vision.getBounds2D();
+		// The origin has to be inside for culling to be valid: a ray leaves a convex region only once
+		bounds.add(origin);
+		bounds.setRect(bounds.getX() - 1, bounds.getY() - 1, bounds.getWidth() + 2, bounds.getHeight() + 2);
+
+		VisibilitySweep sweep = new VisibilitySweep(origin, bounds);
+		for (AreaFace face : ocean.getFaces()) {
+			sweep.addFace(face.getP1(), face.getP2());
+		}
+		if (sweep.segmentList.isEmpty()) {
+			return vision;
+		}
+		vision.intersect(new Area(sweep.sweep()));
+		return vision;
+	}
+
+	private void addFace(Point2D p1, Point2D p2) {
+		if (!bounds.intersectsLine(p1.getX(), p1.getY(), p2.getX(), p2.getY())) {
+			return;
+		}
+		// Faces seen edge-on don't hide anything
+		if (Line2D.relativeCCW(p1.getX(), p1.getY(), p2.getX(), p2.getY(), origin.getX(), origin.getY()) == 0) {
+			return;
+		}
+		Segment segment = new Segment(p1, p2);
+		double angle1 = Math.atan2(p1.getY() - origin.getY(), p1.getX() - origin.getX());
+		double angle2 = Math.atan2(p2.getY() - origin.getY(), p2.getX() - origin.getX());
+
+		double delta = angle2 - angle1;
+		if (delta <= -Math.PI) {
+			delta += 2 * Math.PI;
+		}
+		if (delta > Math.PI) {
+			delta -= 2 * Math.PI;
+		}
+		boolean p1Begins = delta > 0;
+
+		segmentList.add(segment);
+		endPointList.add(new EndPoint(segment, angle1, p1Begins));
+		endPointList.add(new EndPoint(segment, angle2, !p1Begins));
+	}
+
+	private Path2D sweep() {
+		Collections.sort(endPointList, ANGLE_ORDER);
+
+		// Nearest first
+		List<Segment> openList = new ArrayList<Segment>();
+		double beginAngle = 0;
+
+		// The first pass only sets up the faces that straddle the -PI/PI seam
+		for (int pass = 0; pass < 2; pass++) {
+			for (EndPoint endPoint : endPointList) {
+				Segment oldNearest = openList.isEmpty() ? null : openList.get(0);
+
+				if (endPoint.begin) {
+					int index = 0;
+					while (index < openList.size() && isBehind(endPoint.segment, openList.get(index))) {
+						index++;
+					}
+					openList.add(index, endPoint.segment);
+				} else {
+					openList.remove(endPoint.segment);
+				}
+				Segment newNearest = openList.isEmpty() ? null : openList.get(0);
+				if (oldNearest != newNearest) {
+					if (pass == 1) {
+						addSpan(beginAngle, endPoint.angle, oldNearest);
+					}
+					beginAngle = endPoint.angle;
+				}
+			}
+		}
+		if (polygon == null) {
+			// Can't happen with straight faces, but don't hide everything if it does
+			addSpan(beginAngle, beginAngle + 2 * Math.PI, null);
+		}
+		polygon.closePath();
+		return polygon;
+	}
+
+	/**
+	 * Whether <code>a</code> is further away from the origin than <code>b</code>, assuming the two overlap as seen from
+	 * the origin and don't cross.
+	 */
+	private boolean isBehind(Segment a, Segment b) {
+		boolean a1 = isLeftOf(a, interpolate(b.p1, b.p2, 0.01));
+		boolean a2 = isLeftOf(a, interpolate(b.p2, b.p1, 0.01));
+		boolean a3 = isLeftOf(a, origin);
+		boolean b1 = isLeftOf(b, interpolate(a.p1, a.p2, 0.01));
+		boolean b2 = isLeftOf(b, interpolate(a.p2, a.p1, 0.01));
+		boolean b3 = isLeftOf(b, origin);
+
+		// a lies entirely across b from the origin
+		if (b1 == b2 && b2 != b3) {
+			return true;
+		}
+		// b lies entirely on the origin's side of a
+		if (a1 == a2 && a2 == a3) {
+			return true;
+		}
+		return false;
+	}
+
+	private static boolean isLeftOf(Segment segment, Point2D point) {
+		double cross = (segment.p2.getX() - segment.p1.getX()) * (point.getY() - segment.p1.getY()) - (segment.p2.getY() - segment.p1.getY()) * (point.getX() - segment.p1.getX());
+		return cross < 0;
+	}
+
+	private static Point2D interpolate(Point2D p, Point2D q, double f) {
+		return new Point2D.Double(p.getX() * (1 - f) + q.getX() * f, p.getY() * (1 - f) + q.getY() * f);
+	}
+
+	/**
+	 * Adds the part of the polygon between two ray angles, which is either the stretch of <code>segment</code>
+	 * between them or, when nothing is hit, the stretch of the bounds.
+	 */
+	private void addSpan(double angle1, double angle2, Segment segment) {
+		if (segment != null) {
+			Point2D p1 = intersect(segment, angle1);
+			Point2D p2 = intersect(segment, angle2);
+			if (p1 != null && p2 != null) {
+				addPoint(p1.getX(), p1.getY());
+				addPoint(p2.getX(), p2.getY());
+				return;
+			}
+		}
+		while (angle2 < angle1) {
+			angle2 += 2 * Math.PI;
+		}
+		addBoundsPoint(angle1);
+
+		// Follow the bounds around any corners in between
+		double[] cornerAngles = new double[4];
+		cornerAngles[0] = Math.atan2(bounds.getMinY() - origin.getY(), bounds.getMinX() - origin.getX());
+		cornerAngles[1] = Math.atan2(bounds.getMinY() - origin.getY(), bounds.getMaxX() - origin.getX());
+		cornerAngles[2] = Math.atan2(bounds.getMaxY() - origin.getY(), bounds.getMaxX() - origin.getX());
+		cornerAngles[3] = Math.atan2(bounds.getMaxY() - origin.getY(), bounds.getMinX() - origin.getX());
+		for (int i = 0; i < cornerAngles.length; i++) {
+			while (cornerAngles[i] <= angle1) {
+				cornerAngles[i] += 2 * Math.PI;
+			}
+		}
+		Arrays.sort(cornerAngles);
+		for (double cornerAngle : cornerAngles) {
+			if (cornerAngle < angle2) {
+				addBoundsPoint(cornerAngle);
+			}
+		}
+		addBoundsPoint(angle2);
+	}
+
+	/**
+	 * @return where the ray from the origin at <code>angle</code> meets the line through <code>segment</code>, or
+	 *         <code>null</code> if they are parallel
+	 */
+	private Point2D intersect(Segment segment, double angle) {
+		double dx = Math.cos(angle);
+		double dy = Math.sin(angle);
+		double sx = segment.p2.getX() - segment.p1.getX();
+		double sy = segment.p2.getY() - segment.p1.getY();
+
+		double denominator = sy * dx - sx * dy;
+		if (Math.abs(denominator) < 1e-12) {
+			return null;
+		}
+		double t = (sx * (origin.getY() - segment.p1.getY()) - sy * (origin.getX() - segment.p1.getX())) / denominator;
+		return new Point2D.Double(origin.getX() + t * dx, origin.getY() + t * dy);
+	}
+
+	private void addBoundsPoint(double angle) {
+		double dx = Math.cos(angle);
+		double dy = Math.sin(angle);
+
+		double t = Double.MAX_VALUE;
+		if (dx > 0) {
+			t = Math.min(t, (bounds.getMaxX() - origin.getX()) / dx);
+		} else if (dx < 0) {
+			t = Math.min(t, (bounds.getMinX() - origin.getX()) / dx);
+		}
+		if (dy > 0) {
+			t = Math.min(t, (bounds.getMaxY() - origin.getY()) / dy);
+		} else if (dy < 0) {
+			t = Math.min(t, (bounds.getMinY() - origin.getY()) / dy);
+		}
+		addPoint(origin.getX() + t * dx, origin.getY() + t * dy);
+	}
+
+	private void addPoint(double x, double y) {
+		if (polygon == null) {
+			polygon = new Path2D.Double();
+			polygon.moveTo(x, y);
+		} else {
+			polygon.lineTo(x, y);
+		}
+	}
+
+	private static class Segment {
+		final Point2D p1;
+		final Point2D p2;
+
+		Segment(Point2D p1, Point2D p2) {
+			this.p1 = p1;
+			this.p2 = p2;
+		}
+	}
+
+	private static class EndPoint {
+		final Segment segment;
+		final double angle;
+		final boolean begin;
+
+		EndPoint(Segment segment, double angle, boolean begin) {
+			this.segment = segment;
+			this.angle = angle;
+			this.begin = begin;
+		}
+	}
+}
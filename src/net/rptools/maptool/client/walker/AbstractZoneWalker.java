@@ -17,11 +17,17 @@ import java.util.ListIterator;
 import net.rptools.maptool.model.CellPoint;
 import net.rptools.maptool.model.Path;
 import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.util.LongObjectMap;
 
 public abstract class AbstractZoneWalker implements ZoneWalker {
 	protected List<PartialPath> partialPaths = new ArrayList<PartialPath>();
 	protected final Zone zone;
 
+	// Number of times each cell (packed with LongObjectMap.pack()) appears as a waypoint; a path may revisit a cell
+	private final LongObjectMap<Integer> waypointMap = new LongObjectMap<Integer>();
+	// Assembled result of getPath(), dropped whenever a partial path changes
+	private Path<CellPoint> cachedPath;
+
 	public AbstractZoneWalker(Zone zone) {
 		this.zone = zone;
 	}
@@ -40,6 +46,8 @@ public abstract class AbstractZoneWalker implements ZoneWalker {
 
 	public void setWaypoints(CellPoint... points) {
 		partialPaths.clear();
+		waypointMap.clear();
+		cachedPath = null;
 		addWaypoints(points);
 	}
 
@@ -48,6 +56,11 @@ public abstract class AbstractZoneWalker implements ZoneWalker {
 		for (CellPoint current : points) {
 			if (previous != null) {
 				partialPaths.add(new PartialPath(previous, current, calculatePath(previous, current)));
+				cachedPath = null;
+				if (partialPaths.size() == 1) {
+					addWaypoint(previous);
+				}
+				addWaypoint(current);
 			}
 			previous = current;
 		}
@@ -56,22 +69,43 @@ public abstract class AbstractZoneWalker implements ZoneWalker {
 	public CellPoint replaceLastWaypoint(CellPoint point) {
 		if (partialPaths.isEmpty())
 			return null;
-		PartialPath oldPartial = partialPaths.remove(partialPaths.size() - 1);
+		PartialPath oldPartial = partialPaths.get(partialPaths.size() - 1);
 
-		// short circuit exit if the point hasn't changed.
-//		if (oldPartial.end.equals(point))
-//			return null;
+		// short circuit if the point hasn't changed; the mouse moves many times within a single cell. A path that hasn't
+		// got there yet is carried on instead.
+		if (oldPartial.end.equals(point) && (oldPartial.isComplete() || !oldPartial.isReachable()))
+			return oldPartial.end;
 
-		partialPaths.add(new PartialPath(oldPartial.start, point, calculatePath(oldPartial.start, point)));
+		partialPaths.set(partialPaths.size() - 1, new PartialPath(oldPartial.start, point, recalculatePath(oldPartial.start, oldPartial.end, point)));
+		removeWaypointEntry(oldPartial.end);
+		addWaypoint(point);
+		cachedPath = null;
 		return oldPartial.end;
 	}
 
+	/**
+	 * Returns the path through all the waypoints. It stops short where a partial path hasn't got to its end yet, or
+	 * at the start of one that can't get there at all. The result is cached until the waypoints change, so callers
+	 * must not modify it; use {@link Path#derive(int, int)} to get a copy.
+	 */
 	public Path<CellPoint> getPath() {
+		if (cachedPath != null) {
+			return cachedPath;
+		}
 		Path<CellPoint> path = new Path<CellPoint>();
 
 		PartialPath last = null;
 		for (PartialPath partial : partialPaths) {
-			if (partial.path != null && partial.path.size() > 1) {
+			if (!partial.isComplete()) {
+				if (partial.isReachable()) {
+					path.addAllPathCells(partial.path);
+				} else {
+					path.addPathCell(partial.start);
+				}
+				last = null;
+				break;
+			}
+			if (partial.path.size() > 1) {
 				path.addAllPathCells(partial.path.subList(0, partial.path.size() - 1));
 			}
 			last = partial;
@@ -84,24 +118,55 @@ public abstract class AbstractZoneWalker implements ZoneWalker {
 				path.addWayPoint(cp);
 			}
 		}
+		cachedPath = path;
 		return path;
 	}
 
+	/**
+	 * @see net.rptools.maptool.client.walker.ZoneWalker#isReachable()
+	 */
+	public boolean isReachable() {
+		for (PartialPath partial : partialPaths) {
+			if (!partial.isReachable()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @see net.rptools.maptool.client.walker.ZoneWalker#completePath()
+	 */
+	public void completePath() {
+		for (ListIterator<PartialPath> i = partialPaths.listIterator(); i.hasNext();) {
+			PartialPath partial = i.next();
+			if (!partial.isComplete() && partial.isReachable()) {
+				i.set(new PartialPath(partial.start, partial.end, calculateFullPath(partial.start, partial.end)));
+				cachedPath = null;
+			}
+		}
+	}
+
 	public boolean isWaypoint(CellPoint point) {
 		if (point == null)
 			return false;
+		return waypointMap.containsKey(LongObjectMap.pack(point.x, point.y));
+	}
 
-		PartialPath last = null;
-		for (PartialPath partial : partialPaths) {
-			if (partial.start.equals(point))
-				return true;
+	private void addWaypoint(CellPoint point) {
+		long key = LongObjectMap.pack(point.x, point.y);
+		Integer count = waypointMap.get(key);
+		waypointMap.put(key, count == null ? 1 : count + 1);
+	}
 
-			last = partial;
+	private void removeWaypointEntry(CellPoint point) {
+		long key = LongObjectMap.pack(point.x, point.y);
+		Integer count = waypointMap.get(key);
+		if (count == null || count <= 1) {
+			waypointMap.remove(key);
+		} else {
+			waypointMap.put(key, count - 1);
 		}
-		if (last != null && last.end != null && last.end.equals(point))
-			return true;
-
-		return false;
 	}
 
 	/**
@@ -123,6 +188,8 @@ public abstract class AbstractZoneWalker implements ZoneWalker {
 				i.remove();
 				PartialPath path2 = i.next();
 				i.set(new PartialPath(path.start, path2.end, calculatePath(path.start, path2.end)));
+				removeWaypointEntry(aPoint);
+				cachedPath = null;
 				return true;
 			} // endif
 		} // endwhile
@@ -152,8 +219,29 @@ public abstract class AbstractZoneWalker implements ZoneWalker {
 		return s.toString();
 	}
 
+	/**
+	 * @return the path from <code>start</code> to <code>end</code> inclusive. If the walker gives up before getting
+	 *         there, the path as far as it got (not ending on <code>end</code>); if <code>end</code> can't be reached at
+	 *         all, an empty list.
+	 */
 	protected abstract List<CellPoint> calculatePath(CellPoint start, CellPoint end);
 
+	/**
+	 * Like {@link #calculatePath(CellPoint, CellPoint)}, but without giving up before getting to <code>end</code>. By
+	 * default the same as it.
+	 */
+	protected List<CellPoint> calculateFullPath(CellPoint start, CellPoint end) {
+		return calculatePath(start, end);
+	}
+
+	/**
+	 * Called when the end of the last partial path moves from <code>previousEnd</code> to <code>end</code>. Walkers
+	 * that can reuse work from the previous calculation override this; by default the path is calculated from scratch.
+	 */
+	protected List<CellPoint> recalculatePath(CellPoint start, CellPoint previousEnd, CellPoint end) {
+		return calculatePath(start, end);
+	}
+
 	protected static class PartialPath {
 		final CellPoint start;
 		final CellPoint end;
@@ -165,6 +253,17 @@ public abstract class AbstractZoneWalker implements ZoneWalker {
 			this.path = path;
 		}
 
+		public boolean isReachable() {
+			return path != null && !path.isEmpty();
+		}
+
+		/**
+		 * @return whether the path gets all the way to the end
+		 */
+		public boolean isComplete() {
+			return isReachable() && end.equals(path.get(path.size() - 1));
+		}
+
 		/**
 		 * @see java.lang.Object#toString()
 		 */
@@ -22,10 +22,31 @@ public interface ZoneWalker {
 
 	public boolean isWaypoint(CellPoint point);
 
+	/**
+	 * @return the distance along {@link #getPath()}
+	 */
 	public int getDistance();
 
+	/**
+	 * @return the path through the waypoints, as far as the walker has got
+	 */
 	public Path<CellPoint> getPath();
 
+	/**
+	 * Whether every waypoint can be reached from the one before it. When one can't, {@link #getPath()} and
+	 * {@link #getDistance()} stop at the waypoint before it.
+	 * 
+	 * @return <code>false</code> if one of the waypoints is known to be unreachable; call {@link #completePath()} first
+	 *         to know for sure
+	 */
+	public boolean isReachable();
+
+	/**
+	 * Paths are worked out a bit at a time while waypoints are being dragged around, so {@link #getPath()} may not get
+	 * all the way to the last waypoint yet. This works the rest of it out, for when the final path is needed.
+	 */
+	public void completePath();
+
 	public CellPoint getLastPoint();
 
 	/**
@@ -17,6 +17,10 @@ public class AStarCellPoint extends CellPoint {
 	double hScore;
 	double gScore;
 
+	// Position in the AStarOpenList heap, or -1 when the node isn't queued
+	int heapIndex = -1;
+	boolean closed;
+
 	public AStarCellPoint() {
 		super(0, 0);
 	}
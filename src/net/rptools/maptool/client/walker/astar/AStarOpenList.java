@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of {@link AStarCellPoint}s ordered by {@link AStarCellPoint#cost()}. Each node remembers its own
+ * slot in the heap so that a cheaper route to an already queued node can be applied in O(log n) via
+ * {@link #update(AStarCellPoint)} instead of a linear search.
+ * <p>
+ * Ties on cost are broken in favor of the node closest to the goal (lowest hScore), which keeps the path hugging the
+ * straight line between the end points the same way the old sorted list did.
+ */
+class AStarOpenList {
+	private AStarCellPoint[] heap = new AStarCellPoint[256];
+	private int size;
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean contains(AStarCellPoint node) {
+		return node.heapIndex >= 0;
+	}
+
+	public void add(AStarCellPoint node) {
+		if (size == heap.length) {
+			heap = Arrays.copyOf(heap, size * 2);
+		}
+		heap[size] = node;
+		node.heapIndex = size;
+		size++;
+		siftUp(node.heapIndex);
+	}
+
+	/**
+	 * Must be called after the cost of a queued node has been lowered.
+	 */
+	public void update(AStarCellPoint node) {
+		siftUp(node.heapIndex);
+	}
+
+	public AStarCellPoint poll() {
+		if (size == 0) {
+			return null;
+		}
+		AStarCellPoint top = heap[0];
+		size--;
+		if (size > 0) {
+			heap[0] = heap[size];
+			heap[0].heapIndex = 0;
+			siftDown(0);
+		}
+		heap[size] = null;
+		top.heapIndex = -1;
+		return top;
+	}
+
+	/**
+	 * Direct access to the backing array, in heap order. Used to rescore every queued node at once; call
+	 * {@link #reorder()} afterwards.
+	 */
+	public AStarCellPoint get(int index) {
+		return heap[index];
+	}
+
+	/**
+	 * Restores the heap property after the cost of arbitrary queued nodes has changed.
+	 */
+	public void reorder() {
+		for (int i = (size >>> 1) - 1; i >= 0; i--) {
+			siftDown(i);
+		}
+	}
+
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			heap[i].heapIndex = -1;
+			heap[i] = null;
+		}
+		size = 0;
+	}
+
+	private void siftUp(int index) {
+		AStarCellPoint node = heap[index];
+		while (index > 0) {
+			int parent = (index - 1) >>> 1;
+			if (!less(node, heap[parent])) {
+				break;
+			}
+			heap[index] = heap[parent];
+			heap[index].heapIndex = index;
+			index = parent;
+		}
+		heap[index] = node;
+		node.heapIndex = index;
+	}
+
+	private void siftDown(int index) {
+		AStarCellPoint node = heap[index];
+		int half = size >>> 1;
+		while (index < half) {
+			int child = 2 * index + 1;
+			int right = child + 1;
+			if (right < size && less(heap[right], heap[child])) {
+				child = right;
+			}
+			if (!less(heap[child], node)) {
+				break;
+			}
+			heap[index] = heap[child];
+			heap[index].heapIndex = index;
+			index = child;
+		}
+		heap[index] = node;
+		node.heapIndex = index;
+	}
+
+	private static boolean less(AStarCellPoint a, AStarCellPoint b) {
+		double ca = a.cost();
+		double cb = b.cost();
+		if (ca != cb) {
+			return ca < cb;
+		}
+		return a.hScore < b.hScore;
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.rptools.maptool.model.CellPoint;
+import net.rptools.maptool.util.LongObjectMap;
+
+/**
+ * The state of one A* search from a fixed start cell. It can be asked for paths to several end cells in turn, which is
+ * what happens while the last waypoint is being dragged around.
+ * <p>
+ * Closed nodes already carry their cheapest cost from the start no matter where the end is, so a path to an end cell
+ * that is already closed is just read back through the parent links. Otherwise the heuristic of the open nodes is
+ * recomputed for the new end and the search carries on from the existing frontier instead of starting over.
+ * <p>
+ * Each call expands at most {@link #MAX_EXPANSIONS} cells. A call that runs out of them returns the path to the cell
+ * nearest the end found so far, and the next call for the same end carries on where it stopped. The grid has no
+ * edge, so the frontier never runs out around an end that is walled in; that is checked for separately. Calling again
+ * until the path gets to the end (or <code>null</code> comes back) always finishes.
+ */
+class AStarSearch {
+	// Upper bound on cells expanded by a single call, keeps a drag responsive on a long route
+	static final int MAX_EXPANSIONS = 40000;
+
+	private final AbstractAStarWalker walker;
+	private final CellPoint start;
+	private final PassabilityGrid passability;
+
+	private final LongObjectMap<AStarCellPoint> nodeMap = new LongObjectMap<AStarCellPoint>(256);
+	private final AStarOpenList openList = new AStarOpenList();
+	private CellPoint end;
+	// The expanded cell nearest the end, by its heuristic, since the end last changed
+	private AStarCellPoint closest;
+	// Whether the end has been found to be walled in (TRUE) or not (FALSE), null until checked
+	private Boolean endEnclosed;
+
+	public AStarSearch(AbstractAStarWalker walker, CellPoint start, PassabilityGrid passability) {
+		this.walker = walker;
+		this.start = start;
+		this.passability = passability;
+
+		AStarCellPoint startNode = new AStarCellPoint(start);
+		nodeMap.put(LongObjectMap.pack(start.x, start.y), startNode);
+		openList.add(startNode);
+	}
+
+	public CellPoint getStart() {
+		return start;
+	}
+
+	public PassabilityGrid getPassability() {
+		return passability;
+	}
+
+	/**
+	 * @return the number of cells discovered so far
+	 */
+	public int size() {
+		return nodeMap.size();
+	}
+
+	/**
+	 * @return the path from the start to <code>target</code> inclusive, or <code>null</code> if it can't be reached at
+	 *         all. If it isn't found within {@link #MAX_EXPANSIONS} expanded cells, the path to the cell nearest to it
+	 *         found so far.
+	 */
+	public List<CellPoint> findPath(CellPoint target) {
+		return findPath(target, MAX_EXPANSIONS);
+	}
+
+	List<CellPoint> findPath(CellPoint target, int maxExpansions) {
+		AStarCellPoint targetNode = nodeMap.get(LongObjectMap.pack(target.x, target.y));
+		if (targetNode != null && targetNode.closed) {
+			return buildPath(targetNode);
+		}
+		if (end == null || !end.equals(target)) {
+			end = target;
+			closest = null;
+			endEnclosed = null;
+			for (int i = 0; i < openList.size(); i++) {
+				AStarCellPoint node = openList.get(i);
+				node.hScore = walker.hScore(node, end);
+			}
+			openList.reorder();
+		}
+		int expansions = 0;
+		while (!openList.isEmpty()) {
+			AStarCellPoint node = openList.poll();
+			if (node.x == end.x && node.y == end.y) {
+				// Leave it on the frontier; it hasn't been expanded and a later end cell may need to go through it
+				openList.add(node);
+				return buildPath(node);
+			}
+			if (++expansions > maxExpansions) {
+				// Out of budget before expanding it, so it stays on the frontier for a resumed search
+				openList.add(node);
+				if (endEnclosed == null) {
+					endEnclosed = Boolean.valueOf(isEnclosed(end));
+				}
+				return endEnclosed.booleanValue() ? null : buildPath(closest);
+			}
+			if (closest == null || node.hScore < closest.hScore) {
+				closest = node;
+			}
+			node.closed = true;
+			int[][] neighborMap = walker.getNeighborMap(node.x, node.y);
+			for (int i = 0; i < neighborMap.length; i++) {
+				// The hex neighbor maps are padded with {0, 0} entries
+				if (neighborMap[i][0] == 0 && neighborMap[i][1] == 0) {
+					continue;
+				}
+				int x = node.x + neighborMap[i][0];
+				int y = node.y + neighborMap[i][1];
+				long key = LongObjectMap.pack(x, y);
+
+				AStarCellPoint neighborNode = nodeMap.get(key);
+				if (neighborNode != null && neighborNode.closed) {
+					continue;
+				}
+				if (passability != null && !passability.canStep(node.x, node.y, x, y)) {
+					continue;
+				}
+				if (neighborNode == null) {
+					neighborNode = new AStarCellPoint(x, y);
+					neighborNode.gScore = Double.MAX_VALUE;
+					neighborNode.hScore = walker.hScore(neighborNode, end);
+					nodeMap.put(key, neighborNode);
+				}
+				// check if it is cheaper to get here the way that we just came, versus the previous path
+				double gScore = node.gScore + walker.gScore(node, neighborNode);
+				if (gScore < neighborNode.gScore) {
+					neighborNode.gScore = gScore;
+					neighborNode.parent = node;
+					if (openList.contains(neighborNode)) {
+						openList.update(neighborNode);
+					} else {
+						openList.add(neighborNode);
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Flood outwards from <code>target</code> looking for a way in. It is walled in if the flood runs out of cells
+	 * without reaching any cell the search has already been to or getting clear of the topology, past which everything
+	 * joins up. Either way it stays within the topology, so it always finishes.
+	 */
+	private boolean isEnclosed(CellPoint target) {
+		if (passability == null) {
+			return false;
+		}
+		LongObjectMap<CellPoint> visited = new LongObjectMap<CellPoint>(256);
+		List<CellPoint> queue = new ArrayList<CellPoint>();
+		visited.put(LongObjectMap.pack(target.x, target.y), target);
+		queue.add(target);
+		for (int head = 0; head < queue.size(); head++) {
+			CellPoint cell = queue.get(head);
+			int[][] neighborMap = walker.getNeighborMap(cell.x, cell.y);
+			for (int i = 0; i < neighborMap.length; i++) {
+				if (neighborMap[i][0] == 0 && neighborMap[i][1] == 0) {
+					continue;
+				}
+				int x = cell.x + neighborMap[i][0];
+				int y = cell.y + neighborMap[i][1];
+				long key = LongObjectMap.pack(x, y);
+				if (visited.containsKey(key) || !passability.canStep(x, y, cell.x, cell.y)) {
+					continue;
+				}
+				AStarCellPoint node = nodeMap.get(key);
+				if ((node != null && node.closed) || passability.isOutsideTopology(x, y)) {
+					return false;
+				}
+				CellPoint next = new CellPoint(x, y);
+				visited.put(key, next);
+				queue.add(next);
+			}
+		}
+		return true;
+	}
+
+	private List<CellPoint> buildPath(AStarCellPoint node) {
+		List<CellPoint> ret = new ArrayList<CellPoint>();
+		while (node != null) {
+			// Copy, so the path doesn't keep the whole search graph alive through the parent links
+			ret.add(new CellPoint(node.x, node.y));
+			node = node.parent;
+		}
+		Collections.reverse(ret);
+		return ret;
+	}
+}
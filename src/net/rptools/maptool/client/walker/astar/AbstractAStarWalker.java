@@ -11,14 +11,7 @@
 package net.rptools.maptool.client.walker.astar;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
-import java.util.Map;
-import java.util.Set;
 
 import net.rptools.maptool.client.walker.AbstractZoneWalker;
 import net.rptools.maptool.model.CellPoint;
@@ -29,101 +22,111 @@ public abstract class AbstractAStarWalker extends AbstractZoneWalker {
 		super(zone);
 	}
 
+	// How far (in cells) the end of the last partial path may move and still continue the previous search
+	private static final int INCREMENTAL_DISTANCE = 2;
+	// Past this many discovered cells a fresh search is cheaper than dragging the old one along
+	private static final int MAX_RETAINED_NODES = 4 * AStarSearch.MAX_EXPANSIONS;
+
 	private int distance = -1;
 
+	// Search state behind the most recently calculated partial path, and whether that path got to its end
+	private AStarSearch lastSearch;
+	private boolean lastComplete;
+	// The last end that couldn't be reached, so it isn't searched for again on every mouse move
+	private CellPoint failedStart;
+	private CellPoint failedEnd;
+	private PassabilityGrid failedPassability;
+
 	/**
 	 * Returns the list of neighbor cells that are valid for being movement-checked. This is an array of (x,y) offsets
 	 * (see the constants in this class) named as compass points.
 	 * <p>
-	 * It should be possible to query the current (x,y) CellPoint passed in to determine which directions are feasible
-	 * to move into. But it would require information about visibility (which token is moving, does it have sight, and
-	 * so on). Currently that information is not available here, but perhaps an option Token parameter could be
-	 * specified to the constructor? Or maybe as the tree was scanned, since I believe all Grids share a common
-	 * ZoneWalker.
+	 * Topology is not considered here; cells and steps blocked by it are filtered out of the search separately by the
+	 * zone's {@link PassabilityGrid}.
 	 */
 	protected abstract int[][] getNeighborMap(int x, int y);
 
 	@Override
 	protected List<CellPoint> calculatePath(CellPoint start, CellPoint end) {
-		List<AStarCellPoint> openList = new ArrayList<AStarCellPoint>();
-		Map<AStarCellPoint, AStarCellPoint> openSet = new HashMap<AStarCellPoint, AStarCellPoint>(); // For faster lookups
-		Set<AStarCellPoint> closedSet = new HashSet<AStarCellPoint>();
-
-		openList.add(new AStarCellPoint(start));
-		openSet.put(openList.get(0), openList.get(0));
-
-		AStarCellPoint node = null;
-
-		while (!openList.isEmpty()) {
-			node = openList.remove(0);
-			openSet.remove(node);
-			if (node.equals(end)) {
-				break;
-			}
-			int[][] neighborMap = getNeighborMap(node.x, node.y);
-			for (int i = 0; i < neighborMap.length; i++) {
-				int x = node.x + neighborMap[i][0];
-				int y = node.y + neighborMap[i][1];
-				AStarCellPoint neighborNode = new AStarCellPoint(x, y);
-				if (closedSet.contains(neighborNode)) {
-					continue;
-				}
-				neighborNode.parent = node;
-				neighborNode.gScore = gScore(start, neighborNode);
-				neighborNode.hScore = hScore(neighborNode, end);
-
-				if (openSet.containsKey(neighborNode)) {
-					AStarCellPoint oldNode = openSet.get(neighborNode);
-					// check if it is cheaper to get here the way that we just
-					// came, versus the previous path
-					if (neighborNode.gScore < oldNode.gScore) {
-						oldNode.gScore = neighborNode.gScore;
-						neighborNode = oldNode;
-						neighborNode.parent = node;
-					}
-					continue;
-				}
-				pushNode(openList, neighborNode);
-				openSet.put(neighborNode, neighborNode);
-			}
-			closedSet.add(node);
-			node = null;
+		return calculatePath(start, end, false);
+	}
+
+	@Override
+	protected List<CellPoint> calculateFullPath(CellPoint start, CellPoint end) {
+		return calculatePath(start, end, true);
+	}
+
+	private List<CellPoint> calculatePath(CellPoint start, CellPoint end, boolean full) {
+		PassabilityGrid passability = getPassability(start, end);
+		if (passability == failedPassability && start.equals(failedStart) && end.equals(failedEnd)) {
+			distance = -1;
+			return new ArrayList<CellPoint>();
 		}
-		List<CellPoint> ret = new LinkedList<CellPoint>();
-		while (node != null) {
-			ret.add(node);
-			node = node.parent;
+		AStarSearch search = lastSearch;
+		// Finishing off a path that ran out of budget carries on with its search
+		if (!full || search == null || !search.getStart().equals(start) || search.getPassability() != passability) {
+			search = new AStarSearch(this, start, passability);
 		}
-		distance = -1;
-		Collections.reverse(ret);
-		return ret;
+		return findPath(search, end, full);
 	}
 
-	private void pushNode(List<AStarCellPoint> list, AStarCellPoint node) {
-		if (list.isEmpty()) {
-			list.add(node);
-			return;
+	/**
+	 * Continues the previous search when the end of the last partial path has only moved a cell or two, which is what
+	 * happens on nearly every mouse move while dragging. One that didn't get to its end yet is carried on no matter
+	 * how big it has got, as a fresh search would only have to cover the same ground again.
+	 */
+	@Override
+	protected List<CellPoint> recalculatePath(CellPoint start, CellPoint previousEnd, CellPoint end) {
+		AStarSearch search = lastSearch;
+		// @formatter:off
+		if (search != null
+				&& search.getStart().equals(start)
+				&& Math.max(Math.abs(end.x - previousEnd.x), Math.abs(end.y - previousEnd.y)) <= INCREMENTAL_DISTANCE
+				&& (search.size() < MAX_RETAINED_NODES || !lastComplete)
+				&& search.getPassability() == getPassability(start, end)) {
+			// @formatter:on
+			return findPath(search, end, false);
 		}
-		if (node.cost() < list.get(0).cost()) {
-			list.add(0, node);
-			return;
+		return calculatePath(start, end);
+	}
+
+	private List<CellPoint> findPath(AStarSearch search, CellPoint end, boolean full) {
+		distance = -1;
+		lastSearch = search;
+		List<CellPoint> path = search.findPath(end);
+		while (full && path != null && !end.equals(path.get(path.size() - 1))) {
+			path = search.findPath(end);
 		}
-		if (node.cost() > list.get(list.size() - 1).cost()) {
-			list.add(node);
-			return;
+		if (path == null) {
+			// Walled off; there is no path rather than one through the walls
+			lastComplete = true;
+			failedStart = search.getStart();
+			failedEnd = end;
+			failedPassability = search.getPassability();
+			return new ArrayList<CellPoint>();
 		}
-		for (ListIterator<AStarCellPoint> iter = list.listIterator(); iter.hasNext();) {
-			AStarCellPoint listNode = iter.next();
-			if (listNode.cost() > node.cost()) {
-				iter.previous();
-				iter.add(node);
-				return;
-			}
+		// Otherwise it may have only run out of budget, and goes as far as the nearest cell it got to
+		lastComplete = end.equals(path.get(path.size() - 1));
+		return path;
+	}
+
+	/**
+	 * Topology only constrains the path when both ends are outside of it; a token already standing in (or being dropped
+	 * into) a wall shouldn't end up with no path at all.
+	 */
+	private PassabilityGrid getPassability(CellPoint start, CellPoint end) {
+		PassabilityGrid passability = PassabilityGrid.getInstance(getZone());
+		if (passability != null && (!passability.isPassable(start.x, start.y) || !passability.isPassable(end.x, end.y))) {
+			passability = null;
 		}
+		return passability;
 	}
 
 	protected abstract int calculateDistance(List<CellPoint> path, int feetPerCell);
 
+	/**
+	 * Cost of stepping between two adjacent cells.
+	 */
 	protected abstract double gScore(CellPoint p1, CellPoint p2);
 
 	protected abstract double hScore(CellPoint p1, CellPoint p2);
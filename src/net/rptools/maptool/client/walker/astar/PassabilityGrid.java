@@ -0,0 +1,193 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import net.rptools.maptool.model.CellPoint;
+import net.rptools.maptool.model.Grid;
+import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.util.LongObjectMap;
+
+/**
+ * Lazily evaluated answer to "can a token stand in / step between these cells" derived from {@link Zone#getTopology()}.
+ * <p>
+ * A cell is blocked when the topology touches a small probe square around its center, and a step between two
+ * neighboring cells is blocked when the topology touches the same sized probe around the midpoint of their centers
+ * (which sits on the shared edge for orthogonal moves and on the shared corner for square diagonals). That catches thin
+ * walls drawn along grid lines without having to intersect arbitrary line shapes with the Area. Cell centers come from
+ * {@link Grid#getBounds(CellPoint)}, so the same code handles {@link net.rptools.maptool.model.SquareGrid},
+ * {@link net.rptools.maptool.model.HexGridHorizontal} and {@link net.rptools.maptool.model.HexGridVertical}.
+ * <p>
+ * Probes are answered against the topology clipped to lazily built tiles of 16x16 cells, so each test
+ * only walks the handful of segments near the probe instead of every segment of the zone's topology.
+ * <p>
+ * Results are cached per zone and thrown away as soon as the topology, the grid, or its size/offset changes. Instances
+ * are meant to be used from the event dispatch thread, like the walkers themselves.
+ */
+public class PassabilityGrid {
+	private static final int TILE_CELLS = 16;
+	private static final Area EMPTY = new Area();
+
+	private static final Map<Zone, PassabilityGrid> gridMap = new WeakHashMap<Zone, PassabilityGrid>();
+
+	// Don't hold the Grid strongly; it points back at the Zone, which would keep the WeakHashMap key alive.
+	private final WeakReference<Grid> gridRef;
+	private final Area topology;
+	private final int topologyVersion;
+	private final int gridSize;
+	private final int offsetX;
+	private final int offsetY;
+	private final int probeSize;
+	private final int tileSize;
+	// The topology's bounds grown by a cell, see isOutsideTopology()
+	private final Rectangle outerBounds;
+
+	private final LongObjectMap<Boolean> cellMap = new LongObjectMap<Boolean>(1024);
+	private final LongObjectMap<Boolean> edgeMap = new LongObjectMap<Boolean>(1024);
+	private final LongObjectMap<Area> tileMap = new LongObjectMap<Area>();
+
+	/**
+	 * @return the passability grid for the zone's current topology, or <code>null</code> if the zone has no topology
+	 *         (in which case every cell is passable)
+	 */
+	public static synchronized PassabilityGrid getInstance(Zone zone) {
+		Area topology = zone.getTopology();
+		if (topology == null || topology.isEmpty() || zone.getGrid() == null) {
+			gridMap.remove(zone);
+			return null;
+		}
+		PassabilityGrid grid = gridMap.get(zone);
+		if (grid == null || !grid.isCurrent(zone)) {
+			grid = new PassabilityGrid(zone);
+			gridMap.put(zone, grid);
+		}
+		return grid;
+	}
+
+	private PassabilityGrid(Zone zone) {
+		Grid grid = zone.getGrid();
+		gridRef = new WeakReference<Grid>(grid);
+		topology = zone.getTopology();
+		topologyVersion = zone.getTopologyVersion();
+		gridSize = grid.getSize();
+		offsetX = grid.getOffsetX();
+		offsetY = grid.getOffsetY();
+
+		Rectangle cell = grid.getBounds(new CellPoint(0, 0));
+		probeSize = Math.max(1, Math.min(cell.width, cell.height) / 3);
+		tileSize = Math.max(cell.width, cell.height) * TILE_CELLS;
+		outerBounds = topology.getBounds();
+		outerBounds.grow(Math.max(cell.width, cell.height), Math.max(cell.width, cell.height));
+	}
+
+	private boolean isCurrent(Zone zone) {
+		Grid grid = zone.getGrid();
+		// @formatter:off
+		return topology == zone.getTopology()
+				&& topologyVersion == zone.getTopologyVersion()
+				&& gridRef.get() == grid
+				&& gridSize == grid.getSize()
+				&& offsetX == grid.getOffsetX()
+				&& offsetY == grid.getOffsetY();
+		// @formatter:on
+	}
+
+	public boolean isPassable(int x, int y) {
+		long key = LongObjectMap.pack(x, y);
+		Boolean passable = cellMap.get(key);
+		if (passable == null) {
+			Grid grid = gridRef.get();
+			Rectangle bounds = grid.getBounds(new CellPoint(x, y));
+			passable = Boolean.valueOf(!probe(bounds.getCenterX() + offsetX, bounds.getCenterY() + offsetY));
+			cellMap.put(key, passable);
+		}
+		return passable.booleanValue();
+	}
+
+	/**
+	 * Whether a token can step directly from one cell to an adjacent one. Both cells must be passable and no topology
+	 * may sit on the boundary between them.
+	 */
+	public boolean canStep(int fromX, int fromY, int toX, int toY) {
+		if (!isPassable(fromX, fromY) || !isPassable(toX, toY)) {
+			return false;
+		}
+		Grid grid = gridRef.get();
+		Rectangle from = grid.getBounds(new CellPoint(fromX, fromY));
+		Rectangle to = grid.getBounds(new CellPoint(toX, toY));
+
+		// Doubled midpoint coordinates are integral and unique per edge, so they make a good cache key
+		int midX2 = (int) Math.round(from.getCenterX() + to.getCenterX());
+		int midY2 = (int) Math.round(from.getCenterY() + to.getCenterY());
+		long key = LongObjectMap.pack(midX2, midY2);
+
+		Boolean passable = edgeMap.get(key);
+		if (passable == null) {
+			passable = Boolean.valueOf(!probe(midX2 / 2.0 + offsetX, midY2 / 2.0 + offsetY));
+			edgeMap.put(key, passable);
+		}
+		return passable.booleanValue();
+	}
+
+	/**
+	 * Whether the cell lies well clear of the topology. All such cells join up around the outside of it, so anything
+	 * that can get to one of them can get to any other.
+	 */
+	public boolean isOutsideTopology(int x, int y) {
+		Rectangle bounds = gridRef.get().getBounds(new CellPoint(x, y));
+		bounds.translate(offsetX, offsetY);
+		return !outerBounds.intersects(bounds);
+	}
+
+	private boolean probe(double centerX, double centerY) {
+		double x = centerX - probeSize / 2.0;
+		double y = centerY - probeSize / 2.0;
+
+		int minTileX = (int) Math.floor(x / tileSize);
+		int minTileY = (int) Math.floor(y / tileSize);
+		int maxTileX = (int) Math.floor((x + probeSize) / tileSize);
+		int maxTileY = (int) Math.floor((y + probeSize) / tileSize);
+
+		for (int tileY = minTileY; tileY <= maxTileY; tileY++) {
+			for (int tileX = minTileX; tileX <= maxTileX; tileX++) {
+				Area tile = getTile(tileX, tileY);
+				if (tile != EMPTY && tile.intersects(x, y, probeSize, probeSize)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private Area getTile(int tileX, int tileY) {
+		long key = LongObjectMap.pack(tileX, tileY);
+		Area tile = tileMap.get(key);
+		if (tile == null) {
+			Rectangle bounds = new Rectangle(tileX * tileSize, tileY * tileSize, tileSize, tileSize);
+			if (topology.getBounds().intersects(bounds)) {
+				tile = new Area(bounds);
+				tile.intersect(topology);
+				if (tile.isEmpty()) {
+					tile = EMPTY;
+				}
+			} else {
+				tile = EMPTY;
+			}
+			tileMap.put(key, tile);
+		}
+		return tile;
+	}
+}
@@ -52,6 +52,15 @@ public class Asset {
 		this.id = id;
 	}
 
+	/**
+	 * For image data whose MD5 sum has already been checked against <code>id</code>
+	 */
+	public Asset(MD5Key id, String name, byte[] image) {
+		this.id = id;
+		this.name = name;
+		setImage(image);
+	}
+
 	public MD5Key getId() {
 		return id;
 	}
@@ -68,7 +68,8 @@ public class AssetManager {
 	/** Used to load assets from storage */
 	private static AssetLoader assetLoader = new AssetLoader();
 
-	private static ExecutorService assetLoaderThreadPool = Executors.newFixedThreadPool(1);
+	/** Reading assets from disk and checking their MD5 sums keeps a few threads busy when a campaign is opened */
+	private static ExecutorService assetLoaderThreadPool = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
 
 	static {
 		cacheDir = AppUtil.getAppHome("assetcache");
@@ -114,6 +115,12 @@ public class AssetManager {
 			return;
 		}
 
+		synchronized (assetListenerListMap) {
+			addListeners(key, listeners);
+		}
+	}
+
+	private static void addListeners(MD5Key key, AssetAvailableListener... listeners) {
 		List<AssetAvailableListener> listenerList = assetListenerListMap.get(key);
 		if (listenerList == null) {
 			listenerList = new LinkedList<AssetAvailableListener>();
@@ -133,14 +140,16 @@ public class AssetManager {
 			return;
 		}
 
-		List<AssetAvailableListener> listenerList = assetListenerListMap.get(key);
-		if (listenerList == null) {
-			// Nothing to do
-			return;
-		}
+		synchronized (assetListenerListMap) {
+			List<AssetAvailableListener> listenerList = assetListenerListMap.get(key);
+			if (listenerList == null) {
+				// Nothing to do
+				return;
+			}
 
-		for (AssetAvailableListener listener : listeners) {
-			listenerList.remove(listener);
+			for (AssetAvailableListener listener : listeners) {
+				listenerList.remove(listener);
+			}
 		}
 	}
 
@@ -200,13 +209,14 @@ public class AssetManager {
 		assetLoader.completeRequest(asset.getId());
 
 		// Listeners
-		List<AssetAvailableListener> listenerList = assetListenerListMap.get(asset.getId());
+		List<AssetAvailableListener> listenerList;
+		synchronized (assetListenerListMap) {
+			listenerList = assetListenerListMap.remove(asset.getId());
+		}
 		if (listenerList != null) {
 			for (AssetAvailableListener listener : listenerList) {
 				listener.assetAvailable(asset.getId());
 			}
-
-			assetListenerListMap.remove(asset.getId());
 		}
 	}
 
@@ -231,9 +241,7 @@ public class AssetManager {
 
 				// Let's get it from the server
 				// As a last resort we request the asset from the server
-				if (asset == null && !isAssetRequested(id)) {
-					requestAssetFromServer(id, listeners);
-				}
+				requestAssetFromServer(id, listeners);
 			}
 		});
 	}
@@ -320,9 +328,22 @@ public class AssetManager {
 	 */
 	private static void requestAssetFromServer(MD5Key id, AssetAvailableListener... listeners) {
 
-		if (id != null) {
-			addAssetListener(id, listeners);
-			assetLoader.requestAsset(id);
+		if (id == null) {
+			return;
+		}
+		// Several loader threads may be asking for the same asset, only one request should go out
+		synchronized (assetListenerListMap) {
+			if (!assetMap.containsKey(id)) {
+				addListeners(id, listeners);
+				if (!isAssetRequested(id)) {
+					assetLoader.requestAsset(id);
+				}
+				return;
+			}
+		}
+		// It arrived while we were looking for it
+		for (AssetAvailableListener listener : listeners) {
+			listener.assetAvailable(id);
 		}
 	}
 
@@ -126,6 +126,15 @@ public class Campaign {
 	}
 
 	public Campaign(Campaign campaign) {
+		this(campaign, null);
+	}
+
+	/**
+	 * @param snapshot
+	 *            keeps what hasn't changed since the last copy, see {@link CampaignSnapshot#copy(Campaign)}; or
+	 *            <code>null</code> to copy everything
+	 */
+	Campaign(Campaign campaign, CampaignSnapshot snapshot) {
 		zones = Collections.synchronizedMap(new LinkedHashMap<GUID, Zone>());
 
 		/*
@@ -134,7 +143,7 @@ public class Campaign {
 		 * campaign properties and macro buttons.
 		 */
 		for (Entry<GUID, Zone> entry : campaign.zones.entrySet()) {
-			Zone copy = new Zone(entry.getValue());
+			Zone copy = snapshot != null ? snapshot.copyZone(entry.getValue()) : new Zone(entry.getValue());
 			zones.put(copy.getId(), copy);
 		}
 		campaignProperties = new CampaignProperties(campaign.campaignProperties);
@@ -493,6 +502,15 @@ public class Campaign {
 		campaignProperties.setInitiativeMovementLock(initiativeMovementLock);
 	}
 
+	/** @return how vision is clipped against topology in this campaign */
+	public CampaignProperties.VisibilityAlgorithm getVisibilityAlgorithm() {
+		return campaignProperties != null ? campaignProperties.getVisibilityAlgorithm() : CampaignProperties.VisibilityAlgorithm.SHADOW_AREAS;
+	}
+
+	public void setVisibilityAlgorithm(CampaignProperties.VisibilityAlgorithm visibilityAlgorithm) {
+		campaignProperties.setVisibilityAlgorithm(visibilityAlgorithm);
+	}
+
 	/** @return Getter for characterSheets */
 	public Map<String, String> getCharacterSheets() {
 		return getCampaignProperties().getCharacterSheets();
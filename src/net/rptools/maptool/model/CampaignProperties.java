@@ -63,6 +63,19 @@ public class CampaignProperties {
 	/** Flag indicating that owners can only move tokens when they have initiative */
 	private boolean initiativeMovementLock = AppPreferences.getInitLockMovement();
 
+	/** How vision is clipped against topology; <code>null</code> in campaigns saved before this was added */
+	private VisibilityAlgorithm visibilityAlgorithm;
+
+	/**
+	 * The ways {@link net.rptools.maptool.client.ui.zone.FogUtil#calculateVisibility} can work out what topology hides.
+	 */
+	public enum VisibilityAlgorithm {
+		/** Builds a shadow area behind each run of faces that face the viewer and subtracts their union */
+		SHADOW_AREAS,
+		/** Sweeps a ray around the viewer over the faces and builds the visible polygon directly */
+		ANGULAR_SWEEP
+	}
+
 	public CampaignProperties() {
 		init();
 	}
@@ -110,6 +123,7 @@ public class CampaignProperties {
 
 		initiativeOwnerPermissions = properties.initiativeOwnerPermissions;
 		initiativeMovementLock = properties.initiativeMovementLock;
+		visibilityAlgorithm = properties.visibilityAlgorithm;
 
 		characterSheets = new HashMap<String, String>();
 		if (properties.characterSheets == null || properties.characterSheets.isEmpty()) {
@@ -414,6 +428,15 @@ public class CampaignProperties {
 		this.initiativeMovementLock = initiativeMovementLock;
 	}
 
+	/** @return how vision is clipped against topology, never <code>null</code> */
+	public VisibilityAlgorithm getVisibilityAlgorithm() {
+		return visibilityAlgorithm != null ? visibilityAlgorithm : VisibilityAlgorithm.SHADOW_AREAS;
+	}
+
+	public void setVisibilityAlgorithm(VisibilityAlgorithm visibilityAlgorithm) {
+		this.visibilityAlgorithm = visibilityAlgorithm;
+	}
+
 	/**
 	 * Getter for characterSheets. Only called by {@link Campaign#getCharacterSheets()} and that function is never used
 	 * elsewhere within MapTool. Yet. ;-)
@@ -0,0 +1,166 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.rptools.maptool.model;
+
+import java.awt.geom.Area;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Makes copies of a campaign that can be saved in the background, like {@link Campaign#Campaign(Campaign)}, but keeps
+ * the copies of the tokens, topology and fog between one copy and the next. Only what has changed since the last copy
+ * is copied again, so the copy doesn't hold up the event dispatch thread for long on a big campaign.
+ * <p>
+ * Changes are noticed through the zones' {@link ModelChangeEvent}s; a token is also copied again when its version has
+ * moved on, and the topology when its version has. The copies handed out are shared with later copies, so nothing may
+ * change them.
+ */
+public class CampaignSnapshot implements ModelChangeListener {
+	private final Map<GUID, ZoneCopies> zoneCopiesMap = new HashMap<GUID, ZoneCopies>();
+
+	/**
+	 * What was copied from one zone
+	 */
+	static class ZoneCopies {
+		private final Zone zone;
+		private final Map<GUID, Token> tokenMap = new HashMap<GUID, Token>();
+		private final Map<GUID, Long> tokenVersionMap = new HashMap<GUID, Long>();
+		private Area topology;
+		private int topologyVersion;
+		private Area exposedArea;
+		private FogBitmap exposedBitmap;
+		private boolean fogChanged = true;
+
+		private ZoneCopies(Zone zone) {
+			this.zone = zone;
+		}
+
+		Token copyToken(Token token) {
+			Token copy = tokenMap.get(token.getId());
+			Long version = tokenVersionMap.get(token.getId());
+			if (copy == null || version == null || version.longValue() != token.getVersion()) {
+				copy = new Token(token);
+				tokenMap.put(token.getId(), copy);
+				tokenVersionMap.put(token.getId(), token.getVersion());
+			}
+			return copy;
+		}
+
+		Area copyTopology(Area area, int version) {
+			if (topology == null || topologyVersion != version) {
+				topology = (Area) area.clone();
+				topologyVersion = version;
+			}
+			return topology;
+		}
+
+		Area copyExposedArea(Area area) {
+			if (fogChanged || exposedArea == null) {
+				exposedArea = (Area) area.clone();
+			}
+			return exposedArea;
+		}
+
+		FogBitmap copyExposedBitmap(FogBitmap bitmap) {
+			if (bitmap == null) {
+				exposedBitmap = null;
+			} else if (fogChanged || exposedBitmap == null) {
+				exposedBitmap = new FogBitmap(bitmap);
+			}
+			return exposedBitmap;
+		}
+
+		/**
+		 * Called once the zone has been copied
+		 */
+		void copied() {
+			fogChanged = false;
+			// Copies of tokens that are no longer on the map
+			for (Iterator<GUID> iter = tokenMap.keySet().iterator(); iter.hasNext();) {
+				GUID id = iter.next();
+				if (zone.getToken(id) == null) {
+					iter.remove();
+					tokenVersionMap.remove(id);
+				}
+			}
+		}
+
+		private void flushToken(Token token) {
+			tokenMap.remove(token.getId());
+			tokenVersionMap.remove(token.getId());
+		}
+	}
+
+	/**
+	 * Copy the campaign, reusing the copies made last time of whatever hasn't changed since. This is meant to be called
+	 * on the event dispatch thread, where the models don't change underneath it.
+	 */
+	public synchronized Campaign copy(Campaign campaign) {
+		// Forget maps that have gone, or been replaced
+		for (Iterator<ZoneCopies> iter = zoneCopiesMap.values().iterator(); iter.hasNext();) {
+			ZoneCopies copies = iter.next();
+			if (campaign.getZone(copies.zone.getId()) != copies.zone) {
+				copies.zone.removeModelChangeListener(this);
+				iter.remove();
+			}
+		}
+		return new Campaign(campaign, this);
+	}
+
+	synchronized Zone copyZone(Zone zone) {
+		ZoneCopies copies = zoneCopiesMap.get(zone.getId());
+		if (copies == null) {
+			copies = new ZoneCopies(zone);
+			zoneCopiesMap.put(zone.getId(), copies);
+			zone.addModelChangeListener(this);
+		}
+		Zone copy = new Zone(zone, copies);
+		copies.copied();
+		return copy;
+	}
+
+	/**
+	 * @return the number of tokens whose copies are being kept
+	 */
+	public synchronized int getTokenCopyCount() {
+		int count = 0;
+		for (ZoneCopies copies : zoneCopiesMap.values()) {
+			count += copies.tokenMap.size();
+		}
+		return count;
+	}
+
+	// The model can be changed on threads other than the one making the copies
+	public synchronized void modelChanged(ModelChangeEvent event) {
+		if (!(event.getModel() instanceof Zone)) {
+			return;
+		}
+		ZoneCopies copies = zoneCopiesMap.get(((Zone) event.getModel()).getId());
+		if (copies == null) {
+			return;
+		}
+		Object evt = event.getEvent();
+		if (evt == Zone.Event.TOKEN_CHANGED || evt == Zone.Event.TOKEN_REMOVED || evt == Zone.Event.TOKEN_ADDED) {
+			if (event.getArg() instanceof List<?>) {
+				for (Object token : (List<?>) event.getArg()) {
+					copies.flushToken((Token) token);
+				}
+			} else if (event.getArg() instanceof Token) {
+				copies.flushToken((Token) event.getArg());
+			}
+		}
+		if (evt == Zone.Event.FOG_CHANGED) {
+			copies.fogChanged = true;
+		}
+	}
+}
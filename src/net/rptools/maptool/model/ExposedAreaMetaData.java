@@ -10,15 +10,30 @@
  */
 package net.rptools.maptool.model;
 
+import java.awt.Rectangle;
 import java.awt.geom.Area;
 
 public class ExposedAreaMetaData {
 	private Area exposedAreaHistory;
+	// Used instead of exposedAreaHistory on maps with raster fog, see Zone.setFogCellSize()
+	private FogBitmap exposedBitmap;
+	private transient Area exposedBitmapArea;
 
 	public ExposedAreaMetaData() {
 		exposedAreaHistory = new Area();
 	}
 
+	/**
+	 * @param fogCellSize
+	 *            the cell size of the map's raster fog, or 0 if it doesn't have any
+	 */
+	public ExposedAreaMetaData(int fogCellSize) {
+		this();
+		if (fogCellSize > 0) {
+			exposedBitmap = new FogBitmap(fogCellSize);
+		}
+	}
+
 	public ExposedAreaMetaData(Area area) {
 		exposedAreaHistory = new Area(area);
 	}
@@ -27,22 +42,95 @@ public class ExposedAreaMetaData {
 //		if (exposedAreaHistory == null) {
 //			exposedAreaHistory = new Area();
 //		}
+		if (exposedBitmap != null) {
+			if (exposedBitmapArea == null) {
+				exposedBitmapArea = exposedBitmap.toArea(null);
+			}
+			return exposedBitmapArea;
+		}
 		return exposedAreaHistory;
 	}
 
+	/**
+	 * Like {@link #getExposedAreaHistory()}, but with raster fog only the tiles that touch <code>bounds</code> are
+	 * turned into the Area.
+	 */
+	public Area getExposedAreaHistory(Rectangle bounds) {
+		if (exposedBitmap != null && exposedBitmapArea == null) {
+			return exposedBitmap.toArea(bounds);
+		}
+		return getExposedAreaHistory();
+	}
+
+	/**
+	 * @return the exposed cells, or <code>null</code> if the map doesn't have raster fog
+	 */
+	public FogBitmap getExposedBitmap() {
+		return exposedBitmap;
+	}
+
 	public void addToExposedAreaHistory(Area newArea) {
 		if (newArea != null && !newArea.isEmpty()) {
-			exposedAreaHistory.add(newArea);
+			if (exposedBitmap != null) {
+				exposedBitmap.expose(newArea);
+				exposedBitmapArea = null;
+			} else {
+				exposedAreaHistory.add(newArea);
+			}
+		}
+	}
+
+	/**
+	 * Add the exposed cells of a map with raster fog, without turning them into an Area first if this has raster fog
+	 * too.
+	 */
+	public void addToExposedAreaHistory(FogBitmap bitmap) {
+		if (bitmap != null && !bitmap.isEmpty()) {
+			if (exposedBitmap != null) {
+				exposedBitmap.or(bitmap);
+				exposedBitmapArea = null;
+			} else {
+				exposedAreaHistory.add(bitmap.toArea(null));
+			}
 		}
 	}
 
 	public void removeExposedAreaHistory(Area newArea) {
 		if (newArea != null && !newArea.isEmpty()) {
-			exposedAreaHistory.subtract(newArea);
+			if (exposedBitmap != null) {
+				exposedBitmap.hide(newArea);
+				exposedBitmapArea = null;
+			} else {
+				exposedAreaHistory.subtract(newArea);
+			}
 		}
 	}
 
 	public void clearExposedAreaHistory() {
 		exposedAreaHistory = new Area();
+		if (exposedBitmap != null) {
+			exposedBitmap.clear();
+			exposedBitmapArea = null;
+		}
+	}
+
+	/**
+	 * Switch to raster fog with the given cell size, or back to an Area if it is 0, keeping what has been exposed.
+	 */
+	public void setFogCellSize(int fogCellSize) {
+		int cellSize = exposedBitmap != null ? exposedBitmap.getCellSize() : 0;
+		if (fogCellSize == cellSize) {
+			return;
+		}
+		Area area = getExposedAreaHistory();
+		if (fogCellSize > 0) {
+			exposedBitmap = new FogBitmap(fogCellSize);
+			exposedBitmap.expose(area);
+			exposedAreaHistory = new Area();
+		} else {
+			exposedAreaHistory = new Area(area);
+			exposedBitmap = null;
+		}
+		exposedBitmapArea = null;
 	}
 }
@@ -0,0 +1,410 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.rptools.maptool.model;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Exposed fog as a grid of cells, each either exposed or not, instead of an {@link Area}. An Area gets more complicated
+ * with every bit of fog cleared, until adding to it and drawing it slow everything down; exposing an area here only
+ * costs the cells it covers, and combining the fog of several tokens is a bitwise OR.
+ * <p>
+ * The cells are kept in tiles of {@link #TILE_CELLS} by {@link #TILE_CELLS}, one <code>long</code> per row, and only
+ * tiles with something exposed in them are kept at all. Fully exposed tiles are kept as an empty array. A cell is
+ * exposed when its centre is inside an exposed area, the same way a pixel is filled when drawing it.
+ */
+public class FogBitmap {
+	/** Cells along each side of a tile, one per bit of a row */
+	public static final int TILE_CELLS = 64;
+
+	private static final long[] FULL = new long[0];
+
+	private int cellSize;
+	/** Rows of cells by tile, see {@link #getKey(int, int)} */
+	private Map<Long, long[]> tileMap = new HashMap<Long, long[]>();
+
+	private FogBitmap() {
+		// For serialization
+	}
+
+	/**
+	 * @param cellSize
+	 *            the width and height of a cell in map pixels
+	 */
+	public FogBitmap(int cellSize) {
+		if (cellSize <= 0) {
+			throw new IllegalArgumentException("Invalid cell size: " + cellSize);
+		}
+		this.cellSize = cellSize;
+	}
+
+	public FogBitmap(FogBitmap bitmap) {
+		cellSize = bitmap.cellSize;
+		for (Map.Entry<Long, long[]> entry : bitmap.tileMap.entrySet()) {
+			tileMap.put(entry.getKey(), entry.getValue().clone());
+		}
+	}
+
+	public int getCellSize() {
+		return cellSize;
+	}
+
+	public boolean isEmpty() {
+		return tileMap.isEmpty();
+	}
+
+	/**
+	 * Expose the cells whose centres are inside <code>shape</code>
+	 */
+	public void expose(Shape shape) {
+		paint(shape, true);
+	}
+
+	/**
+	 * Cover the cells whose centres are inside <code>shape</code> with fog again
+	 */
+	public void hide(Shape shape) {
+		paint(shape, false);
+	}
+
+	public void clear() {
+		tileMap.clear();
+	}
+
+	/**
+	 * Expose everything that is exposed in <code>bitmap</code> as well
+	 */
+	public void or(FogBitmap bitmap) {
+		if (bitmap.cellSize != cellSize) {
+			expose(bitmap.toArea(null));
+			return;
+		}
+		for (Map.Entry<Long, long[]> entry : bitmap.tileMap.entrySet()) {
+			long[] rows = tileMap.get(entry.getKey());
+			if (rows != null && rows.length == 0) {
+				continue;
+			}
+			long[] other = entry.getValue();
+			if (rows == null || other.length == 0) {
+				tileMap.put(entry.getKey(), other.clone());
+				continue;
+			}
+			for (int i = 0; i < TILE_CELLS; i++) {
+				rows[i] |= other[i];
+			}
+			putRows(entry.getKey(), rows);
+		}
+	}
+
+	/**
+	 * @return whether the map point is in an exposed cell
+	 */
+	public boolean contains(double x, double y) {
+		int cellX = (int) Math.floor(x / cellSize);
+		int cellY = (int) Math.floor(y / cellSize);
+		int tileX = floorDiv(cellX, TILE_CELLS);
+		int tileY = floorDiv(cellY, TILE_CELLS);
+		long[] rows = tileMap.get(getKey(tileX, tileY));
+		if (rows == null) {
+			return false;
+		}
+		return (getRow(rows, cellY - tileY * TILE_CELLS) & (1L << (cellX - tileX * TILE_CELLS))) != 0;
+	}
+
+	/**
+	 * @return whether any of the cells the rectangle, in map pixels, touches is exposed
+	 */
+	public boolean intersects(Rectangle bounds) {
+		if (bounds.isEmpty()) {
+			return false;
+		}
+		int cellX1 = floorDiv(bounds.x, cellSize);
+		int cellY1 = floorDiv(bounds.y, cellSize);
+		int cellX2 = floorDiv(bounds.x + bounds.width - 1, cellSize);
+		int cellY2 = floorDiv(bounds.y + bounds.height - 1, cellSize);
+
+		for (int tileY = floorDiv(cellY1, TILE_CELLS); tileY <= floorDiv(cellY2, TILE_CELLS); tileY++) {
+			for (int tileX = floorDiv(cellX1, TILE_CELLS); tileX <= floorDiv(cellX2, TILE_CELLS); tileX++) {
+				long[] rows = tileMap.get(getKey(tileX, tileY));
+				if (rows == null) {
+					continue;
+				}
+				int fromCol = Math.max(cellX1 - tileX * TILE_CELLS, 0);
+				int toCol = Math.min(cellX2 - tileX * TILE_CELLS, TILE_CELLS - 1);
+				long mask = getMask(fromCol, toCol + 1);
+				int fromRow = Math.max(cellY1 - tileY * TILE_CELLS, 0);
+				int toRow = Math.min(cellY2 - tileY * TILE_CELLS, TILE_CELLS - 1);
+				for (int row = fromRow; row <= toRow; row++) {
+					if ((getRow(rows, row) & mask) != 0) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return whether all of the cells the rectangle, in map pixels, touches are exposed
+	 */
+	public boolean contains(Rectangle bounds) {
+		if (bounds.isEmpty()) {
+			return false;
+		}
+		int cellX1 = floorDiv(bounds.x, cellSize);
+		int cellY1 = floorDiv(bounds.y, cellSize);
+		int cellX2 = floorDiv(bounds.x + bounds.width - 1, cellSize);
+		int cellY2 = floorDiv(bounds.y + bounds.height - 1, cellSize);
+
+		for (int tileY = floorDiv(cellY1, TILE_CELLS); tileY <= floorDiv(cellY2, TILE_CELLS); tileY++) {
+			for (int tileX = floorDiv(cellX1, TILE_CELLS); tileX <= floorDiv(cellX2, TILE_CELLS); tileX++) {
+				long[] rows = tileMap.get(getKey(tileX, tileY));
+				if (rows == null) {
+					return false;
+				}
+				int fromCol = Math.max(cellX1 - tileX * TILE_CELLS, 0);
+				int toCol = Math.min(cellX2 - tileX * TILE_CELLS, TILE_CELLS - 1);
+				long mask = getMask(fromCol, toCol + 1);
+				int fromRow = Math.max(cellY1 - tileY * TILE_CELLS, 0);
+				int toRow = Math.min(cellY2 - tileY * TILE_CELLS, TILE_CELLS - 1);
+				for (int row = fromRow; row <= toRow; row++) {
+					if ((getRow(rows, row) & mask) != mask) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the smallest rectangle, in map pixels, around all of the exposed cells; empty if there aren't any
+	 */
+	public Rectangle getBounds() {
+		Rectangle bounds = null;
+		for (Map.Entry<Long, long[]> entry : tileMap.entrySet()) {
+			long key = entry.getKey();
+			long[] rows = entry.getValue();
+			int fromRow = TILE_CELLS, toRow = -1;
+			long columns = 0;
+			for (int row = 0; row < TILE_CELLS; row++) {
+				long bits = getRow(rows, row);
+				if (bits != 0) {
+					fromRow = Math.min(fromRow, row);
+					toRow = row;
+					columns |= bits;
+				}
+			}
+			int fromCol = Long.numberOfTrailingZeros(columns);
+			int toCol = 63 - Long.numberOfLeadingZeros(columns);
+			Rectangle tile = new Rectangle(((int) (key >> 32) * TILE_CELLS + fromCol) * cellSize, ((int) key * TILE_CELLS + fromRow) * cellSize, (toCol - fromCol + 1) * cellSize,
+					(toRow - fromRow + 1) * cellSize);
+			if (bounds == null) {
+				bounds = tile;
+			} else {
+				bounds.add(tile);
+			}
+		}
+		return bounds != null ? bounds : new Rectangle();
+	}
+
+	/**
+	 * Turn the exposed cells back into an Area, for drawing.
+	 *
+	 * @param bounds
+	 *            only the tiles that touch this rectangle in map pixels are included, or all of them if
+	 *            <code>null</code>
+	 */
+	public Area toArea(Rectangle bounds) {
+		Path2D path = new Path2D.Double();
+		if (bounds == null) {
+			for (Map.Entry<Long, long[]> entry : tileMap.entrySet()) {
+				long key = entry.getKey();
+				appendTile(path, (int) (key >> 32), (int) key, entry.getValue());
+			}
+		} else if (!bounds.isEmpty()) {
+			int tileSize = TILE_CELLS * cellSize;
+			for (int tileY = floorDiv(bounds.y, tileSize); tileY <= floorDiv(bounds.y + bounds.height - 1, tileSize); tileY++) {
+				for (int tileX = floorDiv(bounds.x, tileSize); tileX <= floorDiv(bounds.x + bounds.width - 1, tileSize); tileX++) {
+					long[] rows = tileMap.get(getKey(tileX, tileY));
+					if (rows != null) {
+						appendTile(path, tileX, tileY, rows);
+					}
+				}
+			}
+		}
+		return new Area(path);
+	}
+
+	/**
+	 * What to send for an area exposed or hidden on a map: on a map with raster fog, the cells it covers, whose size
+	 * depends only on how many tiles they touch and not on how complicated the Area is; otherwise the Area itself.
+	 * Turned back into an Area with {@link #fromTransfer(Object)}.
+	 *
+	 * @param cellSize
+	 *            the cell size of the map's raster fog, or 0 if it doesn't have any
+	 */
+	public static Object forTransfer(Area area, int cellSize) {
+		if (area == null || cellSize <= 0) {
+			return area;
+		}
+		FogBitmap bitmap = new FogBitmap(cellSize);
+		bitmap.expose(area);
+		return bitmap;
+	}
+
+	/**
+	 * @return the area sent by {@link #forTransfer(Area, int)}. For raster fog it is made of whole cells, so exposing or
+	 *         hiding it on a map with the same cell size changes exactly the cells the original area would have.
+	 */
+	public static Area fromTransfer(Object fog) {
+		if (fog instanceof FogBitmap) {
+			return ((FogBitmap) fog).toArea(null);
+		}
+		return (Area) fog;
+	}
+
+	private void appendTile(Path2D path, int tileX, int tileY, long[] rows) {
+		int x = tileX * TILE_CELLS * cellSize;
+		int y = tileY * TILE_CELLS * cellSize;
+		if (rows.length == 0) {
+			path.append(new Rectangle(x, y, TILE_CELLS * cellSize, TILE_CELLS * cellSize), false);
+			return;
+		}
+		int row = 0;
+		while (row < TILE_CELLS) {
+			long bits = rows[row];
+			// One rectangle for each run of cells, as tall as the rows that are all the same
+			int nextRow = row + 1;
+			while (nextRow < TILE_CELLS && rows[nextRow] == bits) {
+				nextRow++;
+			}
+			while (bits != 0) {
+				int start = Long.numberOfTrailingZeros(bits);
+				int end = start + Long.numberOfTrailingZeros(~(bits >>> start));
+				path.append(new Rectangle(x + start * cellSize, y + row * cellSize, (end - start) * cellSize, (nextRow - row) * cellSize), false);
+				bits &= ~getMask(start, end);
+			}
+			row = nextRow;
+		}
+	}
+
+	private void paint(Shape shape, boolean expose) {
+		Rectangle bounds = shape.getBounds();
+		if (bounds.isEmpty()) {
+			return;
+		}
+		int tileSize = TILE_CELLS * cellSize;
+
+		// Java2D does the hard work, one tile at a time: a pixel for each cell
+		BufferedImage image = new BufferedImage(TILE_CELLS, TILE_CELLS, BufferedImage.TYPE_BYTE_BINARY);
+		byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+		int bytesPerRow = TILE_CELLS / 8;
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+			g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+			g.setColor(Color.white);
+
+			for (int tileY = floorDiv(bounds.y, tileSize); tileY <= floorDiv(bounds.y + bounds.height, tileSize); tileY++) {
+				for (int tileX = floorDiv(bounds.x, tileSize); tileX <= floorDiv(bounds.x + bounds.width, tileSize); tileX++) {
+					long key = getKey(tileX, tileY);
+					long[] rows = tileMap.get(key);
+					if ((rows == null && !expose) || (rows != null && rows.length == 0 && expose)) {
+						continue;
+					}
+					Arrays.fill(pixels, (byte) 0);
+					AffineTransform af = AffineTransform.getScaleInstance(1.0 / cellSize, 1.0 / cellSize);
+					af.translate(-tileX * tileSize, -tileY * tileSize);
+					g.setTransform(af);
+					g.fill(shape);
+
+					rows = getRowsForWrite(rows);
+					boolean changed = false;
+					for (int row = 0; row < TILE_CELLS; row++) {
+						long bits = 0;
+						for (int i = 0; i < bytesPerRow; i++) {
+							// The first pixel is the top bit of the byte, the first cell the bottom bit of the row
+							bits |= (long) (Integer.reverse(pixels[row * bytesPerRow + i] & 0xff) >>> 24) << (i * 8);
+						}
+						if (bits != 0) {
+							rows[row] = expose ? rows[row] | bits : rows[row] & ~bits;
+							changed = true;
+						}
+					}
+					if (changed) {
+						putRows(key, rows);
+					}
+				}
+			}
+		} finally {
+			g.dispose();
+		}
+	}
+
+	private static long[] getRowsForWrite(long[] rows) {
+		if (rows == null) {
+			return new long[TILE_CELLS];
+		}
+		if (rows.length == 0) {
+			long[] full = new long[TILE_CELLS];
+			Arrays.fill(full, -1L);
+			return full;
+		}
+		return rows;
+	}
+
+	private void putRows(long key, long[] rows) {
+		boolean empty = true;
+		boolean full = true;
+		for (long bits : rows) {
+			empty &= bits == 0;
+			full &= bits == -1L;
+		}
+		if (empty) {
+			tileMap.remove(key);
+		} else {
+			tileMap.put(key, full ? FULL : rows);
+		}
+	}
+
+	private static long getRow(long[] rows, int row) {
+		return rows.length == 0 ? -1L : rows[row];
+	}
+
+	/**
+	 * @return the bits from <code>from</code> up to but not including <code>to</code>
+	 */
+	private static long getMask(int from, int to) {
+		long mask = -1L << from;
+		return to >= 64 ? mask : mask & ((1L << to) - 1);
+	}
+
+	private static long getKey(int tileX, int tileY) {
+		return ((long) tileX << 32) | (tileY & 0xffffffffL);
+	}
+
+	private static int floorDiv(int a, int b) {
+		return (int) Math.floor((double) a / b);
+	}
+}
@@ -55,6 +55,10 @@ public class Token extends BaseModel {
 	private static final Logger log = Logger.getLogger(Token.class);
 
 	private GUID id = new GUID();
+	/** Moved on with every change sent to the server, see {@link TokenDelta} */
+	private long version;
+	/** What the token looked like when it was last sent or received */
+	private transient TokenDelta.Snapshot snapshot;
 
 	public static final String FILE_EXTENSION = "rptok";
 	public static final String FILE_THUMBNAIL = "thumbnail";
@@ -297,6 +301,41 @@ public class Token extends BaseModel {
 		exposedAreaGUID = token.exposedAreaGUID;
 	}
 
+	/**
+	 * A copy of just what the vision and lights of the token are worked out from: its id, name, position, size, facing,
+	 * sight and light sources. The vision workers of ZoneView are given these, so they never read a token that is being
+	 * changed at the same time.
+	 */
+	public Token copyForVision() {
+		Token copy = new Token();
+		copy.id = id;
+		copy.name = name;
+		copy.x = x;
+		copy.y = y;
+		copy.z = z;
+		copy.snapToScale = snapToScale;
+		copy.width = width;
+		copy.height = height;
+		copy.scaleX = scaleX;
+		copy.scaleY = scaleY;
+		copy.sizeScale = sizeScale;
+		copy.anchorX = anchorX;
+		copy.anchorY = anchorY;
+		copy.facing = facing;
+		copy.snapToGrid = snapToGrid;
+		copy.isVisible = isVisible;
+		copy.layer = layer;
+		copy.sightType = sightType;
+		copy.hasSight = hasSight;
+		if (lightSourceList != null) {
+			copy.lightSourceList = new ArrayList<AttachedLightSource>(lightSourceList);
+		}
+		if (sizeMap != null) {
+			copy.sizeMap = new HashMap<Class<? extends Grid>, GUID>(sizeMap);
+		}
+		return copy;
+	}
+
 	public Token() {
 		imageAssetMap = new HashMap<String, MD5Key>();
 
@@ -790,6 +829,31 @@ public class Token extends BaseModel {
 		this.id = id;
 	}
 
+	public long getVersion() {
+		return version;
+	}
+
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+	TokenDelta.Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	void setSnapshot(TokenDelta.Snapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Forget what was worked out from fields that have been set directly, by {@link TokenDelta}
+	 */
+	void resetCachedFields() {
+		actualLayer = null;
+		haloColor = null;
+		visionOverlayColor = null;
+	}
+
 	public int getX() {
 		return x;
 	}
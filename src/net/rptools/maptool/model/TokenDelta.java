@@ -0,0 +1,312 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.rptools.maptool.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.caucho.hessian.io.HessianOutput;
+import com.caucho.hessian.io.SerializerFactory;
+
+/**
+ * The fields of a token that have changed since it was last sent or received, so that a change to one property of a
+ * token with hundreds of them doesn't mean sending all of them again. Map fields, like the properties and macros, are
+ * compared entry by entry.
+ * <p>
+ * Changes are found by comparing the token with a {@link Snapshot} of it: a hash of each field and map entry as the
+ * connection would send it. A token that doesn't have one yet (a new token, or one that has only just been put on
+ * the map) has to be sent whole.
+ * <p>
+ * Every change moves the token on one version. A delta only applies to the version it was made from; the server
+ * merges one that doesn't anyway, but then sends everyone the whole token so that they all end up with the same one.
+ */
+public class TokenDelta {
+	private static final Logger log = Logger.getLogger(TokenDelta.class);
+
+	/** Never compared field by field */
+	private static final String[] SKIPPED_FIELDS = { "id", "version" };
+
+	private static final Map<String, Field> fieldMap = new HashMap<String, Field>();
+
+	private static final SerializerFactory serializerFactory = new SerializerFactory();
+
+	static {
+		serializerFactory.setAllowNonSerializable(true);
+
+		for (Field field : Token.class.getDeclaredFields()) {
+			int modifiers = field.getModifiers();
+			if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+				continue;
+			}
+			field.setAccessible(true);
+			fieldMap.put(field.getName(), field);
+		}
+		for (String name : SKIPPED_FIELDS) {
+			fieldMap.remove(name);
+		}
+	}
+
+	private GUID tokenId;
+	private long baseVersion;
+
+	/** Fields that changed as a whole */
+	private Map<String, Object> changedFieldMap = new HashMap<String, Object>();
+	/** Entries of map fields that were added or changed */
+	private Map<String, Map<Object, Object>> changedEntryMap = new HashMap<String, Map<Object, Object>>();
+	/** Keys of map fields that were removed */
+	private Map<String, List<Object>> removedKeyMap = new HashMap<String, List<Object>>();
+
+	/**
+	 * What a token looked like when it was last sent or received, as hashes of its fields.
+	 */
+	static class Snapshot {
+		private final GUID zoneId;
+		private final Map<String, Long> fieldHashMap = new HashMap<String, Long>();
+		/** For map fields that aren't <code>null</code>, the hashes of their entries */
+		private final Map<String, Map<Object, Long>> entryHashMap = new HashMap<String, Map<Object, Long>>();
+
+		private Snapshot(GUID zoneId) {
+			this.zoneId = zoneId;
+		}
+	}
+
+	private TokenDelta() {
+		// For serialization
+	}
+
+	private TokenDelta(GUID tokenId, long baseVersion) {
+		this.tokenId = tokenId;
+		this.baseVersion = baseVersion;
+	}
+
+	public GUID getTokenId() {
+		return tokenId;
+	}
+
+	/**
+	 * @return the version of the token the delta was made from
+	 */
+	public long getBaseVersion() {
+		return baseVersion;
+	}
+
+	public boolean isEmpty() {
+		return changedFieldMap.isEmpty() && changedEntryMap.isEmpty() && removedKeyMap.isEmpty();
+	}
+
+	/**
+	 * Remember what the token looks like now, as what the others have of it on the given zone.
+	 */
+	public static void snapshot(GUID zoneId, Token token) {
+		token.setSnapshot(takeSnapshot(zoneId, token));
+	}
+
+	/**
+	 * Find out what changed in the token since its snapshot was taken, and move it on a version if anything did.
+	 *
+	 * @return the changes, or <code>null</code> if the token has to be sent whole because there is nothing to compare
+	 *         it with
+	 */
+	public static TokenDelta create(GUID zoneId, Token token) {
+		Snapshot before = token.getSnapshot();
+		if (before == null || !before.zoneId.equals(zoneId)) {
+			return null;
+		}
+		Snapshot after = takeSnapshot(zoneId, token);
+		TokenDelta delta = new TokenDelta(token.getId(), token.getVersion());
+
+		for (Map.Entry<String, Field> entry : fieldMap.entrySet()) {
+			String name = entry.getKey();
+			Object value = getValue(entry.getValue(), token);
+
+			Map<Object, Long> beforeEntries = before.entryHashMap.get(name);
+			Map<Object, Long> afterEntries = after.entryHashMap.get(name);
+			if (beforeEntries != null && afterEntries != null) {
+				Map<?, ?> map = (Map<?, ?>) value;
+				for (Map.Entry<Object, Long> afterEntry : afterEntries.entrySet()) {
+					if (!afterEntry.getValue().equals(beforeEntries.get(afterEntry.getKey()))) {
+						delta.getChangedEntries(name).put(afterEntry.getKey(), map.get(afterEntry.getKey()));
+					}
+				}
+				for (Object key : beforeEntries.keySet()) {
+					if (!afterEntries.containsKey(key)) {
+						delta.getRemovedKeys(name).add(key);
+					}
+				}
+			} else if (!after.fieldHashMap.get(name).equals(before.fieldHashMap.get(name))) {
+				delta.changedFieldMap.put(name, value);
+			}
+		}
+		token.setSnapshot(after);
+		if (!delta.isEmpty()) {
+			token.setVersion(delta.baseVersion + 1);
+		}
+		return delta;
+	}
+
+	/**
+	 * Make the changes to the token, whatever version it is at, and move it on past both that version and the one the
+	 * delta was made from.
+	 *
+	 * @return whether the token was at the version the delta was made from
+	 */
+	public boolean applyTo(Token token) {
+		boolean inStep = token.getVersion() == baseVersion;
+		Snapshot snapshot = token.getSnapshot();
+
+		for (Map.Entry<String, Object> entry : changedFieldMap.entrySet()) {
+			Field field = fieldMap.get(entry.getKey());
+			if (field == null) {
+				continue;
+			}
+			setValue(field, token, entry.getValue());
+			if (snapshot != null) {
+				addHashes(snapshot, entry.getKey(), entry.getValue());
+			}
+		}
+		for (Map.Entry<String, Map<Object, Object>> entry : changedEntryMap.entrySet()) {
+			Map<Object, Object> map = getMap(token, entry.getKey());
+			if (map == null) {
+				continue;
+			}
+			map.putAll(entry.getValue());
+			if (snapshot != null && snapshot.entryHashMap.containsKey(entry.getKey())) {
+				for (Map.Entry<Object, Object> mapEntry : entry.getValue().entrySet()) {
+					snapshot.entryHashMap.get(entry.getKey()).put(mapEntry.getKey(), hash(mapEntry.getValue()));
+				}
+			}
+		}
+		for (Map.Entry<String, List<Object>> entry : removedKeyMap.entrySet()) {
+			Map<Object, Object> map = getMap(token, entry.getKey());
+			if (map == null) {
+				continue;
+			}
+			for (Object key : entry.getValue()) {
+				map.remove(key);
+				if (snapshot != null && snapshot.entryHashMap.containsKey(entry.getKey())) {
+					snapshot.entryHashMap.get(entry.getKey()).remove(key);
+				}
+			}
+		}
+		token.resetCachedFields();
+		token.setVersion(Math.max(token.getVersion(), baseVersion) + 1);
+		return inStep;
+	}
+
+	private Map<Object, Object> getChangedEntries(String name) {
+		Map<Object, Object> map = changedEntryMap.get(name);
+		if (map == null) {
+			map = new HashMap<Object, Object>();
+			changedEntryMap.put(name, map);
+		}
+		return map;
+	}
+
+	private List<Object> getRemovedKeys(String name) {
+		List<Object> list = removedKeyMap.get(name);
+		if (list == null) {
+			list = new ArrayList<Object>();
+			removedKeyMap.put(name, list);
+		}
+		return list;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<Object, Object> getMap(Token token, String name) {
+		Field field = fieldMap.get(name);
+		if (field == null) {
+			return null;
+		}
+		Object value = getValue(field, token);
+		return value instanceof Map<?, ?> ? (Map<Object, Object>) value : null;
+	}
+
+	private static Snapshot takeSnapshot(GUID zoneId, Token token) {
+		Snapshot snapshot = new Snapshot(zoneId);
+		for (Map.Entry<String, Field> entry : fieldMap.entrySet()) {
+			addHashes(snapshot, entry.getKey(), getValue(entry.getValue(), token));
+		}
+		return snapshot;
+	}
+
+	private static void addHashes(Snapshot snapshot, String name, Object value) {
+		if (value instanceof Map<?, ?>) {
+			Map<Object, Long> entryHashes = new HashMap<Object, Long>();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				entryHashes.put(entry.getKey(), hash(entry.getValue()));
+			}
+			snapshot.entryHashMap.put(name, entryHashes);
+			// Changes from and to null are sent whole
+			snapshot.fieldHashMap.put(name, 1L);
+		} else {
+			snapshot.entryHashMap.remove(name);
+			snapshot.fieldHashMap.put(name, value == null ? 0L : hash(value));
+		}
+	}
+
+	/**
+	 * @return the first 64 bits of the MD5 sum of the value the way the connection sends it
+	 */
+	private static long hash(Object value) {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		try {
+			HessianOutput out = new HessianOutput(bout);
+			synchronized (serializerFactory) {
+				out.setSerializerFactory(serializerFactory);
+				out.writeObject(value);
+			}
+			out.flush();
+
+			byte[] digest = MessageDigest.getInstance("md5").digest(bout.toByteArray());
+			long hash = 0;
+			for (int i = 0; i < 8; i++) {
+				hash = (hash << 8) | (digest[i] & 0xff);
+			}
+			return hash;
+		} catch (IOException ioe) {
+			log.error("Could not compare " + value, ioe);
+		} catch (NoSuchAlgorithmException nsae) {
+			log.error("Could not compare " + value, nsae);
+		}
+		// Unlike anything, so it is always sent
+		return System.nanoTime();
+	}
+
+	private static Object getValue(Field field, Token token) {
+		try {
+			return field.get(token);
+		} catch (IllegalAccessException iae) {
+			// Made accessible above
+			throw new IllegalStateException(iae);
+		}
+	}
+
+	private static void setValue(Field field, Token token, Object value) {
+		try {
+			field.set(token, value);
+		} catch (IllegalAccessException iae) {
+			throw new IllegalStateException(iae);
+		} catch (IllegalArgumentException iae) {
+			// A newer or older version of the field; the whole token will sort it out
+			log.error("Could not set " + field.getName() + " to " + value, iae);
+		}
+	}
+}
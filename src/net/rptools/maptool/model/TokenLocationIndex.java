@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.rptools.maptool.model;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Buckets the tokens of a zone by their location ({@link Token#getX()}, {@link Token#getY()}) so that the tokens in
+ * some part of the map can be found without going through all of them. The location doesn't depend on the grid, so
+ * neither does the index; callers that care about the footprint of a token need to widen the area they ask for.
+ */
+class TokenLocationIndex {
+	private static final int BUCKET_SIZE = 256;
+
+	private final Map<Long, List<Token>> bucketMap = new HashMap<Long, List<Token>>();
+	private final Map<GUID, Long> keyMap = new HashMap<GUID, Long>();
+
+	private static long getKey(int column, int row) {
+		return ((long) column << 32) | (row & 0xffffffffL);
+	}
+
+	private static int getBucket(int coordinate) {
+		return (int) Math.floor((double) coordinate / BUCKET_SIZE);
+	}
+
+	public void put(Token token) {
+		remove(token.getId());
+
+		Long key = getKey(getBucket(token.getX()), getBucket(token.getY()));
+		List<Token> bucket = bucketMap.get(key);
+		if (bucket == null) {
+			bucket = new ArrayList<Token>(4);
+			bucketMap.put(key, bucket);
+		}
+		bucket.add(token);
+		keyMap.put(token.getId(), key);
+	}
+
+	public void remove(GUID id) {
+		Long key = keyMap.remove(id);
+		if (key == null) {
+			return;
+		}
+		List<Token> bucket = bucketMap.get(key);
+		for (int i = 0; i < bucket.size(); i++) {
+			if (bucket.get(i).getId().equals(id)) {
+				bucket.remove(i);
+				break;
+			}
+		}
+		if (bucket.isEmpty()) {
+			bucketMap.remove(key);
+		}
+	}
+
+	/**
+	 * @return the tokens located inside <code>area</code>, in no particular order
+	 */
+	public List<Token> getTokensIn(Rectangle area) {
+		List<Token> result = new ArrayList<Token>();
+		if (area.isEmpty()) {
+			return result;
+		}
+		int minCol = getBucket(area.x);
+		int maxCol = getBucket((int) Math.min(Integer.MAX_VALUE, (long) area.x + area.width - 1));
+		int minRow = getBucket(area.y);
+		int maxRow = getBucket((int) Math.min(Integer.MAX_VALUE, (long) area.y + area.height - 1));
+
+		if (((long) maxCol - minCol + 1) * ((long) maxRow - minRow + 1) > bucketMap.size()) {
+			// Large area; cheaper to look at the buckets there are than at the ones there could be
+			for (List<Token> bucket : bucketMap.values()) {
+				addContained(bucket, area, result);
+			}
+		} else {
+			for (int row = minRow; row <= maxRow; row++) {
+				for (int col = minCol; col <= maxCol; col++) {
+					List<Token> bucket = bucketMap.get(getKey(col, row));
+					if (bucket != null) {
+						addContained(bucket, area, result);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private static void addContained(List<Token> bucket, Rectangle area, List<Token> result) {
+		for (Token token : bucket) {
+			if (area.contains(token.getX(), token.getY())) {
+				result.add(token);
+			}
+		}
+	}
+}
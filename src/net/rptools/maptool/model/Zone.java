@@ -15,7 +15,6 @@ import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.geom.Area;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -123,15 +122,21 @@ public class Zone extends BaseModel {
 	private final Map<GUID, Label> labels = new LinkedHashMap<GUID, Label>();
 	private final Map<GUID, Token> tokenMap = new HashMap<GUID, Token>();
 	private Map<GUID, ExposedAreaMetaData> exposedAreaMeta = new HashMap<GUID, ExposedAreaMetaData>();
-	private final List<Token> tokenOrderedList = new LinkedList<Token>();
+	private List<Token> tokenOrderedList = new ArrayList<Token>();
 
 	private InitiativeList initiativeList = new InitiativeList(this);
 
 	private Area exposedArea = new Area();
+	// Cell size of the raster fog in map pixels, or 0 to keep the exposed areas as Areas
+	private int fogCellSize;
+	private FogBitmap exposedBitmap;
+	private transient Area exposedBitmapArea;
 	private boolean hasFog;
 	private DrawablePaint fogPaint;
 
 	private Area topology = new Area();
+	// Bumped on every topology edit so caches derived from the (mutable) topology Area know when to rebuild
+	private transient int topologyVersion;
 
 	// The 'board' layer, at the very bottom of the layer stack.
 	// Itself has two sub-layers:
@@ -154,6 +159,16 @@ public class Zone extends BaseModel {
 
 	private transient HashMap<String, Integer> tokenNumberCache;
 
+	// Case-insensitive lookups for getTokenByName() and getTokenByGMName(), and the tokens by location for
+	// getTokensByLocation(); rebuilt from the token list when needed
+	private transient TokenNameIndex tokenNameIndex;
+	private transient TokenNameIndex tokenGMNameIndex;
+	private transient TokenLocationIndex tokenLocationIndex;
+
+	// The z-order each token had when it was sorted into tokenOrderedList, which is what keeps the list sorted even when
+	// a token's z-order is changed before it is put back. Rebuilt from the list when needed.
+	private transient Map<GUID, Integer> tokenZOrderMap;
+
 	/**
 	 * Note: When adding new fields to this class, make sure to update all constructors, {@link #imported()},
 	 * {@link #readResolve()}, and potentially {@link #optimize()}.
@@ -237,6 +252,15 @@ public class Zone extends BaseModel {
 	 * for various items.
 	 */
 	public Zone(Zone zone) {
+		this(zone, null);
+	}
+
+	/**
+	 * @param copies
+	 *            the copies made of this zone last time, to be reused for what hasn't changed since; or
+	 *            <code>null</code> to copy everything
+	 */
+	Zone(Zone zone, CampaignSnapshot.ZoneCopies copies) {
 		backgroundPaint = zone.backgroundPaint;
 		mapAsset = zone.mapAsset;
 		fogPaint = zone.fogPaint;
@@ -287,7 +311,7 @@ public class Zone extends BaseModel {
 			Iterator<GUID> i = zone.tokenMap.keySet().iterator();
 			while (i.hasNext()) {
 				Token old = zone.tokenMap.get(i.next());
-				Token token = new Token(old);
+				Token token = copies != null ? copies.copyToken(old) : new Token(old);
 				putToken(token);
 				List<Integer> list = zone.initiativeList.indexOf(old);
 				for (Integer integer : list) {
@@ -313,9 +337,17 @@ public class Zone extends BaseModel {
 		initiativeList.setHideNPC(zone.initiativeList.isHideNPC());
 
 		boardPosition = (Point) zone.boardPosition.clone();
-		exposedArea = (Area) zone.exposedArea.clone();
+		fogCellSize = zone.fogCellSize;
 		exposedAreaMeta = zone.exposedAreaMeta;
-		topology = (Area) zone.topology.clone();
+		if (copies != null) {
+			exposedArea = copies.copyExposedArea(zone.exposedArea);
+			exposedBitmap = copies.copyExposedBitmap(zone.exposedBitmap);
+			topology = copies.copyTopology(zone.topology, zone.topologyVersion);
+		} else {
+			exposedArea = (Area) zone.exposedArea.clone();
+			exposedBitmap = zone.exposedBitmap != null ? new FogBitmap(zone.exposedBitmap) : null;
+			topology = (Area) zone.topology.clone();
+		}
 		isVisible = zone.isVisible;
 		hasFog = zone.hasFog;
 	}
@@ -477,6 +509,13 @@ public class Zone extends BaseModel {
 		if (!hasFog() || view.isGMView()) {
 			return true;
 		}
+		if (exposedBitmap != null) {
+			List<Token> toks = null;
+			if (MapTool.getServerPolicy().isUseIndividualFOW() && getVisionType() != VisionType.OFF) {
+				toks = view.getTokens(); // only owned and HasSight tokens are returned
+			}
+			return getExposedBitmap(toks).contains(point.x, point.y);
+		}
 		if (MapTool.getServerPolicy().isUseIndividualFOW() && getVisionType() != VisionType.OFF) {
 			Area combined = new Area(exposedArea);
 			List<Token> toks = view.getTokens(); // only owned and HasSight tokens are returned
@@ -534,8 +573,19 @@ public class Zone extends BaseModel {
 		}
 		// Token is visible, and there is fog
 		Rectangle tokenSize = token.getBounds(this);
-		Area combined = new Area(exposedArea);
 		PlayerView view = MapTool.getFrame().getZoneRenderer(this).getPlayerView();
+		if (exposedBitmap != null) {
+			List<Token> owned = new ArrayList<Token>();
+			if (MapTool.getServerPolicy().isUseIndividualFOW() && getVisionType() != VisionType.OFF && view.getTokens() != null) {
+				for (Token tok : view.getTokens()) {
+					if (AppUtil.playerOwns(tok)) {
+						owned.add(tok);
+					}
+				}
+			}
+			return getExposedBitmap(owned).intersects(tokenSize);
+		}
+		Area combined = new Area(exposedArea);
 		if (MapTool.getServerPolicy().isUseIndividualFOW() && getVisionType() != VisionType.OFF) {
 			List<Token> toks = view.getTokens();
 			if (toks != null && !toks.isEmpty()) {
@@ -555,25 +605,40 @@ public class Zone extends BaseModel {
 
 	public void clearTopology() {
 		topology = new Area();
+		topologyVersion++;
 		fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED));
 	}
 
 	public void addTopology(Area area) {
 		topology.add(area);
-		fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED));
+		topologyVersion++;
+		fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED, area));
 	}
 
 	public void removeTopology(Area area) {
 		topology.subtract(area);
-		fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED));
+		topologyVersion++;
+		fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED, area));
 	}
 
 	public Area getTopology() {
 		return topology;
 	}
 
+	/**
+	 * @return a counter that changes whenever {@link #addTopology(Area)}, {@link #removeTopology(Area)} or
+	 *         {@link #clearTopology()} is called
+	 */
+	public int getTopologyVersion() {
+		return topologyVersion;
+	}
+
 	public void clearExposedArea() {
 		exposedArea = new Area();
+		if (exposedBitmap != null) {
+			exposedBitmap.clear();
+			exposedBitmapArea = null;
+		}
 		// There used to be a foreach loop here that iterated over getTokens() and called .clear() -- why?!
 		exposedAreaMeta.clear();
 		fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED));
@@ -588,7 +653,7 @@ public class Zone extends BaseModel {
 				GUID tea = tok.getExposedAreaGUID();
 				ExposedAreaMetaData meta = exposedAreaMeta.get(tea);
 				if (meta == null) {
-					meta = new ExposedAreaMetaData();
+					meta = new ExposedAreaMetaData(fogCellSize);
 					exposedAreaMeta.put(tea, meta);
 				}
 				meta.addToExposedAreaHistory(area);
@@ -597,8 +662,8 @@ public class Zone extends BaseModel {
 			}
 		}
 		// Should we really be adding it to the GEA???
-		exposedArea.add(area);
-		fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED));
+		addExposedArea(area);
+		fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED, area));
 	}
 
 	/**
@@ -614,7 +679,7 @@ public class Zone extends BaseModel {
 		}
 		if (getVisionType() == VisionType.OFF) {
 			// Why is this done here and then again below???
-			exposedArea.add(area);
+			addExposedArea(area);
 		}
 		if (selectedToks != null && !selectedToks.isEmpty() && MapTool.getServerPolicy().isUseIndividualFOW()) {
 			boolean isAllowed = MapTool.getPlayer().isGM() || !MapTool.getServerPolicy().useStrictTokenManagement();
@@ -630,7 +695,7 @@ public class Zone extends BaseModel {
 					GUID tea = tok.getExposedAreaGUID();
 					meta = exposedAreaMeta.get(tea);
 					if (meta == null) {
-						meta = new ExposedAreaMetaData();
+						meta = new ExposedAreaMetaData(fogCellSize);
 						exposedAreaMeta.put(tea, meta);
 					}
 					meta.addToExposedAreaHistory(area);
@@ -640,9 +705,9 @@ public class Zone extends BaseModel {
 			if (meta != null)
 				zoneView.flush();
 		} else {
-			exposedArea.add(area);
+			addExposedArea(area);
 		}
-		fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED));
+		fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED, area));
 	}
 
 	/**
@@ -669,7 +734,7 @@ public class Zone extends BaseModel {
 				}
 				ExposedAreaMetaData meta = exposedAreaMeta.get(tok.getExposedAreaGUID());
 				if (meta == null)
-					meta = new ExposedAreaMetaData();
+					meta = new ExposedAreaMetaData(fogCellSize);
 				meta.clearExposedAreaHistory();
 				meta.addToExposedAreaHistory(area);
 				exposedAreaMeta.put(tok.getExposedAreaGUID(), meta);
@@ -678,7 +743,10 @@ public class Zone extends BaseModel {
 			}
 		} else {
 			exposedArea.reset();
-			exposedArea.add(area);
+			if (exposedBitmap != null) {
+				exposedBitmap.clear();
+			}
+			addExposedArea(area);
 		}
 		fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED));
 	}
@@ -688,7 +756,7 @@ public class Zone extends BaseModel {
 			return;
 		}
 		if (getVisionType() == VisionType.OFF) {
-			exposedArea.subtract(area);
+			subtractExposedArea(area);
 		}
 		if (selectedToks != null && !selectedToks.isEmpty() && MapTool.getServerPolicy().isUseIndividualFOW()) {
 			List<Token> allToks = new ArrayList<Token>();
@@ -705,16 +773,16 @@ public class Zone extends BaseModel {
 				}
 				ExposedAreaMetaData meta = exposedAreaMeta.get(tok.getExposedAreaGUID());
 				if (meta == null)
-					meta = new ExposedAreaMetaData();
+					meta = new ExposedAreaMetaData(fogCellSize);
 				meta.removeExposedAreaHistory(area);
 				exposedAreaMeta.put(tok.getExposedAreaGUID(), meta);
 				MapTool.getFrame().getZoneRenderer(this.getId()).getZoneView().flush(tok);
 				putToken(tok);
 			}
 		} else {
-			exposedArea.subtract(area);
+			subtractExposedArea(area);
 		}
-		fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED));
+		fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED, area));
 	}
 
 	public long getCreationTime() {
@@ -740,6 +808,9 @@ public class Zone extends BaseModel {
 	 * @return
 	 */
 	public Area getExposedArea(PlayerView view) {
+		if (exposedBitmap != null) {
+			return getExposedArea(view, null);
+		}
 		Area combined = new Area(exposedArea);
 
 		List<Token> toks = view.getTokens();
@@ -759,15 +830,144 @@ public class Zone extends BaseModel {
 		return combined;
 	}
 
+	/**
+	 * Like {@link #getExposedArea(PlayerView)}, but with raster fog only the tiles that touch <code>bounds</code> are
+	 * turned into the Area, so the rest of the map doesn't have to be.
+	 * 
+	 * @param bounds
+	 *            the part of the map that is needed, or <code>null</code> for all of it
+	 */
+	public Area getExposedArea(PlayerView view, Rectangle bounds) {
+		if (exposedBitmap == null) {
+			return getExposedArea(view);
+		}
+		FogBitmap combined = getExposedBitmap(view.getTokens());
+		if (combined == exposedBitmap && bounds == null) {
+			return new Area(getExposedArea());
+		}
+		return combined.toArea(bounds);
+	}
+
+	/**
+	 * The raster version of {@link #getExposedArea(PlayerView)}: the global exposed cells, with those of the tokens
+	 * OR'ed in. Don't change it, it may be the zone's own.
+	 * 
+	 * @return the combined cells, or <code>null</code> if the map doesn't have raster fog
+	 */
+	public FogBitmap getExposedBitmap(List<Token> toks) {
+		FogBitmap combined = exposedBitmap;
+		if (toks == null) {
+			return combined;
+		}
+		for (Token tok : toks) {
+			ExposedAreaMetaData meta = exposedAreaMeta.get(tok.getExposedAreaGUID());
+			if (meta == null || meta.getExposedBitmap() == null || meta.getExposedBitmap().isEmpty()) {
+				continue;
+			}
+			if (combined == exposedBitmap) {
+				combined = new FogBitmap(exposedBitmap);
+			}
+			combined.or(meta.getExposedBitmap());
+		}
+		return combined;
+	}
+
 	/**
 	 * This is the Global Exposed Area (GEA) discussed so much on the dev-team mailing list. :)
 	 * 
 	 * @return Area object representing exposed fog area visible to all tokens
 	 */
 	public Area getExposedArea() {
+		if (exposedBitmap != null) {
+			if (exposedBitmapArea == null) {
+				exposedBitmapArea = exposedBitmap.toArea(null);
+			}
+			return exposedBitmapArea;
+		}
 		return exposedArea;
 	}
 
+	/**
+	 * @return the raster version of {@link #getExposedArea()}, or <code>null</code> if the map doesn't have raster fog.
+	 *         Don't change it.
+	 */
+	public FogBitmap getExposedBitmap() {
+		return exposedBitmap;
+	}
+
+	/**
+	 * Like {@link #getExposedArea()}, but with raster fog only the tiles that touch <code>bounds</code> are turned into
+	 * the Area.
+	 * 
+	 * @param bounds
+	 *            the part of the map that is needed, or <code>null</code> for all of it
+	 * @return a new Area, which the caller may change
+	 */
+	public Area getExposedArea(Rectangle bounds) {
+		if (exposedBitmap != null && bounds != null) {
+			return exposedBitmap.toArea(bounds);
+		}
+		return new Area(getExposedArea());
+	}
+
+	/**
+	 * @return whether any of the global exposed area has been cleared, without turning raster fog into an Area
+	 */
+	public boolean hasExposedArea() {
+		return exposedBitmap != null ? !exposedBitmap.isEmpty() : exposedArea != null && !exposedArea.isEmpty();
+	}
+
+	private void addExposedArea(Area area) {
+		if (exposedBitmap != null) {
+			exposedBitmap.expose(area);
+			exposedBitmapArea = null;
+		} else {
+			exposedArea.add(area);
+		}
+	}
+
+	private void subtractExposedArea(Area area) {
+		if (exposedBitmap != null) {
+			exposedBitmap.hide(area);
+			exposedBitmapArea = null;
+		} else {
+			exposedArea.subtract(area);
+		}
+	}
+
+	/**
+	 * @return the cell size of the raster fog in map pixels, or 0 if the exposed areas are kept as Areas
+	 */
+	public int getFogCellSize() {
+		return fogCellSize;
+	}
+
+	/**
+	 * Keep the exposed areas of this map as a raster of cells of the given size, see {@link FogBitmap}, or as Areas
+	 * if it is 0. What has been exposed so far is converted.
+	 */
+	public void setFogCellSize(int cellSize) {
+		cellSize = Math.max(cellSize, 0);
+		if (cellSize == fogCellSize) {
+			return;
+		}
+		Area area = getExposedArea();
+		if (cellSize > 0) {
+			exposedBitmap = new FogBitmap(cellSize);
+			exposedBitmap.expose(area);
+			exposedArea = new Area();
+		} else {
+			exposedArea = new Area(area);
+			exposedBitmap = null;
+		}
+		exposedBitmapArea = null;
+		fogCellSize = cellSize;
+		for (ExposedAreaMetaData meta : getExposedAreaMetaData().values()) {
+			meta.setFogCellSize(cellSize);
+		}
+		fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED));
+	}
+
 	public int getUnitsPerCell() {
 		return Math.max(unitsPerCell, 1);
 	}
@@ -777,11 +977,13 @@ public class Zone extends BaseModel {
 	}
 
 	public int getLargestZOrder() {
-		return tokenOrderedList.size() > 0 ? tokenOrderedList.get(tokenOrderedList.size() - 1).getZOrder() : 0;
+		List<Token> list = getOrderedTokens();
+		return list.size() > 0 ? list.get(list.size() - 1).getZOrder() : 0;
 	}
 
 	public int getSmallestZOrder() {
-		return tokenOrderedList.size() > 0 ? tokenOrderedList.get(0).getZOrder() : 0;
+		List<Token> list = getOrderedTokens();
+		return list.size() > 0 ? list.get(0).getZOrder() : 0;
 	}
 
 	///////////////////////////////////////////////////////////////////////////
@@ -906,10 +1108,13 @@ public class Zone extends BaseModel {
 
 		tokenMap.put(token.getId(), token);
 
-		// LATER: optimize this
-		tokenOrderedList.remove(token);
-		tokenOrderedList.add(token);
-		Collections.sort(tokenOrderedList, TOKEN_Z_ORDER_COMPARATOR);
+		// Binary search for where it was and where it goes
+		removeOrderedToken(token.getId());
+		int index = findOrderedToken(token.getZOrder(), token.getId());
+		tokenOrderedList.add(-index - 1, token);
+		tokenZOrderMap.put(token.getId(), token.getZOrder());
+
+		indexToken(token);
 
 		if (newToken) {
 			fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_ADDED, token));
@@ -931,20 +1136,24 @@ public class Zone extends BaseModel {
 	public void putTokens(List<Token> tokens) {
 		System.out.println("putToken() called with list of " + tokens.size() + " tokens.");
 
-		Collection<Token> values = tokenMap.values();
-
-		List<Token> addedTokens = new LinkedList<Token>(tokens);
-		addedTokens.removeAll(values);
-
-		List<Token> changedTokens = new LinkedList<Token>(tokens);
-		changedTokens.retainAll(values);
-
+		List<Token> addedTokens = new ArrayList<Token>();
+		List<Token> changedTokens = new ArrayList<Token>();
+		for (Token t : tokens) {
+			if (tokenMap.containsKey(t.getId())) {
+				changedTokens.add(t);
+			} else {
+				addedTokens.add(t);
+			}
+		}
+		Map<GUID, Token> putMap = new LinkedHashMap<GUID, Token>();
 		for (Token t : tokens) {
 			tokenMap.put(t.getId(), t);
+			putMap.put(t.getId(), t);
+		}
+		mergeOrderedTokens(putMap);
+		for (Token t : tokens) {
+			indexToken(t);
 		}
-		tokenOrderedList.removeAll(tokens);
-		tokenOrderedList.addAll(tokens);
-		Collections.sort(tokenOrderedList, TOKEN_Z_ORDER_COMPARATOR);
 
 		if (!addedTokens.isEmpty())
 			fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_ADDED, addedTokens));
@@ -955,7 +1164,14 @@ public class Zone extends BaseModel {
 	public void removeToken(GUID id) {
 		Token token = tokenMap.remove(id);
 		if (token != null) {
-			tokenOrderedList.remove(token);
+			// If it comes back it has to be sent whole
+			token.setSnapshot(null);
+			removeOrderedToken(id);
+			if (tokenNameIndex != null) {
+				tokenNameIndex.remove(id);
+				tokenGMNameIndex.remove(id);
+				tokenLocationIndex.remove(id);
+			}
 			fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_REMOVED, token));
 		}
 	}
@@ -965,18 +1181,132 @@ public class Zone extends BaseModel {
 	}
 
 	/**
-	 * Returns the first token with a given name. The name is matched case-insensitively.
+	 * Compares tokens the same way as {@link #TOKEN_Z_ORDER_COMPARATOR}, given their z-order.
 	 */
-	public Token getTokenByName(String name) {
-		for (Token token : getAllTokens()) {
-			if (StringUtil.isEmpty(token.getName())) {
+	private static int compareZOrder(int z1, GUID id1, int z2, GUID id2) {
+		if (z1 != z2) {
+			return z1 < z2 ? -1 : 1;
+		}
+		return id1.compareTo(id2);
+	}
+
+	private Map<GUID, Integer> getTokenZOrderMap() {
+		if (tokenZOrderMap == null) {
+			// The list could have been read in as anything, and tokens may have been changed since it was last sorted
+			List<Token> list = new ArrayList<Token>(tokenOrderedList.size());
+			tokenZOrderMap = new HashMap<GUID, Integer>();
+			for (Token token : tokenOrderedList) {
+				if (!tokenZOrderMap.containsKey(token.getId())) {
+					tokenZOrderMap.put(token.getId(), token.getZOrder());
+					list.add(token);
+				}
+			}
+			Collections.sort(list, TOKEN_Z_ORDER_COMPARATOR);
+			tokenOrderedList = list;
+		}
+		return tokenZOrderMap;
+	}
+
+	/**
+	 * @return the ordered token list, sorted first if it hasn't been since it was read in
+	 */
+	private List<Token> getOrderedTokens() {
+		getTokenZOrderMap();
+		return tokenOrderedList;
+	}
+
+	/**
+	 * Binary search of the ordered token list.
+	 * 
+	 * @return the index of the token, or <code>(-(insertion point) - 1)</code> if it isn't in the list
+	 */
+	private int findOrderedToken(int zOrder, GUID id) {
+		Map<GUID, Integer> zOrderMap = getTokenZOrderMap();
+		int low = 0;
+		int high = tokenOrderedList.size() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			GUID midId = tokenOrderedList.get(mid).getId();
+			int cmp = compareZOrder(zOrderMap.get(midId), midId, zOrder, id);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private void removeOrderedToken(GUID id) {
+		Integer zOrder = getTokenZOrderMap().get(id);
+		if (zOrder != null) {
+			int index = findOrderedToken(zOrder, id);
+			if (index >= 0) {
+				tokenOrderedList.remove(index);
+			}
+			tokenZOrderMap.remove(id);
+		}
+	}
+
+	/**
+	 * Merges the tokens into the ordered token list in one pass, instead of adding them one by one.
+	 */
+	private void mergeOrderedTokens(Map<GUID, Token> putMap) {
+		Map<GUID, Integer> zOrderMap = getTokenZOrderMap();
+		List<Token> putList = new ArrayList<Token>(putMap.values());
+		Collections.sort(putList, TOKEN_Z_ORDER_COMPARATOR);
+
+		List<Token> merged = new ArrayList<Token>(tokenOrderedList.size() + putList.size());
+		int putIndex = 0;
+		for (Token token : tokenOrderedList) {
+			GUID id = token.getId();
+			if (putMap.containsKey(id)) {
 				continue;
 			}
-			if (token.getName().equalsIgnoreCase(name)) {
-				return token;
+			int zOrder = zOrderMap.get(id);
+			while (putIndex < putList.size()) {
+				Token putToken = putList.get(putIndex);
+				if (compareZOrder(putToken.getZOrder(), putToken.getId(), zOrder, id) > 0) {
+					break;
+				}
+				merged.add(putToken);
+				putIndex++;
 			}
+			merged.add(token);
+		}
+		merged.addAll(putList.subList(putIndex, putList.size()));
+		tokenOrderedList = merged;
+
+		for (Token token : putList) {
+			zOrderMap.put(token.getId(), token.getZOrder());
+		}
+	}
+
+	/**
+	 * Returns the first token with a given name. The name is matched case-insensitively.
+	 * <p>
+	 * A token renamed in place is found under its new name once it has been put back with {@link #putToken(Token)}, or
+	 * right away if the rename is passed on with {@link #tokenRenamed(Token)}.
+	 */
+	public Token getTokenByName(String name) {
+		if (name == null) {
+			return null;
+		}
+		buildTokenIndexes();
+		return tokenNameIndex.get(name, false);
+	}
+
+	/**
+	 * Updates the name indexes for a token of this zone that has been renamed in place, so that it can be found by its
+	 * new name or GM name before it is put back with {@link #putToken(Token)}.
+	 */
+	public void tokenRenamed(Token token) {
+		if (tokenNameIndex != null && tokenMap.get(token.getId()) == token) {
+			tokenNameIndex.put(token, token.getName());
+			tokenGMNameIndex.put(token, token.getGMName());
 		}
-		return null;
 	}
 
 	/**
@@ -1005,15 +1335,121 @@ public class Zone extends BaseModel {
 	 * Returns the first token with a given GM name. The name is matched case-insensitively.
 	 */
 	public Token getTokenByGMName(String name) {
-		for (Token token : getAllTokens()) {
-			if (StringUtil.isEmpty(token.getGMName())) {
-				continue;
+		if (name == null) {
+			return null;
+		}
+		buildTokenIndexes();
+		return tokenGMNameIndex.get(name, true);
+	}
+
+	/**
+	 * Returns the tokens whose location ({@link Token#getX()}, {@link Token#getY()}) lies inside of <code>area</code>,
+	 * in z-order. Only the tokens around the area are looked at, but note that a token can cover part of the area
+	 * without being located in it.
+	 */
+	public List<Token> getTokensByLocation(Rectangle area) {
+		buildTokenIndexes();
+		List<Token> list = tokenLocationIndex.getTokensIn(area);
+		Collections.sort(list, TOKEN_Z_ORDER_COMPARATOR);
+		return list;
+	}
+
+	/**
+	 * Builds the token indexes from the token list if they haven't been yet, which is the case after the zone has been
+	 * deserialized.
+	 */
+	private void buildTokenIndexes() {
+		if (tokenNameIndex == null) {
+			tokenNameIndex = new TokenNameIndex();
+			tokenGMNameIndex = new TokenNameIndex();
+			tokenLocationIndex = new TokenLocationIndex();
+			for (Token token : tokenOrderedList) {
+				tokenNameIndex.put(token, token.getName());
+				tokenGMNameIndex.put(token, token.getGMName());
+				tokenLocationIndex.put(token);
+			}
+		}
+	}
+
+	private void indexToken(Token token) {
+		if (tokenNameIndex == null) {
+			buildTokenIndexes();
+		} else {
+			tokenNameIndex.put(token, token.getName());
+			tokenGMNameIndex.put(token, token.getGMName());
+			tokenLocationIndex.put(token);
+		}
+	}
+
+	/**
+	 * Multimap from a case-folded name to the tokens by that name. Several tokens can share a name, in which case the
+	 * first one in z-order wins, the same as going through {@link #getAllTokens()}.
+	 */
+	private static class TokenNameIndex {
+		private final Map<String, List<Token>> nameMap = new HashMap<String, List<Token>>();
+		private final Map<GUID, String> keyMap = new HashMap<GUID, String>();
+
+		/**
+		 * Folds the case the same way {@link String#equalsIgnoreCase(String)} compares characters.
+		 */
+		private static String getKey(String name) {
+			StringBuilder key = new StringBuilder(name.length());
+			for (int i = 0; i < name.length(); i++) {
+				key.append(Character.toLowerCase(Character.toUpperCase(name.charAt(i))));
 			}
-			if (token.getGMName().equalsIgnoreCase(name)) {
-				return token;
+			return key.toString();
+		}
+
+		public void put(Token token, String name) {
+			remove(token.getId());
+			if (StringUtil.isEmpty(name)) {
+				return;
+			}
+			String key = getKey(name);
+			List<Token> list = nameMap.get(key);
+			if (list == null) {
+				list = new ArrayList<Token>(1);
+				nameMap.put(key, list);
 			}
+			list.add(token);
+			keyMap.put(token.getId(), key);
+		}
+
+		public void remove(GUID id) {
+			String key = keyMap.remove(id);
+			if (key == null) {
+				return;
+			}
+			List<Token> list = nameMap.get(key);
+			for (Iterator<Token> iter = list.iterator(); iter.hasNext();) {
+				if (iter.next().getId().equals(id)) {
+					iter.remove();
+					break;
+				}
+			}
+			if (list.isEmpty()) {
+				nameMap.remove(key);
+			}
+		}
+
+		public Token get(String name, boolean gmName) {
+			List<Token> list = nameMap.get(getKey(name));
+			if (list == null) {
+				return null;
+			}
+			Token first = null;
+			for (Token token : list) {
+				// Skip tokens renamed in place since they were indexed
+				String tokenName = gmName ? token.getGMName() : token.getName();
+				if (tokenName == null || !tokenName.equalsIgnoreCase(name)) {
+					continue;
+				}
+				if (first == null || TOKEN_Z_ORDER_COMPARATOR.compare(token, first) < 0) {
+					first = token;
+				}
+			}
+			return first;
 		}
-		return null;
 	}
 
 	public List<DrawnElement> getAllDrawnElements() {
@@ -1032,7 +1468,7 @@ public class Zone extends BaseModel {
 	}
 
 	public List<Token> getAllTokens() {
-		return Collections.unmodifiableList(new ArrayList<Token>(tokenOrderedList));
+		return Collections.unmodifiableList(new ArrayList<Token>(getOrderedTokens()));
 	}
 
 	public Set<MD5Key> getAllAssetIds() {
@@ -1072,7 +1508,7 @@ public class Zone extends BaseModel {
 	public List<Token> getTokensFiltered(Filter filter) {
 		ArrayList<Token> copy = new ArrayList<Token>(getTokenCount());
 
-		for (Token token : tokenOrderedList) {
+		for (Token token : getOrderedTokens()) {
 			if (filter.matchToken(token)) {
 				copy.add(token);
 			}
@@ -1174,14 +1610,7 @@ public class Zone extends BaseModel {
 
 	public static class TokenZOrderComparator implements Comparator<Token> {
 		public int compare(Token o1, Token o2) {
-			int lval = o1.getZOrder();
-			int rval = o2.getZOrder();
-
-			if (lval == rval) {
-				return o1.getId().compareTo(o2.getId());
-			} else {
-				return lval - rval;
-			}
+			return compareZOrder(o1.getZOrder(), o1.getId(), o2.getZOrder(), o2.getId());
 		}
 	}
 
@@ -1337,7 +1766,7 @@ public class Zone extends BaseModel {
 		if (meta != null) {
 			return meta;
 		}
-		meta = new ExposedAreaMetaData();
+		meta = new ExposedAreaMetaData(fogCellSize);
 		exposedAreaMeta.put(tokenExposedAreaGUID, meta);
 		return meta;
 	}
@@ -1346,6 +1775,7 @@ public class Zone extends BaseModel {
 		if (exposedAreaMeta == null) {
 			exposedAreaMeta = new HashMap<GUID, ExposedAreaMetaData>();
 		}
+		meta.setFogCellSize(fogCellSize);
 		exposedAreaMeta.put(tokenExposedAreaGUID, meta);
 		fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED));
 	}
@@ -59,6 +59,7 @@ public class ZoneFactory {
 
 		zone.setVisible(AppPreferences.getNewMapsVisible());
 		zone.setHasFog(AppPreferences.getNewMapsHaveFOW());
+		zone.setFogCellSize(AppPreferences.getNewMapsFogCellSize());
 		zone.setUnitsPerCell(AppPreferences.getDefaultUnitsPerCell());
 		zone.setTokenVisionDistance(AppPreferences.getDefaultVisionDistance());
 		
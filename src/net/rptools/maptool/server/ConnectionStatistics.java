@@ -0,0 +1,89 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.rptools.maptool.server;
+
+import net.rptools.clientserver.ActivityListener;
+
+/**
+ * Keeps track of how much the server has sent to a single client, and how fast. Added as an {@link ActivityListener}
+ * to the client's connection, which tells it each time a message has been written out.
+ */
+public class ConnectionStatistics implements ActivityListener {
+	/** Length of the window the throughput is measured over */
+	private static final long WINDOW = 1000;
+
+	private long bytesSent;
+	private long messagesSent;
+	private long assetBytesSent;
+
+	private long windowStart = System.currentTimeMillis();
+	private long windowBytes;
+	private double bytesPerSecond;
+
+	public void notify(Direction direction, State state, int totalTransferSize, int currentTransferSize) {
+		if (direction == Direction.Outbound && state == State.Complete) {
+			messageSent(totalTransferSize);
+		}
+	}
+
+	private synchronized void messageSent(int size) {
+		bytesSent += size;
+		messagesSent++;
+		updateWindow(System.currentTimeMillis());
+		windowBytes += size;
+	}
+
+	/**
+	 * Called for the asset data handed to the connection, which is part of what it sends.
+	 */
+	public synchronized void assetDataQueued(int size) {
+		assetBytesSent += size;
+	}
+
+	private void updateWindow(long now) {
+		long elapsed = now - windowStart;
+		if (elapsed >= WINDOW) {
+			// Nothing sent for more than a window means the rate has dropped to nothing
+			bytesPerSecond = elapsed < 2 * WINDOW ? windowBytes * 1000.0 / elapsed : 0;
+			windowStart = now;
+			windowBytes = 0;
+		}
+	}
+
+	/**
+	 * @return the rate at which data was sent to the client over the last second or so
+	 */
+	public synchronized double getBytesPerSecond() {
+		updateWindow(System.currentTimeMillis());
+		return bytesPerSecond;
+	}
+
+	public synchronized long getBytesSent() {
+		return bytesSent;
+	}
+
+	public synchronized long getMessagesSent() {
+		return messagesSent;
+	}
+
+	/**
+	 * @return the number of bytes of asset data handed to the connection, which can be slightly ahead of what has
+	 *         actually been sent
+	 */
+	public synchronized long getAssetBytesSent() {
+		return assetBytesSent;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d messages, %d bytes (%d asset), %.0f bytes/s", messagesSent, bytesSent, assetBytesSent, bytesPerSecond);
+	}
+}
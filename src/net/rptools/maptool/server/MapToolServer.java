@@ -17,6 +17,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 
+import net.rptools.clientserver.ActivityListener;
 import net.rptools.clientserver.simple.client.ClientConnection;
 import net.rptools.clientserver.simple.server.ServerObserver;
 import net.rptools.maptool.client.ClientCommand;
@@ -34,7 +35,9 @@ import org.apache.log4j.Logger;
  */
 public class MapToolServer {
 	private static final Logger log = Logger.getLogger(MapToolServer.class);
-	private static final int ASSET_CHUNK_SIZE = 5 * 1024;
+	private static final int ASSET_CHUNK_SIZE = 16 * 1024;
+	// Chunks queued for a client at a time, once it has sent everything it had
+	private static final int ASSET_CHUNKS_QUEUED = 4;
 
 	private final MapToolServerConnection conn;
 	private final ServerMethodHandler handler;
@@ -42,21 +45,37 @@ public class MapToolServer {
 
 	private final Map<String, AssetTransferManager> assetManagerMap = Collections.synchronizedMap(new HashMap<String, AssetTransferManager>());
 	private final Map<String, ClientConnection> connectionMap = Collections.synchronizedMap(new HashMap<String, ClientConnection>());
-	private final AssetProducerThread assetProducerThread;
+	private final Map<String, ConnectionStatistics> statisticsMap = Collections.synchronizedMap(new HashMap<String, ConnectionStatistics>());
+	private final Map<String, OutboundScheduler> schedulerMap = Collections.synchronizedMap(new HashMap<String, OutboundScheduler>());
+	private final OutboundThread outboundThread;
+	private final MoveCoalescer moveCoalescer;
 
 	private Campaign campaign;
 	private ServerPolicy policy;
 	private HeartbeatThread heartbeatThread;
 
 	public MapToolServer(ServerConfig config, ServerPolicy policy) throws IOException {
+		// Before the connection, which hands the thread to each client that connects
+		outboundThread = new OutboundThread();
+		outboundThread.start();
+
 		handler = new ServerMethodHandler(this);
-		conn = new MapToolServerConnection(this, config.getPort());
+		try {
+			conn = new MapToolServerConnection(this, config.getPort());
+		} catch (IOException ioe) {
+			outboundThread.shutdown();
+			throw ioe;
+		}
 		conn.addMessageHandler(handler);
 
-		campaign = new Campaign();
+		moveCoalescer = new MoveCoalescer(new MoveCoalescer.Broadcaster() {
+			public void broadcast(String[] exclude, String method, Object[] parameters) {
+				conn.broadcastCallMethod(exclude, method, parameters);
+			}
+		});
+		moveCoalescer.start();
 
-		assetProducerThread = new AssetProducerThread();
-		assetProducerThread.start();
+		campaign = new Campaign();
 
 		this.config = config;
 		this.policy = policy;
@@ -69,7 +88,18 @@ public class MapToolServer {
 	}
 
 	public void configureClientConnection(ClientConnection connection) {
-		String id = connection.getId();
+		final String id = connection.getId();
+		ConnectionStatistics statistics = new ConnectionStatistics();
+		OutboundScheduler scheduler = new OutboundScheduler(new OutboundScheduler.Sender() {
+			public void send(Object channel, byte[] message) {
+				conn.sendMessage(id, channel, message);
+			}
+		}, config != null ? config.getBandwidthLimit() : 0);
+		connection.addActivityListener(statistics);
+		connection.addActivityListener(scheduler);
+		connection.addActivityListener(outboundThread);
+		statisticsMap.put(id, statistics);
+		schedulerMap.put(id, scheduler);
 		assetManagerMap.put(id, new AssetTransferManager());
 		connectionMap.put(id, connection);
 	}
@@ -97,13 +127,45 @@ public class MapToolServer {
 				log.error("Could not release connection: " + id, e);
 			}
 		}
-		assetManagerMap.remove(id);
+		AssetTransferManager manager = assetManagerMap.remove(id);
+		if (manager != null) {
+			manager.flush();
+		}
+		OutboundScheduler scheduler = schedulerMap.remove(id);
+		if (scheduler != null) {
+			scheduler.clear();
+		}
 		connectionMap.remove(id);
+		statisticsMap.remove(id);
+	}
+
+	/**
+	 * @return the scheduler of the messages to the client, or <code>null</code> if it isn't connected
+	 */
+	public OutboundScheduler getOutboundScheduler(String id) {
+		return schedulerMap.get(id);
+	}
+
+	/**
+	 * @return the schedulers of all connected clients, by connection id
+	 */
+	public Map<String, OutboundScheduler> getOutboundSchedulers() {
+		synchronized (schedulerMap) {
+			return new HashMap<String, OutboundScheduler>(schedulerMap);
+		}
+	}
+
+	/**
+	 * @return what has been sent to the client so far, or <code>null</code> if it isn't connected
+	 */
+	public ConnectionStatistics getConnectionStatistics(String id) {
+		return statisticsMap.get(id);
 	}
 
 	public void addAssetProducer(String connectionId, AssetProducer producer) {
 		AssetTransferManager manager = assetManagerMap.get(connectionId);
 		manager.addProducer(producer);
+		outboundThread.wakeUp();
 	}
 
 	public void addObserver(ServerObserver observer) {
@@ -148,6 +210,13 @@ public class MapToolServer {
 		this.policy = policy;
 	}
 
+	/**
+	 * @return what holds back the positions of dragged tokens and pointers
+	 */
+	public MoveCoalescer getMoveCoalescer() {
+		return moveCoalescer;
+	}
+
 	public ServerMethodHandler getMethodHandler() {
 		return handler;
 	}
@@ -157,13 +226,15 @@ public class MapToolServer {
 	}
 
 	public void stop() {
+		// Flushes the last moves, which needs the connection
+		moveCoalescer.stop();
 		try {
 			conn.close();
 			if (heartbeatThread != null) {
 				heartbeatThread.shutdown();
 			}
-			if (assetProducerThread != null) {
-				assetProducerThread.shutdown();
+			if (outboundThread != null) {
+				outboundThread.shutdown();
 			}
 		} catch (IOException e) {
 			// Not too concerned about this
@@ -200,27 +271,44 @@ public class MapToolServer {
 
 	////
 	// CLASSES
-	private class AssetProducerThread extends Thread {
+	/**
+	 * Keeps the outbound schedulers going. Asset chunks are only queued for a client once the ones it already has are on
+	 * their way, so the assets don't all end up queued in memory; the scheduler sends them when there is nothing more
+	 * important to send. Schedulers held back by a bandwidth limit are given another go once there is bandwidth again.
+	 * The thread sleeps until a producer is added, a client has sent a message, or a limit runs out.
+	 */
+	private class OutboundThread extends Thread implements ActivityListener {
 		private boolean stop = false;
+		private boolean wakeUp = false;
+
+		public OutboundThread() {
+			super("OutboundThread");
+			setDaemon(true);
+		}
 
 		@Override
 		public void run() {
 			while (!stop) {
 				try {
-					boolean lookForMore = false;
-					for (Entry<String, AssetTransferManager> entry : assetManagerMap.entrySet()) {
-						AssetChunk chunk = entry.getValue().nextChunk(ASSET_CHUNK_SIZE);
-						if (chunk != null) {
-							lookForMore = true;
-							getConnection().callMethod(entry.getKey(), MapToolConstants.Channel.IMAGE, ClientCommand.COMMAND.updateAssetTransfer.name(), chunk);
+					// Only a safety net, something should wake us up before then
+					long delay = 5000;
+					for (Entry<String, OutboundScheduler> entry : getOutboundSchedulers().entrySet()) {
+						OutboundScheduler scheduler = entry.getValue();
+						AssetTransferManager manager = assetManagerMap.get(entry.getKey());
+						if (manager != null && scheduler.getQueueDepth(OutboundScheduler.Priority.ASSET) == 0) {
+							// Woken up again once it has sent them
+							queueAssetChunks(entry.getKey(), manager);
+						}
+						long wait = scheduler.dispatch();
+						if (wait > 0) {
+							delay = Math.min(delay, wait);
 						}
 					}
-					if (lookForMore) {
-						continue;
-					}
-					// Sleep for a bit
 					synchronized (this) {
-						Thread.sleep(500);
+						if (!wakeUp && !stop) {
+							wait(delay);
+						}
+						wakeUp = false;
 					}
 				} catch (Exception e) {
 					e.printStackTrace();
@@ -229,8 +317,34 @@ public class MapToolServer {
 			}
 		}
 
+		private void queueAssetChunks(String id, AssetTransferManager manager) throws IOException {
+			for (int i = 0; i < ASSET_CHUNKS_QUEUED; i++) {
+				AssetChunk chunk = manager.nextChunk(ASSET_CHUNK_SIZE);
+				if (chunk == null) {
+					break;
+				}
+				getConnection().callMethod(id, MapToolConstants.Channel.IMAGE, ClientCommand.COMMAND.updateAssetTransfer.name(), chunk);
+				ConnectionStatistics statistics = statisticsMap.get(id);
+				if (statistics != null) {
+					statistics.assetDataQueued(chunk.getData().length);
+				}
+			}
+		}
+
+		public synchronized void wakeUp() {
+			wakeUp = true;
+			notify();
+		}
+
+		public void notify(ActivityListener.Direction direction, ActivityListener.State state, int totalTransferSize, int currentTransferSize) {
+			if (direction == ActivityListener.Direction.Outbound && state == ActivityListener.State.Complete) {
+				wakeUp();
+			}
+		}
+
 		public void shutdown() {
 			stop = true;
+			wakeUp();
 		}
 	}
 
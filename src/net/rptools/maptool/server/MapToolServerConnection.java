@@ -12,9 +12,13 @@ package net.rptools.maptool.server;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import net.rptools.clientserver.hessian.HessianUtils;
 import net.rptools.clientserver.hessian.server.ServerConnection;
 import net.rptools.clientserver.simple.server.ServerObserver;
 import net.rptools.maptool.client.ClientCommand;
@@ -65,6 +69,50 @@ public class MapToolServerConnection extends ServerConnection implements ServerO
 		return null;
 	}
 
+	////
+	// OUTBOUND
+	/*
+	 * Everything sent to the clients goes through their schedulers, which decide what goes first. A message is
+	 * serialized once, however many clients it goes to.
+	 */
+	@Override
+	public void broadcastCallMethod(String method, Object... parameters) {
+		broadcastCallMethod(new String[0], method, parameters);
+	}
+
+	@Override
+	public void broadcastCallMethod(String[] exclude, String method, Object... parameters) {
+		byte[] message = HessianUtils.methodToBytesGZ(method, parameters);
+		OutboundScheduler.Priority priority = OutboundScheduler.getPriority(method);
+
+		Set<String> excludeSet = new HashSet<String>(Arrays.asList(exclude));
+		for (Map.Entry<String, OutboundScheduler> entry : server.getOutboundSchedulers().entrySet()) {
+			if (!excludeSet.contains(entry.getKey())) {
+				entry.getValue().add(priority, null, message);
+			}
+		}
+	}
+
+	@Override
+	public void callMethod(String id, String method, Object... parameters) {
+		sendCallMethod(id, null, method, parameters);
+	}
+
+	@Override
+	public void callMethod(String id, Object channel, String method, Object... parameters) {
+		sendCallMethod(id, channel, method, parameters);
+	}
+
+	private void sendCallMethod(String id, Object channel, String method, Object[] parameters) {
+		byte[] message = HessianUtils.methodToBytesGZ(method, parameters);
+		OutboundScheduler scheduler = server.getOutboundScheduler(id);
+		if (scheduler != null) {
+			scheduler.add(OutboundScheduler.getPriority(method), channel, message);
+		} else {
+			sendMessage(id, channel, message);
+		}
+	}
+
 	public String getConnectionId(String playerId) {
 		for (Map.Entry<String, Player> entry : playerMap.entrySet()) {
 			if (entry.getValue().getName().equalsIgnoreCase(playerId)) {
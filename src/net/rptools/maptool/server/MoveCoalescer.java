@@ -0,0 +1,226 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.rptools.maptool.server;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.rptools.maptool.model.GUID;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Holds back the positions of dragged tokens and moving pointers for a short tick, keeping only the latest one for
+ * each player and token, so that every client gets a few positions a second instead of every one the mouse produced.
+ * <p>
+ * A pending position is sent before anything else about the same drag or pointer is forwarded, so that clients never
+ * see a token stop and then move again.
+ */
+public class MoveCoalescer {
+	private static final Logger log = Logger.getLogger(MoveCoalescer.class);
+
+	/** How long a position is held back for */
+	public static final int TICK_MILLIS = 50;
+
+	/**
+	 * Where the positions end up, normally all the other clients.
+	 */
+	public interface Broadcaster {
+		public void broadcast(String[] exclude, String method, Object[] parameters);
+	}
+
+	private final Broadcaster broadcaster;
+	private final Map<List<Object>, Pending> pendingMap = new LinkedHashMap<List<Object>, Pending>();
+
+	private long receivedMessages;
+	private long collapsedMessages;
+
+	private FlushThread flushThread;
+
+	private static class Pending {
+		private final String[] exclude;
+		private final String method;
+		private final Object[] parameters;
+
+		private Pending(String[] exclude, String method, Object[] parameters) {
+			this.exclude = exclude;
+			this.method = method;
+			this.parameters = parameters;
+		}
+	}
+
+	public MoveCoalescer(Broadcaster broadcaster) {
+		this.broadcaster = broadcaster;
+	}
+
+	/**
+	 * Send the positions every tick until {@link #stop()} is called
+	 */
+	public synchronized void start() {
+		if (flushThread == null) {
+			flushThread = new FlushThread();
+			flushThread.start();
+		}
+	}
+
+	public void stop() {
+		FlushThread thread;
+		synchronized (this) {
+			thread = flushThread;
+			flushThread = null;
+		}
+		if (thread != null) {
+			thread.shutdown();
+		}
+		flush();
+		if (log.isDebugEnabled()) {
+			log.debug(this);
+		}
+	}
+
+	/**
+	 * A position of the token being dragged by the client <code>id</code>, for all the other clients
+	 */
+	public void updateTokenMove(String id, String method, GUID zoneGUID, GUID tokenGUID, Object[] parameters) {
+		add(getKey(id, zoneGUID, tokenGUID), new String[] { id }, method, parameters);
+	}
+
+	/**
+	 * A position of the pointer of <code>player</code>, for all the clients
+	 */
+	public void movePointer(String player, String method, Object[] parameters) {
+		add(getKey(player), new String[] {}, method, parameters);
+	}
+
+	/**
+	 * Send the pending position of the token being dragged by the client <code>id</code>, if there is one
+	 */
+	public void flushTokenMove(String id, GUID zoneGUID, GUID tokenGUID) {
+		flush(getKey(id, zoneGUID, tokenGUID));
+	}
+
+	/**
+	 * Send the pending position of the pointer of <code>player</code>, if there is one
+	 */
+	public void flushPointer(String player) {
+		flush(getKey(player));
+	}
+
+	private static List<Object> getKey(Object... parts) {
+		List<Object> key = new ArrayList<Object>(parts.length);
+		for (Object part : parts) {
+			key.add(part);
+		}
+		return key;
+	}
+
+	private synchronized void add(List<Object> key, String[] exclude, String method, Object[] parameters) {
+		receivedMessages++;
+		if (pendingMap.put(key, new Pending(exclude, method, parameters)) != null) {
+			collapsedMessages++;
+		}
+		if (flushThread != null) {
+			flushThread.wakeUp();
+		}
+	}
+
+	/*
+	 * Broadcasting while holding the lock keeps a flush on the flush thread from overtaking the stop that follows it
+	 */
+	private synchronized void flush(List<Object> key) {
+		Pending pending = pendingMap.remove(key);
+		if (pending != null) {
+			broadcaster.broadcast(pending.exclude, pending.method, pending.parameters);
+		}
+	}
+
+	/**
+	 * Send all the pending positions
+	 */
+	public synchronized void flush() {
+		for (Pending pending : pendingMap.values()) {
+			broadcaster.broadcast(pending.exclude, pending.method, pending.parameters);
+		}
+		pendingMap.clear();
+	}
+
+	public synchronized int getPendingCount() {
+		return pendingMap.size();
+	}
+
+	/**
+	 * @return the number of positions received
+	 */
+	public synchronized long getReceivedMessages() {
+		return receivedMessages;
+	}
+
+	/**
+	 * @return the number of positions that were replaced by a later one before they were sent
+	 */
+	public synchronized long getCollapsedMessages() {
+		return collapsedMessages;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d positions received, %d collapsed", receivedMessages, collapsedMessages);
+	}
+
+	/**
+	 * Sleeps until a position comes in, then sends it and whatever else came in by the end of the tick
+	 */
+	private class FlushThread extends Thread {
+		private boolean stop = false;
+		private boolean wakeUp = false;
+
+		public FlushThread() {
+			super("MoveCoalescer.FlushThread");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				try {
+					synchronized (this) {
+						while (!wakeUp && !stop) {
+							wait();
+						}
+						if (stop) {
+							break;
+						}
+						wakeUp = false;
+					}
+					Thread.sleep(TICK_MILLIS);
+					flush();
+				} catch (InterruptedException ie) {
+					// Checked at the top
+				} catch (Exception e) {
+					e.printStackTrace();
+					// keep on going
+				}
+			}
+		}
+
+		public synchronized void wakeUp() {
+			wakeUp = true;
+			notify();
+		}
+
+		public synchronized void shutdown() {
+			stop = true;
+			notify();
+		}
+	}
+}
@@ -0,0 +1,303 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.rptools.maptool.server;
+
+import java.util.EnumMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import net.rptools.clientserver.ActivityListener;
+import net.rptools.maptool.client.ClientCommand;
+
+/**
+ * Decides in which order the messages for a single client go out. The client's connection sends whatever it is given
+ * in turn, so a few megabytes of images handed to it at the start of a session hold up every token move behind them.
+ * Instead, the messages wait here in one queue per {@link Priority} and are handed to the connection a little at a
+ * time, most important first, as it gets through what it already has.
+ * <p>
+ * The scheduler can also hold the client to a number of bytes per second. Interactive messages always go out right
+ * away, but count against the limit like everything else.
+ */
+public class OutboundScheduler implements ActivityListener {
+	/**
+	 * Classes of messages, most important first. Messages within a class keep their order.
+	 */
+	public enum Priority {
+		/** Token moves and pointers; small, and the players are watching them */
+		INTERACTIVE,
+		/** Changes to the campaign */
+		MODEL,
+		/** Chat */
+		CHAT,
+		/** Asset data, which fills whatever bandwidth is left */
+		ASSET
+	}
+
+	/** How much is handed to the connection before waiting for it to send some of it */
+	private static final int IN_FLIGHT_BYTES = 8 * 1024;
+	/** How far ahead of the limit the client can get after it has been quiet for a while */
+	private static final int BURST_MILLIS = 250;
+
+	/**
+	 * Where the messages end up, normally the client's connection.
+	 */
+	public interface Sender {
+		public void send(Object channel, byte[] message);
+	}
+
+	private final Sender sender;
+	private final Map<Priority, LinkedList<Message>> queueMap = new EnumMap<Priority, LinkedList<Message>>(Priority.class);
+	private final Map<Priority, QueueStatistics> statisticsMap = new EnumMap<Priority, QueueStatistics>(Priority.class);
+
+	private int bytesPerSecond;
+	private long budget;
+	private long budgetTime = System.currentTimeMillis();
+
+	private int inFlightMessages;
+	private long inFlightBytes;
+
+	private static class Message {
+		private final Object channel;
+		private final byte[] data;
+
+		private Message(Object channel, byte[] data) {
+			this.channel = channel;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * What has gone through one of the queues
+	 */
+	public static class QueueStatistics {
+		private int depth;
+		private int maxDepth;
+		private long queuedBytes;
+		private long sentMessages;
+		private long sentBytes;
+
+		/**
+		 * @return the number of messages waiting
+		 */
+		public int getDepth() {
+			return depth;
+		}
+
+		/**
+		 * @return the most messages there have been waiting at once
+		 */
+		public int getMaxDepth() {
+			return maxDepth;
+		}
+
+		public long getQueuedBytes() {
+			return queuedBytes;
+		}
+
+		public long getSentMessages() {
+			return sentMessages;
+		}
+
+		public long getSentBytes() {
+			return sentBytes;
+		}
+
+		private QueueStatistics copy() {
+			QueueStatistics copy = new QueueStatistics();
+			copy.depth = depth;
+			copy.maxDepth = maxDepth;
+			copy.queuedBytes = queuedBytes;
+			copy.sentMessages = sentMessages;
+			copy.sentBytes = sentBytes;
+			return copy;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d waiting (%d bytes, at most %d), %d sent (%d bytes)", depth, queuedBytes, maxDepth, sentMessages, sentBytes);
+		}
+	}
+
+	/**
+	 * @param sender
+	 *            what the messages are handed to
+	 * @param bytesPerSecond
+	 *            how much can be sent to the client, or 0 for as much as the connection takes
+	 */
+	public OutboundScheduler(Sender sender, int bytesPerSecond) {
+		this.sender = sender;
+		for (Priority priority : Priority.values()) {
+			queueMap.put(priority, new LinkedList<Message>());
+			statisticsMap.put(priority, new QueueStatistics());
+		}
+		setBytesPerSecond(bytesPerSecond);
+	}
+
+	/**
+	 * @return the class of the client command <code>method</code>
+	 */
+	public static Priority getPriority(String method) {
+		ClientCommand.COMMAND command;
+		try {
+			command = ClientCommand.COMMAND.valueOf(method);
+		} catch (IllegalArgumentException iae) {
+			return Priority.MODEL;
+		}
+		switch (command) {
+		case showPointer:
+		case hidePointer:
+		case movePointer:
+		case startTokenMove:
+		case stopTokenMove:
+		case toggleTokenMoveWaypoint:
+		case updateTokenMove:
+		case enforceZoneView:
+			return Priority.INTERACTIVE;
+		case message:
+		case setLiveTypingLabel:
+		case enforceNotification:
+			return Priority.CHAT;
+		case startAssetTransfer:
+		case updateAssetTransfer:
+		case putAsset:
+			return Priority.ASSET;
+		default:
+			return Priority.MODEL;
+		}
+	}
+
+	public synchronized void setBytesPerSecond(int bytesPerSecond) {
+		this.bytesPerSecond = Math.max(0, bytesPerSecond);
+		budget = getMaxBudget();
+		budgetTime = System.currentTimeMillis();
+	}
+
+	public synchronized int getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	private long getMaxBudget() {
+		return (long) bytesPerSecond * BURST_MILLIS / 1000;
+	}
+
+	/**
+	 * Queue a message for the client, and send what can be sent
+	 */
+	public void add(Priority priority, Object channel, byte[] message) {
+		synchronized (this) {
+			queueMap.get(priority).add(new Message(channel, message));
+			QueueStatistics statistics = statisticsMap.get(priority);
+			statistics.depth++;
+			statistics.maxDepth = Math.max(statistics.maxDepth, statistics.depth);
+			statistics.queuedBytes += message.length;
+		}
+		dispatch();
+	}
+
+	/**
+	 * Hand the connection as much as it should have right now, most important first.
+	 *
+	 * @return how long to wait before there will be bandwidth for the next message, 0 if there's nothing more to send
+	 *         until the connection catches up or something is added
+	 */
+	public synchronized long dispatch() {
+		while (inFlightBytes < IN_FLIGHT_BYTES) {
+			Priority priority = null;
+			for (Priority p : Priority.values()) {
+				if (!queueMap.get(p).isEmpty()) {
+					priority = p;
+					break;
+				}
+			}
+			if (priority == null) {
+				return 0;
+			}
+			if (bytesPerSecond > 0 && priority != Priority.INTERACTIVE) {
+				updateBudget(System.currentTimeMillis());
+				if (budget <= 0) {
+					return Math.max(1, -budget * 1000 / bytesPerSecond);
+				}
+			}
+			Message message = queueMap.get(priority).removeFirst();
+			QueueStatistics statistics = statisticsMap.get(priority);
+			statistics.depth--;
+			statistics.queuedBytes -= message.data.length;
+			statistics.sentMessages++;
+			statistics.sentBytes += message.data.length;
+
+			// Can go below zero, a message bigger than the burst still has to go out sometime
+			budget -= message.data.length;
+			inFlightMessages++;
+			inFlightBytes += message.data.length;
+			sender.send(message.channel, message.data);
+		}
+		return 0;
+	}
+
+	private void updateBudget(long now) {
+		long elapsed = now - budgetTime;
+		if (elapsed > 0) {
+			budget = Math.min(getMaxBudget(), budget + elapsed * bytesPerSecond / 1000);
+			budgetTime = now;
+		}
+	}
+
+	/**
+	 * @return a snapshot of how the queue for <code>priority</code> is doing
+	 */
+	public synchronized QueueStatistics getStatistics(Priority priority) {
+		return statisticsMap.get(priority).copy();
+	}
+
+	public synchronized int getQueueDepth(Priority priority) {
+		return statisticsMap.get(priority).depth;
+	}
+
+	/**
+	 * Throw away everything that hasn't been handed to the connection yet, for a client that is gone
+	 */
+	public synchronized void clear() {
+		for (Priority priority : Priority.values()) {
+			queueMap.get(priority).clear();
+			QueueStatistics statistics = statisticsMap.get(priority);
+			statistics.depth = 0;
+			statistics.queuedBytes = 0;
+		}
+	}
+
+	public void notify(Direction direction, State state, int totalTransferSize, int currentTransferSize) {
+		if (direction != Direction.Outbound || state != State.Complete) {
+			return;
+		}
+		synchronized (this) {
+			inFlightMessages--;
+			inFlightBytes -= totalTransferSize;
+			if (inFlightMessages <= 0) {
+				// The sizes the connection reports may not be exactly the ones it was given
+				inFlightMessages = 0;
+				inFlightBytes = 0;
+			}
+		}
+		dispatch();
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (Priority priority : Priority.values()) {
+			if (builder.length() > 0) {
+				builder.append(", ");
+			}
+			builder.append(priority.name().toLowerCase()).append(": ").append(statisticsMap.get(priority));
+		}
+		return builder.toString();
+	}
+}
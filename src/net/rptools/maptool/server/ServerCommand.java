@@ -26,6 +26,7 @@ import net.rptools.maptool.model.MacroButtonProperties;
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.VisionType;
 import net.rptools.maptool.model.ZonePoint;
@@ -43,6 +44,7 @@ public interface ServerCommand {
 		getAsset,
 		removeAsset,
 		putToken,
+		updateToken,
 		removeToken,
 		draw,
 		clearAllDrawings,
@@ -119,6 +121,8 @@ public interface ServerCommand {
 
 	public void putToken(GUID zoneGUID, Token token);
 
+	public void updateToken(GUID zoneGUID, TokenDelta delta);
+
 	public void removeToken(GUID zoneGUID, GUID tokenGUID);
 
 	public void putLabel(GUID zoneGUID, Label label);
@@ -26,6 +26,7 @@ public class ServerConfig {
 	private String playerPassword;
 	private boolean personalServer;
 	private String serverName;
+	private int bandwidthLimit;
 
 	public ServerConfig() {
 		/* no op */
@@ -67,6 +68,17 @@ public class ServerConfig {
 		return port;
 	}
 
+	/**
+	 * @return the number of bytes per second the server sends to each client at most, or 0 for as many as it can
+	 */
+	public int getBandwidthLimit() {
+		return bandwidthLimit;
+	}
+
+	public void setBandwidthLimit(int bandwidthLimit) {
+		this.bandwidthLimit = bandwidthLimit;
+	}
+
 	public static ServerConfig createPersonalServerConfig() {
 		ServerConfig config = new ServerConfig();
 		config.personalServer = true;
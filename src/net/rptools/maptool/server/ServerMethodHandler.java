@@ -29,6 +29,7 @@ import net.rptools.maptool.model.AssetManager;
 import net.rptools.maptool.model.Campaign;
 import net.rptools.maptool.model.CampaignProperties;
 import net.rptools.maptool.model.ExposedAreaMetaData;
+import net.rptools.maptool.model.FogBitmap;
 import net.rptools.maptool.model.GUID;
 import net.rptools.maptool.model.Grid;
 import net.rptools.maptool.model.InitiativeList;
@@ -38,6 +39,7 @@ import net.rptools.maptool.model.MacroButtonProperties;
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.VisionType;
 import net.rptools.maptool.model.ZonePoint;
@@ -78,16 +80,16 @@ public class ServerMethodHandler extends AbstractMethodHandler implements Server
 				enforceZoneView(context.getGUID(0), context.getInt(1), context.getInt(2), context.getDouble(3), context.getInt(4), context.getInt(5));
 				break;
 			case exposeFoW:
-				exposeFoW(context.getGUID(0), (Area) context.get(1), (Set<GUID>) context.get(2));
+				exposeFoW(context.getGUID(0), FogBitmap.fromTransfer(context.get(1)), (Set<GUID>) context.get(2));
 				break;
 			case getAsset:
-				getAsset((MD5Key) context.get(0));
+				getAsset((MD5Key) context.get(0), context.parameters.length > 1 ? ((Number) context.get(1)).longValue() : 0);
 				break;
 			case getZone:
 				getZone(context.getGUID(0));
 				break;
 			case hideFoW:
-				hideFoW(context.getGUID(0), (Area) context.get(1), (Set<GUID>) context.get(2));
+				hideFoW(context.getGUID(0), FogBitmap.fromTransfer(context.get(1)), (Set<GUID>) context.get(2));
 				break;
 			case setFoW:
 				setFoW(context.getGUID(0), (Area) context.get(1), (Set<GUID>) context.get(2));
@@ -113,6 +115,9 @@ public class ServerMethodHandler extends AbstractMethodHandler implements Server
 			case putToken:
 				putToken(context.getGUID(0), (Token) context.get(1));
 				break;
+			case updateToken:
+				updateToken(context.getGUID(0), (TokenDelta) context.get(1));
+				break;
 			case putZone:
 				putZone((Zone) context.get(0));
 				break;
@@ -318,11 +323,19 @@ public class ServerMethodHandler extends AbstractMethodHandler implements Server
 	}
 
 	public void getAsset(MD5Key assetID) {
+		getAsset(assetID, 0);
+	}
+
+	/**
+	 * Send the asset starting at <code>position</code>, for a client that already has the data before it
+	 */
+	public void getAsset(MD5Key assetID, long position) {
 		if (assetID == null || assetID.toString().length() == 0) {
 			return;
 		}
 		try {
 			AssetProducer producer = new AssetProducer(assetID, AssetManager.getAssetInfo(assetID).getProperty(AssetManager.NAME), AssetManager.getAssetCacheFile(assetID));
+			producer.setPosition(position);
 			server.getConnection().callMethod(RPCContext.getCurrent().id, MapToolConstants.Channel.IMAGE, ClientCommand.COMMAND.startAssetTransfer.name(), producer.getHeader());
 			server.addAssetProducer(RPCContext.getCurrent().id, producer);
 
@@ -357,11 +370,12 @@ public class ServerMethodHandler extends AbstractMethodHandler implements Server
 	}
 
 	public void hidePointer(String player) {
+		server.getMoveCoalescer().flushPointer(player);
 		forwardToAllClients();
 	}
 
 	public void movePointer(String player, int x, int y) {
-		forwardToAllClients();
+		server.getMoveCoalescer().movePointer(player, RPCContext.getCurrent().method, RPCContext.getCurrent().parameters);
 	}
 
 	public void updateInitiative(InitiativeList list, Boolean ownerPermission) {
@@ -434,6 +448,26 @@ public class ServerMethodHandler extends AbstractMethodHandler implements Server
 		}
 	}
 
+	public void updateToken(GUID zoneGUID, TokenDelta delta) {
+		Zone zone = server.getCampaign().getZone(zoneGUID);
+		Token token = zone.getToken(delta.getTokenId());
+		if (token == null) {
+			// Removed in the meantime
+			return;
+		}
+		boolean inStep;
+		synchronized (MUTEX) {
+			inStep = delta.applyTo(token);
+			zone.putToken(token);
+		}
+		if (inStep) {
+			forwardToClients();
+		} else {
+			// Someone else changed it first; everyone, the sender too, gets the merged token
+			broadcastToAllClients(ClientCommand.COMMAND.putToken.name(), zoneGUID, token);
+		}
+	}
+
 	public void putZone(Zone zone) {
 		server.getCampaign().putZone(zone);
 		forwardToClients();
@@ -532,14 +566,18 @@ public class ServerMethodHandler extends AbstractMethodHandler implements Server
 	}
 
 	public void startTokenMove(String playerId, GUID zoneGUID, GUID tokenGUID, Set<GUID> tokenList) {
+		server.getMoveCoalescer().flushTokenMove(RPCContext.getCurrent().id, zoneGUID, tokenGUID);
 		forwardToClients();
 	}
 
 	public void stopTokenMove(GUID zoneGUID, GUID tokenGUID) {
+		// The last position has to get there before the stop
+		server.getMoveCoalescer().flushTokenMove(RPCContext.getCurrent().id, zoneGUID, tokenGUID);
 		forwardToClients();
 	}
 
 	public void toggleTokenMoveWaypoint(GUID zoneGUID, GUID tokenGUID, ZonePoint cp) {
+		server.getMoveCoalescer().flushTokenMove(RPCContext.getCurrent().id, zoneGUID, tokenGUID);
 		forwardToClients();
 	}
 
@@ -562,7 +600,8 @@ public class ServerMethodHandler extends AbstractMethodHandler implements Server
 	}
 
 	public void updateTokenMove(GUID zoneGUID, GUID tokenGUID, int x, int y) {
-		forwardToClients();
+		RPCContext context = RPCContext.getCurrent();
+		server.getMoveCoalescer().updateTokenMove(context.id, context.method, zoneGUID, tokenGUID, context.parameters);
 	}
 
 	public void setTokenLocation(GUID zoneGUID, GUID tokenGUID, int x, int y) {
@@ -17,13 +17,22 @@ import java.io.Serializable;
 
 public class AssetChunk implements Serializable {
 	private Serializable id;
+	private long position;
 	private byte[] data;
 	
-	public AssetChunk(Serializable id, byte[] data) {
+	public AssetChunk(Serializable id, long position, byte[] data) {
 		this.id = id;
+		this.position = position;
 		this.data = data;
 	}
 
+	/**
+	 * Where the data goes in the asset
+	 */
+	public long getPosition() {
+		return position;
+	}
+
 	public byte[] getData() {
 		return data;
 	}
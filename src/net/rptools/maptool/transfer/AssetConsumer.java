@@ -13,92 +13,170 @@
  */
 package net.rptools.maptool.transfer;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Receiving end of AssetProducer
+ * <p>
+ * Chunks carry their position in the asset, so they can arrive in any order and more
+ * than once; the consumer keeps track of which ranges it has.  That lets a transfer that
+ * was cut off pick up again at {@link #getResumePosition()}.  The data is kept in memory
+ * and run through an MD5 digest as it fills in from the start, so once complete it can be
+ * checked against the asset id without going over it again.
+ *
  * @author trevor
  */
 public class AssetConsumer {
-	private File destinationDir;
 	private AssetHeader header;
-	private long currentPosition;
-	
+	private byte[] data;
+
+	/** Received ranges, start to end (exclusive), never touching each other */
+	private TreeMap<Integer, Integer> rangeMap = new TreeMap<Integer, Integer>();
+	private int received;
+
+	private MessageDigest digest;
+	private int digestPosition;
+	private String checksum;
+
 	/**
 	 * Create a new asset consumer, it will prepare a place to receive the incoming
-	 * data chunks.  When complete the resulting file can be found at getFilename()
-	 *  
-	 * @param destinationDir - location to store the incoming file
+	 * data chunks.  When complete the data can be found at getData()
+	 *
 	 * @param header - from the corresponding AssetProducer
 	 */
-	public AssetConsumer(File destinationDir, AssetHeader header) {
+	public AssetConsumer(AssetHeader header) {
 		if (header == null) {
 			throw new IllegalArgumentException("Header cannot be null");
 		}
-		if (destinationDir == null) {
-			destinationDir = new File(".");
+		if (header.getSize() < 0 || header.getSize() > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid asset size: " + header.getSize());
 		}
-		this.destinationDir = destinationDir;
 		this.header = header;
-		// Setup
-		if (!destinationDir.exists()) {
-			destinationDir.mkdirs();
-		}
-		// Cleanup
-		if (getFilename().exists()) {
-			getFilename().delete();
+		data = new byte[(int)header.getSize()];
+		try {
+			digest = MessageDigest.getInstance("md5");
+		} catch (NoSuchAlgorithmException nsae) {
+			// Every JVM has it, but the transfer works without the check
+			nsae.printStackTrace();
 		}
 	}
-	
+
 	/**
 	 * Get the ID of the incoming asset
 	 */
 	public Serializable getId() {
 		return header.getId();
 	}
-	
+
 	public String getName() {
 		return header.getName();
 	}
-	
+
 	/**
-	 * Add the next chunk of data to this consumer
+	 * Add a chunk of data to this consumer.  Data that has already been received is ignored.
 	 * @param chunk produced from the corresponding AssetProducer
-	 * @throws IOException
+	 * @throws IOException if the chunk doesn't fit in the asset
 	 */
-	public void update(AssetChunk chunk) throws IOException {
-		File file = getFilename();
-		FileOutputStream out = new FileOutputStream (file, true);
-		byte[] data = chunk.getData();
-		out.write(data);
-		out.close();
-		currentPosition += data.length;
+	public synchronized void update(AssetChunk chunk) throws IOException {
+		byte[] chunkData = chunk.getData();
+		long position = chunk.getPosition();
+		if (position < 0 || position + chunkData.length > data.length) {
+			throw new IOException("Chunk at " + position + " doesn't fit in " + header.getId());
+		}
+		if (chunkData.length == 0) {
+			return;
+		}
+		int start = (int)position;
+		int end = start + chunkData.length;
+
+		// Copy only the gaps; what's been digested already must stay as it is
+		int copyStart = start;
+		Map.Entry<Integer, Integer> before = rangeMap.floorEntry(start);
+		if (before != null && before.getValue() >= start) {
+			copyStart = Math.min(before.getValue(), end);
+			start = before.getKey();
+			end = Math.max(end, before.getValue());
+			rangeMap.remove(before.getKey());
+			received -= before.getValue() - before.getKey();
+		}
+		Iterator<Map.Entry<Integer, Integer>> iter = rangeMap.subMap(start, true, end, true).entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<Integer, Integer> entry = iter.next();
+			copy(chunkData, position, copyStart, entry.getKey());
+			copyStart = Math.max(copyStart, entry.getValue());
+			end = Math.max(end, entry.getValue());
+			received -= entry.getValue() - entry.getKey();
+			iter.remove();
+		}
+		copy(chunkData, position, copyStart, (int)position + chunkData.length);
+		rangeMap.put(start, end);
+		received += end - start;
+
+		if (start == 0 && end > digestPosition) {
+			if (digest != null) {
+				digest.update(data, digestPosition, end - digestPosition);
+			}
+			digestPosition = end;
+		}
 	}
-	
+
+	private void copy(byte[] chunkData, long chunkPosition, int from, int to) {
+		if (to > from) {
+			System.arraycopy(chunkData, (int)(from - chunkPosition), data, from, to - from);
+		}
+	}
+
 	/**
-	 * Whether all the data has been transferred 
+	 * Whether all the data has been transferred
 	 * @return
 	 */
-	public boolean isComplete() {
-		return currentPosition >= header.getSize();
+	public synchronized boolean isComplete() {
+		return received >= data.length;
 	}
 
-	public double getPercentComplete() {
-		return currentPosition / (double)header.getSize();
+	public synchronized double getPercentComplete() {
+		return data.length == 0 ? 1 : received / (double)data.length;
 	}
-	
+
 	public long getSize() {
 		return header.getSize();
 	}
-	
+
+	/**
+	 * Where the sender should pick up again if the transfer was cut off; everything before it
+	 * has been received
+	 */
+	public synchronized long getResumePosition() {
+		return digestPosition;
+	}
+
+	/**
+	 * When complete, the MD5 sum of the data in hex, or <code>null</code> if it could not be
+	 * worked out
+	 */
+	public synchronized String getChecksum() {
+		if (checksum == null && digest != null && isComplete()) {
+			StringBuilder builder = new StringBuilder();
+			for (byte b : digest.digest()) {
+				builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+				builder.append(Character.forDigit(b & 0xf, 16));
+			}
+			checksum = builder.toString();
+		}
+		return checksum;
+	}
+
 	/**
-	 * When complete this will point to the file containing the data
+	 * When complete this will be the data of the asset
 	 * @return
 	 */
-	public File getFilename() {
-		return new File(destinationDir.getAbsolutePath() + "/" + header.getId() + ".part");
+	public synchronized byte[] getData() {
+		return isComplete() ? data : null;
 	}
 }
@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rptools.maptool.transfer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.rptools.maptool.util.LRUMap;
+
+/**
+ * An asset file that is being sent to one or more clients. The file is kept open for as long as any
+ * {@link AssetProducer} is still sending it, and the last few chunks read from it are kept around so
+ * that clients downloading the same asset at about the same time share the reads.
+ */
+class AssetFile {
+	/** Chunks kept per file; clients further apart than this read the file on their own */
+	private static final int CACHED_CHUNKS = 64;
+
+	private static final Map<Serializable, AssetFile> openFileMap = new HashMap<Serializable, AssetFile>();
+
+	private final Serializable id;
+	private final FileChannel channel;
+	private int refCount;
+
+	private final Map<Long, byte[]> chunkMap = new LRUMap<Long, byte[]>(CACHED_CHUNKS);
+
+	private AssetFile(Serializable id, File file) throws IOException {
+		this.id = id;
+		channel = new FileInputStream(file).getChannel();
+	}
+
+	/**
+	 * Get the open file for the asset, opening it if nobody else is sending it.  Every call needs
+	 * a matching {@link #release()}.
+	 */
+	public static AssetFile open(Serializable id, File file) throws IOException {
+		synchronized (openFileMap) {
+			AssetFile assetFile = openFileMap.get(id);
+			if (assetFile == null) {
+				assetFile = new AssetFile(id, file);
+				openFileMap.put(id, assetFile);
+			}
+			assetFile.refCount++;
+			return assetFile;
+		}
+	}
+
+	public void release() {
+		synchronized (openFileMap) {
+			if (--refCount > 0) {
+				return;
+			}
+			openFileMap.remove(id);
+		}
+		try {
+			channel.close();
+		} catch (IOException ioe) {
+			// Nothing left to do with it anyway
+		}
+	}
+
+	/**
+	 * Read <code>size</code> bytes at <code>position</code>, or less at the end of the file.  The
+	 * returned array is shared and must not be changed.
+	 */
+	public byte[] read(long position, int size) throws IOException {
+		synchronized (chunkMap) {
+			byte[] data = chunkMap.get(position);
+			if (data != null && data.length == size) {
+				return data;
+			}
+		}
+		byte[] data = new byte[size];
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		while (buffer.hasRemaining()) {
+			// Positional reads don't move the channel, so any number of readers can share it
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				break;
+			}
+		}
+		if (buffer.hasRemaining()) {
+			byte[] shortData = new byte[buffer.position()];
+			System.arraycopy(data, 0, shortData, 0, shortData.length);
+			data = shortData;
+		}
+		synchronized (chunkMap) {
+			chunkMap.put(position, data);
+		}
+		return data;
+	}
+
+	/**
+	 * How many files are open right now, for testing
+	 */
+	static int getOpenFileCount() {
+		synchronized (openFileMap) {
+			return openFileMap.size();
+		}
+	}
+}
@@ -14,13 +14,15 @@
 package net.rptools.maptool.transfer;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.Serializable;
 
 /**
  * Creates data chunks for transferring binary data.  Assumes large datasets (otherwise
  * it would be a direct transfer) so expects the data to be streamed from a file
+ * <p>
+ * The file is opened with the first chunk and kept open until the last one, or until
+ * {@link #close()}.  Producers of the same asset share the open file.
  * 
  * @author trevor
  */
@@ -30,6 +32,7 @@ public class AssetProducer {
 	private File assetFile;
 	private long length;
 	private long currentPosition = 0;
+	private AssetFile file;
 	
 	public AssetProducer(Serializable id, String name, File assetFile) {
 		if (!assetFile.exists() || assetFile.isDirectory()) {
@@ -49,6 +52,18 @@ public class AssetProducer {
 		return new AssetHeader(id, name, assetFile.length());
 	}
 
+	public Serializable getId() {
+		return id;
+	}
+
+	/**
+	 * Start sending from <code>position</code> instead of the beginning, for a consumer
+	 * that already has the data before it
+	 */
+	public void setPosition(long position) {
+		currentPosition = Math.max(0, Math.min(position, length));
+	}
+
 	/**
 	 * Get the next chunk of data
 	 * @param size how many bytes to grab, may end up being less if there isn't enough data
@@ -58,15 +73,26 @@ public class AssetProducer {
 		if (currentPosition + size > length) {
 			size = (int)(length - currentPosition);
 		}
-		byte[] data = new byte[size];
-		FileInputStream in = new FileInputStream(assetFile);
-		
-		in.skip(currentPosition);
-		in.read(data, 0, size);
-		in.close();
-		
-		currentPosition += size;
-		return new AssetChunk(id, data);
+		if (file == null) {
+			file = AssetFile.open(id, assetFile);
+		}
+		byte[] data;
+		try {
+			data = file.read(currentPosition, size);
+		} catch (IOException ioe) {
+			close();
+			throw ioe;
+		}
+		if (data.length < size) {
+			// The file got shorter, nothing more to send
+			length = currentPosition + data.length;
+		}
+		AssetChunk chunk = new AssetChunk(id, currentPosition, data);
+		currentPosition += data.length;
+		if (isComplete()) {
+			close();
+		}
+		return chunk;
 	}
 
 	/**
@@ -75,4 +101,14 @@ public class AssetProducer {
 	public boolean isComplete() {
 		return currentPosition >= length;
 	}
+
+	/**
+	 * Stop sending the asset, letting go of the file
+	 */
+	public void close() {
+		if (file != null) {
+			file.release();
+			file = null;
+		}
+	}
 }
@@ -16,31 +16,43 @@ package net.rptools.maptool.transfer;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+/**
+ * Keeps track of the assets being sent and received in chunks.  The two sides don't share
+ * anything, and each consumer looks after itself, so chunks for different assets can be
+ * taken in at the same time.
+ */
 public class AssetTransferManager {
-	private Map<Serializable, AssetConsumer> consumerMap = new HashMap<Serializable, AssetConsumer>();
+	private ConcurrentMap<Serializable, AssetConsumer> consumerMap = new ConcurrentHashMap<Serializable, AssetConsumer>();
 	private List<ConsumerListener> consumerListenerList = new CopyOnWriteArrayList<ConsumerListener>();
 	private List<AssetProducer> producerList = new LinkedList<AssetProducer>();
 	
 	/**
 	 * Clear out all existing consumers and producers
 	 */
-	public synchronized void flush() {
+	public void flush() {
 		consumerMap.clear();
-		producerList.clear();
+		synchronized (producerList) {
+			for (AssetProducer producer : producerList) {
+				producer.close();
+			}
+			producerList.clear();
+		}
 	}
 	
 	/**
 	 * Add a new producer to the chunk queue.  Assumes that the header has already been transferred
 	 * to the consumer.  Producer chunks can then be retrieved via nextChunk()
 	 */
-	public synchronized void addProducer(AssetProducer producer) {
-		producerList.add(producer);
+	public void addProducer(AssetProducer producer) {
+		synchronized (producerList) {
+			producerList.add(producer);
+		}
 	}
 
 	/**
@@ -48,27 +60,36 @@ public class AssetTransferManager {
 	 * @param size size of the data to retrieve
 	 * @throws IOException
 	 */
-	public synchronized AssetChunk nextChunk(int size) throws IOException {
-		if (producerList.size() == 0) {
-			return null;
-		}
-		AssetProducer producer = producerList.remove(0);
-		AssetChunk chunk = producer.nextChunk(size);
-		if (!producer.isComplete()) {
-			producerList.add(producer);
+	public AssetChunk nextChunk(int size) throws IOException {
+		synchronized (producerList) {
+			if (producerList.size() == 0) {
+				return null;
+			}
+			AssetProducer producer = producerList.remove(0);
+			AssetChunk chunk = producer.nextChunk(size);
+			if (!producer.isComplete()) {
+				producerList.add(producer);
+			}
+			return chunk;
 		}
-		return chunk;
 	}
 	
 	/**
 	 * Add the corresponding consumer that is expecting to receive chunks.
 	 * Add a ConsumerListener to know when the asset is complete
+	 * <p>
+	 * If the asset is already being received, which happens when the transfer is picked up again
+	 * after a reconnect, the existing consumer is kept along with what it has so far.
 	 */
-	public synchronized void addConsumer(AssetConsumer consumer) {
-		if (consumerMap.get(consumer.getId()) != null) {
-			throw new IllegalArgumentException("Asset is already being downloaded: " + consumer.getId());
+	public void addConsumer(AssetConsumer consumer) {
+		AssetConsumer existing = consumerMap.putIfAbsent(consumer.getId(), consumer);
+		if (existing != null) {
+			if (existing.getSize() == consumer.getSize()) {
+				return;
+			}
+			// Not the same data after all
+			consumerMap.put(consumer.getId(), consumer);
 		}
-		consumerMap.put(consumer.getId(), consumer);
 		for (ConsumerListener listener : consumerListenerList) {
 			listener.assetAdded(consumer.getId());
 		}
@@ -76,19 +97,23 @@ public class AssetTransferManager {
 
 	/**
 	 * Update the appropriate asset.  To be notified when the asset is complete add a ConsumerListener.
-	 * When the asset is complete it will be removed from the internal map automatically
+	 * When the asset is complete it will be removed from the internal map automatically, and any
+	 * chunks for it that are still on the way are dropped
 	 * @throws IOException
 	 */
-	public synchronized void update(AssetChunk chunk) throws IOException {
+	public void update(AssetChunk chunk) throws IOException {
 		AssetConsumer consumer = consumerMap.get(chunk.getId());
 		if (consumer == null) {
-			throw new IllegalArgumentException("Not expecting chunk: " + chunk.getId());
+			// The rest of a transfer that was picked up again, for data that has come in some other way since
+			return;
 		}
 		consumer.update(chunk);
 		if (consumer.isComplete()) {
-			consumerMap.remove(consumer.getId());
-			for (ConsumerListener listener : consumerListenerList) {
-				listener.assetComplete(consumer.getId(), consumer.getName(), consumer.getFilename());
+			// Only the update that takes it out tells the listeners
+			if (consumerMap.remove(consumer.getId(), consumer)) {
+				for (ConsumerListener listener : consumerListenerList) {
+					listener.assetComplete(consumer.getId(), consumer.getName(), consumer.getData(), consumer.getChecksum());
+				}
 			}
 		} else {
 			for (ConsumerListener listener : consumerListenerList) {
@@ -97,10 +122,17 @@ public class AssetTransferManager {
 		}
 	}
 	
+	/**
+	 * Get the consumer receiving the asset, or <code>null</code> if it isn't being received
+	 */
+	public AssetConsumer getAssetConsumer(Serializable id) {
+		return consumerMap.get(id);
+	}
+
 	/**
 	 * Get a list of current asset consumers, this is a good way to know what's going on in the system
 	 */
-	public synchronized List<AssetConsumer> getAssetConsumers() {
+	public List<AssetConsumer> getAssetConsumers() {
 		return new ArrayList<AssetConsumer>(consumerMap.values());
 	}
 	
@@ -13,11 +13,10 @@
  */
 package net.rptools.maptool.transfer;
 
-import java.io.File;
 import java.io.Serializable;
 
 public interface ConsumerListener {
 	public void assetAdded(Serializable id);
-	public void assetComplete(Serializable id, String name, File data);
+	public void assetComplete(Serializable id, String name, byte[] data, String checksum);
 	public void assetUpdated(Serializable id);
 }
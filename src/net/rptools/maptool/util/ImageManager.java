@@ -10,18 +10,28 @@
  */
 package net.rptools.maptool.util;
 
+import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.awt.image.ImageObserver;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.rptools.lib.MD5Key;
 import net.rptools.lib.image.ImageUtil;
@@ -35,8 +45,17 @@ import org.apache.log4j.Logger;
  * The ImageManager class keeps a cache of loaded images. This class can be used to load the raw image data from an
  * asset. The loading of the raw image data into a usable class is done in the background by one of two threads. The
  * ImageManager will return a "?" (UNKNOWN_IMAGE) if the asset is still downloading or the asset image is still being
- * loaded, and a "X" (BROKEN_IMAGE) if the asset or image is invalid. Small images are loaded using a different thread
- * pool from large images, and allows small images to load quicker.
+ * loaded, and a "X" (BROKEN_IMAGE) if the asset or image is invalid.
+ * <p>
+ * Images are decoded on a pool with a thread per core, and each asset is only ever being loaded once at a time. Images
+ * requested while painting the active map (see {@link #setActiveZone(ImageObserver, Set)}) are decoded first, then
+ * the rest of the active map's images, then everything else. Switching maps drops the queued loads that were only
+ * wanted by the previous map.
+ * <p>
+ * The cache is limited to a share of the heap. Once it's full the least recently used images are dropped, but only
+ * softly referenced until the garbage collector actually needs the memory, so they can usually be picked up again
+ * without decoding them. {@link #getScaledImage(MD5Key, double, double, ImageObserver...)} hands out copies of the
+ * images scaled down by powers of two (mipmaps), which count against the same limit.
  * 
  * @author RPTools Team.
  * 
@@ -44,8 +63,17 @@ import org.apache.log4j.Logger;
 public class ImageManager {
 	private static final Logger log = Logger.getLogger(ImageManager.class);
 
-	/** Cache of images loaded for assets. */
-	private static final Map<MD5Key, BufferedImage> imageMap = new HashMap<MD5Key, BufferedImage>();
+	/** Cache of images loaded for assets, least recently used first. Guarded by imageLoaderMutex, like the rest. */
+	private static final Map<MD5Key, BufferedImage> imageMap = new LinkedHashMap<MD5Key, BufferedImage>(256, 0.75f, true);
+
+	/** Mipmaps of the images in imageMap, index 0 being half the size of the image */
+	private static final Map<MD5Key, BufferedImage[]> mipmapMap = new HashMap<MD5Key, BufferedImage[]>();
+
+	/** Images that were evicted from imageMap, until the garbage collector needs the memory */
+	private static final Map<MD5Key, SoftReference<BufferedImage>> evictedImageMap = new HashMap<MD5Key, SoftReference<BufferedImage>>();
+
+	private static final long CACHE_BUDGET = Runtime.getRuntime().maxMemory() / 4;
+	private static long cacheSize;
 
 	/**
 	 * The unknown image, a "?" is used for all situations where the image will eventually appear e.g. asset download,
@@ -60,11 +88,34 @@ public class ImageManager {
 	private static final String BROKEN_IMAGE_PNG = "net/rptools/maptool/client/image/broken.png";
 	public static BufferedImage BROKEN_IMAGE;
 
+	/** Priorities of the image loads, most urgent first */
+	private static final int PRIORITY_VISIBLE = 0;
+	private static final int PRIORITY_ACTIVE_ZONE = 1;
+	private static final int PRIORITY_OTHER = 2;
+
 	/**
-	 * Small and large thread pools for background processing of asset raw image data.
+	 * Thread pool for background processing of asset raw image data. Only BackgroundImageLoaders go in here, which
+	 * order the queue by priority.
 	 */
-	private static ExecutorService smallImageLoader = Executors.newFixedThreadPool(1);
-	private static ExecutorService largeImageLoader = Executors.newFixedThreadPool(1);
+	private static final int IMAGE_LOADER_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+	private static final ThreadPoolExecutor imageLoader = new ThreadPoolExecutor(IMAGE_LOADER_THREADS, IMAGE_LOADER_THREADS, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(),
+			new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "ImageLoader-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/** Loads in progress, from the request for the asset until the image is in the cache */
+	private static final Map<MD5Key, BackgroundImageLoader> loaderMap = new HashMap<MD5Key, BackgroundImageLoader>();
+	private static long loaderSequence;
+
+	/** The renderer of the map on screen, and the assets that map uses */
+	private static ImageObserver activeObserver;
+	private static Set<MD5Key> activeAssetIds = Collections.emptySet();
 
 	private static Object imageLoaderMutex = new Object();
 
@@ -94,7 +145,12 @@ public class ImageManager {
 	 * will be notified when the image is reloaded, and the same hints will be used for loading.
 	 */
 	public static void flush() {
-		imageMap.clear();
+		synchronized (imageLoaderMutex) {
+			imageMap.clear();
+			mipmapMap.clear();
+			evictedImageMap.clear();
+			cacheSize = 0;
+		}
 	}
 
 	/**
@@ -116,9 +172,10 @@ public class ImageManager {
 		synchronized (imageLoaderMutex) {
 			for (MD5Key id : new HashSet<MD5Key>(imageMap.keySet())) {
 				if (!exceptionSet.contains(id)) {
-					imageMap.remove(id);
+					remove(id);
 				}
 			}
+			evictedImageMap.keySet().retainAll(exceptionSet);
 		}
 	}
 
@@ -175,21 +232,264 @@ public class ImageManager {
 			if (image != null && image != TRANSFERING_IMAGE) {
 				return image;
 			}
+			if (image == null) {
+				// Still around from before it was evicted ?
+				SoftReference<BufferedImage> ref = evictedImageMap.remove(assetId);
+				image = ref != null ? ref.get() : null;
+				if (image != null) {
+					put(assetId, image);
+					return image;
+				}
+			}
 			// Make note that we're currently processing it
 			imageMap.put(assetId, TRANSFERING_IMAGE);
 
 			// Make sure we are informed when it's done loading
 			addObservers(assetId, observers);
 
-			// Force a load of the asset, this will trigger a transfer if the 
-			// asset is not available locally
-			if (image == null) {
-				AssetManager.getAssetAsynchronously(assetId, new AssetListener(assetId, hints));
+			BackgroundImageLoader loader = loaderMap.get(assetId);
+			if (loader == null) {
+				loader = new BackgroundImageLoader(assetId, hints);
+				loaderMap.put(assetId, loader);
+
+				// Force a load of the asset, this will trigger a transfer if the 
+				// asset is not available locally
+				AssetManager.getAssetAsynchronously(assetId, new AssetListener(loader));
+			}
+			if (!loader.visible && activeObserver != null && observers != null) {
+				for (ImageObserver observer : observers) {
+					if (observer == activeObserver) {
+						// On screen right now, move it to the front of the queue
+						loader.visible = true;
+						requeue(loader);
+						break;
+					}
+				}
 			}
 			return TRANSFERING_IMAGE;
 		}
 	}
 
+	/**
+	 * Tells the image loading which map is on screen. Images the map's renderer asks for are decoded first, then the
+	 * rest of the map's images. Loads still queued for the previous map that nobody else is waiting for are dropped;
+	 * they start over when asked for again.
+	 * 
+	 * @param observer
+	 *            the renderer of the map, as passed to {@link #getImage(MD5Key, ImageObserver...)} when painting
+	 * @param assetIds
+	 *            all the assets the map uses
+	 */
+	public static void setActiveZone(ImageObserver observer, Set<MD5Key> assetIds) {
+		synchronized (imageLoaderMutex) {
+			ImageObserver previousObserver = activeObserver;
+			activeObserver = observer;
+			activeAssetIds = assetIds != null ? new HashSet<MD5Key>(assetIds) : Collections.<MD5Key> emptySet();
+
+			for (BackgroundImageLoader loader : new ArrayList<BackgroundImageLoader>(loaderMap.values())) {
+				// The new map will ask for what it shows soon enough
+				loader.visible = false;
+				if (!loader.queued) {
+					continue;
+				}
+				if (!activeAssetIds.contains(loader.id) && isOnlyObservedBy(loader.id, previousObserver)) {
+					if (imageLoader.remove(loader)) {
+						loaderMap.remove(loader.id);
+						imageObserverMap.remove(loader.id);
+						if (imageMap.get(loader.id) == TRANSFERING_IMAGE) {
+							imageMap.remove(loader.id);
+						}
+					}
+				} else {
+					requeue(loader);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Whether nothing but <code>observer</code> (if anything) is waiting for the image, so nobody would miss it
+	 */
+	private static boolean isOnlyObservedBy(MD5Key assetId, ImageObserver observer) {
+		Set<ImageObserver> observerSet = imageObserverMap.get(assetId);
+		if (observerSet == null) {
+			return true;
+		}
+		for (ImageObserver other : observerSet) {
+			if (other != observer) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Queues a loader whose asset just became available. Call with the imageLoaderMutex held.
+	 */
+	private static void queue(BackgroundImageLoader loader) {
+		loader.priority = getPriority(loader);
+		loader.queued = true;
+		imageLoader.execute(loader);
+	}
+
+	/**
+	 * Puts a loader back in the queue after its priority may have changed, unless it's already running. Call with the
+	 * imageLoaderMutex held.
+	 */
+	private static void requeue(BackgroundImageLoader loader) {
+		// The priority can only change while it's out of the queue, or the queue gets confused
+		if (loader.queued && imageLoader.remove(loader)) {
+			queue(loader);
+		}
+	}
+
+	private static int getPriority(BackgroundImageLoader loader) {
+		if (!activeAssetIds.contains(loader.id)) {
+			return loader.visible ? PRIORITY_ACTIVE_ZONE : PRIORITY_OTHER;
+		}
+		return loader.visible ? PRIORITY_VISIBLE : PRIORITY_ACTIVE_ZONE;
+	}
+
+	/**
+	 * Returns the image of the asset scaled down by a power of two, such that it is still at least
+	 * <code>width</code> x <code>height</code>. Drawing that at the requested size looks the same as drawing the full
+	 * image, but is a lot cheaper when zoomed out. The scaled copies are made on first use and cached along with the
+	 * image.
+	 * 
+	 * @return the image, possibly scaled down, or one of the placeholders while it's loading
+	 */
+	public static BufferedImage getScaledImage(MD5Key assetId, double width, double height, ImageObserver... observers) {
+		BufferedImage image = getImage(assetId, observers);
+		if (image == TRANSFERING_IMAGE || image == BROKEN_IMAGE) {
+			return image;
+		}
+		int level = 0;
+		int levelWidth = image.getWidth();
+		int levelHeight = image.getHeight();
+		while (levelWidth / 2 >= Math.max(width, 1) && levelHeight / 2 >= Math.max(height, 1)) {
+			levelWidth /= 2;
+			levelHeight /= 2;
+			level++;
+		}
+		if (level == 0) {
+			return image;
+		}
+		BufferedImage[] mipmaps;
+		synchronized (imageLoaderMutex) {
+			mipmaps = mipmapMap.get(assetId);
+			if (mipmaps != null && mipmaps.length >= level && mipmaps[level - 1] != null) {
+				return mipmaps[level - 1];
+			}
+		}
+		// Scaling happens outside of the lock, each level from the one above it
+		BufferedImage[] newMipmaps = mipmaps != null ? mipmaps.clone() : new BufferedImage[level];
+		if (newMipmaps.length < level) {
+			BufferedImage[] grown = new BufferedImage[level];
+			System.arraycopy(newMipmaps, 0, grown, 0, newMipmaps.length);
+			newMipmaps = grown;
+		}
+		long added = 0;
+		BufferedImage source = image;
+		for (int i = 0; i < level; i++) {
+			if (newMipmaps[i] == null) {
+				newMipmaps[i] = halve(source);
+				added += getSize(newMipmaps[i]);
+			}
+			source = newMipmaps[i];
+		}
+		synchronized (imageLoaderMutex) {
+			// Only keep them if the image hasn't been flushed or replaced in the meantime
+			if (imageMap.get(assetId) == image && mipmapMap.get(assetId) == mipmaps) {
+				mipmapMap.put(assetId, newMipmaps);
+				cacheSize += added;
+				trim();
+			}
+		}
+		return newMipmaps[level - 1];
+	}
+
+	private static BufferedImage halve(BufferedImage image) {
+		int width = Math.max(1, image.getWidth() / 2);
+		int height = Math.max(1, image.getHeight() / 2);
+
+		BufferedImage scaled = new BufferedImage(width, height, image.getTransparency() == BufferedImage.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = scaled.createGraphics();
+		// Halving with bilinear filtering averages each 2x2 block, so nothing gets skipped
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(image, 0, 0, width, height, null);
+		g.dispose();
+		return scaled;
+	}
+
+	/**
+	 * Caches a loaded image and makes room for it. Call with the imageLoaderMutex held.
+	 */
+	private static void put(MD5Key assetId, BufferedImage image) {
+		remove(assetId);
+		imageMap.put(assetId, image);
+		cacheSize += getSize(image);
+		trim();
+	}
+
+	/**
+	 * Call with the imageLoaderMutex held.
+	 */
+	private static void remove(MD5Key assetId) {
+		BufferedImage image = imageMap.remove(assetId);
+		if (image != null) {
+			cacheSize -= getSize(image);
+		}
+		BufferedImage[] mipmaps = mipmapMap.remove(assetId);
+		if (mipmaps != null) {
+			for (BufferedImage mipmap : mipmaps) {
+				cacheSize -= getSize(mipmap);
+			}
+		}
+	}
+
+	/**
+	 * Evicts the least recently used images until the cache fits its budget. Call with the imageLoaderMutex held.
+	 */
+	private static void trim() {
+		Iterator<Map.Entry<MD5Key, BufferedImage>> iter = imageMap.entrySet().iterator();
+		while (cacheSize > CACHE_BUDGET && iter.hasNext()) {
+			Map.Entry<MD5Key, BufferedImage> entry = iter.next();
+			BufferedImage image = entry.getValue();
+			if (image == TRANSFERING_IMAGE) {
+				// Still loading
+				continue;
+			}
+			iter.remove();
+			cacheSize -= getSize(image);
+			BufferedImage[] mipmaps = mipmapMap.remove(entry.getKey());
+			if (mipmaps != null) {
+				for (BufferedImage mipmap : mipmaps) {
+					cacheSize -= getSize(mipmap);
+				}
+			}
+			if (image != BROKEN_IMAGE) {
+				evictedImageMap.put(entry.getKey(), new SoftReference<BufferedImage>(image));
+			}
+		}
+		if (evictedImageMap.size() > imageMap.size()) {
+			// Forget about the ones that were collected
+			for (Iterator<SoftReference<BufferedImage>> refs = evictedImageMap.values().iterator(); refs.hasNext();) {
+				if (refs.next().get() == null) {
+					refs.remove();
+				}
+			}
+		}
+	}
+
+	private static long getSize(BufferedImage image) {
+		// The placeholders are shared, they don't take up anything
+		if (image == null || image == TRANSFERING_IMAGE || image == BROKEN_IMAGE) {
+			return 0;
+		}
+		int bytesPerPixel = (image.getColorModel().getPixelSize() + 7) / 8;
+		return (long) image.getWidth() * image.getHeight() * bytesPerPixel;
+	}
+
 	/**
 	 * Remove the image associated the asset from the cache.
 	 * 
@@ -209,7 +509,10 @@ public class ImageManager {
 	public static void flushImage(MD5Key assetId) {
 		// LATER: investigate how this effects images that are already in
 		// progress
-		imageMap.remove(assetId);
+		synchronized (imageLoaderMutex) {
+			remove(assetId);
+			evictedImageMap.remove(assetId);
+		}
 	}
 
 	/**
@@ -237,50 +540,77 @@ public class ImageManager {
 	}
 
 	/**
-	 * Load the asset's raw image data into a BufferedImage.
+	 * Load the asset's raw image data into a BufferedImage. Loaders are created when the image is first asked for and
+	 * queued once the asset is available; the fields are guarded by the imageLoaderMutex.
 	 * 
 	 * @author RPTools Team.
 	 * 
 	 */
-	private static class BackgroundImageLoader implements Runnable {
-		private final Asset asset;
+	private static class BackgroundImageLoader implements Runnable, Comparable<BackgroundImageLoader> {
+		private final MD5Key id;
 		private final Map<String, Object> hints;
+		private final long sequence;
+		private Asset asset;
+		private boolean queued;
+		// Asked for while painting the active map
+		private boolean visible;
+		private int priority;
 
 		/**
 		 * Create a background image loader to load the asset image using the hints provided.
 		 * 
-		 * @param asset
+		 * @param id
 		 *            Asset to load
 		 * @param hints
 		 *            Hints to use for image loading
 		 */
-		public BackgroundImageLoader(Asset asset, Map<String, Object> hints) {
-			this.asset = asset;
+		public BackgroundImageLoader(MD5Key id, Map<String, Object> hints) {
+			this.id = id;
 			this.hints = hints;
+			this.sequence = loaderSequence++;
+		}
+
+		/**
+		 * First by priority, then first come first served
+		 */
+		public int compareTo(BackgroundImageLoader other) {
+			if (priority != other.priority) {
+				return priority < other.priority ? -1 : 1;
+			}
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
 		}
 
 		/**
 		 * Load the asset raw image data and notify observers that the image is loaded.
 		 */
 		public void run() {
-			log.debug("Loading asset: " + asset.getId());
-			BufferedImage image = imageMap.get(asset.getId());
+			log.debug("Loading asset: " + id);
+			BufferedImage image;
+			synchronized (imageLoaderMutex) {
+				image = imageMap.get(id);
+			}
 			if (image != null && image != TRANSFERING_IMAGE) {
 				// We've somehow already loaded this image
-				log.debug("Image wasn't in transit: " + asset.getId());
+				log.debug("Image wasn't in transit: " + id);
+				synchronized (imageLoaderMutex) {
+					loaderMap.remove(id);
+				}
 				return;
 			}
 			try {
 				assert asset.getImage() != null : "asset.getImage() for " + asset.toString() + "returns null?!";
 				image = ImageUtil.createCompatibleImage(ImageUtil.bytesToImage(asset.getImage()), hints);
 			} catch (Throwable t) {
-				log.error("BackgroundImageLoader.run(" + asset.getName() + "," + asset.getId() + "): not resolved", t);
+				log.error("BackgroundImageLoader.run(" + (asset != null ? asset.getName() : null) + "," + id + "): not resolved", t);
 				image = BROKEN_IMAGE;
 			}
 			synchronized (imageLoaderMutex) {
+				if (loaderMap.get(id) == this) {
+					loaderMap.remove(id);
+				}
 				// Replace placeholder with actual image
-				imageMap.put(asset.getId(), image);
-				notifyObservers(asset, image);
+				put(id, image);
+				notifyObservers(id, image);
 			}
 		}
 	}
@@ -288,15 +618,15 @@ public class ImageManager {
 	/**
 	 * Notify all observers watching the asset that the image is loaded.
 	 * 
-	 * @param asset
+	 * @param assetId
 	 *            Loaded image from this asset
 	 * @param image
 	 *            Result of loading the asset raw image data
 	 */
-	private static void notifyObservers(Asset asset, BufferedImage image) {
+	private static void notifyObservers(MD5Key assetId, BufferedImage image) {
 		// Notify observers
-		log.debug("Notifying observers of image availability: " + asset.getId());
-		Set<ImageObserver> observerSet = imageObserverMap.remove(asset.getId());
+		log.debug("Notifying observers of image availability: " + assetId);
+		Set<ImageObserver> observerSet = imageObserverMap.remove(assetId);
 		if (observerSet != null) {
 			for (ImageObserver observer : observerSet) {
 				observer.imageUpdate(image, ImageObserver.ALLBITS, 0, 0, image.getWidth(), image.getHeight());
@@ -304,52 +634,40 @@ public class ImageManager {
 		}
 	}
 
-	/**
-	 * Run a thread to load the asset raw image data in the background using the provided hints.
-	 * 
-	 * @param asset
-	 *            Load raw image data from this asset
-	 * @param hints
-	 *            Hints used when loading image data
-	 */
-	private static void backgroundLoadImage(Asset asset, Map<String, Object> hints) {
-		// Use large image loader if the image is larger than 128kb.
-		if (asset.getImage().length > 128 * 1024) {
-			largeImageLoader.execute(new BackgroundImageLoader(asset, hints));
-		} else {
-			smallImageLoader.execute(new BackgroundImageLoader(asset, hints));
-		}
-	}
-
 	private static class AssetListener implements AssetAvailableListener {
-		private final MD5Key id;
-		private final Map<String, Object> hints;
+		private final BackgroundImageLoader loader;
 
-		public AssetListener(MD5Key id, Map<String, Object> hints) {
-			this.id = id;
-			this.hints = hints;
+		public AssetListener(BackgroundImageLoader loader) {
+			this.loader = loader;
 		}
 
 		public void assetAvailable(MD5Key key) {
-			if (!key.equals(id)) {
+			if (!key.equals(loader.id)) {
 				return;
 			}
 			// No longer need to be notified when this asset is available
-			AssetManager.removeAssetListener(id, this);
+			AssetManager.removeAssetListener(loader.id, this);
 
 			// Image is now available for loading
-			log.debug("Asset available: " + id);
-			backgroundLoadImage(AssetManager.getAsset(id), hints);
+			log.debug("Asset available: " + loader.id);
+			Asset asset = AssetManager.getAsset(loader.id);
+			synchronized (imageLoaderMutex) {
+				if (loader.queued) {
+					return;
+				}
+				loader.asset = asset;
+				queue(loader);
+			}
 		}
 
 		@Override
 		public int hashCode() {
-			return id.hashCode();
+			return loader.id.hashCode();
 		}
 
 		@Override
 		public boolean equals(Object obj) {
-			return id.equals(obj);
+			return obj instanceof AssetListener && loader.id.equals(((AssetListener) obj).loader.id);
 		}
 	}
 }
@@ -0,0 +1,39 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.rptools.maptool.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A map that holds at most a fixed number of entries, dropping the least recently used one to make room for a new one.
+ * Lookups count as a use. Not thread safe; wrap it with {@link java.util.Collections#synchronizedMap(Map)} if needed.
+ * 
+ * @param <K>
+ *            type of the keys
+ * @param <V>
+ *            type of the values
+ */
+public class LRUMap<K, V> extends LinkedHashMap<K, V> {
+	private static final long serialVersionUID = 1L;
+
+	private final int maxSize;
+
+	public LRUMap(int maxSize) {
+		super(16, 0.75f, true);
+		this.maxSize = maxSize;
+	}
+
+	@Override
+	protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+		return size() > maxSize;
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.rptools.maptool.util;
+
+import java.util.Arrays;
+
+/**
+ * A hash map keyed by primitive <code>long</code>s using open addressing with linear probing. It exists so that hot
+ * loops keyed by grid coordinates (see {@link #pack(int, int)}) don't have to box their keys or go through
+ * {@link net.rptools.maptool.model.AbstractPoint#hashCode()}, which allocates a String per call.
+ * <p>
+ * Not thread safe. <code>null</code> values are not allowed; {@link #get(long)} returns <code>null</code> for missing
+ * keys.
+ * 
+ * @param <V>
+ *            type of the stored values
+ */
+public class LongObjectMap<V> {
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private long[] keys;
+	private Object[] values;
+	private int size;
+	private int mask;
+	private int resizeAt;
+
+	public LongObjectMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public LongObjectMap(int expectedSize) {
+		allocate(tableSizeFor(Math.max(expectedSize, 4) * 2));
+	}
+
+	/**
+	 * Packs two ints into a single long key, <code>x</code> in the high word and <code>y</code> in the low word.
+	 */
+	public static long pack(int x, int y) {
+		return ((long) x << 32) | (y & 0xffffffffL);
+	}
+
+	public static int unpackX(long key) {
+		return (int) (key >> 32);
+	}
+
+	public static int unpackY(long key) {
+		return (int) key;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		int slot = slot(key);
+		while (values[slot] != null) {
+			if (keys[slot] == key) {
+				return (V) values[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return null;
+	}
+
+	public boolean containsKey(long key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * @return the previous value stored under <code>key</code>, or <code>null</code>
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("null values are not supported");
+		}
+		int slot = slot(key);
+		while (values[slot] != null) {
+			if (keys[slot] == key) {
+				V old = (V) values[slot];
+				values[slot] = value;
+				return old;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		if (++size >= resizeAt) {
+			rehash(keys.length * 2);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the value that was removed, or <code>null</code> if the key wasn't present
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		int slot = slot(key);
+		while (values[slot] != null) {
+			if (keys[slot] == key) {
+				V old = (V) values[slot];
+				shiftBack(slot);
+				size--;
+				return old;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return null;
+	}
+
+	public void clear() {
+		if (size > 0) {
+			Arrays.fill(values, null);
+			size = 0;
+		}
+	}
+
+	/**
+	 * Calls <code>visitor</code> once for every entry in the map, in no particular order. The map must not be modified
+	 * during the visit.
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEach(Visitor<? super V> visitor) {
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				visitor.visit(keys[i], (V) values[i]);
+			}
+		}
+	}
+
+	public static interface Visitor<V> {
+		public void visit(long key, V value);
+	}
+
+	/**
+	 * Backward-shift deletion keeps probe sequences intact without tombstones.
+	 */
+	private void shiftBack(int slot) {
+		int gap = slot;
+		int next = (gap + 1) & mask;
+		while (values[next] != null) {
+			int home = slot(keys[next]);
+			// Move the entry into the gap if its home slot is not cyclically within (gap, next]
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				keys[gap] = keys[next];
+				values[gap] = values[next];
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		values[gap] = null;
+	}
+
+	private int slot(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	private void rehash(int newCapacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(newCapacity);
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				int slot = slot(oldKeys[i]);
+				while (values[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		resizeAt = (capacity * 3) / 4;
+	}
+
+	private static int tableSizeFor(int n) {
+		int capacity = 1;
+		while (capacity < n) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+}
@@ -0,0 +1,376 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.rptools.maptool.util;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import com.thoughtworks.xstream.XStream;
+
+/**
+ * Writes a zip file in the layout read by {@link net.rptools.lib.io.PackedFile}, one entry at a time, without first
+ * exploding the entries into a temporary directory.
+ * <p>
+ * Objects are serialized straight into the compressor, entries can be compressed ahead of time on any thread with
+ * {@link #compress(String, byte[])}, and entries of a previous version of the file can be copied over still compressed
+ * with {@link #copyEntry(String, long)}.
+ */
+class PackedFileWriter {
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int DATA_DESCRIPTOR = 0x08074b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+	private static final int VERSION = 20;
+	private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+	private static final int LEVEL = 9;
+	private static final int BUFFER_SIZE = 8192;
+
+	private final CountingOutputStream out;
+	private final List<Entry> entryList = new ArrayList<Entry>();
+	private final int dosTime = toDosTime(System.currentTimeMillis());
+
+	private RandomAccessFile previous;
+	private final Map<String, Entry> previousEntryMap = new HashMap<String, Entry>();
+
+	/**
+	 * @param file
+	 *            where to write to
+	 * @param previousFile
+	 *            an earlier version of the file to copy entries from, or <code>null</code>. It is only read, and may
+	 *            not be a zip file at all.
+	 */
+	public PackedFileWriter(File file, File previousFile) throws IOException {
+		if (previousFile != null && previousFile.isFile()) {
+			try {
+				previous = new RandomAccessFile(previousFile, "r");
+				readCentralDirectory();
+			} catch (IOException e) {
+				// Not something we can copy from; everything will be written from scratch
+				previousEntryMap.clear();
+				closePrevious();
+			}
+		}
+		out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+	}
+
+	/**
+	 * Serializes <code>obj</code> into the entry <code>name</code> the same way
+	 * {@link net.rptools.lib.io.PackedFile#putFile(String, Object)} does, without holding the XML in memory.
+	 */
+	public void putObject(String name, XStream xstream, Object obj) throws IOException {
+		Entry entry = new Entry(name, DEFLATED);
+		entry.flags = FLAG_DATA_DESCRIPTOR;
+		writeLocalHeader(entry);
+
+		long start = out.getByteCount();
+		Deflater deflater = new Deflater(LEVEL, true);
+		CRC32 crc = new CRC32();
+		try {
+			DeflaterOutputStream deflaterOut = new DeflaterOutputStream(new CloseShieldOutputStream(out), deflater, BUFFER_SIZE);
+			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new CheckedOutputStream(deflaterOut, crc), "UTF-8"));
+			xstream.toXML(obj, writer);
+			writer.newLine();
+			writer.flush();
+			deflaterOut.finish();
+			entry.size = deflater.getBytesRead();
+		} finally {
+			deflater.end();
+		}
+		entry.crc = crc.getValue();
+		entry.compressedSize = out.getByteCount() - start;
+
+		writeInt(out, DATA_DESCRIPTOR);
+		writeInt(out, entry.crc);
+		writeInt(out, checkSize(entry.compressedSize));
+		writeInt(out, checkSize(entry.size));
+	}
+
+	/**
+	 * Compresses <code>data</code> for {@link #putEntry(Entry)}. This doesn't touch the writer and may be called from
+	 * any thread. Data that doesn't get any smaller, such as most images, is stored as it is.
+	 */
+	public static Entry compress(String name, byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+
+		Deflater deflater = new Deflater(LEVEL, true);
+		byte[] compressed = new byte[data.length];
+		int length = 0;
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			while (!deflater.finished() && length < compressed.length) {
+				length += deflater.deflate(compressed, length, compressed.length - length);
+			}
+			if (!deflater.finished()) {
+				length = -1;
+			}
+		} finally {
+			deflater.end();
+		}
+		Entry entry;
+		if (length < 0) {
+			entry = new Entry(name, STORED);
+			entry.data = data;
+			entry.compressedSize = data.length;
+		} else {
+			entry = new Entry(name, DEFLATED);
+			entry.data = compressed;
+			entry.compressedSize = length;
+		}
+		entry.crc = crc.getValue();
+		entry.size = data.length;
+		return entry;
+	}
+
+	/**
+	 * Writes an entry prepared by {@link #compress(String, byte[])}.
+	 */
+	public void putEntry(Entry entry) throws IOException {
+		writeLocalHeader(entry);
+		out.write(entry.data, 0, (int) entry.compressedSize);
+		entry.data = null;
+	}
+
+	/**
+	 * Copies the entry <code>name</code> over from the previous file without recompressing it, provided it is there
+	 * and still has the expected size.
+	 *
+	 * @return whether the entry was copied; if not, it still has to be written
+	 */
+	public boolean copyEntry(String name, long size) throws IOException {
+		Entry old = previousEntryMap.get(name);
+		if (old == null || old.size != size || (old.method != STORED && old.method != DEFLATED)) {
+			return false;
+		}
+		byte[] header = new byte[30];
+		previous.seek(old.offset);
+		previous.readFully(header);
+		if (getInt(header, 0) != LOCAL_HEADER) {
+			return false;
+		}
+		previous.seek(old.offset + header.length + getShort(header, 26) + getShort(header, 28));
+
+		Entry entry = new Entry(name, old.method);
+		entry.crc = old.crc;
+		entry.size = old.size;
+		entry.compressedSize = old.compressedSize;
+		writeLocalHeader(entry);
+
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long remaining = old.compressedSize;
+		while (remaining > 0) {
+			int count = previous.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+			if (count < 0) {
+				throw new IOException("Unexpected end of " + name + " in the previous file");
+			}
+			out.write(buffer, 0, count);
+			remaining -= count;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the central directory, after which the file is complete. The writer still has to be closed.
+	 */
+	public void finish() throws IOException {
+		if (entryList.size() > 0xffff) {
+			throw new IOException("Too many entries: " + entryList.size());
+		}
+		long start = out.getByteCount();
+		for (Entry entry : entryList) {
+			byte[] name = entry.name.getBytes("UTF-8");
+			writeInt(out, CENTRAL_HEADER);
+			writeShort(out, VERSION);
+			writeShort(out, VERSION);
+			writeShort(out, entry.flags);
+			writeShort(out, entry.method);
+			writeInt(out, dosTime);
+			writeInt(out, entry.crc);
+			writeInt(out, entry.compressedSize);
+			writeInt(out, entry.size);
+			writeShort(out, name.length);
+			writeShort(out, 0); // Extra field length
+			writeShort(out, 0); // Comment length
+			writeShort(out, 0); // Disk number
+			writeShort(out, 0); // Internal attributes
+			writeInt(out, 0); // External attributes
+			writeInt(out, checkSize(entry.offset));
+			out.write(name);
+		}
+		long size = out.getByteCount() - start;
+
+		writeInt(out, END_OF_CENTRAL_DIRECTORY);
+		writeShort(out, 0);
+		writeShort(out, 0);
+		writeShort(out, entryList.size());
+		writeShort(out, entryList.size());
+		writeInt(out, checkSize(size));
+		writeInt(out, checkSize(start));
+		writeShort(out, 0);
+		out.flush();
+	}
+
+	public void close() {
+		try {
+			out.close();
+		} catch (IOException e) {
+			// Nothing more to be done
+		}
+		closePrevious();
+	}
+
+	private void closePrevious() {
+		if (previous != null) {
+			try {
+				previous.close();
+			} catch (IOException e) {
+				// Only read from
+			}
+			previous = null;
+		}
+	}
+
+	private void writeLocalHeader(Entry entry) throws IOException {
+		byte[] name = entry.name.getBytes("UTF-8");
+		entry.offset = out.getByteCount();
+		entryList.add(entry);
+
+		writeInt(out, LOCAL_HEADER);
+		writeShort(out, VERSION);
+		writeShort(out, entry.flags);
+		writeShort(out, entry.method);
+		writeInt(out, dosTime);
+		writeInt(out, entry.crc);
+		writeInt(out, checkSize(entry.compressedSize));
+		writeInt(out, checkSize(entry.size));
+		writeShort(out, name.length);
+		writeShort(out, 0); // Extra field length
+		out.write(name);
+	}
+
+	private void readCentralDirectory() throws IOException {
+		// The end record is followed by a comment of at most 64k
+		long length = previous.length();
+		byte[] tail = new byte[(int) Math.min(length, 22 + 0xffff)];
+		previous.seek(length - tail.length);
+		previous.readFully(tail);
+
+		int end = tail.length - 22;
+		while (end >= 0 && getInt(tail, end) != END_OF_CENTRAL_DIRECTORY) {
+			end--;
+		}
+		if (end < 0) {
+			throw new IOException("Not a zip file");
+		}
+		int count = getShort(tail, end + 10);
+		long size = getInt(tail, end + 12);
+		long start = getInt(tail, end + 16);
+
+		byte[] directory = new byte[(int) size];
+		previous.seek(start);
+		previous.readFully(directory);
+
+		int offset = 0;
+		for (int i = 0; i < count; i++) {
+			if (offset + 46 > directory.length || getInt(directory, offset) != CENTRAL_HEADER) {
+				throw new IOException("Corrupt central directory");
+			}
+			int nameLength = getShort(directory, offset + 28);
+			String name = new String(directory, offset + 46, nameLength, "UTF-8");
+
+			Entry entry = new Entry(name, getShort(directory, offset + 10));
+			entry.crc = getInt(directory, offset + 16);
+			entry.compressedSize = getInt(directory, offset + 20);
+			entry.size = getInt(directory, offset + 24);
+			entry.offset = getInt(directory, offset + 42);
+			previousEntryMap.put(name, entry);
+
+			offset += 46 + nameLength + getShort(directory, offset + 30) + getShort(directory, offset + 32);
+		}
+	}
+
+	private static long checkSize(long size) throws IOException {
+		if (size > 0xffffffffL) {
+			throw new IOException("File too large");
+		}
+		return size;
+	}
+
+	private static int toDosTime(long time) {
+		Calendar cal = Calendar.getInstance();
+		cal.setTimeInMillis(time);
+		int year = cal.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return (year - 1980) << 25 | (cal.get(Calendar.MONTH) + 1) << 21 | cal.get(Calendar.DAY_OF_MONTH) << 16 | cal.get(Calendar.HOUR_OF_DAY) << 11 | cal.get(Calendar.MINUTE) << 5
+				| cal.get(Calendar.SECOND) >> 1;
+	}
+
+	private static void writeShort(OutputStream out, int value) throws IOException {
+		out.write(value & 0xff);
+		out.write((value >> 8) & 0xff);
+	}
+
+	private static void writeInt(OutputStream out, long value) throws IOException {
+		writeShort(out, (int) (value & 0xffff));
+		writeShort(out, (int) ((value >> 16) & 0xffff));
+	}
+
+	private static int getShort(byte[] b, int offset) {
+		return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8;
+	}
+
+	private static long getInt(byte[] b, int offset) {
+		return getShort(b, offset) | (long) getShort(b, offset + 2) << 16;
+	}
+
+	/**
+	 * An entry of the file, along with its compressed data until it is written.
+	 */
+	static class Entry {
+		final String name;
+		final int method;
+		int flags;
+		long crc;
+		long size;
+		long compressedSize;
+		long offset;
+		byte[] data;
+
+		Entry(String name, int method) {
+			this.name = name;
+			this.method = method;
+		}
+	}
+}
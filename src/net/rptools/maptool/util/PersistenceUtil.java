@@ -21,6 +21,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.net.URL;
 import java.text.ParseException;
 import java.util.ArrayList;
@@ -28,9 +29,17 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.imageio.ImageIO;
 
@@ -78,13 +87,32 @@ public class PersistenceUtil {
 	private static final String PROP_VERSION = "version"; //$NON-NLS-1$
 	private static final String PROP_CAMPAIGN_VERSION = "campaignVersion"; //$NON-NLS-1$
 	private static final String ASSET_DIR = "assets/"; //$NON-NLS-1$
+	private static final String CONTENT_FILE = "content.xml"; //$NON-NLS-1$
+	private static final String PROPERTY_FILE = "properties.xml"; //$NON-NLS-1$
 
-	private static final String CAMPAIGN_VERSION = "1.3.85";
+	private static final String CAMPAIGN_VERSION = "1.3.86";
 	// Please add a single note regarding why the campaign version number has been updated:
 	// 1.3.70	ownerOnly added to model.Light (not backward compatible)
 	// 1.3.75	model.Token.visibleOnlyToOwner (actually added to b74 but I didn't catch it before release)
 	// 1.3.83	ExposedAreaData added to tokens in b78 but again not caught until b82 :(
 	// 1.3.85	Added CampaignProperties.hasUsedFogToolbar (old versions could ignore this field, but how to implement?)
+	// 1.3.86	model.Token.version added so changes can be sent as deltas (not backward compatible)
+	// 1.3.86	model.Zone.fogCellSize and model.Zone/ExposedAreaMetaData.exposedBitmap added for raster fog (not backward compatible)
+	// 1.3.86	model.CampaignProperties.visibilityAlgorithm added, saved once a GM picks one (not backward compatible)
+
+	/**
+	 * Compresses the images of a campaign being saved; see {@link #saveAssets(Collection, PackedFileWriter, XStream)}
+	 */
+	private static final ExecutorService assetCompressor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "AssetCompressor-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private static final int MAX_PENDING_ASSETS = 2 * Runtime.getRuntime().availableProcessors();
 
 	private static final ModelVersionManager campaignVersionManager = new ModelVersionManager();
 	private static final ModelVersionManager assetnameVersionManager = new ModelVersionManager();
@@ -249,9 +277,12 @@ public class PersistenceUtil {
 		if (tmpFile.exists())
 			tmpFile.delete();
 
-		PackedFile pakFile = null;
+		PackedFileWriter writer = null;
 		try {
-			pakFile = new PackedFile(tmpFile);
+			// Unchanged assets are copied straight over from the file being replaced
+			writer = new PackedFileWriter(tmpFile, campaignFile);
+			XStream xstream = new XStream();
+
 			// Configure the meta file (this is for legacy support)
 			PersistedCampaign persistedCampaign = new PersistedCampaign();
 
@@ -274,32 +305,34 @@ public class PersistenceUtil {
 
 			// And store the asset elsewhere
 			saveTimer.start("Save assets");
-			saveAssets(allAssetIds, pakFile);
+			saveAssets(allAssetIds, writer, xstream);
 			saveTimer.stop("Save assets");
 
 			try {
+				// The zones are serialized straight into the file rather than into a temporary copy first
 				saveTimer.start("Set content");
-				pakFile.setContent(persistedCampaign);
-				pakFile.setProperty(PROP_VERSION, MapTool.getVersion());
-				pakFile.setProperty(PROP_CAMPAIGN_VERSION, CAMPAIGN_VERSION);
+				writer.putObject(CONTENT_FILE, xstream, persistedCampaign);
+				Map<String, Object> propertyMap = new HashMap<String, Object>();
+				propertyMap.put(PROP_VERSION, MapTool.getVersion());
+				propertyMap.put(PROP_CAMPAIGN_VERSION, CAMPAIGN_VERSION);
+				writer.putObject(PROPERTY_FILE, xstream, propertyMap);
 				saveTimer.stop("Set content");
 
 				saveTimer.start("Save");
-				pakFile.save();
+				writer.finish();
 				saveTimer.stop("Save");
 			} catch (OutOfMemoryError oom) {
 				/*
 				 * This error is normally because the heap space has been exceeded while trying to save the campaign.
-				 * Since MapTool caches the images used by the current Zone, and since the VersionManager must keep the
-				 * XML for objects in memory in order to apply transforms to them, the memory usage can spike very high
-				 * during the save() operation. A common solution is to switch to an empty map and perform the save from
+				 * Since MapTool caches the images used by the current Zone, the memory usage can be very high already
+				 * when the save starts. A common solution is to switch to an empty map and perform the save from
 				 * there; this causes MapTool to unload any images that it may have had cached and this can frequently
 				 * free up enough memory for the save() to work. We'll tell the user all this right here and then fail
 				 * the save and they can try again.
 				 */
 				saveTimer.start("OOM Close");
-				pakFile.close(); // Have to close the tmpFile first on some OSes
-				pakFile = null;
+				writer.close(); // Have to close the tmpFile first on some OSes
+				writer = null;
 				tmpFile.delete(); // Delete the temporary file
 				saveTimer.stop("OOM Close");
 				if (log.isDebugEnabled()) {
@@ -310,13 +343,10 @@ public class PersistenceUtil {
 			}
 		} finally {
 			saveTimer.start("Close");
-			try {
-				if (pakFile != null)
-					pakFile.close();
-			} catch (Exception e) {
-			}
+			if (writer != null)
+				writer.close();
 			saveTimer.stop("Close");
-			pakFile = null;
+			writer = null;
 		}
 
 		// Copy to the new location
@@ -670,6 +700,59 @@ public class PersistenceUtil {
 		}
 	}
 
+	/**
+	 * Writes the assets for a campaign save. Images already in the previous file under the same key are copied over as
+	 * they are, and the rest are compressed on the {@link #assetCompressor} while earlier ones are being written. Only
+	 * a few compressed images are held at any time.
+	 */
+	private static void saveAssets(Collection<MD5Key> assetIds, PackedFileWriter writer, XStream xstream) throws IOException {
+		// Special handling of assets:  XML file to describe the Asset, but binary file for the image data
+		xstream.processAnnotations(Asset.class);
+
+		LinkedList<Future<PackedFileWriter.Entry>> pendingList = new LinkedList<Future<PackedFileWriter.Entry>>();
+		try {
+			for (MD5Key assetId : assetIds) {
+				if (assetId == null)
+					continue;
+
+				final Asset asset = AssetManager.getAsset(assetId);
+				if (asset == null) {
+					log.error("AssetId " + assetId + " not found while saving?!");
+					continue;
+				}
+				// The key is the MD5 of the image, so an entry of the same name and size is the same image
+				final String pathname = ASSET_DIR + assetId + "." + asset.getImageExtension();
+				if (!writer.copyEntry(pathname, asset.getImage().length)) {
+					pendingList.add(assetCompressor.submit(new Callable<PackedFileWriter.Entry>() {
+						public PackedFileWriter.Entry call() throws Exception {
+							return PackedFileWriter.compress(pathname, asset.getImage());
+						}
+					}));
+					if (pendingList.size() > MAX_PENDING_ASSETS) {
+						writer.putEntry(pendingList.removeFirst().get());
+					}
+				}
+				writer.putObject(ASSET_DIR + assetId, xstream, asset); // Does not write the image
+			}
+			while (!pendingList.isEmpty()) {
+				writer.putEntry(pendingList.removeFirst().get());
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException(e.toString());
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof OutOfMemoryError) {
+				throw (OutOfMemoryError) e.getCause();
+			}
+			IOException ioe = new IOException(e.getCause().toString());
+			ioe.initCause(e.getCause());
+			throw ioe;
+		} finally {
+			for (Future<PackedFileWriter.Entry> future : pendingList) {
+				future.cancel(false);
+			}
+		}
+	}
+
 	private static void clearAssets(PackedFile pakFile) throws IOException {
 		for (String path : pakFile.getPaths()) {
 			if (path.startsWith(ASSET_DIR) && !path.equals(ASSET_DIR))
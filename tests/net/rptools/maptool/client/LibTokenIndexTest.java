@@ -0,0 +1,85 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rptools.maptool.client;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.rptools.maptool.model.MacroButtonProperties;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+
+public class LibTokenIndexTest extends TestCase {
+
+	public void testFollowsZone() throws Exception {
+		Zone zone = new Zone();
+		LibTokenIndex index = new LibTokenIndex();
+
+		Token lib = new Token("Lib:Test", null);
+		zone.putToken(lib);
+		zone.putToken(new Token("Test", null));
+		index.addZone(zone);
+
+		List<LibTokenIndex.LibToken> found = index.getLibTokens("lib:test");
+		assertEquals(1, found.size());
+		assertSame(lib, found.get(0).getToken());
+		assertSame(zone, found.get(0).getZone());
+		assertTrue(index.getLibTokens("test").isEmpty());
+
+		Token other = new Token("lib:Other", null);
+		zone.putToken(other);
+		assertEquals(1, index.getLibTokens("LIB:OTHER").size());
+
+		// Renamed, as received from the server
+		Token renamed = new Token("Other", null);
+		renamed.setId(other.getId());
+		zone.putToken(renamed);
+		assertTrue(index.getLibTokens("lib:other").isEmpty());
+
+		zone.removeToken(lib.getId());
+		assertTrue(index.getLibTokens("lib:test").isEmpty());
+
+		zone.putToken(lib);
+		index.removeZone(zone);
+		assertTrue(index.getLibTokens("lib:test").isEmpty());
+		zone.putToken(new Token("lib:Late", null));
+		assertTrue(index.getLibTokens("lib:late").isEmpty());
+	}
+
+	public void testMacros() throws Exception {
+		Zone zone = new Zone();
+		LibTokenIndex index = new LibTokenIndex();
+		index.addZone(zone);
+
+		Token lib = new Token("lib:Test", null);
+		lib.getMacroPropertiesMap(false).put(1, createMacro(1, "attack", "[r: 1]"));
+		zone.putToken(lib);
+
+		LibTokenIndex.LibToken libToken = index.getLibTokens("lib:test").get(0);
+		assertEquals("[r: 1]", index.getMacro(libToken, "attack", false).getCommand());
+		assertNull(index.getMacro(libToken, "defend", false));
+
+		lib.getMacroPropertiesMap(false).put(2, createMacro(2, "defend", "[r: 2]"));
+		zone.putToken(lib);
+		libToken = index.getLibTokens("lib:test").get(0);
+		assertEquals("[r: 2]", index.getMacro(libToken, "defend", false).getCommand());
+	}
+
+	private static MacroButtonProperties createMacro(int index, String label, String command) {
+		MacroButtonProperties macro = new MacroButtonProperties(index);
+		macro.setLabel(label);
+		macro.setCommand(command);
+		return macro;
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rptools.maptool.client;
+
+import java.math.BigDecimal;
+
+import junit.framework.TestCase;
+import net.rptools.common.expression.ExpressionParser;
+import net.rptools.maptool.client.functions.UserDefinedMacroFunctions;
+
+public class MapToolLineParserTest extends TestCase {
+
+	public void testDefineThenCall() throws Exception {
+		MapToolLineParser lineParser = new MapToolLineParser();
+		MapToolVariableResolver resolver = new MapToolVariableResolver(null);
+
+		assertEquals(new BigDecimal(3), lineParser.parseExpression(resolver, null, "1 + 2").getValue());
+		ExpressionParser parser = resolver.getExpressionParser();
+		assertNotNull(parser);
+
+		// Nothing changed, the same parser does
+		lineParser.parseExpression(resolver, null, "1");
+		assertSame(parser, resolver.getExpressionParser());
+
+		// Defined part way through a macro, callable later in the same macro
+		String name = "testDefineThenCall_" + System.nanoTime();
+		assertNull(parser.getParser().getFunction(name));
+		UserDefinedMacroFunctions.getInstance().defineFunction(parser.getParser(), name, "test@Lib:Test", false, true);
+		lineParser.parseExpression(resolver, null, "1");
+		assertTrue(parser != resolver.getExpressionParser());
+		assertNotNull(resolver.getExpressionParser().getParser().getFunction(name));
+	}
+}
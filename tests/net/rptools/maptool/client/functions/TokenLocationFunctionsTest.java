@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package net.rptools.maptool.client.functions;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+
+import junit.framework.TestCase;
+import net.rptools.maptool.model.SquareGrid;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+import net.sf.json.JSONObject;
+
+public class TokenLocationFunctionsTest extends TestCase {
+
+	public void testWalledInTarget() throws Exception {
+		Zone zone = new Zone();
+		zone.setGrid(new SquareGrid());
+		int size = zone.getGrid().getSize();
+		// A closed ring of wall along the edges of cell (5, 0)
+		Area ring = new Area(new Rectangle(5 * size - 1, -1, size + 2, size + 2));
+		ring.subtract(new Area(new Rectangle(5 * size + 1, 1, size - 2, size - 2)));
+		zone.addTopology(ring);
+
+		Token source = createToken(zone, 0, 0);
+		Token walledIn = createToken(zone, 5 * size, 0);
+		Token open = createToken(zone, 3 * size, 0);
+
+		TokenLocationFunctions functions = TokenLocationFunctions.getInstance();
+		assertEquals((double) TokenLocationFunctions.UNREACHABLE, functions.getDistance(zone, source, walledIn, false, "ONE_TWO_ONE"));
+		assertEquals((double) TokenLocationFunctions.UNREACHABLE, functions.getDistance(zone, source, 5, 0, false, "ONE_TWO_ONE"));
+		assertEquals(3.0, functions.getDistance(zone, source, open, false, "ONE_TWO_ONE"));
+
+		FindTokenFunctions.RangeCondition range = new FindTokenFunctions.RangeCondition(zone, source, JSONObject.fromObject("{upto: 20, metric: 'ONE_TWO_ONE'}"));
+		assertFalse(range.matchToken(walledIn));
+		assertTrue(range.matchToken(open));
+	}
+
+	private Token createToken(Zone zone, int x, int y) {
+		Token token = new Token();
+		token.setX(x);
+		token.setY(y);
+		zone.putToken(token);
+		return token;
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import java.awt.Color;
+import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.rptools.maptool.model.LightSource;
+import net.rptools.maptool.model.drawing.DrawableColorPaint;
+
+public class LightCompositorTest extends TestCase {
+
+	public void testMerge() throws Exception {
+		DrawableLight first = createLight(Color.red, 0, 0, 100);
+		DrawableLight second = createLight(Color.red, 50, 50, 100);
+		// Overlaps the second only once it has been merged with the first
+		DrawableLight third = createLight(Color.red, 140, 0, 30);
+		DrawableLight other = createLight(Color.red, 1000, 1000, 100);
+		DrawableLight blue = createLight(Color.blue, 0, 0, 100);
+
+		LightCompositor compositor = new LightCompositor();
+		compositor.update(Arrays.asList(first, second, third, other, blue), Collections.<Area> emptyList());
+		Map<Paint, List<Area>> lightMap = compositor.getLightMap();
+		assertEquals(2, lightMap.size());
+		assertEquals(2, lightMap.get(Color.red).size());
+		assertEquals(1, lightMap.get(Color.blue).size());
+
+		// Without the second one the first and third are apart again
+		compositor.update(Arrays.asList(first, third, other, blue), Collections.<Area> emptyList());
+		assertEquals(3, compositor.getLightMap().get(Color.red).size());
+	}
+
+	public void testIncremental() throws Exception {
+		DrawableLight first = createLight(Color.red, 0, 0, 100);
+		DrawableLight other = createLight(Color.red, 1000, 1000, 100);
+		Area bright = new Area(new Rectangle(25, 25, 50, 50));
+
+		LightCompositor compositor = new LightCompositor();
+		List<DrawableLight> lightList = new ArrayList<DrawableLight>(Arrays.asList(first, other));
+		compositor.update(lightList, Arrays.asList(bright));
+		Area firstArea = findArea(compositor, 50);
+		Area otherArea = findArea(compositor, 1050);
+		assertFalse(firstArea.contains(50, 50));
+		assertTrue(firstArea.contains(10, 10));
+
+		// Moving one light leaves the other as it was
+		lightList.set(0, createLight(Color.red, 200, 0, 100));
+		compositor.update(lightList, Arrays.asList(bright));
+		assertSame(otherArea, findArea(compositor, 1050));
+		assertNull(findArea(compositor, 50));
+		assertTrue(findArea(compositor, 250).contains(250, 50));
+
+		// So does bright light somewhere else
+		compositor.update(lightList, Arrays.asList(new Area(new Rectangle(225, 25, 50, 50))));
+		assertSame(otherArea, findArea(compositor, 1050));
+		assertFalse(findArea(compositor, 250).contains(250, 50));
+	}
+
+	private static Area findArea(LightCompositor compositor, int x) {
+		for (List<Area> areaList : compositor.getLightMap().values()) {
+			for (Area area : areaList) {
+				if (area.getBounds().contains(x, area.getBounds().getCenterY())) {
+					return area;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static DrawableLight createLight(Color color, int x, int y, int size) {
+		return new DrawableLight(LightSource.Type.NORMAL, new DrawableColorPaint(color), new Area(new Rectangle(x, y, size, size)));
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.EventQueue;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JPanel;
+
+import junit.framework.TestCase;
+import net.rptools.maptool.model.drawing.DrawableColorPaint;
+import net.rptools.maptool.model.drawing.DrawnElement;
+import net.rptools.maptool.model.drawing.Pen;
+import net.rptools.maptool.model.drawing.ShapeDrawable;
+
+public class PartitionedDrawableRendererTest extends TestCase {
+	private static final Rectangle VIEWPORT = new Rectangle(-300, 170, 800, 600);
+
+	private CountDownLatch repainted;
+	private final Component owner = new JPanel() {
+		@Override
+		public void repaint() {
+			if (repainted != null) {
+				repainted.countDown();
+			}
+		}
+	};
+
+	public void testChunksMatchDirectRendering() throws Exception {
+		List<DrawnElement> drawableList = new ArrayList<DrawnElement>();
+		drawableList.add(createElement(new Rectangle(100, -100, 300, 200), Color.red));
+		drawableList.add(createElement(new Rectangle(500, 50, 40, 400), Color.blue));
+
+		PartitionedDrawableRenderer renderer = new PartitionedDrawableRenderer(owner);
+		BufferedImage chunked = renderUntilDone(renderer, drawableList, 1.5);
+
+		BufferedImage direct = new BufferedImage(VIEWPORT.width, VIEWPORT.height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = direct.createGraphics();
+		renderer.renderDrawablesDirectly(g, drawableList, VIEWPORT, 1.5);
+		g.dispose();
+
+		assertSameImage(direct, chunked);
+	}
+
+	public void testInvalidate() throws Exception {
+		List<DrawnElement> drawableList = new ArrayList<DrawnElement>();
+		drawableList.add(createElement(new Rectangle(100, -100, 300, 200), Color.red));
+
+		PartitionedDrawableRenderer renderer = new PartitionedDrawableRenderer(owner);
+		renderUntilDone(renderer, drawableList, 1);
+
+		DrawnElement element = createElement(new Rectangle(600, 200, 50, 50), Color.green);
+		drawableList.add(element);
+		renderer.invalidate(element);
+		BufferedImage image = renderUntilDone(renderer, drawableList, 1);
+
+		assertEquals(Color.green.getRGB(), image.getRGB(600 + VIEWPORT.x, 200 + VIEWPORT.y + 25));
+		assertEquals(Color.red.getRGB(), image.getRGB(350 + VIEWPORT.x, -100 + VIEWPORT.y));
+	}
+
+	public void testRetriedAfterFailure() throws Exception {
+		final boolean[] failing = { true };
+		ShapeDrawable drawable = new ShapeDrawable(new Rectangle(600, 200, 50, 50), false) {
+			@Override
+			protected void draw(Graphics2D g) {
+				if (failing[0]) {
+					throw new IllegalStateException("Failing on purpose");
+				}
+				super.draw(g);
+			}
+		};
+		Pen pen = new Pen(new DrawableColorPaint(Color.red), 4);
+		pen.setBackgroundMode(Pen.MODE_TRANSPARENT);
+		List<DrawnElement> drawableList = new ArrayList<DrawnElement>();
+		drawableList.add(new DrawnElement(drawable, pen));
+
+		PartitionedDrawableRenderer renderer = new PartitionedDrawableRenderer(owner);
+		BufferedImage image = renderUntilDone(renderer, drawableList, 1);
+		assertEquals(0, image.getRGB(600 + VIEWPORT.x, 200 + VIEWPORT.y + 25));
+
+		// The chunk that failed is rendered again on the next paint
+		failing[0] = false;
+		image = renderUntilDone(renderer, drawableList, 1);
+		assertEquals(Color.red.getRGB(), image.getRGB(600 + VIEWPORT.x, 200 + VIEWPORT.y + 25));
+	}
+
+	private BufferedImage renderUntilDone(final PartitionedDrawableRenderer renderer, final List<DrawnElement> drawableList, final double scale) throws Exception {
+		final BufferedImage image = new BufferedImage(VIEWPORT.width, VIEWPORT.height, BufferedImage.TYPE_INT_ARGB);
+		for (int i = 0; i < 20; i++) {
+			repainted = new CountDownLatch(1);
+			EventQueue.invokeAndWait(new Runnable() {
+				public void run() {
+					Graphics2D g = image.createGraphics();
+					renderer.renderDrawables(g, drawableList, VIEWPORT, scale);
+					g.dispose();
+				}
+			});
+			// Nothing left to render once a paint doesn't start anything
+			if (!repainted.await(1, TimeUnit.SECONDS)) {
+				return image;
+			}
+		}
+		fail("Chunks never finished rendering");
+		return null;
+	}
+
+	private static DrawnElement createElement(Rectangle rect, Color color) {
+		Pen pen = new Pen(new DrawableColorPaint(color), 4);
+		pen.setBackgroundMode(Pen.MODE_TRANSPARENT);
+		return new DrawnElement(new ShapeDrawable(rect, false), pen);
+	}
+
+	private static void assertSameImage(BufferedImage expected, BufferedImage actual) {
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				assertEquals("At " + x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+			}
+		}
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class SpatialIndexTest extends TestCase {
+
+	public void testTopMostWins() throws Exception {
+		SpatialIndex<String> index = new SpatialIndex<String>(new Rectangle(0, 0, 800, 600));
+		index.add("bottom", new Rectangle(10, 10, 100, 100));
+		index.add("top", new Rectangle(50, 50, 100, 100));
+
+		assertEquals("bottom", index.getAt(20, 20));
+		assertEquals("top", index.getAt(60, 60));
+		assertNull(index.getAt(300, 300));
+	}
+
+	public void testOutsideRegion() throws Exception {
+		SpatialIndex<String> index = new SpatialIndex<String>(new Rectangle(0, 0, 800, 600));
+		index.add("edge", new Rectangle(750, 550, 100, 100));
+		index.add("offscreen", new Rectangle(2000, 2000, 50, 50));
+
+		assertEquals("edge", index.getAt(760, 560));
+		assertEquals("edge", index.getAt(820, 620));
+		assertEquals("offscreen", index.getAt(2010, 2010));
+		assertEquals(Arrays.asList("edge", "offscreen"), index.getIntersecting(new Rectangle(700, 500, 2000, 2000)));
+	}
+
+	public void testRectangleQueries() throws Exception {
+		SpatialIndex<String> index = new SpatialIndex<String>(new Rectangle(0, 0, 800, 600));
+		index.add("a", new Rectangle(0, 0, 50, 50));
+		index.add("big", new Rectangle(0, 0, 400, 400));
+		index.add("b", new Rectangle(300, 300, 50, 50));
+
+		assertEquals(Arrays.asList("a", "big", "b"), index.getIntersecting(new Rectangle(0, 0, 800, 600)));
+		assertEquals(Arrays.asList("big", "b"), index.getIntersecting(new Rectangle(290, 290, 20, 20)));
+		assertEquals(Arrays.asList("a", "b"), index.getContainedIn(new Rectangle(0, 0, 350, 350)));
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import net.rptools.maptool.model.SquareGrid;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+
+public class TokenStackIndexTest extends TestCase {
+
+	public void testStacks() throws Exception {
+		Zone zone = new Zone();
+		zone.setGrid(new SquareGrid());
+		Token smaller = createToken(zone, "smaller", 60, 60, 20, 1);
+		Token small = createToken(zone, "small", 50, 50, 50, 2);
+		Token big = createToken(zone, "big", 0, 0, 200, 3);
+		Token beside = createToken(zone, "beside", 1000, 1000, 50, 4);
+		// Around a token that is on top of it doesn't make a stack
+		Token under = createToken(zone, "under", 900, 900, 300, 0);
+
+		TokenStackIndex index = new TokenStackIndex(zone);
+		Map<Token, Set<Token>> stackMap = index.getStacks(Arrays.asList(big, small, smaller, beside, under));
+		assertEquals(1, stackMap.size());
+		assertEquals(new HashSet<Token>(Arrays.asList(big, small, smaller)), stackMap.get(big));
+
+		// Only the tokens asked about are stacked
+		stackMap = index.getStacks(Arrays.asList(small, smaller));
+		assertEquals(1, stackMap.size());
+		assertEquals(2, stackMap.get(small).size());
+		assertTrue(index.getStacks(Arrays.asList(big, beside, under)).isEmpty());
+	}
+
+	public void testMove() throws Exception {
+		Zone zone = new Zone();
+		zone.setGrid(new SquareGrid());
+		Token small = createToken(zone, "small", 50, 50, 50, 1);
+		Token big = createToken(zone, "big", 0, 0, 200, 2);
+
+		TokenStackIndex index = new TokenStackIndex(zone);
+		assertEquals(1, index.getStacks(Arrays.asList(big, small)).size());
+
+		// Across a bucket boundary and away
+		small.setX(1000);
+		small.setY(300);
+		index.invalidate(small);
+		assertTrue(index.getStacks(Arrays.asList(big, small)).isEmpty());
+
+		// And back again, but on top of the big one now
+		small.setX(50);
+		small.setY(50);
+		small.setZOrder(3);
+		index.invalidate(small);
+		assertTrue(index.getStacks(Arrays.asList(big, small)).isEmpty());
+		small.setZOrder(0);
+		index.invalidate(small);
+		assertNotNull(index.getStacks(Arrays.asList(big, small)).get(big));
+
+		zone.removeToken(small.getId());
+		index.invalidate(small);
+		assertTrue(index.getStacks(Arrays.asList(big, small)).isEmpty());
+	}
+
+	private static Token createToken(Zone zone, String name, int x, int y, int size, int zOrder) {
+		Token token = new Token(name, null);
+		token.setSnapToGrid(false);
+		token.setSnapToScale(false);
+		token.setX(x);
+		token.setY(y);
+		token.setWidth(size);
+		token.setHeight(size);
+		token.setZOrder(zOrder);
+		token.setLayer(Zone.Layer.TOKEN);
+		zone.putToken(token);
+		return token;
+	}
+}
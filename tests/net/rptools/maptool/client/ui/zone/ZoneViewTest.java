@@ -0,0 +1,177 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+import net.rptools.maptool.client.MapTool;
+import net.rptools.maptool.model.AttachedLightSource;
+import net.rptools.maptool.model.Campaign;
+import net.rptools.maptool.model.CampaignProperties.VisibilityAlgorithm;
+import net.rptools.maptool.model.Direction;
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.LightSource;
+import net.rptools.maptool.model.SightType;
+import net.rptools.maptool.model.SquareGrid;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+
+public class ZoneViewTest extends TestCase {
+
+	public void testWorkersMatchSingleThread() throws Exception {
+		Zone zone = createZone();
+		Map<Token, SightType> sightMap = createTokens(zone, 24);
+
+		Area parallel = new ZoneView(zone).calculateVisibleArea(sightMap);
+		assertFalse(parallel.isEmpty());
+		assertSameArea(calculateOneByOne(zone, sightMap.keySet()), parallel);
+	}
+
+	public void testMovedBetweenRounds() throws Exception {
+		Zone zone = createZone();
+		Map<Token, SightType> sightMap = createTokens(zone, 8);
+		ZoneView view = new ZoneView(zone);
+		view.calculateVisibleArea(sightMap);
+
+		// Moving fires the event that flushes the token's vision
+		Token token = sightMap.keySet().iterator().next();
+		token.setX(token.getX() + 700);
+		zone.putToken(token);
+
+		Area parallel = view.calculateVisibleArea(sightMap);
+		assertSameArea(calculateOneByOne(zone, sightMap.keySet()), parallel);
+	}
+
+	public void testWorkersReadCopies() throws Exception {
+		Zone zone = createZone();
+		final AtomicBoolean readByWorker = new AtomicBoolean();
+		Token token = new Token("Watched", null) {
+			@Override
+			public int getX() {
+				check();
+				return super.getX();
+			}
+
+			@Override
+			public Integer getFacing() {
+				check();
+				return super.getFacing();
+			}
+
+			@Override
+			public List<AttachedLightSource> getLightSources() {
+				check();
+				return super.getLightSources();
+			}
+
+			private void check() {
+				if (Thread.currentThread().getName().startsWith("ZoneView-vision")) {
+					readByWorker.set(true);
+				}
+			}
+		};
+		token.setX(-100);
+		token.setHasSight(true);
+		zone.putToken(token);
+		Map<Token, SightType> sightMap = new LinkedHashMap<Token, SightType>();
+		sightMap.put(token, MapTool.getCampaign().getSightType(null));
+
+		Area parallel = new ZoneView(zone).calculateVisibleArea(sightMap);
+		assertFalse(readByWorker.get());
+		assertSameArea(calculateOneByOne(zone, sightMap.keySet()), parallel);
+	}
+
+	public void testAlgorithmChangeRecalculatesLights() throws Exception {
+		Zone zone = createZone();
+		Campaign campaign = MapTool.getCampaign();
+		Map<GUID, LightSource> lightSourceMap = campaign.getLightSourcesMap().values().iterator().next();
+		Token token = createTokens(zone, 1).keySet().iterator().next();
+		token.addLightSource(lightSourceMap.values().iterator().next(), Direction.CENTER);
+		zone.putToken(token);
+
+		VisibilityAlgorithm algorithm = campaign.getVisibilityAlgorithm();
+		try {
+			ZoneView view = new ZoneView(zone);
+			Area area = view.getLightSourceArea(token, token);
+			assertFalse(area.isEmpty());
+			assertSame(area, view.getLightSourceArea(token, token));
+
+			campaign.setVisibilityAlgorithm(algorithm == VisibilityAlgorithm.SHADOW_AREAS ? VisibilityAlgorithm.ANGULAR_SWEEP : VisibilityAlgorithm.SHADOW_AREAS);
+			Area swept = view.getLightSourceArea(token, token);
+			assertTrue(area != swept);
+			assertSameArea(area, swept);
+		} finally {
+			campaign.setVisibilityAlgorithm(algorithm);
+		}
+	}
+
+	private static Zone createZone() {
+		Zone zone = new Zone();
+		zone.setGrid(new SquareGrid());
+		zone.setVisionType(Zone.VisionType.DAY);
+		zone.addTopology(new Area(new Rectangle(200, -400, 50, 900)));
+		zone.addTopology(new Area(new Rectangle(-300, 300, 900, 40)));
+		return zone;
+	}
+
+	private static Map<Token, SightType> createTokens(Zone zone, int count) {
+		SightType sight = MapTool.getCampaign().getSightType(null);
+		Map<Token, SightType> sightMap = new LinkedHashMap<Token, SightType>();
+		for (int i = 0; i < count; i++) {
+			Token token = new Token("Token " + i, null);
+			token.setX((i * 137) % 1000 - 400);
+			token.setY((i * 251) % 1000 - 400);
+			token.setHasSight(true);
+			zone.putToken(token);
+			sightMap.put(token, sight);
+		}
+		return sightMap;
+	}
+
+	private static Area calculateOneByOne(Zone zone, Iterable<Token> tokens) {
+		ZoneView view = new ZoneView(zone);
+		List<Area> areaList = new ArrayList<Area>();
+		for (Token token : tokens) {
+			Area area = view.getVisibleArea(token);
+			if (area != null) {
+				areaList.add(area);
+			}
+		}
+		Area expected = new Area();
+		for (Area area : areaList) {
+			expected.add(area);
+		}
+		return expected;
+	}
+
+	/**
+	 * The union is done in a different order, so the outlines may not come out identical
+	 */
+	private static void assertSameArea(Area expected, Area actual) {
+		Rectangle bounds = expected.getBounds();
+		assertEquals(bounds, actual.getBounds());
+		for (int y = bounds.y; y < bounds.y + bounds.height; y += 7) {
+			for (int x = bounds.x; x < bounds.x + bounds.width; x += 7) {
+				assertEquals("At " + x + "," + y, expected.contains(x + 0.5, y + 0.5), actual.contains(x + 0.5, y + 0.5));
+			}
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rptools.maptool.client.ui.zone.vbl;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.Point2D;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class AreaTreeTest extends TestCase {
+
+	public void testUpdateMatchesRebuild() throws Exception {
+		Random r = new Random(12345);
+		Area topology = new Area();
+		for (int i = 0; i < 100; i++) {
+			topology.add(new Area(new Rectangle(r.nextInt(3000), r.nextInt(3000), r.nextInt(200) + 20, r.nextInt(200) + 20)));
+		}
+		// Rooms with walls, so there are oceans inside of islands
+		for (int i = 0; i < 5; i++) {
+			Rectangle room = new Rectangle(r.nextInt(2500), r.nextInt(2500), 400, 400);
+			topology.add(new Area(room));
+			topology.subtract(new Area(new Rectangle(room.x + 10, room.y + 10, room.width - 20, room.height - 20)));
+		}
+		AreaTree tree = new AreaTree(topology);
+
+		for (int i = 0; i < 30; i++) {
+			Area change = new Area(new Rectangle(r.nextInt(3000), r.nextInt(3000), r.nextInt(100) + 5, r.nextInt(100) + 5));
+			if (r.nextBoolean()) {
+				topology.add(change);
+			} else {
+				topology.subtract(change);
+			}
+			AreaTree updated = tree.update(topology, change.getBounds2D());
+			assertSameTree(new AreaTree(topology), updated, r);
+			tree = updated;
+		}
+	}
+
+	public void testUpdateLeavesOriginal() throws Exception {
+		Area topology = new Area(new Rectangle(0, 0, 100, 100));
+		AreaTree tree = new AreaTree(topology);
+
+		Area changed = new Area(topology);
+		changed.add(new Area(new Rectangle(500, 500, 100, 100)));
+		AreaTree updated = tree.update(changed, new Rectangle(500, 500, 100, 100));
+
+		assertEquals(1, tree.getOcean().getIslands().size());
+		assertEquals(2, updated.getOcean().getIslands().size());
+	}
+
+	private static void assertSameTree(AreaTree expected, AreaTree actual, Random r) {
+		assertEquals(expected.getOcean().getFaces().size(), actual.getOcean().getFaces().size());
+		for (int i = 0; i < 200; i++) {
+			Point2D point = new Point2D.Double(r.nextInt(3200), r.nextInt(3200));
+			AreaOcean expectedOcean = expected.getOceanAt(point);
+			AreaOcean actualOcean = actual.getOceanAt(point);
+			if (expectedOcean == null || actualOcean == null) {
+				assertSame(expectedOcean, actualOcean);
+				continue;
+			}
+			assertEquals("At " + point, expectedOcean.getFaces().size(), actualOcean.getFaces().size());
+		}
+	}
+}
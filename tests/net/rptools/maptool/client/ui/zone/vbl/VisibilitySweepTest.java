@@ -0,0 +1,163 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rptools.maptool.client.ui.zone.vbl;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.PathIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import net.rptools.maptool.client.ui.zone.FogUtil;
+import net.rptools.maptool.model.CampaignProperties.VisibilityAlgorithm;
+
+public class VisibilitySweepTest extends TestCase {
+
+	private static final Area VISION = new Area(new Ellipse2D.Double(-1500, -1500, 3000, 3000));
+
+	public void testOpenField() throws Exception {
+		AreaTree tree = new AreaTree(new Area(new Rectangle(5000, 5000, 10, 10)));
+
+		Area area = FogUtil.calculateVisibility(0, 0, VISION, tree, VisibilityAlgorithm.ANGULAR_SWEEP);
+		assertEquals(getArea(VISION), getArea(area), 1);
+	}
+
+	public void testInsideTopology() throws Exception {
+		AreaTree tree = new AreaTree(new Area(new Rectangle(-10, -10, 20, 20)));
+
+		assertNull(FogUtil.calculateVisibility(0, 0, VISION, tree, VisibilityAlgorithm.ANGULAR_SWEEP));
+	}
+
+	public void testClosedRoom() throws Exception {
+		Area walls = new Area(new Rectangle(-200, -200, 400, 400));
+		walls.subtract(new Area(new Rectangle(-190, -190, 380, 380)));
+		AreaTree tree = new AreaTree(walls);
+
+		Area area = FogUtil.calculateVisibility(0, 0, VISION, tree, VisibilityAlgorithm.ANGULAR_SWEEP);
+		assertEquals(380 * 380, getArea(area), 1);
+	}
+
+	public void testMatchesLineOfSight() throws Exception {
+		Area topology = new Area();
+		Random r = new Random(12345);
+		for (int i = 0; i < 150; i++) {
+			topology.add(new Area(new Rectangle(r.nextInt(5000), r.nextInt(5000), r.nextInt(300) + 20, r.nextInt(300) + 20)));
+		}
+		topology.subtract(new Area(new Rectangle(2300, 2300, 400, 400)));
+		AreaTree tree = new AreaTree(topology);
+		List<Line2D> faces = getFaces(topology);
+
+		Random spots = new Random(54321);
+		for (int i = 0; i < 10; i++) {
+			int x = 2300 + spots.nextInt(400);
+			int y = 2300 + spots.nextInt(400);
+			Area vision = VISION.createTransformedArea(AffineTransform.getTranslateInstance(x, y));
+			Area actual = FogUtil.calculateVisibility(x, y, VISION, tree, VisibilityAlgorithm.ANGULAR_SWEEP);
+
+			// Compare against brute force line of sight on a grid of sample points
+			for (int sy = y - 1500; sy <= y + 1500; sy += 50) {
+				for (int sx = x - 1500; sx <= x + 1500; sx += 50) {
+					if (!vision.contains(sx, sy) || isNearFace(faces, sx, sy) || isGrazingCorner(faces, x, y, sx, sy)) {
+						continue;
+					}
+					boolean visible = !topology.contains(sx, sy) && !isBlocked(faces, x, y, sx, sy);
+					assertEquals("From " + x + "," + y + " to " + sx + "," + sy, visible, actual.contains(sx, sy));
+				}
+			}
+		}
+	}
+
+	private static List<Line2D> getFaces(Area area) {
+		List<Line2D> faces = new ArrayList<Line2D>();
+		double[] coords = new double[6];
+		double startX = 0, startY = 0, lastX = 0, lastY = 0;
+		for (PathIterator iter = area.getPathIterator(null); !iter.isDone(); iter.next()) {
+			switch (iter.currentSegment(coords)) {
+			case PathIterator.SEG_MOVETO:
+				startX = lastX = coords[0];
+				startY = lastY = coords[1];
+				break;
+			case PathIterator.SEG_LINETO:
+				faces.add(new Line2D.Double(lastX, lastY, coords[0], coords[1]));
+				lastX = coords[0];
+				lastY = coords[1];
+				break;
+			case PathIterator.SEG_CLOSE:
+				faces.add(new Line2D.Double(lastX, lastY, startX, startY));
+				break;
+			}
+		}
+		return faces;
+	}
+
+	private static boolean isBlocked(List<Line2D> faces, int x1, int y1, int x2, int y2) {
+		for (Line2D face : faces) {
+			if (face.intersectsLine(x1, y1, x2, y2)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Whether the line of sight just touches a corner, in which case either answer is fine
+	 */
+	private static boolean isGrazingCorner(List<Line2D> faces, int x1, int y1, int x2, int y2) {
+		Line2D sight = new Line2D.Double(x1, y1, x2, y2);
+		for (Line2D face : faces) {
+			if (sight.ptSegDist(face.getP1()) < 1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isNearFace(List<Line2D> faces, int x, int y) {
+		for (Line2D face : faces) {
+			if (face.ptSegDist(x, y) < 2) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static double getArea(Area area) {
+		double total = 0;
+		double[] coords = new double[6];
+		double startX = 0, startY = 0, lastX = 0, lastY = 0;
+		for (PathIterator iter = area.getPathIterator(null, 0.1); !iter.isDone(); iter.next()) {
+			switch (iter.currentSegment(coords)) {
+			case PathIterator.SEG_MOVETO:
+				startX = lastX = coords[0];
+				startY = lastY = coords[1];
+				break;
+			case PathIterator.SEG_LINETO:
+				total += lastX * coords[1] - coords[0] * lastY;
+				lastX = coords[0];
+				lastY = coords[1];
+				break;
+			case PathIterator.SEG_CLOSE:
+				total += lastX * startY - startX * lastY;
+				break;
+			}
+		}
+		// Outlines and holes wind in opposite directions
+		return Math.abs(total / 2);
+	}
+}
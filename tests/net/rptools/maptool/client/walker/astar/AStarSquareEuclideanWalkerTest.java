@@ -0,0 +1,215 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.rptools.maptool.client.walker.WalkerMetric;
+import net.rptools.maptool.model.CellPoint;
+import net.rptools.maptool.model.SquareGrid;
+import net.rptools.maptool.model.Zone;
+
+public class AStarSquareEuclideanWalkerTest extends TestCase {
+
+	public void testStraightPath() throws Exception {
+		Zone zone = createZone();
+		AStarSquareEuclideanWalker walker = new AStarSquareEuclideanWalker(zone, WalkerMetric.ONE_TWO_ONE);
+
+		walker.setWaypoints(new CellPoint(0, 0), new CellPoint(10, 0));
+		List<CellPoint> path = walker.getPath().getCellPath();
+
+		assertEquals(11, path.size());
+		assertEquals(50, walker.getDistance());
+	}
+
+	public void testPathAvoidsTopology() throws Exception {
+		Zone zone = createZone();
+		int size = zone.getGrid().getSize();
+
+		// A thin wall along the grid line between columns 4 and 5, rows -5 through 4
+		zone.addTopology(new Area(new Rectangle(5 * size - 1, -5 * size, 2, 10 * size)));
+
+		AStarSquareEuclideanWalker walker = new AStarSquareEuclideanWalker(zone, WalkerMetric.ONE_TWO_ONE);
+		walker.setWaypoints(new CellPoint(0, 0), new CellPoint(10, 0));
+		List<CellPoint> path = walker.getPath().getCellPath();
+
+		assertEquals(new CellPoint(10, 0), path.get(path.size() - 1));
+		CellPoint previous = null;
+		for (CellPoint cp : path) {
+			if (previous != null && previous.x == 4 && cp.x == 5) {
+				assertTrue("crossed the wall at " + cp, cp.y >= 5);
+			}
+			previous = cp;
+		}
+	}
+
+	public void testWalledOffEndFallsBackToDirectPath() throws Exception {
+		Zone zone = createZone();
+		int size = zone.getGrid().getSize();
+		zone.addTopology(new Area(new Rectangle(5 * size, 0, size, size)));
+
+		AStarSquareEuclideanWalker walker = new AStarSquareEuclideanWalker(zone, WalkerMetric.ONE_TWO_ONE);
+		walker.setWaypoints(new CellPoint(0, 0), new CellPoint(5, 0));
+
+		assertEquals(6, walker.getPath().getCellPath().size());
+	}
+
+	public void testEnclosedEndHasNoPath() throws Exception {
+		Zone zone = createZone();
+		int size = zone.getGrid().getSize();
+		// A closed ring of wall along the edges of cell (5, 0)
+		Area ring = new Area(new Rectangle(5 * size - 1, -1, size + 2, size + 2));
+		ring.subtract(new Area(new Rectangle(5 * size + 1, 1, size - 2, size - 2)));
+		zone.addTopology(ring);
+
+		AStarSquareEuclideanWalker walker = new AStarSquareEuclideanWalker(zone, WalkerMetric.ONE_TWO_ONE);
+		walker.setWaypoints(new CellPoint(0, 0), new CellPoint(0, 0));
+		walker.replaceLastWaypoint(new CellPoint(5, 0));
+		// No path through the walls; it stops at the start and says so
+		assertFalse(walker.isReachable());
+		assertEquals(Arrays.asList(new CellPoint(0, 0)), walker.getPath().getCellPath());
+
+		// Moving off and back on again, the failed search is remembered
+		walker.replaceLastWaypoint(new CellPoint(4, 0));
+		assertTrue(walker.isReachable());
+		assertEquals(5, walker.getPath().getCellPath().size());
+		walker.replaceLastWaypoint(new CellPoint(5, 0));
+		assertFalse(walker.isReachable());
+		assertEquals(1, walker.getPath().getCellPath().size());
+
+		// Nor is there one from a fresh walker, or one that finishes its searches
+		walker = new AStarSquareEuclideanWalker(zone, WalkerMetric.ONE_TWO_ONE);
+		walker.setWaypoints(new CellPoint(0, 0), new CellPoint(5, 0));
+		walker.completePath();
+		assertFalse(walker.isReachable());
+	}
+
+	public void testOutOfBudgetDrawsOnlyWhatWasFound() throws Exception {
+		Zone zone = createZone();
+		int size = zone.getGrid().getSize();
+		// A wall too long to get around within one call's budget
+		zone.addTopology(new Area(new Rectangle(5 * size - 1, -300 * size, 2, 600 * size)));
+		CellPoint end = new CellPoint(10, 0);
+
+		AStarSquareEuclideanWalker walker = new AStarSquareEuclideanWalker(zone, WalkerMetric.ONE_TWO_ONE);
+		walker.setWaypoints(new CellPoint(0, 0), new CellPoint(0, 0));
+		walker.replaceLastWaypoint(end);
+		List<CellPoint> path = walker.getPath().getCellPath();
+		assertTrue(walker.isReachable());
+		assertFalse(end.equals(path.get(path.size() - 1)));
+		assertWalksAroundWall(path);
+		assertTrue(walker.getDistance() >= 0);
+
+		// Mouse moves within the same cell carry the search on until it gets there
+		for (int i = 0; i < 10 && !end.equals(path.get(path.size() - 1)); i++) {
+			walker.replaceLastWaypoint(end);
+			path = walker.getPath().getCellPath();
+			assertWalksAroundWall(path);
+		}
+		assertEquals(end, path.get(path.size() - 1));
+
+		// As does finishing the path off in one go
+		AStarSquareEuclideanWalker fresh = new AStarSquareEuclideanWalker(zone, WalkerMetric.ONE_TWO_ONE);
+		fresh.setWaypoints(new CellPoint(0, 0), end);
+		fresh.completePath();
+		assertEquals(path, fresh.getPath().getCellPath());
+		assertEquals(walker.getDistance(), fresh.getDistance());
+	}
+
+	public void testOutOfBudgetResumes() throws Exception {
+		Zone zone = createZone();
+		int size = zone.getGrid().getSize();
+		// A wall the search has to go around
+		zone.addTopology(new Area(new Rectangle(5 * size - 1, -10 * size, 2, 20 * size)));
+		AStarSquareEuclideanWalker walker = new AStarSquareEuclideanWalker(zone, WalkerMetric.ONE_TWO_ONE);
+		CellPoint start = new CellPoint(0, 0);
+		CellPoint end = new CellPoint(10, 0);
+		AStarSearch search = new AStarSearch(walker, start, PassabilityGrid.getInstance(zone));
+
+		// Out of budget is not unreachable: the way to the nearest cell so far, then carried on
+		List<CellPoint> path = search.findPath(end, 10);
+		assertNotNull(path);
+		assertEquals(start, path.get(0));
+		assertFalse(end.equals(path.get(path.size() - 1)));
+		for (int i = 0; i < 100 && !end.equals(path.get(path.size() - 1)); i++) {
+			path = search.findPath(end, 10);
+			assertNotNull(path);
+		}
+		assertEquals(end, path.get(path.size() - 1));
+		assertEquals(new AStarSearch(walker, start, PassabilityGrid.getInstance(zone)).findPath(end), path);
+	}
+
+	public void testDragMatchesFreshSearch() throws Exception {
+		Zone zone = createZone();
+		int size = zone.getGrid().getSize();
+		zone.addTopology(new Area(new Rectangle(3 * size, -2 * size, size, 8 * size)));
+
+		AStarSquareEuclideanWalker dragged = new AStarSquareEuclideanWalker(zone, WalkerMetric.ONE_TWO_ONE);
+		dragged.setWaypoints(new CellPoint(0, 0), new CellPoint(0, 0));
+		for (int x = 1; x <= 8; x++) {
+			for (int y = -1; y <= 1; y++) {
+				dragged.replaceLastWaypoint(new CellPoint(x, y));
+
+				AStarSquareEuclideanWalker fresh = new AStarSquareEuclideanWalker(zone, WalkerMetric.ONE_TWO_ONE);
+				fresh.setWaypoints(new CellPoint(0, 0), new CellPoint(x, y));
+				assertEquals(fresh.getDistance(), dragged.getDistance());
+				assertEquals(new CellPoint(x, y), dragged.getLastPoint());
+			}
+		}
+	}
+
+	public void testWaypoints() throws Exception {
+		AStarSquareEuclideanWalker walker = new AStarSquareEuclideanWalker(createZone(), WalkerMetric.ONE_TWO_ONE);
+		walker.setWaypoints(new CellPoint(0, 0), new CellPoint(4, 0));
+		walker.addWaypoints(new CellPoint(4, 4));
+
+		assertTrue(walker.isWaypoint(new CellPoint(0, 0)));
+		assertTrue(walker.isWaypoint(new CellPoint(4, 0)));
+		assertFalse(walker.isWaypoint(new CellPoint(2, 0)));
+		assertEquals(9, walker.getPath().getCellPath().size());
+
+		walker.replaceLastWaypoint(new CellPoint(4, 5));
+		assertFalse(walker.isWaypoint(new CellPoint(4, 4)));
+		assertTrue(walker.isWaypoint(new CellPoint(4, 5)));
+
+		assertTrue(walker.removeWaypoint(new CellPoint(4, 0)));
+		assertFalse(walker.isWaypoint(new CellPoint(4, 0)));
+	}
+
+	/**
+	 * Checks that the path goes from cell to neighboring cell, and only crosses the wall at x=5 beyond its ends.
+	 */
+	private void assertWalksAroundWall(List<CellPoint> path) {
+		CellPoint previous = null;
+		for (CellPoint cp : path) {
+			if (previous != null) {
+				assertTrue("jumped from " + previous + " to " + cp, Math.abs(cp.x - previous.x) <= 1 && Math.abs(cp.y - previous.y) <= 1);
+				if (previous.x == 4 && cp.x == 5) {
+					assertTrue("crossed the wall at " + cp, Math.abs(cp.y) >= 300);
+				}
+			}
+			previous = cp;
+		}
+	}
+
+	private Zone createZone() {
+		Zone zone = new Zone();
+		zone.setGrid(new SquareGrid());
+		return zone;
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rptools.maptool.model;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class TestCampaignSnapshot extends TestCase {
+
+	public void testReuse() throws Exception {
+		Campaign campaign = new Campaign();
+		Zone zone = new Zone();
+		zone.setGrid(new SquareGrid());
+		zone.addTopology(new Area(new Rectangle(0, 0, 100, 100)));
+		Token unchanged = createToken(zone, "unchanged");
+		Token changed = createToken(zone, "changed");
+		Token removed = createToken(zone, "removed");
+		campaign.putZone(zone);
+
+		CampaignSnapshot snapshot = new CampaignSnapshot();
+		Zone first = snapshot.copy(campaign).getZones().get(0);
+		assertEquals(3, first.getAllTokens().size());
+		assertEquals(3, snapshot.getTokenCopyCount());
+
+		changed.setX(500);
+		zone.putToken(changed);
+		zone.removeToken(removed.getId());
+		Token added = createToken(zone, "added");
+		// Changes that didn't go through the map are caught by the version
+		unchanged.setVersion(unchanged.getVersion() + 1);
+		unchanged.setY(700);
+
+		Zone second = snapshot.copy(campaign).getZones().get(0);
+		assertEquals(3, second.getAllTokens().size());
+		assertEquals(500, second.getTokenByName("changed").getX());
+		assertEquals(700, second.getTokenByName("unchanged").getY());
+		assertNotNull(second.getTokenByName("added"));
+		assertNull(second.getTokenByName("removed"));
+		assertEquals(3, snapshot.getTokenCopyCount());
+
+		// Nothing changed, nothing copied
+		Zone third = snapshot.copy(campaign).getZones().get(0);
+		assertSame(second.getTokenByName("changed"), third.getTokenByName("changed"));
+		assertSame(second.getTokenByName("added"), third.getTokenByName("added"));
+		assertSame(second.getTopology(), third.getTopology());
+		assertSame(second.getExposedArea(), third.getExposedArea());
+		assertTrue(added != third.getTokenByName("added"));
+
+		// The live models are still separate from the copies
+		zone.addTopology(new Area(new Rectangle(200, 0, 100, 100)));
+		zone.exposeArea(new Area(new Rectangle(0, 0, 50, 50)), (Set<GUID>) null);
+		Zone fourth = snapshot.copy(campaign).getZones().get(0);
+		assertFalse(third.getTopology().contains(250, 50));
+		assertTrue(fourth.getTopology().contains(250, 50));
+		assertFalse(third.getExposedArea().contains(25, 25));
+		assertTrue(fourth.getExposedArea().contains(25, 25));
+	}
+
+	private static Token createToken(Zone zone, String name) {
+		Token token = new Token(name, null);
+		zone.putToken(token);
+		return token;
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rptools.maptool.model;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+
+import com.caucho.hessian.io.HessianInput;
+import com.caucho.hessian.io.HessianOutput;
+
+public class TestFogBitmap extends TestCase {
+
+	public void testExposeAndHide() throws Exception {
+		FogBitmap bitmap = new FogBitmap(10);
+		assertTrue(bitmap.isEmpty());
+
+		// Across tiles, and on both sides of the origin
+		bitmap.expose(new Area(new Rectangle(-100, -100, 1000, 200)));
+		assertTrue(bitmap.contains(-95, -95));
+		assertTrue(bitmap.contains(899, 99));
+		assertFalse(bitmap.contains(900, 50));
+		assertFalse(bitmap.contains(50, 100));
+		assertFalse(bitmap.contains(-101, 0));
+
+		bitmap.hide(new Area(new Rectangle(0, 0, 100, 100)));
+		assertFalse(bitmap.contains(50, 50));
+		assertTrue(bitmap.contains(-5, 50));
+		assertTrue(bitmap.intersects(new Rectangle(40, 40, 70, 20)));
+		assertFalse(bitmap.intersects(new Rectangle(40, 40, 50, 50)));
+
+		// Back to an Area, the cells are whole
+		Area area = bitmap.toArea(null);
+		assertTrue(area.contains(-100, -100));
+		assertFalse(area.contains(50, 50));
+		assertTrue(area.getBounds().equals(new Rectangle(-100, -100, 1000, 200)));
+
+		// A circle is the cells whose centres are inside it
+		bitmap.clear();
+		bitmap.expose(new Ellipse2D.Double(0, 0, 100, 100));
+		assertTrue(bitmap.contains(50, 50));
+		assertFalse(bitmap.contains(1, 1));
+		assertTrue(bitmap.contains(1, 45));
+	}
+
+	public void testOr() throws Exception {
+		FogBitmap first = new FogBitmap(5);
+		first.expose(new Rectangle(0, 0, 50, 50));
+		FogBitmap second = new FogBitmap(5);
+		second.expose(new Rectangle(1000, 1000, 50, 50));
+
+		FogBitmap combined = new FogBitmap(first);
+		combined.or(second);
+		assertTrue(combined.contains(10, 10));
+		assertTrue(combined.contains(1010, 1010));
+		assertFalse(first.contains(1010, 1010));
+
+		// Different resolutions still combine, if more slowly
+		FogBitmap coarse = new FogBitmap(50);
+		coarse.expose(new Rectangle(500, 500, 100, 100));
+		combined.or(coarse);
+		assertTrue(combined.contains(550, 550));
+	}
+
+	public void testViewport() throws Exception {
+		FogBitmap bitmap = new FogBitmap(10);
+		bitmap.expose(new Rectangle(0, 0, 100, 100));
+		bitmap.expose(new Rectangle(5000, 5000, 100, 100));
+
+		Area area = bitmap.toArea(new Rectangle(0, 0, 640, 640));
+		assertTrue(area.contains(50, 50));
+		assertFalse(area.intersects(new Rectangle(5000, 5000, 100, 100)));
+	}
+
+	public void testContainsAndBounds() throws Exception {
+		FogBitmap bitmap = new FogBitmap(10);
+		assertEquals(new Rectangle(), bitmap.getBounds());
+
+		bitmap.expose(new Rectangle(-50, 20, 800, 100));
+		assertEquals(new Rectangle(-50, 20, 800, 100), bitmap.getBounds());
+		assertTrue(bitmap.contains(new Rectangle(-50, 20, 800, 100)));
+		assertTrue(bitmap.contains(new Rectangle(600, 30, 50, 50)));
+		assertFalse(bitmap.contains(new Rectangle(600, 10, 50, 50)));
+		assertFalse(bitmap.contains(new Rectangle(745, 30, 10, 10)));
+
+		bitmap.hide(new Rectangle(100, 50, 10, 10));
+		assertFalse(bitmap.contains(new Rectangle(0, 30, 200, 50)));
+		assertTrue(bitmap.intersects(new Rectangle(0, 30, 200, 50)));
+	}
+
+	public void testTransfer() throws Exception {
+		Area area = new Area(new Ellipse2D.Double(0, 0, 200, 200));
+		assertSame(area, FogBitmap.forTransfer(area, 0));
+		assertSame(area, FogBitmap.fromTransfer(area));
+
+		FogBitmap expected = new FogBitmap(10);
+		expected.expose(area);
+
+		// Exposing what comes back changes the same cells as the original would have
+		Area sent = FogBitmap.fromTransfer(FogBitmap.forTransfer(area, 10));
+		FogBitmap received = new FogBitmap(10);
+		received.expose(sent);
+		assertTrue(expected.toArea(null).equals(received.toArea(null)));
+	}
+
+	public void testSerialization() throws Exception {
+		FogBitmap bitmap = new FogBitmap(10);
+		// A hundred tiles, nearly all of them whole, at a few bytes each
+		bitmap.expose(new Rectangle(0, 0, 6400, 6400));
+		bitmap.hide(new Ellipse2D.Double(100, 100, 300, 300));
+
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		HessianOutput out = new HessianOutput(bout);
+		out.findSerializerFactory().setAllowNonSerializable(true);
+		out.writeObject(bitmap);
+		out.flush();
+		assertTrue(String.valueOf(bout.size()), bout.size() < 4000);
+
+		FogBitmap copy = (FogBitmap) new HessianInput(new ByteArrayInputStream(bout.toByteArray())).readObject();
+		assertTrue(copy.contains(6000, 6000));
+		assertFalse(copy.contains(250, 250));
+		assertTrue(copy.contains(105, 105));
+
+		// Whole tiles that come back over the wire are still whole
+		copy.hide(new Rectangle(3000, 3000, 10, 10));
+		assertFalse(copy.contains(3005, 3005));
+		assertTrue(copy.contains(3015, 3005));
+	}
+
+	public void testExposedAreaMetaData() throws Exception {
+		ExposedAreaMetaData meta = new ExposedAreaMetaData();
+		meta.addToExposedAreaHistory(new Area(new Rectangle(0, 0, 100, 100)));
+
+		meta.setFogCellSize(10);
+		assertNotNull(meta.getExposedBitmap());
+		meta.addToExposedAreaHistory(new Area(new Rectangle(100, 0, 100, 100)));
+		assertEquals(new Rectangle(0, 0, 200, 100), meta.getExposedAreaHistory().getBounds());
+
+		meta.setFogCellSize(0);
+		assertNull(meta.getExposedBitmap());
+		assertEquals(new Rectangle(0, 0, 200, 100), meta.getExposedAreaHistory().getBounds());
+	}
+}
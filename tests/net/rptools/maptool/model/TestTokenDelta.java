@@ -0,0 +1,133 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rptools.maptool.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+
+import com.caucho.hessian.io.HessianInput;
+import com.caucho.hessian.io.HessianOutput;
+
+public class TestTokenDelta extends TestCase {
+
+	private final GUID zoneId = new GUID();
+
+	/**
+	 * Send the object over a pretend connection
+	 */
+	private static Object send(Object object) throws Exception {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		HessianOutput out = new HessianOutput(bout);
+		out.findSerializerFactory().setAllowNonSerializable(true);
+		out.writeObject(object);
+		out.flush();
+		return new HessianInput(new ByteArrayInputStream(bout.toByteArray())).readObject();
+	}
+
+	private Token createToken() {
+		Token token = new Token("Orc", null);
+		for (int i = 0; i < 200; i++) {
+			token.setProperty("Prop" + i, i);
+		}
+		token.setState("Dead", Boolean.FALSE);
+		token.setNotes("Smells");
+		return token;
+	}
+
+	public void testDelta() throws Exception {
+		Token token = createToken();
+		assertNull(TokenDelta.create(zoneId, token));
+
+		Token remote = (Token) send(token);
+		TokenDelta.snapshot(zoneId, token);
+		TokenDelta.snapshot(zoneId, remote);
+
+		// Nothing changed, nothing to send
+		assertTrue(TokenDelta.create(zoneId, token).isEmpty());
+		assertEquals(0, token.getVersion());
+
+		token.setProperty("Prop7", 3);
+		token.setProperty("HP", 12);
+		token.resetProperty("Prop9");
+		token.setState("Dead", null);
+		token.setX(250);
+		token.setLayer(Zone.Layer.GM);
+		token.setNotes(null);
+		TokenDelta delta = TokenDelta.create(zoneId, token);
+		assertEquals(1, token.getVersion());
+		assertEquals(0, delta.getBaseVersion());
+
+		// A few fields and entries are a lot smaller than the whole token
+		int deltaSize = sendSize(delta);
+		assertTrue(deltaSize + " vs " + sendSize(token), deltaSize * 5 < sendSize(token));
+
+		delta = (TokenDelta) send(delta);
+		assertTrue(delta.applyTo(remote));
+		assertEquals(1, remote.getVersion());
+		assertEquals(3, remote.getProperty("Prop7"));
+		assertEquals(12, remote.getProperty("HP"));
+		assertNull(remote.getProperty("Prop9"));
+		assertEquals(8, remote.getProperty("Prop8"));
+		assertNull(remote.getState("Dead"));
+		assertEquals(250, remote.getX());
+		assertEquals(Zone.Layer.GM, remote.getLayer());
+		assertNull(remote.getNotes());
+
+		// The remote snapshot follows, so its next change is a delta of just that
+		remote.setProperty("HP", 11);
+		delta = TokenDelta.create(zoneId, remote);
+		assertEquals(1, delta.getBaseVersion());
+		assertTrue(delta.applyTo(token));
+		assertEquals(11, token.getProperty("HP"));
+		assertEquals(2, token.getVersion());
+	}
+
+	public void testOutOfStep() throws Exception {
+		Token token = createToken();
+		Token server = (Token) send(token);
+		Token other = (Token) send(token);
+		TokenDelta.snapshot(zoneId, token);
+		TokenDelta.snapshot(zoneId, other);
+
+		// Both change it from the same version
+		token.setProperty("HP", 10);
+		TokenDelta first = TokenDelta.create(zoneId, token);
+		other.setProperty("AC", 15);
+		TokenDelta second = TokenDelta.create(zoneId, other);
+
+		assertTrue(first.applyTo(server));
+		assertFalse(second.applyTo(server));
+		assertEquals(10, server.getProperty("HP"));
+		assertEquals(15, server.getProperty("AC"));
+		assertEquals(2, server.getVersion());
+
+		// Moved to another map, or taken off it, it has to go whole
+		assertNull(TokenDelta.create(new GUID(), token));
+		Zone zone = new Zone();
+		zone.putToken(other);
+		zone.removeToken(other.getId());
+		assertNull(TokenDelta.create(zoneId, other));
+	}
+
+	private static int sendSize(Object object) throws Exception {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		HessianOutput out = new HessianOutput(bout);
+		out.findSerializerFactory().setAllowNonSerializable(true);
+		out.writeObject(object);
+		out.flush();
+		return bout.size();
+	}
+}
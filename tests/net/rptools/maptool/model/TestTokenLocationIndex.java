@@ -0,0 +1,61 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rptools.maptool.model;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestTokenLocationIndex extends TestCase {
+
+	public void testByLocation() throws Exception {
+		Zone zone = new Zone();
+		Token near = createToken("near", 100, 100, 2);
+		Token top = createToken("top", 120, 80, 1);
+		Token negative = createToken("negative", -300, -10, 0);
+		Token far = createToken("far", 5000, 100, 0);
+		zone.putToken(near);
+		zone.putToken(top);
+		zone.putToken(negative);
+		zone.putToken(far);
+
+		// Sorted by z-order
+		assertEquals(Arrays.asList(top, near), zone.getTokensByLocation(new Rectangle(0, 0, 200, 200)));
+		assertEquals(Arrays.asList(negative), zone.getTokensByLocation(new Rectangle(-400, -100, 200, 200)));
+		assertTrue(zone.getTokensByLocation(new Rectangle(0, 0, 100, 100)).isEmpty());
+
+		// Covers far more buckets than there are tokens
+		List<Token> all = zone.getTokensByLocation(new Rectangle(-1000000, -1000000, 2000000, 2000000));
+		assertEquals(4, all.size());
+
+		// Moved, as received from the server
+		Token moved = createToken("far", 150, 150, 0);
+		moved.setId(far.getId());
+		zone.putToken(moved);
+		assertEquals(Arrays.asList(moved, top, near), zone.getTokensByLocation(new Rectangle(0, 0, 200, 200)));
+
+		zone.removeToken(near.getId());
+		assertEquals(Arrays.asList(moved, top), zone.getTokensByLocation(new Rectangle(0, 0, 200, 200)));
+	}
+
+	private static Token createToken(String name, int x, int y, int z) {
+		Token token = new Token(name, null);
+		token.setX(x);
+		token.setY(y);
+		token.setZOrder(z);
+		return token;
+	}
+}
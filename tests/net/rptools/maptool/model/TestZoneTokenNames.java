@@ -0,0 +1,96 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rptools.maptool.model;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class TestZoneTokenNames extends TestCase {
+
+	public void testByName() throws Exception {
+		Zone zone = new Zone();
+		Token orc = new Token("Orc", null);
+		orc.setZOrder(5);
+		zone.putToken(orc);
+
+		assertSame(orc, zone.getTokenByName("orc"));
+		assertSame(orc, zone.getTokenByName("ORC"));
+		assertNull(zone.getTokenByName("Or"));
+		assertNull(zone.getTokenByName(""));
+		assertNull(zone.getTokenByName(null));
+
+		// Duplicate names resolve to the lowest in z-order
+		Token other = new Token("orc", null);
+		other.setZOrder(1);
+		zone.putToken(other);
+		assertSame(other, zone.getTokenByName("Orc"));
+		other.setZOrder(9);
+		zone.putToken(other);
+		assertSame(orc, zone.getTokenByName("Orc"));
+
+		// Renamed, as received from the server
+		Token renamed = new Token("Goblin", null);
+		renamed.setId(orc.getId());
+		zone.putToken(renamed);
+		assertSame(renamed, zone.getTokenByName("goblin"));
+		assertSame(other, zone.getTokenByName("orc"));
+
+		zone.removeToken(other.getId());
+		assertNull(zone.getTokenByName("orc"));
+	}
+
+	public void testRenamedInPlace() throws Exception {
+		Zone zone = new Zone();
+		Token orc = new Token("Orc", null);
+		orc.setGMName("Boss");
+		zone.putToken(orc);
+		assertSame(orc, zone.getTokenByGMName("boss"));
+
+		// As a macro does, before the token is put back
+		orc.setGMName("Chief");
+		zone.tokenRenamed(orc);
+		assertSame(orc, zone.getTokenByGMName("chief"));
+		assertNull(zone.getTokenByGMName("boss"));
+		assertSame(orc, zone.getTokenByName("orc"));
+
+		// Only the zone's own tokens
+		Token stranger = new Token("Stranger", null);
+		stranger.setGMName("Stranger");
+		zone.tokenRenamed(stranger);
+		assertNull(zone.getTokenByGMName("stranger"));
+	}
+
+	public void testByGMName() throws Exception {
+		Zone zone = new Zone();
+		Token orc = new Token("Orc", null);
+		orc.setGMName("Boss");
+		Token goblin = new Token("Goblin", null);
+		zone.putTokens(Arrays.asList(orc, goblin));
+
+		assertSame(orc, zone.getTokenByGMName("boss"));
+		assertSame(orc, zone.resolveToken("BOSS"));
+		assertSame(goblin, zone.resolveToken(goblin.getId().toString()));
+
+		// Changed in place and put back
+		orc.setGMName("Chief");
+		assertNull(zone.getTokenByGMName("boss"));
+		zone.putToken(orc);
+		assertSame(orc, zone.getTokenByGMName("chief"));
+
+		zone.setGrid(new SquareGrid());
+		Zone copy = new Zone(zone);
+		assertEquals("Orc", copy.getTokenByGMName("Chief").getName());
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rptools.maptool.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.thoughtworks.xstream.XStream;
+
+public class TestZoneTokenOrder extends TestCase {
+
+	public void testRandomUpdates() throws Exception {
+		Random random = new Random(3);
+		Zone zone = new Zone();
+		List<Token> tokens = new ArrayList<Token>();
+
+		for (int i = 0; i < 2000; i++) {
+			int action = random.nextInt(10);
+			if (action < 4 || tokens.isEmpty()) {
+				Token token = new Token("Token " + i, null);
+				token.setZOrder(random.nextInt(50));
+				tokens.add(token);
+				zone.putToken(token);
+			} else if (action < 7) {
+				// Changed in place, then put back
+				Token token = tokens.get(random.nextInt(tokens.size()));
+				token.setZOrder(random.nextInt(50));
+				zone.putToken(token);
+			} else if (action < 8) {
+				Token token = tokens.remove(random.nextInt(tokens.size()));
+				zone.removeToken(token.getId());
+			} else {
+				List<Token> batch = new ArrayList<Token>();
+				for (int j = 0; j < 5; j++) {
+					Token token = new Token("Batch " + i + "/" + j, null);
+					token.setZOrder(random.nextInt(50));
+					batch.add(token);
+					tokens.add(token);
+				}
+				Token changed = tokens.get(random.nextInt(tokens.size()));
+				changed.setZOrder(random.nextInt(50));
+				if (!batch.contains(changed)) {
+					batch.add(changed);
+				}
+				zone.putTokens(batch);
+			}
+			if (i % 100 == 0) {
+				assertOrder(tokens, zone);
+			}
+		}
+		assertOrder(tokens, zone);
+		assertEquals(zone.getLargestZOrder(), zone.getAllTokens().get(tokens.size() - 1).getZOrder());
+		assertEquals(zone.getSmallestZOrder(), zone.getAllTokens().get(0).getZOrder());
+	}
+
+	public void testReadIn() throws Exception {
+		Zone zone = new Zone();
+		Token a = new Token("a", null);
+		a.setZOrder(2);
+		Token b = new Token("b", null);
+		b.setZOrder(1);
+		zone.putToken(a);
+		zone.putToken(b);
+
+		// Campaigns saved before the list was an ArrayList
+		String xml = new XStream().toXML(zone).replace("<tokenOrderedList>", "<tokenOrderedList class=\"linked-list\">");
+		Zone read = (Zone) new XStream().fromXML(xml);
+		Token c = new Token("c", null);
+		c.setZOrder(0);
+		read.putToken(c);
+		read.removeToken(a.getId());
+		assertEquals("c", read.getAllTokens().get(0).getName());
+		assertEquals("b", read.getAllTokens().get(1).getName());
+		assertEquals(2, read.getTokenCount());
+	}
+
+	public void testReadInOutOfOrder() throws Exception {
+		Zone zone = new Zone();
+		Token a = new Token("a", null);
+		a.setZOrder(2);
+		Token b = new Token("b", null);
+		b.setZOrder(1);
+		zone.putToken(a);
+		zone.putToken(b);
+
+		// Written out sorted, but a has the smallest z-order by the time it's read back
+		String xml = new XStream().toXML(zone).replace("<z>2</z>", "<z>0</z>");
+		Zone read = (Zone) new XStream().fromXML(xml);
+		assertEquals(0, read.getSmallestZOrder());
+		assertEquals(1, read.getLargestZOrder());
+		assertEquals("a", read.getAllTokens().get(0).getName());
+	}
+
+	private static void assertOrder(List<Token> tokens, Zone zone) {
+		List<Token> expected = new ArrayList<Token>(tokens);
+		Collections.sort(expected, Zone.TOKEN_Z_ORDER_COMPARATOR);
+		assertEquals(expected, zone.getAllTokens());
+		assertEquals(tokens.size(), zone.getTokenCount());
+	}
+}
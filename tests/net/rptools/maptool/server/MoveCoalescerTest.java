@@ -0,0 +1,83 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rptools.maptool.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.rptools.maptool.model.GUID;
+
+public class MoveCoalescerTest extends TestCase {
+
+	private static class RecordingBroadcaster implements MoveCoalescer.Broadcaster {
+		private final List<Object[]> sentList = new ArrayList<Object[]>();
+
+		public synchronized void broadcast(String[] exclude, String method, Object[] parameters) {
+			sentList.add(parameters);
+		}
+
+		public synchronized int getSentCount() {
+			return sentList.size();
+		}
+	}
+
+	public void testCoalesce() throws Exception {
+		RecordingBroadcaster broadcaster = new RecordingBroadcaster();
+		MoveCoalescer coalescer = new MoveCoalescer(broadcaster);
+
+		GUID zoneGUID = new GUID();
+		GUID token1 = new GUID();
+		GUID token2 = new GUID();
+		for (int i = 0; i < 10; i++) {
+			coalescer.updateTokenMove("client1", "updateTokenMove", zoneGUID, token1, new Object[] { zoneGUID, token1, i, i });
+			coalescer.updateTokenMove("client2", "updateTokenMove", zoneGUID, token2, new Object[] { zoneGUID, token2, i, i });
+			coalescer.movePointer("Bob", "movePointer", new Object[] { "Bob", i, i });
+		}
+		assertEquals(0, broadcaster.sentList.size());
+		assertEquals(3, coalescer.getPendingCount());
+		assertEquals(30, coalescer.getReceivedMessages());
+		assertEquals(27, coalescer.getCollapsedMessages());
+
+		// Stopping one drag sends only its latest position
+		coalescer.flushTokenMove("client2", zoneGUID, token2);
+		assertEquals(1, broadcaster.sentList.size());
+		assertEquals(token2, broadcaster.sentList.get(0)[1]);
+		assertEquals(9, broadcaster.sentList.get(0)[2]);
+		coalescer.flushTokenMove("client2", zoneGUID, token2);
+		assertEquals(1, broadcaster.sentList.size());
+
+		coalescer.flush();
+		assertEquals(3, broadcaster.sentList.size());
+		assertEquals(0, coalescer.getPendingCount());
+	}
+
+	public void testTick() throws Exception {
+		RecordingBroadcaster broadcaster = new RecordingBroadcaster();
+		MoveCoalescer coalescer = new MoveCoalescer(broadcaster);
+		coalescer.start();
+		try {
+			coalescer.movePointer("Bob", "movePointer", new Object[] { "Bob", 1, 1 });
+			coalescer.movePointer("Bob", "movePointer", new Object[] { "Bob", 2, 2 });
+
+			long timeout = System.currentTimeMillis() + 5000;
+			while (broadcaster.getSentCount() == 0 && System.currentTimeMillis() < timeout) {
+				Thread.sleep(MoveCoalescer.TICK_MILLIS);
+			}
+			assertEquals(1, broadcaster.getSentCount());
+		} finally {
+			coalescer.stop();
+		}
+	}
+}
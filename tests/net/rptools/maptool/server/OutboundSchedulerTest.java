@@ -0,0 +1,90 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rptools.maptool.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.rptools.clientserver.ActivityListener.Direction;
+import net.rptools.clientserver.ActivityListener.State;
+import net.rptools.maptool.server.OutboundScheduler.Priority;
+
+public class OutboundSchedulerTest extends TestCase {
+
+	private static class RecordingSender implements OutboundScheduler.Sender {
+		private final List<byte[]> sentList = new ArrayList<byte[]>();
+
+		public void send(Object channel, byte[] message) {
+			sentList.add(message);
+		}
+	}
+
+	public void testPriorities() throws Exception {
+		RecordingSender sender = new RecordingSender();
+		OutboundScheduler scheduler = new OutboundScheduler(sender, 0);
+
+		// The first chunk goes straight out, and fills the connection
+		byte[] chunk1 = new byte[16 * 1024];
+		byte[] chunk2 = new byte[16 * 1024];
+		scheduler.add(Priority.ASSET, "IMAGE", chunk1);
+		scheduler.add(Priority.ASSET, "IMAGE", chunk2);
+		byte[] chat = new byte[10];
+		byte[] token = new byte[10];
+		byte[] move1 = new byte[10];
+		byte[] move2 = new byte[10];
+		scheduler.add(Priority.CHAT, null, chat);
+		scheduler.add(Priority.MODEL, null, token);
+		scheduler.add(Priority.INTERACTIVE, null, move1);
+		scheduler.add(Priority.INTERACTIVE, null, move2);
+
+		assertEquals(1, sender.sentList.size());
+		assertSame(chunk1, sender.sentList.get(0));
+		assertEquals(2, scheduler.getQueueDepth(Priority.INTERACTIVE));
+		assertEquals(1, scheduler.getStatistics(Priority.ASSET).getDepth());
+		assertEquals(2 * chunk1.length, scheduler.getStatistics(Priority.ASSET).getSentBytes() + scheduler.getStatistics(Priority.ASSET).getQueuedBytes());
+
+		// Once it has been sent, the small ones all go, most important first, and the next chunk after them
+		scheduler.notify(Direction.Outbound, State.Complete, chunk1.length, chunk1.length);
+		assertEquals(6, sender.sentList.size());
+		assertSame(move1, sender.sentList.get(1));
+		assertSame(move2, sender.sentList.get(2));
+		assertSame(token, sender.sentList.get(3));
+		assertSame(chat, sender.sentList.get(4));
+		assertSame(chunk2, sender.sentList.get(5));
+		assertEquals(0, scheduler.getQueueDepth(Priority.ASSET));
+		assertEquals(2, scheduler.getStatistics(Priority.INTERACTIVE).getMaxDepth());
+	}
+
+	public void testBandwidthLimit() throws Exception {
+		RecordingSender sender = new RecordingSender();
+		OutboundScheduler scheduler = new OutboundScheduler(sender, 4000);
+
+		// A message bigger than the burst goes out, then the next one has to wait
+		scheduler.add(Priority.ASSET, null, new byte[4000]);
+		scheduler.notify(Direction.Outbound, State.Complete, 4000, 4000);
+		scheduler.add(Priority.MODEL, null, new byte[10]);
+		assertEquals(1, sender.sentList.size());
+		assertTrue(scheduler.dispatch() > 500);
+
+		// Except for interactive messages
+		scheduler.add(Priority.INTERACTIVE, null, new byte[10]);
+		assertEquals(2, sender.sentList.size());
+		assertEquals(1, scheduler.getQueueDepth(Priority.MODEL));
+
+		scheduler.setBytesPerSecond(0);
+		assertEquals(0, scheduler.dispatch());
+		assertEquals(3, sender.sentList.size());
+	}
+}
@@ -14,11 +14,12 @@
 package net.rptools.maptool.transfer;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 
 import junit.framework.TestCase;
+import net.rptools.lib.MD5Key;
 
 public class AssetTransferManagerTest extends TestCase {
 
@@ -40,7 +41,7 @@ public class AssetTransferManagerTest extends TestCase {
 		assertFalse(producer.isComplete());
 		
 		// CONSUMER
-		AssetConsumer consumer = new AssetConsumer(new File("."), header);
+		AssetConsumer consumer = new AssetConsumer(header);
 
 		assertFalse(consumer.isComplete());
 		
@@ -53,22 +54,11 @@ public class AssetTransferManagerTest extends TestCase {
 		
 		// CHECK
 		assertTrue(consumer.isComplete());
-		assertTrue(consumer.getFilename().exists());
-		assertEquals(header.getSize(), consumer.getFilename().length());
-
-		int count = 0;
-		int val;
-		FileInputStream in = new FileInputStream(consumer.getFilename());
-		while ((val = in.read()) != -1) {
-			assertEquals(data[count], (byte)val);
-			count ++;
-		}
-		in.close();
-		assertEquals(data.length, count);
+		assertTrue(Arrays.equals(data, consumer.getData()));
+		assertEquals(new MD5Key(data).toString(), consumer.getChecksum());
 		
 		// CLEANUP
 		tmpFile.delete();
-		consumer.getFilename().delete();
 		
 	}
 	
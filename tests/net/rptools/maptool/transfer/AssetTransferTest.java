@@ -13,12 +13,15 @@
  */
 package net.rptools.maptool.transfer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
 
 import junit.framework.TestCase;
+import net.rptools.lib.MD5Key;
 
 public class AssetTransferTest extends TestCase {
 
@@ -40,7 +43,7 @@ public class AssetTransferTest extends TestCase {
 		assertFalse(producer.isComplete());
 		
 		// CONSUMER
-		AssetConsumer consumer = new AssetConsumer(new File("."), header);
+		AssetConsumer consumer = new AssetConsumer(header);
 
 		assertFalse(consumer.isComplete());
 		
@@ -53,25 +56,101 @@ public class AssetTransferTest extends TestCase {
 		
 		// CHECK
 		assertTrue(consumer.isComplete());
-		assertTrue(consumer.getFilename().exists());
-		assertEquals(header.getSize(), consumer.getFilename().length());
-
-		int count = 0;
-		int val;
-		FileInputStream in = new FileInputStream(consumer.getFilename());
-		while ((val = in.read()) != -1) {
-			assertEquals(data[count], (byte)val);
-			count ++;
-		}
-		in.close();
-		assertEquals(data.length, count);
+		assertTrue(Arrays.equals(data, consumer.getData()));
+		assertEquals(new MD5Key(data).toString(), consumer.getChecksum());
 		
 		// CLEANUP
 		tmpFile.delete();
-		consumer.getFilename().delete();
 		
 	}
 	
+	public void testSharedProducers() throws Exception {
+		
+		byte[] data = new byte[1000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte)(i * 7);
+		}
+		File tmpFile = createTempFile(data);
+		
+		AssetProducer first = new AssetProducer("Shared", "shared", tmpFile);
+		AssetProducer second = new AssetProducer("Shared", "shared", tmpFile);
+		assertEquals(0, AssetFile.getOpenFileCount());
+		
+		// Same read handed to both
+		byte[] firstData = first.nextChunk(300).getData();
+		assertSame(firstData, second.nextChunk(300).getData());
+		assertEquals(1, AssetFile.getOpenFileCount());
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(firstData);
+		while (!first.isComplete()) {
+			out.write(first.nextChunk(300).getData());
+		}
+		assertTrue(Arrays.equals(data, out.toByteArray()));
+		
+		// Still open for the second one until it gives up
+		assertEquals(1, AssetFile.getOpenFileCount());
+		second.close();
+		assertEquals(0, AssetFile.getOpenFileCount());
+		
+		tmpFile.delete();
+	}
+	
+	public void testResume() throws Exception {
+		
+		byte[] data = new byte[1000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte)(i * 13);
+		}
+		File tmpFile = createTempFile(data);
+		
+		AssetTransferManager manager = new AssetTransferManager();
+		AssetProducer producer = new AssetProducer("Resumed", "resumed", tmpFile);
+		manager.addConsumer(new AssetConsumer(producer.getHeader()));
+		AssetConsumer consumer = manager.getAssetConsumer("Resumed");
+		
+		// Connection drops after a few chunks
+		for (int i = 0; i < 3; i++) {
+			manager.update(producer.nextChunk(100));
+		}
+		producer.close();
+		assertEquals(300, consumer.getResumePosition());
+		
+		// Asked for again, the header comes back and the rest is sent out of order and twice over
+		manager.addConsumer(new AssetConsumer(producer.getHeader()));
+		assertSame(consumer, manager.getAssetConsumer("Resumed"));
+		
+		AssetProducer resumed = new AssetProducer("Resumed", "resumed", tmpFile);
+		resumed.setPosition(650);
+		while (!resumed.isComplete()) {
+			manager.update(resumed.nextChunk(100));
+		}
+		assertEquals(300, consumer.getResumePosition());
+		assertFalse(consumer.isComplete());
+		assertEquals(0.65, consumer.getPercentComplete(), 0.001);
+		
+		final byte[][] completed = new byte[1][];
+		manager.addConsumerListener(new ConsumerListener() {
+			public void assetAdded(Serializable id) {
+			}
+			public void assetComplete(Serializable id, String name, byte[] data, String checksum) {
+				completed[0] = data;
+				assertEquals(new MD5Key(data).toString(), checksum);
+			}
+			public void assetUpdated(Serializable id) {
+			}
+		});
+		resumed = new AssetProducer("Resumed", "resumed", tmpFile);
+		resumed.setPosition(250);
+		while (!resumed.isComplete()) {
+			manager.update(resumed.nextChunk(100));
+		}
+		assertTrue(Arrays.equals(data, completed[0]));
+		assertNull(manager.getAssetConsumer("Resumed"));
+		
+		tmpFile.delete();
+	}
+	
 	private File createTempFile(byte[] data) throws IOException {
 		
 		File file = new File("tmp.dat");
@@ -0,0 +1,30 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.rptools.maptool.util;
+
+import junit.framework.TestCase;
+
+public class LRUMapTest extends TestCase {
+
+	public void testEvictsLeastRecentlyUsed() throws Exception {
+		LRUMap<String, Integer> map = new LRUMap<String, Integer>(2);
+		map.put("a", 1);
+		map.put("b", 2);
+		// Reading "a" makes "b" the least recently used
+		assertEquals(Integer.valueOf(1), map.get("a"));
+		map.put("c", 3);
+
+		assertEquals(2, map.size());
+		assertTrue(map.containsKey("a"));
+		assertFalse(map.containsKey("b"));
+		assertTrue(map.containsKey("c"));
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rptools.maptool.util;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import net.rptools.lib.io.PackedFile;
+
+import org.apache.commons.io.IOUtils;
+
+import com.thoughtworks.xstream.XStream;
+
+public class PackedFileWriterTest extends TestCase {
+
+	private File file1;
+	private File file2;
+
+	@Override
+	protected void setUp() throws Exception {
+		file1 = File.createTempFile("packed", ".zip");
+		file2 = File.createTempFile("packed", ".zip");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file1.delete();
+		file2.delete();
+	}
+
+	public void testReadableByPackedFile() throws Exception {
+		Map<String, Object> content = new HashMap<String, Object>();
+		content.put("name", "Test");
+		content.put("list", Arrays.asList(1, 2, 3));
+
+		byte[] text = new byte[10000]; // Compresses well
+		byte[] noise = new byte[10000]; // Doesn't
+		new Random(1).nextBytes(noise);
+
+		PackedFileWriter writer = new PackedFileWriter(file1, null);
+		writer.putObject("content.xml", new XStream(), content);
+		writer.putEntry(PackedFileWriter.compress("assets/text", text));
+		writer.putEntry(PackedFileWriter.compress("assets/noise", noise));
+		writer.finish();
+		writer.close();
+
+		PackedFile pakFile = new PackedFile(file1);
+		try {
+			assertEquals(content, pakFile.getContent());
+			assertTrue(Arrays.equals(text, getBytes(pakFile, "assets/text")));
+			assertTrue(Arrays.equals(noise, getBytes(pakFile, "assets/noise")));
+		} finally {
+			pakFile.close();
+		}
+	}
+
+	public void testCopyEntry() throws Exception {
+		byte[] data = new byte[5000];
+		new Random(2).nextBytes(data);
+
+		PackedFileWriter writer = new PackedFileWriter(file1, null);
+		writer.putEntry(PackedFileWriter.compress("assets/a", data));
+		writer.putObject("assets/b", new XStream(), "b");
+		writer.finish();
+		writer.close();
+
+		writer = new PackedFileWriter(file2, file1);
+		assertFalse(writer.copyEntry("assets/a", data.length + 1));
+		assertFalse(writer.copyEntry("assets/c", 0));
+		assertTrue(writer.copyEntry("assets/a", data.length));
+		assertTrue(writer.copyEntry("assets/b", new XStream().toXML("b").length() + System.getProperty("line.separator").length()));
+		writer.finish();
+		writer.close();
+
+		PackedFile pakFile = new PackedFile(file2);
+		try {
+			assertTrue(Arrays.equals(data, getBytes(pakFile, "assets/a")));
+			assertEquals("b", pakFile.getFileObject("assets/b"));
+		} finally {
+			pakFile.close();
+		}
+	}
+
+	private static byte[] getBytes(PackedFile pakFile, String path) throws Exception {
+		InputStream in = pakFile.getFileAsInputStream(path);
+		try {
+			return IOUtils.toByteArray(in);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+}